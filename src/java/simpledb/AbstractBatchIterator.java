@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Base class of operators that produce their tuples in batches. Subclasses
+ * implement {@link #fetchBatch}; the tuple-at-a-time methods of DbIterator
+ * are provided on top of it, building a Tuple for each selected row, so
+ * such an operator can feed any other operator.
+ */
+public abstract class AbstractBatchIterator implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The batch next() is reading, and the position in its selection. */
+    private transient TupleBatch current;
+    private transient int pos;
+
+    /**
+     * Produce the next batch.
+     * @return a batch with at least one selected row, or null if there are
+     *         no more tuples.
+     */
+    protected abstract TupleBatch fetchBatch()
+        throws DbException, TransactionAbortedException;
+
+    /**
+     * Forget the batch being read by next(). Subclasses must call this
+     * when they are opened, rewound or closed.
+     */
+    protected void resetBatches() {
+        current = null;
+        pos = 0;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (current == null || pos >= current.numSelected()) {
+            current = fetchBatch();
+            pos = 0;
+            if (current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more tuples.");
+        }
+        return current.getTuple(current.getSelection()[pos++]);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = current;
+        int consumed = pos;
+        resetBatches();
+        if (b != null && consumed < b.numSelected()) {
+            // hand out the rest of the batch next() was reading.
+            b.skipSelected(consumed);
+            return b;
+        }
+        return fetchBatch();
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The ARC replacement policy (Megiddo and Modha). Resident pages are split
+ * between T1, pages seen once recently, and T2, pages seen at least twice.
+ * The ids of pages thrown out of them are kept in the ghost lists B1 and
+ * B2. A miss that hits a ghost list moves the target size p of T1: a hit
+ * in B1 means T1 was too small, a hit in B2 that T2 was. Scanned pages stay
+ * in T1, so a scan only competes with the part of the pool T1 has earned.
+ * <p>
+ * The pool picks a victim before it knows which page comes in, so the
+ * REPLACE step only looks at |T1| and p; the original algorithm also
+ * prefers T1 when the incoming page is in B2 and |T1| equals p. All
+ * operations are O(1), apart from skipping frames that cannot be evicted
+ * right now.
+ */
+public class ArcPolicy implements ReplacementPolicy {
+
+    private int capacity;
+    /** The target size of T1. */
+    private double p;
+    private PageId[] pids;
+    /** Least recently used first. */
+    private LinkedHashSet<Integer> t1;
+    private LinkedHashSet<Integer> t2;
+    private LinkedHashSet<PageId> b1;
+    private LinkedHashSet<PageId> b2;
+
+    public void init(int numFrames) {
+        capacity = numFrames;
+        p = 0;
+        pids = new PageId[numFrames];
+        t1 = new LinkedHashSet<Integer>();
+        t2 = new LinkedHashSet<Integer>();
+        b1 = new LinkedHashSet<PageId>();
+        b2 = new LinkedHashSet<PageId>();
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        pids[frame] = pid;
+        if (b1.remove(pid)) {
+            p = Math.min(capacity, p + Math.max(1.0, (double) b2.size() / Math.max(1, b1.size())));
+            t2.add(frame);
+        } else if (b2.remove(pid)) {
+            p = Math.max(0, p - Math.max(1.0, (double) b1.size() / Math.max(1, b2.size())));
+            t2.add(frame);
+        } else {
+            t1.add(frame);
+        }
+        // keep |T1| + |B1| <= c and the whole directory <= 2c.
+        while (!b1.isEmpty() && t1.size() + b1.size() > capacity) {
+            removeFirst(b1);
+        }
+        while (!b2.isEmpty() && t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity) {
+            removeFirst(b2);
+        }
+    }
+
+    public synchronized void pageHit(int frame) {
+        if (t1.remove(frame) || t2.remove(frame)) {
+            t2.add(frame);
+        }
+    }
+
+    public synchronized int chooseVictim(FrameFilter filter) {
+        int victim = -1;
+        if (!t1.isEmpty() && t1.size() > p) {
+            victim = first(t1, filter);
+        }
+        if (victim < 0) {
+            victim = first(t2, filter);
+        }
+        if (victim < 0) {
+            victim = first(t1, filter);
+        }
+        return victim;
+    }
+
+    public synchronized void pageEvicted(int frame) {
+        if (t1.remove(frame)) {
+            b1.add(pids[frame]);
+        } else if (t2.remove(frame)) {
+            b2.add(pids[frame]);
+        }
+        pids[frame] = null;
+    }
+
+    private static int first(LinkedHashSet<Integer> list, FrameFilter filter) {
+        Iterator<Integer> it = list.iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (filter.isEvictable(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    private static void removeFirst(LinkedHashSet<PageId> list) {
+        Iterator<PageId> it = list.iterator();
+        it.next();
+        it.remove();
+    }
+
+    public String toString() {
+        return "ARC";
+    }
+}
@@ -0,0 +1,609 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+ tree,
+ * sorted by one key field. It serves point lookups and range scans on the
+ * key with {@link #indexIterator}, and a full scan in key order with
+ * {@link #iterator}.
+ * <p>
+ * Page 0 is a {@link BTreeRootPtrPage} pointing to the root. The other
+ * pages are {@link BTreeInternalPage}s and {@link BTreeLeafPage}s; the
+ * leaves hold the tuples and are linked from left to right. All pages are
+ * read and written through the buffer pool, and their changes are logged
+ * like those of heap pages.
+ * <p>
+ * Inserts split full pages on the way back up from the leaf; the tree
+ * only grows at the root. Deletes remove the tuple from its leaf and never
+ * merge pages. Pages added by a split are written to the end of the file
+ * as empty pages first; if the transaction aborts, they stay unused.
+ * <p>
+ * A new tree can be built from a table sorted on the key with
+ * {@link #bulkLoad}.
+ *
+ * @see BTreePageId
+ */
+@SuppressWarnings("serial")
+public class BTreeFile implements IndexFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int tableid;
+    private volatile PageIO.Mode mode;
+    /** Opened lazily, and not kept when the file is serialized. */
+    private transient volatile PageIO io;
+
+    /**
+     * Constructs a B+ tree backed by the specified file. An empty file
+     * becomes an empty tree.
+     *
+     * @param f the file that stores the on-disk backing store for this tree.
+     * @param keyField the index of the field the tuples are sorted by.
+     * @param td the schema of the tuples.
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " in " + td);
+        }
+        this.file = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.mode = PageIO.DEFAULT_MODE;
+    }
+
+    /** @return the File backing this BTreeFile on disk. */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the index of the key field. */
+    public int keyField() {
+        return keyField;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Change the way the pages of this file are read and written. Pages
+     * already in the buffer pool are not affected.
+     */
+    public synchronized void setIOMode(PageIO.Mode mode) throws IOException {
+        if (mode == this.mode) {
+            return;
+        }
+        this.mode = mode;
+        if (io != null) {
+            io.close();
+            io = null;
+        }
+    }
+
+    /**
+     * @return the PageIO of this file, opening it if needed. An empty file
+     *         is given a root pointer page and an empty root leaf.
+     */
+    private PageIO io() throws IOException {
+        PageIO pio = io;
+        if (pio == null) {
+            synchronized (this) {
+                if (io == null) {
+                    PageIO opened = PageIO.open(file, mode);
+                    if (opened.numPages() == 0) {
+                        byte[] pages = new byte[2 * BufferPool.PAGE_SIZE];
+                        BTreeRootPtrPage root = new BTreeRootPtrPage(rootPtrId(),
+                            BTreePage.createEmptyPageData(BTreePageId.ROOT_PTR));
+                        root.setRootId(new BTreePageId(tableid, 1, BTreePageId.LEAF));
+                        System.arraycopy(root.getPageData(), 0, pages, 0, BufferPool.PAGE_SIZE);
+                        pages[BufferPool.PAGE_SIZE] = BTreePageId.LEAF;
+                        opened.writePages(0, pages, 2);
+                        opened.force();
+                    }
+                    io = opened;
+                }
+                pio = io;
+            }
+        }
+        return pio;
+    }
+
+    /** Release the file handle of this BTreeFile. It is opened again when needed. */
+    public synchronized void close() throws IOException {
+        if (io != null) {
+            io.close();
+            io = null;
+        }
+    }
+
+    private BTreePageId rootPtrId() {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    /**
+     * Read a page from disk. The id says which kind of page to build; it
+     * should be a BTreePageId.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this
+     *         file, or is not of the kind the id says.
+     */
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != tableid || !(pid instanceof BTreePageId)) {
+            throw new IllegalArgumentException("page " + pid + " is not in table " + tableid + ".");
+        }
+        BTreePageId id = (BTreePageId) pid;
+        int pgNo = id.pageNumber();
+        try {
+            PageIO pio = io();
+            if (pgNo < 0 || pgNo >= pio.numPages()) {
+                throw new IllegalArgumentException("page " + pgNo + " does not exist in " + file + ".");
+            }
+            java.nio.ByteBuffer page = pio.readPage(pgNo);
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            page.duplicate().get(data);
+            switch (id.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(id, data);
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(id, data);
+            default:
+                return new BTreeLeafPage(id, data);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to read page " + pgNo + " of " + file + ": " + e.getMessage());
+        }
+    }
+
+    public void writePage(Page page) throws IOException {
+        io().writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** @return the number of pages in this file, root pointer page included. */
+    public int numPages() {
+        try {
+            return io().numPages();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to open " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Page getPage(TransactionId tid, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /** @return the id of the root of the tree. */
+    private BTreePageId rootId(TransactionId tid) throws DbException, TransactionAbortedException {
+        return ((BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_ONLY)).getRootId();
+    }
+
+    /**
+     * Descend from the root to the leftmost leaf that may hold a key.
+     * @param key the key, or null for the leftmost leaf of the tree.
+     * @param path if not null, the internal pages on the way are added.
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Permissions perm, Field key,
+                                   List<BTreeInternalPage> path)
+            throws DbException, TransactionAbortedException {
+        BTreePageId pid = rootId(tid);
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) getPage(tid, pid, perm);
+            if (path != null) {
+                path.add(page);
+            }
+            pid = page.getChildId(key == null ? 0 : page.childIndex(key));
+        }
+        return (BTreeLeafPage) getPage(tid, pid, perm);
+    }
+
+    /**
+     * Add an empty page of the given category to the end of the file and
+     * fetch it through the buffer pool.
+     */
+    private synchronized BTreePage newPage(TransactionId tid, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = numPages();
+        io().writePage(pgNo, BTreePage.createEmptyPageData(category));
+        return (BTreePage) getPage(tid, new BTreePageId(tableid, pgNo, category), Permissions.READ_WRITE);
+    }
+
+    private static void dirty(TransactionId tid, BTreePage page, ArrayList<Page> dirtied) {
+        page.markDirty(true, tid);
+        if (!dirtied.contains(page)) {
+            dirtied.add(page);
+        }
+    }
+
+    /**
+     * Insert a tuple into its leaf, splitting the leaf and its ancestors as
+     * needed. Inserts into one tree are serialized.
+     *
+     * @return the pages that were modified, all marked dirty by tid.
+     * @throws DbException if the tuple does not match the schema.
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+        }
+        Field key = t.getField(keyField);
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        BTreeLeafPage leaf = findLeaf(tid, Permissions.READ_WRITE, key, path);
+        if (!leaf.isFull()) {
+            leaf.insertTuple(t);
+            dirty(tid, leaf, dirtied);
+            return dirtied;
+        }
+
+        BTreeLeafPage right = (BTreeLeafPage) newPage(tid, BTreePageId.LEAF);
+        leaf.moveHalfTo(right);
+        Field separator = right.getKey(0);
+        (BTreePage.compare(key, separator) < 0 ? leaf : right).insertTuple(t);
+        dirty(tid, leaf, dirtied);
+        dirty(tid, right, dirtied);
+
+        // give the new page a key in the parent, splitting upwards.
+        BTreePageId left = leaf.getId();
+        BTreePageId added = right.getId();
+        for (int level = path.size() - 1; level >= 0; level--) {
+            BTreeInternalPage parent = path.get(level);
+            int i = parent.indexOfChild(left.pageNumber());
+            if (!parent.isFull()) {
+                parent.insertKey(i, separator, added.pageNumber());
+                dirty(tid, parent, dirtied);
+                return dirtied;
+            }
+            BTreeInternalPage sibling = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL);
+            int mid = parent.getNumKeys() / 2;
+            Field up = parent.moveHalfTo(sibling);
+            if (i <= mid) {
+                parent.insertKey(i, separator, added.pageNumber());
+            } else {
+                sibling.insertKey(i - mid - 1, separator, added.pageNumber());
+            }
+            dirty(tid, parent, dirtied);
+            dirty(tid, sibling, dirtied);
+            left = parent.getId();
+            added = sibling.getId();
+            separator = up;
+        }
+
+        // the root was split: a new root gets the two halves.
+        BTreeInternalPage root = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL);
+        root.init(left);
+        root.insertKey(0, separator, added.pageNumber());
+        dirty(tid, root, dirtied);
+        BTreeRootPtrPage ptr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_WRITE);
+        ptr.setRootId(root.getId());
+        dirty(tid, ptr, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * Remove a tuple with the same fields as t from its leaf. Pages are not
+     * merged.
+     *
+     * @return the modified page, marked dirty by tid.
+     * @throws DbException if no such tuple is in the tree.
+     */
+    public synchronized Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+        }
+        Field key = t.getField(keyField);
+        BTreeLeafPage leaf = findLeaf(tid, Permissions.READ_WRITE, key, null);
+        int i = leaf.search(key, false);
+        while (true) {
+            if (i == leaf.getNumTuples()) {
+                BTreePageId next = leaf.getRightSiblingId();
+                if (next == null) {
+                    break;
+                }
+                leaf = (BTreeLeafPage) getPage(tid, next, Permissions.READ_WRITE);
+                i = 0;
+                continue;
+            }
+            if (leaf.compareKey(i, key) > 0) {
+                break;
+            }
+            if (leaf.matches(i, t)) {
+                leaf.deleteTuple(i);
+                leaf.markDirty(true, tid);
+                t.setRecordId(null);
+                return leaf;
+            }
+            i++;
+        }
+        throw new DbException("the tuple is not in table " + tableid + ".");
+    }
+
+    /**
+     * Build the tree from the tuples of a file sorted on the key field, in
+     * the order its iterator returns them. The leaves are filled completely
+     * and the pages are written straight to this file, bypassing the buffer
+     * pool and the log, so the tree must be empty and a crash during the
+     * load leaves a tree that must be built again.
+     *
+     * @param tid the transaction reading the sorted file.
+     * @param sorted a file with the schema of this tree, sorted on the key.
+     * @return the number of tuples loaded.
+     * @throws DbException if the tree is not empty, or a tuple does not
+     *         match the schema or is out of order.
+     */
+    public synchronized long bulkLoad(TransactionId tid, DbFile sorted)
+            throws DbException, IOException, TransactionAbortedException {
+        if (numPages() != 2 || rootId(tid).pgcateg() != BTreePageId.LEAF
+                || findLeaf(tid, Permissions.READ_ONLY, null, null).getNumTuples() != 0) {
+            throw new DbException("the tree of table " + tableid + " is not empty.");
+        }
+        // the empty root leaf is overwritten below.
+        Database.getBufferPool().discardPage(new BTreePageId(tableid, 1, BTreePageId.LEAF));
+
+        // the leaves, from page 1 on, and the first key and page of each.
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        BTreeLeafPage leaf = null;
+        Field last = null;
+        long count = 0;
+        DbFileIterator it = sorted.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (!td.equals(t.getTupleDesc())) {
+                    throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+                }
+                Field key = t.getField(keyField);
+                if (last != null && BTreePage.compare(key, last) < 0) {
+                    throw new DbException("the tuples are not sorted on field " + keyField + ": "
+                                          + key + " follows " + last + ".");
+                }
+                last = key;
+                if (leaf == null || leaf.isFull()) {
+                    int pgNo = pages.size() + 1;
+                    if (leaf != null) {
+                        leaf.setRightSibling(pgNo);
+                        io().writePage(pgNo - 1, leaf.getPageData());
+                    }
+                    leaf = new BTreeLeafPage(new BTreePageId(tableid, pgNo, BTreePageId.LEAF),
+                                             BTreePage.createEmptyPageData(BTreePageId.LEAF));
+                    keys.add(key);
+                    pages.add(pgNo);
+                }
+                leaf.insertTuple(t);
+                count++;
+            }
+        } finally {
+            it.close();
+        }
+        if (leaf == null) {
+            return 0;
+        }
+        io().writePage(leaf.getId().pageNumber(), leaf.getPageData());
+
+        // the internal levels, until one page is left.
+        int category = BTreePageId.LEAF;
+        int nextPage = pages.size() + 1;
+        int fanout = BTreeInternalPage.maxKeys(td.getFieldType(keyField)) + 1;
+        while (pages.size() > 1) {
+            ArrayList<Field> upKeys = new ArrayList<Field>();
+            ArrayList<Integer> upPages = new ArrayList<Integer>();
+            int first = 0;
+            while (first < pages.size()) {
+                int end = Math.min(first + fanout, pages.size());
+                if (pages.size() - end == 1) {
+                    // do not leave a single child for the last page.
+                    end--;
+                }
+                BTreeInternalPage page = new BTreeInternalPage(
+                    new BTreePageId(tableid, nextPage, BTreePageId.INTERNAL),
+                    BTreePage.createEmptyPageData(BTreePageId.INTERNAL));
+                page.init(new BTreePageId(tableid, pages.get(first), category));
+                for (int i = first + 1; i < end; i++) {
+                    page.insertKey(i - first - 1, keys.get(i), pages.get(i));
+                }
+                io().writePage(nextPage, page.getPageData());
+                upKeys.add(keys.get(first));
+                upPages.add(nextPage++);
+                first = end;
+            }
+            keys = upKeys;
+            pages = upPages;
+            category = BTreePageId.INTERNAL;
+        }
+
+        BTreeRootPtrPage ptr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_ONLY);
+        BTreeRootPtrPage root = new BTreeRootPtrPage(rootPtrId(), ptr.getPageData().clone());
+        root.setRootId(new BTreePageId(tableid, pages.get(0), category));
+        io().writePage(0, root.getPageData());
+        io().force();
+        Database.getBufferPool().discardPage(rootPtrId());
+        return count;
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the tree, in key order.
+     */
+    public BatchDbFileIterator iterator(TransactionId tid) {
+        return new BTreeIterator(tid, null);
+    }
+
+    /**
+     * @return whether indexIterator reads only the leaves that may hold
+     *         matches: for every operator but NOT_EQUALS, and LIKE on
+     *         strings, which is a substring match.
+     */
+    public boolean serves(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS
+            && !(op == Predicate.Op.LIKE && td.getFieldType(keyField) != Type.INT_TYPE);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key field satisfies a
+     * predicate, in key order. The scan starts at the first leaf that may
+     * hold a match and stops after the last possible match, so a point or
+     * range predicate reads only the leaves holding its matches, plus one
+     * path from the root. LIKE and NOT_EQUALS are checked on every tuple.
+     *
+     * @param p a predicate on the key field.
+     * @throws IllegalArgumentException if p is not on the key field.
+     */
+    public BatchDbFileIterator indexIterator(TransactionId tid, Predicate p) {
+        if (p.getField() != keyField) {
+            throw new IllegalArgumentException("the predicate is on field " + p.getField()
+                                               + ", the key field is " + keyField + ".");
+        }
+        return new BTreeIterator(tid, p);
+    }
+
+    /**
+     * Iterates over the leaves from left to right, fetching them through
+     * the buffer pool, and returns the tuples that pass the predicate.
+     */
+    private class BTreeIterator implements BatchDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate pred;
+        /** Whether the scan may start at the first key that passes. */
+        private final boolean seek;
+        /** Whether the scan ends at the first key greater than the operand. */
+        private final boolean stopAbove;
+        private BTreeLeafPage leaf;
+        /** The next tuple of leaf to look at. */
+        private int pos;
+        private boolean open;
+        private transient TupleBatch batch;
+
+        BTreeIterator(TransactionId tid, Predicate pred) {
+            this.tid = tid;
+            this.pred = pred;
+            Predicate.Op op = pred == null ? null : pred.getOp();
+            // LIKE on strings is a substring match, not a range.
+            boolean range = op != null && op != Predicate.Op.NOT_EQUALS
+                && !(op == Predicate.Op.LIKE && td.getFieldType(keyField) != Type.INT_TYPE);
+            this.seek = range && op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+            this.stopAbove = range && op != Predicate.Op.GREATER_THAN && op != Predicate.Op.GREATER_THAN_OR_EQ;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            Field key = seek ? pred.getOperand() : null;
+            leaf = findLeaf(tid, Permissions.READ_ONLY, key, null);
+            pos = key == null ? 0 : leaf.search(key, pred.getOp() == Predicate.Op.GREATER_THAN);
+            open = true;
+        }
+
+        /**
+         * Move pos to the next tuple that passes, going right as needed.
+         * @return false if there is none.
+         */
+        private boolean advance() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            while (true) {
+                if (pos >= leaf.getNumTuples()) {
+                    BTreePageId right = leaf.getRightSiblingId();
+                    if (right == null) {
+                        open = false;
+                        return false;
+                    }
+                    leaf = (BTreeLeafPage) getPage(tid, right, Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                if (pred == null) {
+                    return true;
+                }
+                if (!seek && !stopAbove) {
+                    if (pred.filter(leaf.getTuple(pos))) {
+                        return true;
+                    }
+                    pos++;
+                    continue;
+                }
+                int c = leaf.compareKey(pos, pred.getOperand());
+                if (stopAbove && (c > 0 || (c == 0 && pred.getOp() == Predicate.Op.LESS_THAN))) {
+                    open = false;
+                    return false;
+                }
+                if (passes(c)) {
+                    return true;
+                }
+                pos++;
+            }
+        }
+
+        /** @return whether a key passes a range predicate, given its order against the operand. */
+        private boolean passes(int c) {
+            switch (pred.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return c == 0;
+            case GREATER_THAN:
+                return c > 0;
+            case GREATER_THAN_OR_EQ:
+                return c >= 0;
+            case LESS_THAN:
+                return c < 0;
+            default:
+                return c <= 0;
+            }
+        }
+
+        /**
+         * @return the end of the run of tuples of the leaf from pos on that
+         *         all pass; pos must pass.
+         */
+        private int passingEnd() {
+            if (pred == null || (seek && !stopAbove)) {
+                // keys only grow from a passing key on.
+                return leaf.getNumTuples();
+            }
+            if (!seek && !stopAbove) {
+                return pos + 1;
+            }
+            return leaf.search(pred.getOperand(), pred.getOp() != Predicate.Op.LESS_THAN);
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return advance();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!advance()) {
+                throw new NoSuchElementException("no more tuples.");
+            }
+            return leaf.getTuple(pos++);
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            if (batch == null) {
+                batch = new TupleBatch(td);
+            }
+            batch.clear();
+            while (!batch.isFull() && advance()) {
+                pos = leaf.fillBatch(pos, Math.max(passingEnd(), pos + 1), batch);
+            }
+            return batch.numRows() == 0 ? null : batch;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            leaf = null;
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * An internal page of a BTreeFile: n keys and n + 1 child pointers. The
+ * keys of the subtree of child i are at least key i - 1 and at most key i;
+ * equal keys may be on both sides of a key. The format is the category
+ * byte, a byte with the category of the children (INTERNAL or LEAF), the
+ * integer n, room for getMaxKeys() keys, and room for getMaxKeys() + 1
+ * integer child page numbers.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int CHILD_CATEGORY = 1;
+    private static final int NUM_KEYS = 2;
+    private static final int HEADER_SIZE = 6;
+
+    private final Type keyType;
+    private final int keyLen;
+    private final int maxKeys;
+    /** The offset of the child pointers. */
+    private final int childrenOffset;
+
+    /**
+     * Create an internal page from its bytes on disk. The key type is that
+     * of the page's BTreeFile in the catalog. The page keeps and works on
+     * the given array; it is not copied.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        BTreeFile f = fileOf(id);
+        this.keyType = f.getTupleDesc().getFieldType(f.keyField());
+        this.keyLen = keyType.getLen();
+        this.maxKeys = maxKeys(keyType);
+        this.childrenOffset = HEADER_SIZE + maxKeys * keyLen;
+        if (getNumKeys() < 0 || getNumKeys() > maxKeys) {
+            throw new IOException("internal page " + id.pageNumber() + " has " + getNumKeys() + " keys.");
+        }
+    }
+
+    /** @return the number of keys an internal page with keys of a type holds. */
+    public static int maxKeys(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    public int getNumKeys() {
+        return buf.getInt(NUM_KEYS);
+    }
+
+    private void setNumKeys(int n) {
+        buf.putInt(NUM_KEYS, n);
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public boolean isFull() {
+        return getNumKeys() == maxKeys;
+    }
+
+    private int keyOffset(int i) {
+        return HEADER_SIZE + i * keyLen;
+    }
+
+    private int childOffset(int i) {
+        return childrenOffset + i * 4;
+    }
+
+    public Field getKey(int i) {
+        return readField(keyType, keyOffset(i));
+    }
+
+    /** @return the id of the ith child, 0 <= i <= getNumKeys(). */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), buf.getInt(childOffset(i)), data[CHILD_CATEGORY]);
+    }
+
+    /**
+     * @return the index of the leftmost child whose subtree may hold key:
+     *         the first i with key i at least key, or getNumKeys().
+     */
+    public int childIndex(Field key) {
+        int lo = 0, hi = getNumKeys();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(keyType, keyOffset(mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the index of the child with the given page number, or -1. */
+    int indexOfChild(int pgNo) {
+        for (int i = 0; i <= getNumKeys(); i++) {
+            if (buf.getInt(childOffset(i)) == pgNo) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Make this empty page the parent of a single child.
+     */
+    void init(BTreePageId child) {
+        data[CHILD_CATEGORY] = (byte) child.pgcateg();
+        setNumKeys(0);
+        buf.putInt(childOffset(0), child.pageNumber());
+    }
+
+    /**
+     * Insert key i and child i + 1; the keys and children from there on
+     * move up.
+     * @throws DbException if the page is full.
+     */
+    void insertKey(int i, Field key, int rightChild) throws DbException {
+        int n = getNumKeys();
+        if (n == maxKeys) {
+            throw new DbException("page " + pid + " is full.");
+        }
+        System.arraycopy(data, keyOffset(i), data, keyOffset(i + 1), (n - i) * keyLen);
+        System.arraycopy(data, childOffset(i + 1), data, childOffset(i + 2), (n - i) * 4);
+        writeField(key, keyOffset(i));
+        buf.putInt(childOffset(i + 1), rightChild);
+        setNumKeys(n + 1);
+    }
+
+    /**
+     * Move the keys after the middle one, and their children, to an empty
+     * page. The middle key leaves both pages.
+     * @return the middle key, which separates this page and right.
+     */
+    Field moveHalfTo(BTreeInternalPage right) {
+        int n = getNumKeys();
+        int mid = n / 2;
+        Field up = getKey(mid);
+        right.data[CHILD_CATEGORY] = data[CHILD_CATEGORY];
+        System.arraycopy(data, keyOffset(mid + 1), right.data, right.keyOffset(0), (n - mid - 1) * keyLen);
+        System.arraycopy(data, childOffset(mid + 1), right.data, right.childOffset(0), (n - mid) * 4);
+        right.setNumKeys(n - mid - 1);
+        // free space is all zeros on disk.
+        java.util.Arrays.fill(data, keyOffset(mid), keyOffset(n), (byte) 0);
+        java.util.Arrays.fill(data, childOffset(mid + 1), childOffset(n + 1), (byte) 0);
+        setNumKeys(mid);
+        return up;
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, oldData.clone());
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+}
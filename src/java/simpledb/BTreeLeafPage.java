@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A leaf page of a BTreeFile, holding tuples sorted by the key field. The
+ * format is the category byte, the integer page number of the right
+ * sibling (0 if there is none), the integer number of tuples n, and then
+ * the n tuples back to back, in key order. Tuples with equal keys are kept
+ * in the order they were inserted.
+ * <p>
+ * The RecordId of a tuple read from a leaf is its position in the page,
+ * which changes when tuples are inserted before it.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int RIGHT_SIBLING = 1;
+    private static final int NUM_TUPLES = 5;
+    private static final int HEADER_SIZE = 9;
+
+    final TupleDesc td;
+    final int keyField;
+    private final Type keyType;
+    /** The types of the fields, and their offsets within a tuple; from td. */
+    private final Type[] fieldTypes;
+    private final int[] fieldOffsets;
+    private final int tupleSize;
+    private final int maxTuples;
+
+    /**
+     * Create a leaf page from its bytes on disk. The schema and key field
+     * are those of the page's BTreeFile in the catalog. The page keeps and
+     * works on the given array; it is not copied.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        BTreeFile f = fileOf(id);
+        this.td = f.getTupleDesc();
+        this.keyField = f.keyField();
+        this.keyType = td.getFieldType(keyField);
+        this.fieldTypes = td.fieldTypes();
+        this.fieldOffsets = td.fieldOffsets();
+        this.tupleSize = td.getSize();
+        this.maxTuples = maxTuples(td);
+        if (getNumTuples() < 0 || getNumTuples() > maxTuples) {
+            throw new IOException("leaf page " + id.pageNumber() + " has " + getNumTuples() + " tuples.");
+        }
+    }
+
+    /** @return the number of tuples a leaf page of the given schema holds. */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / td.getSize();
+    }
+
+    public int getNumTuples() {
+        return buf.getInt(NUM_TUPLES);
+    }
+
+    private void setNumTuples(int n) {
+        buf.putInt(NUM_TUPLES, n);
+    }
+
+    public int getMaxTuples() {
+        return maxTuples;
+    }
+
+    public boolean isFull() {
+        return getNumTuples() == maxTuples;
+    }
+
+    /** @return the id of the right sibling, or null if this is the last leaf. */
+    public BTreePageId getRightSiblingId() {
+        int right = buf.getInt(RIGHT_SIBLING);
+        return right == 0 ? null : new BTreePageId(pid.getTableId(), right, BTreePageId.LEAF);
+    }
+
+    void setRightSibling(int pgNo) {
+        buf.putInt(RIGHT_SIBLING, pgNo);
+    }
+
+    private int offsetOf(int i) {
+        return HEADER_SIZE + i * tupleSize;
+    }
+
+    /** @return the key of the ith tuple. */
+    public Field getKey(int i) {
+        return readField(keyType, offsetOf(i) + fieldOffsets[keyField]);
+    }
+
+    /** @return the order of the key of the ith tuple and key, like compareTo. */
+    int compareKey(int i, Field key) {
+        return compareKey(keyType, offsetOf(i) + fieldOffsets[keyField], key);
+    }
+
+    /**
+     * Binary search for a key.
+     * @param after if false, find the first tuple whose key is at least
+     *        key; if true, the first whose key is greater than key.
+     * @return the index of that tuple, or getNumTuples() if there is none.
+     */
+    public int search(Field key, boolean after) {
+        int lo = 0, hi = getNumTuples();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareKey(mid, key);
+            if (c < 0 || (after && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Build the ith tuple. Int fields are read from the page; the other
+     * fields are kept in a copy of the tuple's bytes.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= getNumTuples()) {
+            throw new java.util.NoSuchElementException("no tuple " + i + " on page " + pid + ".");
+        }
+        int base = offsetOf(i);
+        byte[] slab = null;
+        if (!td.isAllInts()) {
+            slab = new byte[tupleSize];
+            System.arraycopy(data, base, slab, 0, tupleSize);
+        }
+        int[] values = new int[fieldTypes.length];
+        for (int j = 0; j < fieldTypes.length; j++) {
+            int off = base + fieldOffsets[j];
+            values[j] = fieldTypes[j] == Type.INT_TYPE ? buf.getInt(off) : off - base;
+        }
+        return new Tuple(td, values, 0, slab, pid, i);
+    }
+
+    /** @return whether the ith tuple has the same fields as t. */
+    boolean matches(int i, Tuple t) {
+        for (int j = 0; j < fieldTypes.length; j++) {
+            int off = offsetOf(i) + fieldOffsets[j];
+            boolean same = fieldTypes[j] == Type.INT_TYPE ? buf.getInt(off) == t.getInt(j)
+                : readField(fieldTypes[j], off).equals(t.getField(j));
+            if (!same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Insert a tuple after the tuples with keys less than or equal to its
+     * key. The RecordId of the tuple is set.
+     * @throws DbException if the page is full or the schema does not match.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of page " + pid + ".");
+        }
+        int n = getNumTuples();
+        if (n == maxTuples) {
+            throw new DbException("page " + pid + " is full.");
+        }
+        int i = search(t.getField(keyField), true);
+        System.arraycopy(data, offsetOf(i), data, offsetOf(i + 1), (n - i) * tupleSize);
+        writeTuple(t, offsetOf(i));
+        setNumTuples(n + 1);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    private void writeTuple(Tuple t, int base) {
+        for (int j = 0; j < fieldTypes.length; j++) {
+            if (fieldTypes[j] == Type.INT_TYPE) {
+                buf.putInt(base + fieldOffsets[j], t.getInt(j));
+            } else {
+                writeField(t.getField(j), base + fieldOffsets[j]);
+            }
+        }
+    }
+
+    /** Remove the ith tuple; the tuples after it move down. */
+    void deleteTuple(int i) {
+        int n = getNumTuples();
+        System.arraycopy(data, offsetOf(i + 1), data, offsetOf(i), (n - i - 1) * tupleSize);
+        // free space is all zeros on disk.
+        java.util.Arrays.fill(data, offsetOf(n - 1), offsetOf(n), (byte) 0);
+        setNumTuples(n - 1);
+    }
+
+    /**
+     * Move the upper half of the tuples of this page to an empty page, and
+     * link the page in as the right sibling of this one.
+     */
+    void moveHalfTo(BTreeLeafPage right) {
+        int n = getNumTuples();
+        int keep = n / 2;
+        System.arraycopy(data, offsetOf(keep), right.data, offsetOf(0), (n - keep) * tupleSize);
+        java.util.Arrays.fill(data, offsetOf(keep), offsetOf(n), (byte) 0);
+        right.setNumTuples(n - keep);
+        setNumTuples(keep);
+        right.setRightSibling(buf.getInt(RIGHT_SIBLING));
+        setRightSibling(right.pid.pageNumber());
+    }
+
+    /**
+     * Copy the int fields of tuples into the int columns of a batch, and
+     * parse the other fields.
+     * @return the index of the first tuple not copied.
+     */
+    int fillBatch(int from, int to, TupleBatch batch) {
+        int[][] ints = batch.intColumns();
+        int i = from;
+        for (; i < to && !batch.isFull(); i++) {
+            int row = batch.addRow(pid, i);
+            int base = offsetOf(i);
+            for (int j = 0; j < fieldTypes.length; j++) {
+                if (ints[j] != null) {
+                    ints[j][row] = buf.getInt(base + fieldOffsets[j]);
+                } else {
+                    batch.setField(j, row, readField(fieldTypes[j], base + fieldOffsets[j]));
+                }
+            }
+        }
+        return i;
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, oldData.clone());
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * The part common to the pages of a BTreeFile. Like a HeapPage, a B+ tree
+ * page keeps the page in its on-disk format, a heap array, and reads and
+ * writes fields at their offsets, so getPageData() serializes nothing.
+ * <p>
+ * The first byte of every page is its category, see {@link BTreePageId};
+ * a page whose first byte does not match its id is rejected.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    final BTreePageId pid;
+    /** The bytes of this page. */
+    final byte[] data;
+    /** Wraps data, for reading and writing numbers at offsets. */
+    final ByteBuffer buf;
+
+    byte[] oldData;
+    TransactionId dirtier;
+
+    /**
+     * Create a page over the given bytes, which are not copied.
+     * @throws IOException if the data is shorter than a page, or is a page
+     *         of another category.
+     */
+    BTreePage(BTreePageId id, byte[] data) throws IOException {
+        if (data.length < BufferPool.PAGE_SIZE) {
+            throw new IOException("page data is shorter than a page: " + data.length + " bytes.");
+        }
+        if (data[0] != id.pgcateg()) {
+            throw new IOException("page " + id.pageNumber() + " has category " + data[0]
+                                  + ", expected " + id.pgcateg() + ".");
+        }
+        this.pid = id;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty page of the given category.
+     */
+    public static byte[] createEmptyPageData(int category) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        data[0] = (byte) category;
+        return data;
+    }
+
+    /** @return the BTreeFile of a page, from the catalog. */
+    static BTreeFile fileOf(BTreePageId pid) {
+        return (BTreeFile) Database.getCatalog().getDbFile(pid.getTableId());
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * The page data is kept as is, so this returns the page's own array;
+     * callers must not modify it.
+     */
+    public byte[] getPageData() {
+        return data;
+    }
+
+    public void setBeforeImage() {
+        oldData = data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** @return the field of the given type at an offset of this page. */
+    Field readField(Type type, int off) {
+        try {
+            return type.parse(buf, off);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /** Write a field at an offset of this page. */
+    void writeField(Field f, int off) {
+        if (f instanceof IntField) {
+            buf.putInt(off, ((IntField) f).getValue());
+            return;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new IllegalStateException("failed to serialize a field: " + e.getMessage());
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, off, f.getType().getLen());
+    }
+
+    /**
+     * Compare the key of the given type at an offset of this page with a
+     * key. Int keys are compared without building a Field.
+     * @return a negative number, zero or a positive number as the key on
+     *         the page is less than, equal to or greater than key.
+     */
+    int compareKey(Type type, int off, Field key) {
+        if (type == Type.INT_TYPE) {
+            int a = buf.getInt(off);
+            int b = ((IntField) key).getValue();
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+        return compare(readField(type, off), key);
+    }
+
+    /** @return the order of two fields of the same type, like compareTo. */
+    static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b)) {
+            return -1;
+        }
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+}
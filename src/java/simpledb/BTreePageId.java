@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a BTreeFile. Besides the table and the
+ * page number, the id tells the kind of the page, so that
+ * {@link BTreeFile#readPage} knows which class to build. The kind is not
+ * part of equality: a page number always holds the same kind of page.
+ */
+public class BTreePageId implements PageId {
+
+    /** Page 0 of every BTreeFile, which points to the root. */
+    public static final int ROOT_PTR = 0;
+    public static final int INTERNAL = 1;
+    public static final int LEAF = 2;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param category ROOT_PTR, INTERNAL or LEAF.
+     */
+    public BTreePageId(int tableId, int pgNo, int category) {
+        if (category < ROOT_PTR || category > LEAF) {
+            throw new IllegalArgumentException("bad page category " + category);
+        }
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the table getTableId() associated with this PageId */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /** @return ROOT_PTR, INTERNAL or LEAF. */
+    public int pgcateg() {
+        return category;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        return (o instanceof BTreePageId) && tableId == ((BTreePageId) o).tableId
+            && pgNo == ((BTreePageId) o).pgNo;
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ", " + category + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of integers, for
+     *  writing to disk: the table, the page number and the category.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo, category};
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * Page 0 of a BTreeFile, which tells where the root of the tree is. The
+ * format is the category byte, the integer page number of the root and a
+ * byte with the category of the root (INTERNAL or LEAF).
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private static final int ROOT = 1;
+    private static final int ROOT_CATEGORY = 5;
+
+    /**
+     * Create the root pointer page of a B+ tree from its bytes on disk.
+     * The page keeps and works on the given array; it is not copied.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /** @return the id of the root page. */
+    public BTreePageId getRootId() {
+        return new BTreePageId(pid.getTableId(), buf.getInt(ROOT), data[ROOT_CATEGORY]);
+    }
+
+    /** Make the given page the root of the tree. */
+    public void setRootId(BTreePageId root) {
+        if (root.getTableId() != pid.getTableId() || root.pgcateg() == BTreePageId.ROOT_PTR) {
+            throw new IllegalArgumentException(root + " cannot be the root of table " + pid.getTableId());
+        }
+        buf.putInt(ROOT, root.pageNumber());
+        data[ROOT_CATEGORY] = (byte) root.pgcateg();
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            return new BTreeRootPtrPage(pid, oldData.clone());
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+}
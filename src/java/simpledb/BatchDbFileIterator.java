@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * BatchDbFileIterator is a DbFileIterator that can also hand out its tuples
+ * many at a time, in a column-oriented {@link TupleBatch}.
+ *
+ * @see BatchDbIterator
+ */
+public interface BatchDbFileIterator extends DbFileIterator {
+    /**
+     * Gets the next tuples, at most {@link TupleBatch#MAX_ROWS} of them.
+     * The batch belongs to the iterator and is only valid until the next
+     * call to any method of the iterator. next() and nextBatch() advance
+     * the same position.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more tuples.
+     */
+    public TupleBatch nextBatch()
+        throws DbException, TransactionAbortedException;
+}
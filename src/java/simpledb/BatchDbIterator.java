@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * BatchDbIterator is a DbIterator that can also hand out its tuples many at
+ * a time, in a column-oriented {@link TupleBatch}. Operators that work on
+ * batches avoid a call and a Tuple object per row.
+ * <p>
+ * next() and nextBatch() advance the same position, so they may be mixed:
+ * a batch starts right after the last tuple returned by next().
+ *
+ * @see BatchingIterator
+ * @see AbstractBatchIterator
+ */
+public interface BatchDbIterator extends DbIterator {
+  /**
+   * Returns the next tuples of the iteration, at most
+   * {@link TupleBatch#MAX_ROWS} of them. The batch belongs to the iterator
+   * and is only valid until the next call to any method of the iterator;
+   * its selection vector may be changed by the caller.
+   *
+   * @return a batch with at least one selected row, or null if there are
+   *         no more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * BatchFilter passes on the tuples of its child that satisfy a predicate,
+ * a batch at a time. The predicate is compiled once, when the operator is
+ * made, and applied to whole batches by narrowing their selection vectors.
+ */
+public class BatchFilter extends AbstractBatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchDbIterator child;
+    private final transient CompiledPredicate pred;
+
+    /**
+     * @param child the operator to filter. If it does not hand out batches
+     *        itself, its tuples are batched by a {@link BatchingIterator}.
+     * @param pred the predicate, compiled for the child's schema.
+     */
+    public BatchFilter(DbIterator child, CompiledPredicate pred) {
+        this.child = (child instanceof BatchDbIterator) ? (BatchDbIterator) child
+            : new BatchingIterator(child);
+        this.pred = pred;
+    }
+
+    /**
+     * @param child the operator to filter.
+     * @param pred the predicate, compiled here for the child's schema.
+     */
+    public BatchFilter(DbIterator child, Predicate pred) {
+        this(child, PredicateCompiler.compile(pred, child.getTupleDesc()));
+    }
+
+    /** @return the compiled predicate. */
+    public CompiledPredicate getPredicate() {
+        return pred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        resetBatches();
+    }
+
+    protected TupleBatch fetchBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (pred.filter(batch) > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        resetBatches();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        resetBatches();
+    }
+}
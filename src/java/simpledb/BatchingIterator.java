@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Lets any DbIterator be used by operators that work on batches. Tuples are
+ * passed through one by one; nextBatch() collects them into a reused
+ * {@link TupleBatch}.
+ */
+public class BatchingIterator implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the iterator to read the tuples from.
+     */
+    public BatchingIterator(DbIterator child) {
+        this.child = child;
+    }
+
+    /** @return the iterator the tuples are read from. */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return child.next();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.append(child.next());
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -1,8 +1,16 @@
 package simpledb;
 
 import java.io.*;
-import java.util.LinkedList;
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -12,6 +20,22 @@ import java.util.Hashtable;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool is built to be shared by many threads. The page table is split
+ * into partitions by PageId hash, each a concurrent map whose monitor is
+ * only taken to add or remove pages. A hit takes no lock at all: it looks
+ * the page up and pins its frame with a compare-and-set, which fails while
+ * the frame is being evicted. The
+ * frames themselves live in a fixed array; unused frames sit on a free
+ * list, so filling the pool never scans for an empty slot. Which page is
+ * thrown out when the pool is full is decided by a {@link ReplacementPolicy}.
+ * <p>
+ * Sequential scans can ask for pages ahead of time with
+ * {@link #prefetchPage}. Prefetched pages that have not been used yet may
+ * take at most a quarter of the pool, so read-ahead never pushes out the
+ * working set of other queries. Read-ahead is off until
+ * {@link #setReadAheadEnabled} turns it on; the pool then runs the reads on
+ * threads of its own, which {@link #shutdown} stops.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -21,103 +45,287 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
- 
-    /**
-     * Indicates a certain slot is available, that is the slot is not occupied
-     * by a page.
-     */
-    public static final int AVAILABLE = 0;
-    /**
-     * Indicates a certain slot is referenced at least once.
-     */
-    public static final int REFERENCED = 1;
-    /**
-     * Indicates a certain slot has ever been referenced and is not been 
-     * referenced now. It is waiting for rereferenced.
-     */
-    public static final int WAITING = 2;
-    /**
-     * This is used in the clock replace algorithm.
-     */
-    private static final int CLOCKON = 3;
+
+    /** Default number of partitions of the page table. */
+    public static final int DEFAULT_STRIPES = 16;
 
     /**
      * A frame in the buffer pool holds a page that have been retrieved
      * from the disk.
      */
-    public class Frame{
-      private Page frame;
-     /**
-      * Keeps track of the times of the corresponding page being reference.
-      */
-      private int pinCount;
-     /**
-      * Keeps track of all of the transactions that hold this page.
-      */ 
-      private LinkedList<Transaction> traid; 
-       
+    private static class Frame {
+      /** The position of this frame in the pool, as known to the replacer. */
+      final int index;
       /**
-       * Construct a frame of the buffer pool.
-       * @param frame the page that will occupy this frame.
-       * @param tid the transaction identifier that want to hold this frame.
-       * @param pms the permission of the current transaction.
+       * Held while the page of this frame is being read in or thrown out.
+       * Threads that find a frame still being filled wait on it.
        */
-      public Frame(Page frame, TransactionId tid, Permissions pms){
-	this.frame = frame;
-	this.pinCount = 0; 
-        Transaction tas = new Transaction(tid, pms);
-        this.traid = new LinkedList<Transaction>(); 
-	if(traid != null){
-	  this.traid.add(tas);
-	}
-      }
+      final ReentrantLock latch = new ReentrantLock();
       /**
-       * Add a transaction identifier that want to hold this frame.
-       * @param tid the transation identifier that want to hold this frame.
-       * @param pms the permmsion of the current transaction. 'null' is ok.
+       * The number of threads currently using this frame, or -1 while it
+       * is being evicted. A pinned frame is never chosen for replacing.
        */
-      public void addTransaction(TransactionId tid, Permissions pms){
-	if(tid != null){
-	  Transaction tas = new Transaction(tid, pms);
-	  this.traid.add(tas);
-	} else{
-	  Debug.log("!!!warning: a 'null' transation ID is going to get a page. Adding refused."); 
-	}
+      final AtomicInteger pinCount = new AtomicInteger(0);
+      /** The page held by this frame, or null while it is empty or loading. */
+      volatile Page page;
+      /** The id of the page this frame is assigned to, or null if free. */
+      volatile PageId pid;
+      /** Set while the page has been read ahead and not been asked for yet. */
+      final AtomicBoolean prefetched = new AtomicBoolean(false);
+
+      Frame(int index) {
+        this.index = index;
       }
     }
-   
+
     /**
-     * The frame pool of this buffer. There is only frame pool in a database.
+     * One partition of the page table. Its monitor guards changes to the
+     * map; lookups read the map without it.
      */
-    private static Hashtable<PageId, Frame> pool;
+    private static class Partition {
+      final ConcurrentHashMap<PageId, Frame> table = new ConcurrentHashMap<PageId, Frame>();
+      /** getPage calls of this partition served from the pool. */
+      final AtomicLong hits = new AtomicLong(0);
+    }
+
+    /** All of the frames of this buffer pool. */
+    private final Frame[] frames;
+    /** The partitions of the page table. Its length is a power of two. */
+    private final Partition[] partitions;
+    /** Frames that do not hold a page. */
+    private final ConcurrentLinkedQueue<Frame> freeFrames;
+    /** Chooses the pages to evict. */
+    private final ReplacementPolicy policy;
+    /** Tells the policy which frames it may choose. */
+    private final ReplacementPolicy.FrameFilter evictable;
+
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong prefetches = new AtomicLong(0);
+    private final AtomicLong prefetchHits = new AtomicLong(0);
+    /** The number of frames holding prefetched pages not yet asked for. */
+    private final AtomicInteger unusedPrefetched = new AtomicInteger(0);
+    private volatile boolean readAhead = false;
+    /** The number of threads reading pages ahead. */
+    private static final int READ_AHEAD_THREADS = 2;
+    /** Runs read-ahead batches while read-ahead is on; guarded by readAheadLock. */
+    private ExecutorService readAheadExecutor;
+    private final Object readAheadLock = new Object();
+
     /**
-     * Keeps track of which slot is holding a specific page.
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
      */
-    private static PageId[] slots;
+    public BufferPool(int numPages) {
+        this(numPages, DEFAULT_STRIPES, new ClockPolicy());
+    }
+
     /**
-     * The maximum number of frames in this buffer.
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * them by the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy. It must not be shared with
+     *        another buffer pool.
      */
-    private static int capacity;
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, DEFAULT_STRIPES, policy);
+    }
+
     /**
-     * Indicates the state of a slot. There are three states: 'AVAILABLE',
-     * 'REFERENCED', 'WAITING', 'CLOCKON' in all. 
+     * Creates a BufferPool that caches up to numPages pages, with its page
+     * table split into the given number of partitions.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param stripes the number of page table partitions. It is rounded up
+     *        to a power of two; 1 makes every lookup share a single lock.
      */
-    private static int state[];
-   
+    public BufferPool(int numPages, int stripes) {
+        this(numPages, stripes, new ClockPolicy());
+    }
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, with its page
+     * table split into the given number of partitions, and evicts pages by
+     * the given policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @param stripes the number of page table partitions.
+     * @param policy the replacement policy. It must not be shared with
+     *        another buffer pool.
      */
-    public BufferPool(int numPages) {
-        // some code goes here
+    public BufferPool(int numPages, int stripes, ReplacementPolicy policy) {
+        if (numPages <= 0 || stripes <= 0) {
+          throw new IllegalArgumentException("a buffer pool needs at least one page and one partition.");
+        }
+        int n = 1;
+        while (n < stripes) {
+          n <<= 1;
+        }
+        partitions = new Partition[n];
+        for (int i = 0; i < n; i++) {
+          partitions[i] = new Partition();
+        }
+        frames = new Frame[numPages];
+        freeFrames = new ConcurrentLinkedQueue<Frame>();
+        for (int i = 0; i < numPages; i++) {
+          frames[i] = new Frame(i);
+          freeFrames.add(frames[i]);
+        }
+        this.policy = policy;
+        policy.init(numPages);
+        this.evictable = new ReplacementPolicy.FrameFilter() {
+          public boolean isEvictable(int i) {
+            Frame frm = frames[i];
+            Page pg = frm.page;
+            return pg != null && frm.pinCount.get() == 0 && pg.isDirty() == null;
+          }
+        };
+    }
+
+    /** @return the replacement policy of this buffer pool. */
+    public ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    /** @return the number of getPage calls served from the pool. */
+    public long getHitCount() {
+        long n = 0;
+        for (Partition part : partitions) {
+          n += part.hits.get();
+        }
+        return n;
+    }
+
+    /** @return the number of getPage calls that had to read the page. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of pages thrown out to make room. */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the share of getPage calls served from the pool, or 0 if
+     *         no page has been requested yet.
+     */
+    public double getHitRatio() {
+        long h = getHitCount();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
 
- 	// Create a page pool to hold pages.
-        pool = new Hashtable<PageId, Frame>();
-        capacity = numPages;
-	slots = new PageId[capacity];
-        // this should be initialized atomatically to zeros.
-        state = new int[capacity]; 
+    /** @return the number of pages read ahead by {@link #prefetchPage}. */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /** @return the number of prefetched pages that were later asked for. */
+    public long getPrefetchHitCount() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * @return the share of prefetched pages that were used before being
+     *         thrown out, or 0 if nothing has been prefetched yet.
+     */
+    public double getPrefetchHitRatio() {
+        long p = prefetches.get();
+        return p == 0 ? 0.0 : (double) prefetchHits.get() / p;
+    }
+
+    /** Set the hit, miss, eviction and prefetch counters back to zero. */
+    public void resetStats() {
+        for (Partition part : partitions) {
+          part.hits.set(0);
+        }
+        misses.set(0);
+        evictions.set(0);
+        prefetches.set(0);
+        prefetchHits.set(0);
+    }
+
+    /** @return true if scans may read pages ahead into this pool. */
+    public boolean isReadAheadEnabled() {
+        return readAhead;
+    }
+
+    /**
+     * Allow or forbid reading pages ahead into this pool. Turning it on
+     * starts the threads that read the pages; turning it off stops them,
+     * and batches in progress stop at their next page.
+     */
+    public void setReadAheadEnabled(boolean enabled) {
+        synchronized (readAheadLock) {
+          readAhead = enabled;
+          if (enabled && readAheadExecutor == null) {
+            readAheadExecutor = Executors.newFixedThreadPool(READ_AHEAD_THREADS, new ThreadFactory() {
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-readahead");
+                t.setDaemon(true);
+                return t;
+              }
+            });
+          } else if (!enabled && readAheadExecutor != null) {
+            // not shutdownNow: interrupting a read would close the file's channel.
+            readAheadExecutor.shutdown();
+            readAheadExecutor = null;
+          }
+        }
+    }
+
+    /**
+     * Run a batch of page reads on the read-ahead threads of this pool.
+     * @return false if read-ahead is off, and the batch was not run.
+     */
+    boolean submitReadAhead(Runnable batch) {
+        synchronized (readAheadLock) {
+          if (readAheadExecutor == null) {
+            return false;
+          }
+          try {
+            readAheadExecutor.execute(batch);
+            return true;
+          } catch (RejectedExecutionException e) {
+            return false;
+          }
+        }
+    }
+
+    /**
+     * Stop the background work of this pool before it is dropped: read-ahead
+     * is turned off, so no page is read into it any more.
+     */
+    public void shutdown() {
+        setReadAheadEnabled(false);
+    }
+
+    /**
+     * @return the number of pages that may still be prefetched before
+     *         prefetching would push out pages in use.
+     */
+    public int getPrefetchBudget() {
+        return Math.max(1, frames.length / 4) - unusedPrefetched.get();
+    }
+
+    /** @return the maximum number of pages in this buffer pool. */
+    public int getCapacity() {
+        return frames.length;
+    }
+
+    /** @return the number of frames that do not hold a page. */
+    public int getNumFreeFrames() {
+        return freeFrames.size();
+    }
+
+    private Partition partitionFor(PageId pid) {
+        int h = pid.hashCode();
+        // spread the high bits, the page ids of one table differ in the low ones.
+        h ^= (h >>> 16);
+        return partitions[h & (partitions.length - 1)];
     }
 
     /**
@@ -134,98 +342,291 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws DbException if every frame is pinned or dirty so that no page
+     *         can be evicted.
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // some code goes here
-	Page pgNew;
-
-	if(pool.containsKey(pid)){
-	  Frame frm = pool.get(pid);
-	  // do some lock check and permission check. Not necessary for pj1
-	  frm.addTransaction(tid, perm);
-	  frm.pinCount++;
-          pgNew = frm.frame; 
-
-  	} else {
-	  Page pgSwap;
-	  // If the buffer pool is full, maybe need replacing.
-	  if(BufferPool.capacity == pool.size()){
-	    pgSwap = clockReplacer();
-	    // if there is not a proper page to be replaced, just forget it.
-	    if(pgSwap != null){
-	      try{
-	        flushPage(pgSwap.getId());
-              } catch (IOException ioe) {
-	        ioe.printStackTrace();
-              } 
-	      if(pool.remove(pgSwap.getId()) == null){
-	        Debug.log("!!!warning: PageId \'" + pgSwap.getId().toString()
-	     	  +"\' does not exist in the buffer poll, but need to be removed."); 
-	      }
-	    
-	      // update state and slots info
-	      int i = 0;
-	      while(i < BufferPool.capacity){
-	        if(state[i] == CLOCKON){
-	       	  state[i] = REFERENCED;
-		  slots[i] = pid;
-		  break;
-	        }
-	        i++;
-	      } 
-	    } else {
-	      return null;
-	    }  
-	  } else {
-	    // update the state and slots info.
-	    int i = 0;
-	    while(i < BufferPool.capacity){
-	      if(state[i] == AVAILABLE){
-		state[i] = REFERENCED;
-		slots[i] = pid;
-		break;
-	      }
-	      i++;
-	    }
-	  }
-	  // Read the page.
-	  Catalog syscal = Database.getCatalog();
-	  pgNew = syscal.getDbFile(pid.getTableId()).readPage(pid);
-	  pool.put(pid, new Frame(pgNew, tid, perm));   
-	}
-        return pgNew; 
+        // do some lock check and permission check. Not necessary for pj1
+        Partition part = partitionFor(pid);
+        while (true) {
+          Frame frm = part.table.get(pid);
+          if (frm != null) {
+            if (!pin(frm)) {
+              // being evicted; let the evicting thread finish.
+              Thread.yield();
+              continue;
+            }
+            Page pg = readFrame(frm, pid);
+            if (pg != null) {
+              part.hits.incrementAndGet();
+              return pg;
+            }
+            // the page failed to load or was thrown out meanwhile. Retry.
+            continue;
+          }
+
+          // The page is not in the pool. Take a frame and publish it before
+          // reading, so that other threads asking for the same page wait for
+          // this read instead of issuing their own.
+          Frame victim = allocateFrame();
+          synchronized (part) {
+            frm = part.table.get(pid);
+            if (frm == null) {
+              victim.pid = pid;
+              part.table.put(pid, victim);
+            }
+          }
+          if (frm != null) {
+            // someone else got there first.
+            releaseFrame(victim);
+            continue;
+          }
+          return loadFrame(part, victim, pid, false);
+        }
+    }
+
+    /**
+     * Read a page into the pool ahead of time, without returning it. The
+     * page is only read if it is not in the pool yet, read-ahead is enabled
+     * and the prefetch budget is not used up. Never waits for other threads
+     * using the pool.
+     * <p>
+     * No lock is taken on the page; a transaction still has to get it with
+     * {@link #getPage}.
+     *
+     * @param tid the ID of the transaction that will ask for the page
+     * @param pid the ID of the page
+     * @return true if the page has been read, false if it was skipped.
+     */
+    public boolean prefetchPage(TransactionId tid, PageId pid) {
+        if (!readAhead || lookup(pid) != null) {
+          return false;
+        }
+        if (unusedPrefetched.incrementAndGet() > Math.max(1, frames.length / 4)) {
+          unusedPrefetched.decrementAndGet();
+          return false;
+        }
+        boolean loaded = false;
+        try {
+          Frame victim;
+          try {
+            victim = allocateFrame();
+          } catch (DbException e) {
+            // the pool is full of pages in use.
+            return false;
+          }
+          Partition part = partitionFor(pid);
+          Frame frm;
+          synchronized (part) {
+            frm = part.table.get(pid);
+            if (frm == null) {
+              victim.pid = pid;
+              victim.prefetched.set(true);
+              part.table.put(pid, victim);
+            }
+          }
+          if (frm != null) {
+            releaseFrame(victim);
+            return false;
+          }
+          try {
+            loadFrame(part, victim, pid, true);
+            loaded = true;
+          } catch (DbException e) {
+            return false;
+          } catch (RuntimeException e) {
+            // the file could not be read; getPage will report it.
+            return false;
+          }
+          return true;
+        } finally {
+          if (!loaded) {
+            unusedPrefetched.decrementAndGet();
+          }
+        }
     }
+
+    /**
+     * Pin a frame unless it is being evicted.
+     * @return true if the frame has been pinned.
+     */
+    private static boolean pin(Frame frm) {
+        while (true) {
+          int n = frm.pinCount.get();
+          if (n < 0) {
+            return false;
+          }
+          if (frm.pinCount.compareAndSet(n, n + 1)) {
+            return true;
+          }
+        }
+    }
+
     /**
-     * Find a non-referenced frame in this buffer pool and return it. 
-     * In this replacer, we use a clock strategy. Only and only if the
-     * buffer pool is fully occupied the replacer would return a page for
-     * replacing, fail to return a page for replacing otherwise.
-     * @return the page for replacing. If no candidates, return null.
+     * Return the page held by a frame that the caller has pinned, waiting
+     * for it to be read in if necessary. The pin is dropped.
+     * @return the page, or null if the frame does not hold pid any more.
      */
-    private Page clockReplacer(){
-	if(BufferPool.capacity == pool.size()){
-	  int i = 0;
-	  while(i < BufferPool.capacity){
-	    if((slots[i] != null) && ((pool.get(slots[i])).pinCount == 0)){
-	      state[i] = WAITING;
-	    }
-	    i++;
-	  }
-	  i = 0;
-	  while(i < BufferPool.capacity){
-	    if(state[i] == WAITING){
-	      state[i] = CLOCKON;
-	      return (pool.get(slots[i])).frame;  
-	    }
-	  }  
-	} else {
-	  // the program should never get here.
-	  Debug.log("!!!warning: the replacer is malfunctioning. There still"
-		+ " has unused frame but the buffer manager seems to hunt for "
-		+ "a page for replacing.");
-	}
-	return null;
+    private Page readFrame(Frame frm, PageId pid) {
+        try {
+          Page pg = frm.page;
+          if (pg == null) {
+            // still being read in; wait for the loader.
+            frm.latch.lock();
+            try {
+              pg = frm.page;
+            } finally {
+              frm.latch.unlock();
+            }
+          }
+          if (pg == null || !pid.equals(pg.getId())) {
+            return null;
+          }
+          policy.pageHit(frm.index);
+          if (frm.prefetched.get() && frm.prefetched.compareAndSet(true, false)) {
+            prefetchHits.incrementAndGet();
+            unusedPrefetched.decrementAndGet();
+          }
+          return pg;
+        } finally {
+          frm.pinCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Read the page from its DbFile into a frame that has been published in
+     * the page table. The caller holds the latch and a pin of the frame;
+     * both are released here.
+     * @param prefetch true if the page is read ahead rather than asked for.
+     */
+    private Page loadFrame(Partition part, Frame frm, PageId pid, boolean prefetch)
+        throws DbException {
+        boolean loaded = false;
+        try {
+          Catalog syscal = Database.getCatalog();
+          Page pg = syscal.getDbFile(pid.getTableId()).readPage(pid);
+          if (pg == null) {
+            throw new DbException("failed to read page " + pid + " from its file.");
+          }
+          frm.page = pg;
+          policy.pageLoaded(frm.index, pid);
+          if (prefetch) {
+            prefetches.incrementAndGet();
+          } else {
+            misses.incrementAndGet();
+          }
+          loaded = true;
+          return pg;
+        } finally {
+          if (!loaded) {
+            synchronized (part) {
+              part.table.remove(pid);
+            }
+            frm.pid = null;
+            frm.prefetched.set(false);
+          }
+          frm.latch.unlock();
+          frm.pinCount.decrementAndGet();
+          if (!loaded) {
+            freeFrames.add(frm);
+          }
+        }
+    }
+
+    /**
+     * Take an empty frame, from the free list if possible, otherwise by
+     * evicting a page. The returned frame is latched and pinned.
+     */
+    private Frame allocateFrame() throws DbException {
+        Frame frm = freeFrames.poll();
+        if (frm != null) {
+          frm.latch.lock();
+          frm.pinCount.incrementAndGet();
+          return frm;
+        }
+        return evictFrame();
+    }
+
+    /** Give back a latched and pinned empty frame that was not used. */
+    private void releaseFrame(Frame frm) {
+        frm.pid = null;
+        frm.page = null;
+        frm.latch.unlock();
+        frm.pinCount.decrementAndGet();
+        freeFrames.add(frm);
+    }
+
+    /**
+     * Empty the frame chosen by the replacement policy among the unpinned
+     * and clean ones.
+     * @return the emptied frame, latched and pinned.
+     * @throws DbException if no page can be evicted.
+     */
+    private Frame evictFrame() throws DbException {
+        // the chosen frame may be taken by another thread before we get it.
+        for (int attempt = 0; attempt < 2 * frames.length; attempt++) {
+          int i = policy.chooseVictim(evictable);
+          if (i < 0) {
+            break;
+          }
+          Frame frm = frames[i];
+          if (tryEvict(frm)) {
+            policy.pageEvicted(i);
+            evictions.incrementAndGet();
+            return frm;
+          }
+        }
+        throw new DbException("all pages in the buffer pool are in use or dirty, no page can be evicted.");
+    }
+
+    /**
+     * Remove the page of the given frame from the page table if nobody is
+     * using it. Dirty pages are never evicted (NO STEAL).
+     * @return true if the frame has been emptied; it is then latched and
+     *         pinned by the caller.
+     */
+    private boolean tryEvict(Frame frm) {
+        PageId old = frm.pid;
+        if (old == null) {
+          return false;
+        }
+        Partition part = partitionFor(old);
+        synchronized (part) {
+          if (part.table.get(old) != frm) {
+            return false;
+          }
+          // keep hits from pinning the frame while it is emptied.
+          if (!frm.pinCount.compareAndSet(0, -1)) {
+            return false;
+          }
+          Page pg = frm.page;
+          if (pg == null || pg.isDirty() != null || !frm.latch.tryLock()) {
+            frm.pinCount.set(0);
+            return false;
+          }
+          frm.pid = null;
+          frm.page = null;
+          part.table.remove(old);
+          frm.pinCount.set(1);
+        }
+        droppedPrefetched(frm);
+        return true;
+    }
+
+    /** Account for a frame being emptied, whether or not it was prefetched. */
+    private void droppedPrefetched(Frame frm) {
+        if (frm.prefetched.getAndSet(false)) {
+          unusedPrefetched.decrementAndGet();
+        }
+    }
+
+    /**
+     * Look up the frame holding pid without pinning it.
+     * @return the frame or null if the page is not in the pool.
+     */
+    private Frame lookup(PageId pid) {
+        return partitionFor(pid).table.get(pid);
     }
 
     /**
@@ -317,9 +718,12 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for proj1
-
+        for (Frame frm : frames) {
+          PageId pid = frm.pid;
+          if (pid != null) {
+            flushPage(pid);
+          }
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -328,8 +732,26 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-	// not necessary for proj1
+        Partition part = partitionFor(pid);
+        Frame frm = lookup(pid);
+        if (frm == null) {
+          return;
+        }
+        frm.latch.lock();
+        synchronized (part) {
+          if (part.table.get(pid) != frm) {
+            // evicted or discarded meanwhile.
+            frm.latch.unlock();
+            return;
+          }
+          part.table.remove(pid);
+        }
+        policy.pageEvicted(frm.index);
+        frm.pid = null;
+        frm.page = null;
+        droppedPrefetched(frm);
+        frm.latch.unlock();
+        freeFrames.add(frm);
     }
 
     /**
@@ -337,25 +759,59 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        Frame frm = lookup(pid);
+        if (frm == null) {
+          return;
+        }
+        frm.latch.lock();
+        try {
+          Page pg = frm.page;
+          TransactionId dirtier = pg == null ? null : pg.isDirty();
+          if (dirtier != null && pid.equals(pg.getId())) {
+            // write ahead: the changes must be in the log before the page is on disk.
+            LogFile log = Database.getLogFile();
+            log.logWrite(dirtier, pg.getBeforeImage(), pg);
+            log.force();
+            Database.getCatalog().getDbFile(pid.getTableId()).writePage(pg);
+            pg.markDirty(false, null);
+            // the next change is logged against the page as it is now on
+            // disk and in the log, which is also where rollback starts.
+            pg.setBeforeImage();
+            log.pageFlushed(pid);
+          }
+        } finally {
+          frm.latch.unlock();
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        for (Frame frm : frames) {
+          Page pg = frm.page;
+          if (pg != null && pg.isDirty() != null && tid.equals(pg.isDirty())) {
+            flushPage(pg.getId());
+          }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Look up a page in the buffer pool without pinning or reading it.
+     * Used by the recovery manager.
+     * @return the cached page or null if the page is not in the pool.
      */
-    @SuppressWarnings("unused")
-	private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for proj1
+    Page getCachedPage(PageId pid) {
+        Frame frm = lookup(pid);
+        if (frm == null) {
+          return null;
+        }
+        frm.latch.lock();
+        try {
+          Page pg = frm.page;
+          return pg != null && pid.equals(pg.getId()) ? pg : null;
+        } finally {
+          frm.latch.unlock();
+        }
     }
 
 }
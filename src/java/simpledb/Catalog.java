@@ -1,17 +1,37 @@
 package simpledb;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
  * associated schemas.
- * For now, this is a stub catalog that must be populated with tables by a
- * user program before it can be used -- eventually, this should be converted
- * to a catalog that reads a catalog table from disk.
+ * The catalog is populated with tables by a user program, from a text
+ * schema (see {@link #loadSchema}) or from a binary catalog file written by
+ * {@link #saveCatalog}.
+ * <p>
+ * Tables are indexed by id and by name in two ConcurrentHashMaps, so
+ * lookups take no lock and cost the same for any number of tables. Changes
+ * are serialized among themselves; adding a table with the id of a table in
+ * the catalog replaces that table in one step.
+ * <p>
+ * A catalog file holds the heap tables of the catalog: the integer
+ * CATALOG_MAGIC, the integer CATALOG_VERSION, the number of tables, and one
+ * record per table. A record is its length, then the name of the table, the
+ * path of its file, the primary key, the number of pages and of tuples, the
+ * number of fields and the type and name of each field. Strings are a
+ * short byte length (-1 for null) and UTF-8 bytes; types are Type ordinals.
+ * {@link #loadCatalog} maps the file and only reads the names and paths; the
+ * rest of a record is decoded, and the HeapFile created, the first time the
+ * table is used.
  */
 
 public class Catalog {
@@ -50,8 +70,7 @@ public class Catalog {
      * Specify a unique entry in the system catalog. For each entry in a catalog
      * this item should be unique. 
       */
-     @SuppressWarnings("unused")
-	private int entryId; 
+     private final int entryId;
      /**
       * Specify a name for this catalog entry.
       */
@@ -66,10 +85,15 @@ public class Catalog {
       */
      private TupleDesc tds;
      /**
-      * The number of pages this table has.
+      * The number of pages this table had when the catalog was last saved
+      * or loaded, or -1.
       */
-     @SuppressWarnings("unused")
-	private int numPage;
+     private volatile int numPage;
+     /**
+      * The number of tuples this table had when the catalog was last saved
+      * or loaded, or -1.
+      */
+     private volatile long numTuples;
      /**
       * The length of header part in a HeapPage, Caculated by bytes.
       */
@@ -82,11 +106,17 @@ public class Catalog {
       * The DbFile instance of this heap file.
       */
      private DbFile dbf;
-
-     ///**
-     // * The location of this table on the system disk.
-     // */
-     //private String tableLoc;
+     /**
+      * Whether the fields above are set. Entries read from a catalog file
+      * are loaded the first time their table is used.
+      */
+     private volatile boolean loaded;
+     /**
+      * For an entry that is not loaded: the rest of its record in the
+      * mapped catalog file, and the file of the table.
+      */
+     private ByteBuffer record;
+     private File file;
 
      /**
       * Constructs a catalog entry storing information about a heap table.
@@ -99,15 +129,73 @@ public class Catalog {
       public CatalogHeap(DbFile file, String tname, String pkey, TupleDesc tds){
         this.entryId = file.getId();
         this.entryName = tname;
-        this.numPage = 0;
+        this.numPage = -1;
+        this.numTuples = -1;
         this.pkey = pkey;
-        this.tds = tds;
         this.dbf = file; 
+        setSchema(tds);
+        this.loaded = true;
+      } 
+
+      /**
+       * Constructs an entry of a catalog file, which is loaded when the
+       * table is first used.
+       *
+       * @param id the id of the table, the id of its HeapFile.
+       * @param tname the name of this relation.
+       * @param file the file of the table.
+       * @param record the record of the table after its name and path.
+       */
+      CatalogHeap(int id, String tname, File file, ByteBuffer record){
+        this.entryId = id;
+        this.entryName = tname;
+        this.file = file;
+        this.record = record;
+      }
+
+      private void setSchema(TupleDesc tds){
+        this.tds = tds;
         if(tds != null){
           this.numSlots = (BufferPool.PAGE_SIZE * 8)/(tds.getSize() * 8 + 1);
           this.headerLen = (int) Math.ceil(((double) this.numSlots)/8); 
         }
-      } 
+      }
+
+      /**
+       * Decode the rest of the record and create the HeapFile, if this
+       * entry is not loaded yet.
+       * @throws IllegalStateException if the record is corrupt.
+       */
+      void load(){
+        if(loaded){
+          return;
+        }
+        synchronized(this){
+          if(loaded){
+            return;
+          }
+          try {
+            ByteBuffer buf = record;
+            pkey = readString(buf);
+            numPage = buf.getInt();
+            numTuples = buf.getLong();
+            int n = buf.getShort();
+            Type[] types = new Type[n];
+            String[] names = new String[n];
+            for(int i = 0; i < n; i++){
+              types[i] = Type.values()[buf.get()];
+              names[i] = readString(buf);
+            }
+            setSchema(new TupleDesc(types, names));
+          } catch (RuntimeException e) {
+            throw new IllegalStateException("corrupt catalog record of table " + entryName + ": " + e);
+          }
+          dbf = openFile(file, tds);
+          record = null;
+          file = null;
+          loaded = true;
+        }
+      }
 
       /**
        * Return the String representation of this entry item.
@@ -119,16 +207,56 @@ public class Catalog {
     
    }
   
-    private Hashtable<Integer, CatalogEntry> catalog; 
-    private LinkedList<Integer> ID;
+    /** "SDBC", the first integer of a catalog file. */
+    static final int CATALOG_MAGIC = 0x53444243;
+    /** The version of the catalog file format. */
+    static final int CATALOG_VERSION = 1;
+
+    private final ConcurrentHashMap<Integer, CatalogHeap> catalog;
+    private final ConcurrentHashMap<String, CatalogHeap> byName;
 
     /**
      * Creates a new, empty catalog.
      */
     public Catalog() {
         // some code goes here
-        catalog = new Hashtable<Integer, CatalogEntry>();
-        ID = new LinkedList<Integer>();
+        catalog = new ConcurrentHashMap<Integer, CatalogHeap>();
+        byName = new ConcurrentHashMap<String, CatalogHeap>();
+    }
+
+    /**
+     * @return the entry of a table, which may not be loaded.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    private CatalogHeap find(int tableid) throws NoSuchElementException {
+        CatalogHeap cah = catalog.get(tableid);
+        if (cah == null) {
+          throw new NoSuchElementException("no such table in the system catalog. The tableid is: " + tableid);
+        }
+        return cah;
+    }
+
+    /**
+     * @return the loaded entry of a table.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    private CatalogHeap entry(int tableid) throws NoSuchElementException {
+        CatalogHeap cah = find(tableid);
+        cah.load();
+        return cah;
+    }
+
+    /** Put an entry in both maps, replacing the table with its id. */
+    private synchronized void add(CatalogHeap cah) {
+        CatalogHeap old = catalog.put(cah.entryId, cah);
+        if (old != null && !old.entryName.equals(cah.entryName)) {
+          byName.remove(old.entryName, old);
+        }
+        CatalogHeap shadowed = byName.put(cah.entryName, cah);
+        if (shadowed != null && shadowed != old) {
+          // the name now belongs to this table; the other one keeps its id
+          Debug.log("table %d hides table %d named %s", cah.entryId, shadowed.entryId, cah.entryName);
+        }
     }
 
     /**
@@ -139,6 +267,7 @@ public class Catalog {
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      
      * conflict exists, use the last table to be added as the table for a given name.
+     * If a table with the same id exists, it is replaced.
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
@@ -147,17 +276,27 @@ public class Catalog {
           Debug.log("!!!warning: a table name of 'null' is founded.(Catalog.addTable)");
           name = String.valueOf(file.getId());
         }
-        Integer id = new Integer(file.getId());
-        CatalogHeap cah = new CatalogHeap(file,
-                                  name, pkeyField, file.getTupleDesc());  
-        System.out.println("ID is " + ID);
-        if(ID.contains(id)){
-          System.out.printf("!!!warning: tableid(%d) has beed inserted in system catalog. Repeated inserting is not allowed.\n", file.getId()); 
-        } else {
-          ID.add(id);
-          catalog.put(id, cah); 
+        add(new CatalogHeap(file, name, pkeyField, file.getTupleDesc()));
+    }
+
+    /**
+     * Add a new table to the catalog, and set how the pages of its file are
+     * read and written. The mode only applies to HeapFiles; other files
+     * ignore it.
+     * @param file the contents of the table to add
+     * @param name the name of the table
+     * @param pkeyField the name of the primary key field
+     * @param mode the access mode of the table's file
+     */
+    public void addTable(DbFile file, String name, String pkeyField, PageIO.Mode mode) {
+        if (file instanceof HeapFile) {
+          try {
+            ((HeapFile) file).setIOMode(mode);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
         }
-        
+        addTable(file, name, pkeyField);
     }
 
     public void addTable(DbFile file, String name) {
@@ -181,16 +320,11 @@ public class Catalog {
      */
     public int getTableId(String name) throws NoSuchElementException {
         // some code goes here
-        ListIterator<Integer> iter = ID.listIterator(0);
-        Integer id;
-        while(iter.hasNext()){
-          id = iter.next(); 
-          if(((CatalogHeap) catalog.get(id)).entryName.equals(name)){
-            return id.intValue(); 
-          }
-        } 
-        throw new NoSuchElementException("no such table named " + name + " in the system catalog.");
- 	 
+        CatalogHeap cah = name == null ? null : byName.get(name);
+        if (cah == null) {
+          throw new NoSuchElementException("no such table named " + name + " in the system catalog.");
+        }
+        return cah.entryId;
     }
     /**
      * Return the page info of the pages in the specified table.
@@ -200,15 +334,8 @@ public class Catalog {
      * @return the page info of the pages in the specified table.
      */
     public int[] getHAS(int tid) throws NoSuchElementException{
-	int[] HAS = new int[2];
-	CatalogHeap cah= (CatalogHeap) catalog.get(Integer.valueOf(tid));
-        if(cah == null){
-          throw new NoSuchElementException("no such table in the system catalog. The tableid is: " + String.valueOf(tid));
-        } else{
-	  HAS[0] = cah.headerLen;
-	  HAS[1] = cah.numSlots;
-	  return HAS;
-       }
+	CatalogHeap cah = entry(tid);
+	return new int[]{cah.headerLen, cah.numSlots};
     }
 
     /**
@@ -219,12 +346,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-       CatalogHeap cah= (CatalogHeap) catalog.get(Integer.valueOf(tableid));
-       if(cah == null){
-         throw new NoSuchElementException("no such table in the system catalog. The tableid is: " + String.valueOf(tableid));
-       } else{
-         return cah.tds;
-       } 
+        return entry(tableid).tds;
     }
 
     /**
@@ -235,50 +357,60 @@ public class Catalog {
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        //return null;
-        Catalog.CatalogHeap cah= (Catalog.CatalogHeap) catalog.get(Integer.valueOf(tableid));
-       if(cah == null){
-         throw new NoSuchElementException("no such table in the system catalog. The tableid is: " + String.valueOf(tableid));
-       } else{
-         return cah.dbf;
-       }
+        return entry(tableid).dbf;
     }
 
     public String getPrimaryKey(int tableid) {
         // some code goes here
-        // return null;
-        Catalog.CatalogHeap cah= (Catalog.CatalogHeap) catalog.get(Integer.valueOf(tableid));
-       if(cah == null){
-         throw new NoSuchElementException("no such table in the system catalog. The tableid is: " + String.valueOf(tableid));
-       } else{
-         return cah.pkey;
-       }
-
+        return entry(tableid).pkey;
     }
 
+    /**
+     * @return the ids of the tables. The iterator does not fail when tables
+     *         are added meanwhile, and may or may not return them.
+     */
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
-        //return null;
-        return ID.listIterator(0); 
+        return Collections.unmodifiableSet(catalog.keySet()).iterator();
     }
 
     public String getTableName(int tableid) {
         // some code goes here
-        // return null;
-        Catalog.CatalogHeap cah= (Catalog.CatalogHeap) catalog.get(Integer.valueOf(tableid));
-       if(cah == null){
-         throw new NoSuchElementException("no such table in the system catalog. The tableid is: " + String.valueOf(tableid));
-       } else{
-         return cah.entryName;
-       }
+        return find(tableid).entryName;
+    }
+
+    /**
+     * @return false if the table was read by {@link #loadCatalog} and has
+     *         not been used since, so its schema is not decoded yet.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public boolean isLoaded(int tableid) throws NoSuchElementException {
+        return find(tableid).loaded;
+    }
+
+    /**
+     * @return the number of pages of a table when the catalog was last
+     *         saved or loaded, or -1 if it was not.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getNumPages(int tableid) throws NoSuchElementException {
+        return entry(tableid).numPage;
+    }
+
+    /**
+     * @return the number of tuples of a table when the catalog was last
+     *         saved or loaded, or -1 if it was not.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public long getNumTuples(int tableid) throws NoSuchElementException {
+        return entry(tableid).numTuples;
     }
     
     /** Delete all tables from the catalog */
-    public void clear() {
+    public synchronized void clear() {
         // some code goes here
-        System.out.println("----->Clearing the system catalog...");
         catalog.clear();
-        System.out.println("----->System catalog clearing is done.");
+        byName.clear();
     }
     /**
      * Return the string format of this catalog.
@@ -324,6 +456,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -340,7 +474,7 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                DbFile tabHf = openFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -354,5 +488,170 @@ public class Catalog {
         	
         }
     }
-}
 
+    /**
+     * Writes the heap tables of this catalog to a catalog file, in the
+     * format described above, and records their number of pages and tuples.
+     * The tuples are counted from the pages on disk, so saving reads every
+     * page of every table. The paths of table files in the directory of
+     * the catalog file are stored relative to it. Tables whose file is not
+     * a HeapFile or a SlottedFile are not saved.
+     * <p>
+     * The catalog is written to a temporary file that then replaces f, so
+     * f is always either the old or the new catalog.
+     *
+     * @param f the catalog file to write.
+     */
+    public synchronized void saveCatalog(File f) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        ArrayList<CatalogHeap> heaps = new ArrayList<CatalogHeap>();
+        for (CatalogHeap cah : catalog.values()) {
+          cah.load();
+          if (cah.dbf instanceof HeapFile || cah.dbf instanceof SlottedFile) {
+            heaps.add(cah);
+          }
+        }
+
+        File tmp = new File(dir, f.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream rec = new DataOutputStream(record);
+        try {
+          out.writeInt(CATALOG_MAGIC);
+          out.writeInt(CATALOG_VERSION);
+          out.writeInt(heaps.size());
+          for (CatalogHeap cah : heaps) {
+            File file;
+            int pages;
+            long tuples = 0;
+            if (cah.dbf instanceof HeapFile) {
+              HeapFile hf = (HeapFile) cah.dbf;
+              file = hf.getFile().getAbsoluteFile();
+              pages = hf.numPages();
+              for (int i = 0; i < pages; i++) {
+                HeapPage page = (HeapPage) hf.readPage(new HeapPageId(cah.entryId, i));
+                tuples += cah.numSlots - page.getNumEmptySlots();
+              }
+            } else {
+              SlottedFile sf = (SlottedFile) cah.dbf;
+              file = sf.getFile().getAbsoluteFile();
+              pages = sf.numPages();
+              for (int i = 0; i < pages; i++) {
+                tuples += ((SlottedPage) sf.readPage(new HeapPageId(cah.entryId, i))).getNumTuples();
+              }
+            }
+            cah.numPage = pages;
+            cah.numTuples = tuples;
+
+            record.reset();
+            writeString(rec, cah.entryName);
+            writeString(rec, dir.equals(file.getParentFile()) ? file.getName() : file.getPath());
+            writeString(rec, cah.pkey);
+            rec.writeInt(pages);
+            rec.writeLong(tuples);
+            rec.writeShort(cah.tds.numFields());
+            for (int i = 0; i < cah.tds.numFields(); i++) {
+              rec.writeByte(cah.tds.getFieldType(i).ordinal());
+              writeString(rec, cah.tds.getFieldName(i));
+            }
+            rec.flush();
+            out.writeInt(record.size());
+            record.writeTo(out);
+          }
+        } finally {
+          out.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the tables of a catalog file written by {@link #saveCatalog}.
+     * The file is mapped and only the names and paths of the tables are
+     * read; a table's schema is decoded and its HeapFile created the first
+     * time the table is used, so this takes little time for any number of
+     * tables. Tables already in the catalog with the id of a loaded table
+     * are replaced.
+     *
+     * @param f the catalog file to read.
+     * @throws IOException if f is not a catalog file of this version, or is
+     *         truncated.
+     */
+    public void loadCatalog(File f) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        ByteBuffer buf;
+        FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+          buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+          ch.close();
+        }
+        if (buf.remaining() < 12 || buf.getInt() != CATALOG_MAGIC) {
+          throw new IOException(f + " is not a catalog file.");
+        }
+        int version = buf.getInt();
+        if (version != CATALOG_VERSION) {
+          throw new IOException(f + " has catalog version " + version + ", expected "
+                                + CATALOG_VERSION + ".");
+        }
+        try {
+          synchronized (this) {
+            int n = buf.getInt();
+            for (int i = 0; i < n; i++) {
+              int end = buf.getInt();
+              end += buf.position();
+              String name = readString(buf);
+              File file = new File(readString(buf));
+              if (!file.isAbsolute()) {
+                file = new File(dir, file.getPath());
+              }
+              ByteBuffer record = buf.slice();
+              record.limit(end - buf.position());
+              buf.position(end);
+              add(new CatalogHeap(file.hashCode(), name, file, record));
+            }
+          }
+        } catch (BufferUnderflowException e) {
+          throw new IOException(f + " is truncated.");
+        } catch (IllegalArgumentException e) {
+          throw new IOException(f + " is truncated.");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+          out.writeShort(-1);
+          return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length > Short.MAX_VALUE) {
+          throw new IOException("string of " + b.length + " bytes is too long for the catalog.");
+        }
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    /**
+     * @return the file of a table: a SlottedFile if the schema has a
+     *         VARCHAR field, or else a HeapFile.
+     */
+    static DbFile openFile(File f, TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+          if (td.getFieldType(i) == Type.VARCHAR_TYPE) {
+            return new SlottedFile(f, td);
+          }
+        }
+        return new HeapFile(f, td);
+    }
+
+    /** @return a string written by writeString, or null. */
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getShort();
+        if (len < 0) {
+          return null;
+        }
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The CLOCK replacement policy. Each frame has a reference bit that is set
+ * on every hit; the hand sweeps the frames, clears the bits it passes and
+ * takes the first frame whose bit is already clear.
+ * <p>
+ * Hits only set a bit, so they never take a lock. Each frame is passed at
+ * most twice per victim, which gives amortized O(1) replacement. CLOCK is
+ * not scan resistant: a long sequential scan sweeps out everything else.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private AtomicIntegerArray referenced;
+    private boolean[] resident;
+    private int hand;
+
+    public void init(int numFrames) {
+        referenced = new AtomicIntegerArray(numFrames);
+        resident = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        resident[frame] = true;
+        referenced.set(frame, 1);
+    }
+
+    public void pageHit(int frame) {
+        referenced.lazySet(frame, 1);
+    }
+
+    public synchronized int chooseVictim(FrameFilter filter) {
+        int n = resident.length;
+        for (int scanned = 0; scanned < 2 * n; scanned++) {
+            int i = hand;
+            hand = (hand + 1) % n;
+            if (!resident[i] || !filter.isEvictable(i)) {
+                continue;
+            }
+            if (referenced.get(i) != 0) {
+                referenced.set(i, 0);
+                continue;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    public synchronized void pageEvicted(int frame) {
+        resident[frame] = false;
+        referenced.set(frame, 0);
+    }
+
+    public String toString() {
+        return "CLOCK";
+    }
+}
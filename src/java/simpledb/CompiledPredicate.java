@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A predicate compiled for one schema by {@link PredicateCompiler}. It can
+ * test a Tuple, a tuple still in its page bytes, or a row of a
+ * {@link TupleBatch}, and it can filter a whole batch at once by narrowing
+ * its selection vector. None of these build Field objects for int columns.
+ * <p>
+ * Compiled predicates hold no state besides their constants and may be
+ * used by many threads at once.
+ */
+public abstract class CompiledPredicate {
+
+    /** @return true if the tuple satisfies the predicate. */
+    public abstract boolean matches(Tuple t);
+
+    /**
+     * Test a tuple stored in serialized form.
+     * @param buf the bytes holding the tuple, e.g. the data of a page.
+     * @param tupleOffset the offset of the first byte of the tuple in buf.
+     * @return true if the tuple satisfies the predicate.
+     */
+    public abstract boolean matches(ByteBuffer buf, int tupleOffset);
+
+    /** @return true if the row of the batch satisfies the predicate. */
+    public abstract boolean matchesRow(TupleBatch batch, int row);
+
+    /**
+     * Drop the selected rows of the batch that do not satisfy the
+     * predicate, keeping the selection vector in order.
+     * @return the number of rows still selected.
+     */
+    public int filter(TupleBatch batch) {
+        int[] sel = batch.getSelection();
+        int n = 0;
+        for (int k = 0, len = batch.numSelected(); k < len; k++) {
+            int row = sel[k];
+            if (matchesRow(batch, row)) {
+                sel[n++] = row;
+            }
+        }
+        batch.setNumSelected(n);
+        return n;
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli), the checksum of the log records. The JDK has it only
+ * from Java 9 on, so this is a table-driven version that processes eight
+ * bytes per step ("slicing-by-8"). Use {@link #create()}, which returns the
+ * much faster JDK class where there is one.
+ */
+public final class Crc32c implements Checksum {
+
+    /** The constructor of java.util.zip.CRC32C, or null before Java 9. */
+    private static final Constructor<? extends Checksum> JDK_CRC32C;
+    static {
+        Constructor<? extends Checksum> c;
+        try {
+            c = Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        } catch (ClassNotFoundException e) {
+            c = null;
+        } catch (NoSuchMethodException e) {
+            c = null;
+        }
+        JDK_CRC32C = c;
+    }
+
+    /** @return a new CRC-32C checksum, the JDK's if it has one. */
+    public static Checksum create() {
+        if (JDK_CRC32C != null) {
+            try {
+                return JDK_CRC32C.newInstance();
+            } catch (InstantiationException e) {
+                // not for a concrete class; the table version computes the same CRC.
+            } catch (IllegalAccessException e) {
+                // likewise if the constructor is not accessible.
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("java.util.zip.CRC32C() failed.", e.getCause());
+            }
+        }
+        return new Crc32c();
+    }
+
+    /** The reversed Castagnoli polynomial. */
+    private static final int POLY = 0x82F63B78;
+
+    /**
+     * TABLE[k * 256 + n] is the CRC of byte n followed by k zero bytes.
+     */
+    private static final int[] TABLE = new int[8 * 256];
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            TABLE[n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            int c = TABLE[n];
+            for (int k = 1; k < 8; k++) {
+                c = TABLE[c & 0xff] ^ (c >>> 8);
+                TABLE[k * 256 + n] = c;
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    public void update(int b) {
+        crc = TABLE[(crc ^ b) & 0xff] ^ (crc >>> 8);
+    }
+
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        while (len >= 8) {
+            int lo = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8
+                          | (b[off + 2] & 0xff) << 16 | b[off + 3] << 24);
+            int hi = (b[off + 4] & 0xff) | (b[off + 5] & 0xff) << 8
+                | (b[off + 6] & 0xff) << 16 | b[off + 7] << 24;
+            c = TABLE[7 * 256 + (lo & 0xff)] ^ TABLE[6 * 256 + ((lo >>> 8) & 0xff)]
+                ^ TABLE[5 * 256 + ((lo >>> 16) & 0xff)] ^ TABLE[4 * 256 + (lo >>> 24)]
+                ^ TABLE[3 * 256 + (hi & 0xff)] ^ TABLE[2 * 256 + ((hi >>> 8) & 0xff)]
+                ^ TABLE[256 + ((hi >>> 16) & 0xff)] ^ TABLE[hi >>> 24];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            c = TABLE[(c ^ b[off++]) & 0xff] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    public void update(byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    /** Update with the remaining bytes of buf, and move its position to its limit. */
+    public void update(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+        } else {
+            while (buf.hasRemaining()) {
+                update(buf.get());
+            }
+        }
+    }
+
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    public void reset() {
+        crc = 0xffffffff;
+    }
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A bucket page of a HashFile, holding the tuples whose key hashes to the
+ * bucket, in no particular order. The format is the category byte, a byte
+ * with the local depth l of the bucket, the integer page number of the
+ * next page of the bucket's chain (0 if there is none), the integer number
+ * of tuples n, and then the n tuples back to back.
+ * <p>
+ * The tuples of a bucket with local depth l all agree on the low l bits of
+ * their hash. A bucket is one page unless it holds more tuples of one hash
+ * than fit on a page; the other pages of its chain are bucket pages too.
+ * <p>
+ * The RecordId of a tuple read from a bucket is its position in the page,
+ * which changes when tuples are deleted.
+ *
+ * @see HashFile
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int LOCAL_DEPTH = 1;
+    private static final int NEXT = 2;
+    private static final int NUM_TUPLES = 6;
+    private static final int HEADER_SIZE = 10;
+
+    final TupleDesc td;
+    final int keyField;
+    private final Type keyType;
+    /** The types of the fields, and their offsets within a tuple; from td. */
+    private final Type[] fieldTypes;
+    private final int[] fieldOffsets;
+    private final int tupleSize;
+    private final int maxTuples;
+
+    /**
+     * Create a bucket page from its bytes on disk. The schema and key field
+     * are those of the page's HashFile in the catalog. The page keeps and
+     * works on the given array; it is not copied.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        super(id, data);
+        HashFile f = fileOf(id);
+        this.td = f.getTupleDesc();
+        this.keyField = f.keyField();
+        this.keyType = td.getFieldType(keyField);
+        this.fieldTypes = td.fieldTypes();
+        this.fieldOffsets = td.fieldOffsets();
+        this.tupleSize = td.getSize();
+        this.maxTuples = maxTuples(td);
+        if (getNumTuples() < 0 || getNumTuples() > maxTuples) {
+            throw new IOException("bucket page " + id.pageNumber() + " has " + getNumTuples() + " tuples.");
+        }
+    }
+
+    /** @return the number of tuples a bucket page of the given schema holds. */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / td.getSize();
+    }
+
+    public int getNumTuples() {
+        return buf.getInt(NUM_TUPLES);
+    }
+
+    private void setNumTuples(int n) {
+        buf.putInt(NUM_TUPLES, n);
+    }
+
+    public int getMaxTuples() {
+        return maxTuples;
+    }
+
+    public boolean isFull() {
+        return getNumTuples() == maxTuples;
+    }
+
+    /** @return the number of low bits of the hash that all tuples of the bucket share. */
+    public int getLocalDepth() {
+        return data[LOCAL_DEPTH];
+    }
+
+    void setLocalDepth(int depth) {
+        data[LOCAL_DEPTH] = (byte) depth;
+    }
+
+    /** @return the id of the next page of the chain, or null if this is the last. */
+    public HashPageId getNextId() {
+        int next = buf.getInt(NEXT);
+        return next == 0 ? null : new HashPageId(pid.getTableId(), next, HashPageId.BUCKET);
+    }
+
+    void setNext(int pgNo) {
+        buf.putInt(NEXT, pgNo);
+    }
+
+    private int offsetOf(int i) {
+        return HEADER_SIZE + i * tupleSize;
+    }
+
+    /** @return the hash of the key of the ith tuple, see {@link HashFile#hash}. */
+    int keyHash(int i) {
+        int off = offsetOf(i) + fieldOffsets[keyField];
+        return keyType == Type.INT_TYPE ? HashFile.hashInt(buf.getInt(off))
+            : HashFile.hash(readField(keyType, off));
+    }
+
+    /** @return whether the key of the ith tuple equals key. Int keys are compared in place. */
+    boolean keyEquals(int i, Field key) {
+        int off = offsetOf(i) + fieldOffsets[keyField];
+        if (keyType == Type.INT_TYPE) {
+            return buf.getInt(off) == ((IntField) key).getValue();
+        }
+        return readField(keyType, off).equals(key);
+    }
+
+    /**
+     * Build the ith tuple. Int fields are read from the page; the other
+     * fields are kept in a copy of the tuple's bytes.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= getNumTuples()) {
+            throw new java.util.NoSuchElementException("no tuple " + i + " on page " + pid + ".");
+        }
+        int base = offsetOf(i);
+        byte[] slab = null;
+        if (!td.isAllInts()) {
+            slab = new byte[tupleSize];
+            System.arraycopy(data, base, slab, 0, tupleSize);
+        }
+        int[] values = new int[fieldTypes.length];
+        for (int j = 0; j < fieldTypes.length; j++) {
+            int off = base + fieldOffsets[j];
+            values[j] = fieldTypes[j] == Type.INT_TYPE ? buf.getInt(off) : off - base;
+        }
+        return new Tuple(td, values, 0, slab, pid, i);
+    }
+
+    /** @return whether the ith tuple has the same fields as t. */
+    boolean matches(int i, Tuple t) {
+        for (int j = 0; j < fieldTypes.length; j++) {
+            int off = offsetOf(i) + fieldOffsets[j];
+            boolean same = fieldTypes[j] == Type.INT_TYPE ? buf.getInt(off) == t.getInt(j)
+                : readField(fieldTypes[j], off).equals(t.getField(j));
+            if (!same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a tuple after the others. The RecordId of the tuple is set.
+     * @throws DbException if the page is full or the schema does not match.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of page " + pid + ".");
+        }
+        int n = getNumTuples();
+        if (n == maxTuples) {
+            throw new DbException("page " + pid + " is full.");
+        }
+        int base = offsetOf(n);
+        for (int j = 0; j < fieldTypes.length; j++) {
+            if (fieldTypes[j] == Type.INT_TYPE) {
+                buf.putInt(base + fieldOffsets[j], t.getInt(j));
+            } else {
+                writeField(t.getField(j), base + fieldOffsets[j]);
+            }
+        }
+        setNumTuples(n + 1);
+        t.setRecordId(new RecordId(pid, n));
+    }
+
+    /**
+     * Add a tuple in its on-disk format after the others; the page must
+     * not be full.
+     */
+    void appendRaw(byte[] src, int off) {
+        int n = getNumTuples();
+        System.arraycopy(src, off, data, offsetOf(n), tupleSize);
+        setNumTuples(n + 1);
+    }
+
+    /** Copy the ith tuple in its on-disk format into dst at off. */
+    void copyRaw(int i, byte[] dst, int off) {
+        System.arraycopy(data, offsetOf(i), dst, off, tupleSize);
+    }
+
+    /** Remove the ith tuple; the last tuple takes its place. */
+    void deleteTuple(int i) {
+        int n = getNumTuples();
+        System.arraycopy(data, offsetOf(n - 1), data, offsetOf(i), (n - i > 1) ? tupleSize : 0);
+        // free space is all zeros on disk.
+        java.util.Arrays.fill(data, offsetOf(n - 1), offsetOf(n), (byte) 0);
+        setNumTuples(n - 1);
+    }
+
+    /** Remove all tuples; the local depth and the chain are kept. */
+    void clear() {
+        java.util.Arrays.fill(data, HEADER_SIZE, offsetOf(getNumTuples()), (byte) 0);
+        setNumTuples(0);
+    }
+
+    /**
+     * Copy the int fields of the ith tuple into the int columns of a new row
+     * of a batch, and parse the other fields.
+     */
+    void fillBatch(int i, TupleBatch batch) {
+        int[][] ints = batch.intColumns();
+        int row = batch.addRow(pid, i);
+        int base = offsetOf(i);
+        for (int j = 0; j < fieldTypes.length; j++) {
+            if (ints[j] != null) {
+                ints[j][row] = buf.getInt(base + fieldOffsets[j]);
+            } else {
+                batch.setField(j, row, readField(fieldTypes[j], base + fieldOffsets[j]));
+            }
+        }
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, oldData.clone());
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * A page of the directory of a HashFile. The format is the category byte,
+ * three unused bytes, and ENTRIES integer page numbers of buckets; entry i
+ * of the directory is entry i % ENTRIES of its page i / ENTRIES.
+ *
+ * @see HashFile
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private static final int HEADER_SIZE = 4;
+    /** The number of directory entries on a page. */
+    public static final int ENTRIES = (BufferPool.PAGE_SIZE - HEADER_SIZE) / 4;
+
+    /**
+     * Create a directory page from its bytes on disk. The page keeps and
+     * works on the given array; it is not copied.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /** @return the page number of the bucket of entry i of this page. */
+    public int getBucket(int i) {
+        return buf.getInt(HEADER_SIZE + i * 4);
+    }
+
+    void setBucket(int i, int pgNo) {
+        buf.putInt(HEADER_SIZE + i * 4, pgNo);
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, oldData.clone());
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+}
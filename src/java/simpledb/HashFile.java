@@ -0,0 +1,829 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashFile is a DbFile that stores the tuples of a table in an extendible
+ * hash table on one key field. It serves equality lookups on the key with
+ * {@link #indexIterator}, reading the header, one directory page and the
+ * key's bucket, and a full scan in no particular order with
+ * {@link #iterator}.
+ * <p>
+ * Page 0 is a {@link HashHeaderPage} with the global depth d of the
+ * directory and the page where it starts. The directory has 2^d entries on
+ * consecutive {@link HashDirectoryPage}s; entry i holds the page of the
+ * bucket of the keys whose hash ends in the d bits of i. A
+ * {@link HashBucketPage} of local depth l is the bucket of 2^(d - l)
+ * entries. All pages are read and written through the buffer pool, and
+ * their changes are logged like those of heap pages.
+ * <p>
+ * An insert into a full bucket splits it on the next bit of the hash,
+ * moving about half of its tuples to a new bucket at the end of the file
+ * and pointing half of its entries at the new bucket; no other bucket is
+ * touched. When the bucket has local depth d, the directory is doubled
+ * first: the larger directory is written to the end of the file, outside
+ * the buffer pool, and only the change of the header page is logged, so an
+ * abort goes back to the old directory, which is never modified by a
+ * doubling. The old directory pages stay unused. Keys whose hashes agree
+ * on MAX_DEPTH bits cannot be told apart by splitting, and share a chain
+ * of bucket pages instead. Deletes never merge buckets.
+ * <p>
+ * A new hash table can be built from any file with {@link #bulkLoad}.
+ *
+ * @see HashPageId
+ */
+@SuppressWarnings("serial")
+public class HashFile implements IndexFile {
+
+    /** The largest global depth: a directory of up to 2^MAX_DEPTH entries. */
+    public static final int MAX_DEPTH = 24;
+    /** A bulk load spills the tuples to 2^PARTITION_BITS files, by the low bits of their hash. */
+    private static final int PARTITION_BITS = 6;
+    /**
+     * The fill of the buckets a bulk load aims for; the rest is room for
+     * the buckets that get more than their share of keys.
+     */
+    private static final double BULK_FILL = 0.75;
+
+    private final File file;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int tableid;
+    private volatile PageIO.Mode mode;
+    /** Opened lazily, and not kept when the file is serialized. */
+    private transient volatile PageIO io;
+
+    /**
+     * Constructs a hash table backed by the specified file. An empty file
+     * becomes an empty table.
+     *
+     * @param f the file that stores the on-disk backing store for this table.
+     * @param keyField the index of the field the tuples are hashed on.
+     * @param td the schema of the tuples.
+     */
+    public HashFile(File f, int keyField, TupleDesc td) {
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " in " + td);
+        }
+        this.file = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.mode = PageIO.DEFAULT_MODE;
+    }
+
+    /** @return the File backing this HashFile on disk. */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the index of the key field. */
+    public int keyField() {
+        return keyField;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Change the way the pages of this file are read and written. Pages
+     * already in the buffer pool are not affected.
+     */
+    public synchronized void setIOMode(PageIO.Mode mode) throws IOException {
+        if (mode == this.mode) {
+            return;
+        }
+        this.mode = mode;
+        if (io != null) {
+            io.close();
+            io = null;
+        }
+    }
+
+    /**
+     * @return the PageIO of this file, opening it if needed. An empty file
+     *         is given a header page, one empty bucket and a directory of
+     *         one entry.
+     */
+    private PageIO io() throws IOException {
+        PageIO pio = io;
+        if (pio == null) {
+            synchronized (this) {
+                if (io == null) {
+                    PageIO opened = PageIO.open(file, mode);
+                    if (opened.numPages() == 0) {
+                        byte[] pages = new byte[3 * BufferPool.PAGE_SIZE];
+                        HashHeaderPage header = new HashHeaderPage(headerId(),
+                            HashPage.createEmptyPageData(HashPageId.HEADER));
+                        header.setDirectory(0, 2);
+                        System.arraycopy(header.getPageData(), 0, pages, 0, BufferPool.PAGE_SIZE);
+                        pages[BufferPool.PAGE_SIZE] = HashPageId.BUCKET;
+                        writeDirectory(new int[]{1}, pages, 2 * BufferPool.PAGE_SIZE);
+                        opened.writePages(0, pages, 3);
+                        opened.force();
+                    }
+                    io = opened;
+                }
+                pio = io;
+            }
+        }
+        return pio;
+    }
+
+    /** Release the file handle of this HashFile. It is opened again when needed. */
+    public synchronized void close() throws IOException {
+        if (io != null) {
+            io.close();
+            io = null;
+        }
+    }
+
+    private HashPageId headerId() {
+        return new HashPageId(tableid, 0, HashPageId.HEADER);
+    }
+
+    /**
+     * Read a page from disk. The id says which kind of page to build; it
+     * should be a HashPageId.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this
+     *         file, or is not of the kind the id says.
+     */
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != tableid || !(pid instanceof HashPageId)) {
+            throw new IllegalArgumentException("page " + pid + " is not in table " + tableid + ".");
+        }
+        HashPageId id = (HashPageId) pid;
+        int pgNo = id.pageNumber();
+        try {
+            PageIO pio = io();
+            if (pgNo < 0 || pgNo >= pio.numPages()) {
+                throw new IllegalArgumentException("page " + pgNo + " does not exist in " + file + ".");
+            }
+            ByteBuffer page = pio.readPage(pgNo);
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            page.duplicate().get(data);
+            switch (id.pgcateg()) {
+            case HashPageId.HEADER:
+                return new HashHeaderPage(id, data);
+            case HashPageId.DIRECTORY:
+                return new HashDirectoryPage(id, data);
+            default:
+                return new HashBucketPage(id, data);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to read page " + pgNo + " of " + file + ": " + e.getMessage());
+        }
+    }
+
+    public void writePage(Page page) throws IOException {
+        io().writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** @return the number of pages in this file, header page included. */
+    public int numPages() {
+        try {
+            return io().numPages();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to open " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the hash of an int key. The bits of the value are mixed
+     *         (the finalizer of MurmurHash3), so that the low bits, which
+     *         index the directory, depend on all of them.
+     */
+    static int hashInt(int v) {
+        v ^= v >>> 16;
+        v *= 0x85ebca6b;
+        v ^= v >>> 13;
+        v *= 0xc2b2ae35;
+        v ^= v >>> 16;
+        return v;
+    }
+
+    /** @return the hash of a key; equal keys have equal hashes. */
+    static int hash(Field key) {
+        return hashInt(key instanceof IntField ? ((IntField) key).getValue() : key.hashCode());
+    }
+
+    /** @return the mask of the low depth bits of a hash. */
+    private static int mask(int depth) {
+        return (1 << depth) - 1;
+    }
+
+    /** @return the number of pages of a directory of the given depth. */
+    private static int directoryPages(int depth) {
+        return ((1 << depth) + HashDirectoryPage.ENTRIES - 1) / HashDirectoryPage.ENTRIES;
+    }
+
+    /**
+     * Write a directory with the given bucket pages into an array of
+     * consecutive pages, starting at off.
+     */
+    private static void writeDirectory(int[] buckets, byte[] pages, int off) {
+        ByteBuffer b = ByteBuffer.wrap(pages);
+        for (int i = 0; i < buckets.length; i++) {
+            int page = off + (i / HashDirectoryPage.ENTRIES) * BufferPool.PAGE_SIZE;
+            pages[page] = HashPageId.DIRECTORY;
+            b.putInt(page + 4 + (i % HashDirectoryPage.ENTRIES) * 4, buckets[i]);
+        }
+    }
+
+    private Page getPage(TransactionId tid, HashPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    private HashHeaderPage header(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashHeaderPage) getPage(tid, headerId(), perm);
+    }
+
+    /** @return the directory page holding entry i. */
+    private HashDirectoryPage directoryPage(TransactionId tid, HashHeaderPage header, int i,
+                                            Permissions perm)
+            throws DbException, TransactionAbortedException {
+        int pgNo = header.getDirectoryPage() + i / HashDirectoryPage.ENTRIES;
+        return (HashDirectoryPage) getPage(tid, new HashPageId(tableid, pgNo, HashPageId.DIRECTORY), perm);
+    }
+
+    /** @return the first page of the bucket of directory entry i. */
+    private HashBucketPage bucket(TransactionId tid, HashHeaderPage header, int i, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        int pgNo = directoryPage(tid, header, i, Permissions.READ_ONLY)
+            .getBucket(i % HashDirectoryPage.ENTRIES);
+        return (HashBucketPage) getPage(tid, new HashPageId(tableid, pgNo, HashPageId.BUCKET), perm);
+    }
+
+    /**
+     * Add an empty bucket page of the given local depth to the end of the
+     * file and fetch it through the buffer pool.
+     */
+    private synchronized HashBucketPage newBucket(TransactionId tid, int localDepth)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = numPages();
+        byte[] data = HashPage.createEmptyPageData(HashPageId.BUCKET);
+        data[1] = (byte) localDepth;
+        io().writePage(pgNo, data);
+        return (HashBucketPage) getPage(tid, new HashPageId(tableid, pgNo, HashPageId.BUCKET),
+                                        Permissions.READ_WRITE);
+    }
+
+    private static void dirty(TransactionId tid, HashPage page, ArrayList<Page> dirtied) {
+        page.markDirty(true, tid);
+        if (!dirtied.contains(page)) {
+            dirtied.add(page);
+        }
+    }
+
+    /** @return the pages of the chain of a bucket, from its first page on. */
+    private ArrayList<HashBucketPage> chain(TransactionId tid, HashBucketPage first, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        ArrayList<HashBucketPage> pages = new ArrayList<HashBucketPage>();
+        for (HashBucketPage p = first; p != null;
+             p = p.getNextId() == null ? null : (HashBucketPage) getPage(tid, p.getNextId(), perm)) {
+            pages.add(p);
+        }
+        return pages;
+    }
+
+    /**
+     * Insert a tuple into the bucket of its key, splitting the bucket, and
+     * doubling the directory, as needed. Inserts into one table are
+     * serialized.
+     *
+     * @return the pages that were modified, all marked dirty by tid.
+     * @throws DbException if the tuple does not match the schema.
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+        }
+        int h = hash(t.getField(keyField));
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        while (true) {
+            HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+            int entry = h & mask(header.getGlobalDepth());
+            HashBucketPage first = bucket(tid, header, entry, Permissions.READ_WRITE);
+            ArrayList<HashBucketPage> pages = chain(tid, first, Permissions.READ_WRITE);
+            for (HashBucketPage p : pages) {
+                if (!p.isFull()) {
+                    p.insertTuple(t);
+                    dirty(tid, p, dirtied);
+                    return dirtied;
+                }
+            }
+            if (!splittable(pages, h)) {
+                HashBucketPage last = pages.get(pages.size() - 1);
+                HashBucketPage added = newBucket(tid, first.getLocalDepth());
+                last.setNext(added.getId().pageNumber());
+                added.insertTuple(t);
+                dirty(tid, last, dirtied);
+                dirty(tid, added, dirtied);
+                return dirtied;
+            }
+            split(tid, header, h, pages, dirtied);
+        }
+    }
+
+    /**
+     * @return whether splitting a full bucket can make room for a key of
+     *         hash h: some key of the bucket differs from h in the low
+     *         MAX_DEPTH bits, and the bucket is not that deep yet.
+     */
+    private static boolean splittable(ArrayList<HashBucketPage> pages, int h) {
+        if (pages.get(0).getLocalDepth() >= MAX_DEPTH) {
+            return false;
+        }
+        int bits = h & mask(MAX_DEPTH);
+        for (HashBucketPage p : pages) {
+            for (int i = 0; i < p.getNumTuples(); i++) {
+                if ((p.keyHash(i) & mask(MAX_DEPTH)) != bits) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split the bucket of hash h on bit l of the hash, l its local depth:
+     * the tuples with that bit set move to a new bucket, and so do the
+     * directory entries with that bit set.
+     */
+    private void split(TransactionId tid, HashHeaderPage header, int h,
+                       ArrayList<HashBucketPage> pages, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int l = pages.get(0).getLocalDepth();
+        if (l == header.getGlobalDepth()) {
+            header = doubleDirectory(tid, dirtied);
+        }
+        int tupleSize = td.getSize();
+        int n = 0;
+        for (HashBucketPage p : pages) {
+            n += p.getNumTuples();
+        }
+        byte[] raw = new byte[n * tupleSize];
+        int[] hashes = new int[n];
+        int k = 0;
+        for (HashBucketPage p : pages) {
+            for (int i = 0; i < p.getNumTuples(); i++, k++) {
+                p.copyRaw(i, raw, k * tupleSize);
+                hashes[k] = p.keyHash(i);
+            }
+            p.clear();
+            p.setLocalDepth(l + 1);
+            dirty(tid, p, dirtied);
+        }
+
+        HashBucketPage sibling = newBucket(tid, l + 1);
+        dirty(tid, sibling, dirtied);
+        HashBucketPage stay = pages.get(0);
+        HashBucketPage move = sibling;
+        int next = 1;
+        for (k = 0; k < n; k++) {
+            if ((hashes[k] & (1 << l)) == 0) {
+                // the old chain held them all, so it has room for these.
+                while (stay.isFull()) {
+                    stay = pages.get(next++);
+                }
+                stay.appendRaw(raw, k * tupleSize);
+            } else {
+                if (move.isFull()) {
+                    HashBucketPage added = newBucket(tid, l + 1);
+                    move.setNext(added.getId().pageNumber());
+                    dirty(tid, added, dirtied);
+                    move = added;
+                }
+                move.appendRaw(raw, k * tupleSize);
+            }
+        }
+
+        int d = header.getGlobalDepth();
+        int pgNo = sibling.getId().pageNumber();
+        for (int i = (h & mask(l)) | (1 << l); i <= mask(d); i += 1 << (l + 1)) {
+            HashDirectoryPage dir = directoryPage(tid, header, i, Permissions.READ_WRITE);
+            dir.setBucket(i % HashDirectoryPage.ENTRIES, pgNo);
+            dirty(tid, dir, dirtied);
+        }
+    }
+
+    /**
+     * Write a directory of twice the entries to the end of the file, each
+     * entry i + 2^d pointing where entry i does, and make the header point
+     * to it.
+     * @return the header page.
+     */
+    private HashHeaderPage doubleDirectory(TransactionId tid, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        HashHeaderPage header = header(tid, Permissions.READ_WRITE);
+        int d = header.getGlobalDepth();
+        int[] buckets = new int[1 << (d + 1)];
+        HashDirectoryPage dir = null;
+        for (int i = 0; i < 1 << d; i++) {
+            if (i % HashDirectoryPage.ENTRIES == 0) {
+                dir = directoryPage(tid, header, i, Permissions.READ_ONLY);
+            }
+            buckets[i] = dir.getBucket(i % HashDirectoryPage.ENTRIES);
+            buckets[i + (1 << d)] = buckets[i];
+        }
+        int npages = directoryPages(d + 1);
+        byte[] pages = new byte[npages * BufferPool.PAGE_SIZE];
+        writeDirectory(buckets, pages, 0);
+        int first = numPages();
+        io().writePages(first, pages, npages);
+        io().force();
+        header.setDirectory(d + 1, first);
+        dirty(tid, header, dirtied);
+        return header;
+    }
+
+    /**
+     * Remove a tuple with the same fields as t from its bucket. Buckets are
+     * not merged.
+     *
+     * @return the modified page, marked dirty by tid.
+     * @throws DbException if no such tuple is in the table.
+     */
+    public synchronized Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+        }
+        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+        int entry = hash(t.getField(keyField)) & mask(header.getGlobalDepth());
+        HashBucketPage first = bucket(tid, header, entry, Permissions.READ_WRITE);
+        for (HashBucketPage p : chain(tid, first, Permissions.READ_WRITE)) {
+            for (int i = 0; i < p.getNumTuples(); i++) {
+                if (p.matches(i, t)) {
+                    p.deleteTuple(i);
+                    p.markDirty(true, tid);
+                    t.setRecordId(null);
+                    return p;
+                }
+            }
+        }
+        throw new DbException("the tuple is not in table " + tableid + ".");
+    }
+
+    /**
+     * Build the table from the tuples of any file with its schema. The
+     * tuples are spilled to temporary files next to this one by the low
+     * bits of their hash; then the buckets of each of those files are built
+     * in memory, filled to about BULK_FILL, and all pages are written
+     * straight to this file, bypassing the buffer pool and the log. So the
+     * table must be empty, the tuples of one temporary file must fit in
+     * memory, and a crash during the load leaves a table that must be
+     * built again.
+     *
+     * @param tid the transaction reading the source file.
+     * @param source a file with the schema of this table.
+     * @return the number of tuples loaded.
+     * @throws DbException if the table is not empty, or a tuple does not
+     *         match the schema.
+     */
+    public synchronized long bulkLoad(TransactionId tid, DbFile source)
+            throws DbException, IOException, TransactionAbortedException {
+        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+        if (numPages() != 3 || header.getGlobalDepth() != 0
+                || bucket(tid, header, 0, Permissions.READ_ONLY).getNumTuples() != 0) {
+            throw new DbException("the hash table of table " + tableid + " is not empty.");
+        }
+        // all three pages are overwritten below.
+        Database.getBufferPool().discardPage(headerId());
+        Database.getBufferPool().discardPage(new HashPageId(tableid, 1, HashPageId.BUCKET));
+        Database.getBufferPool().discardPage(new HashPageId(tableid, 2, HashPageId.DIRECTORY));
+
+        int nparts = 1 << PARTITION_BITS;
+        File[] parts = new File[nparts];
+        DataOutputStream[] outs = new DataOutputStream[nparts];
+        long count = 0;
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            for (int p = 0; p < nparts; p++) {
+                parts[p] = File.createTempFile("hashload", ".part", dir);
+                outs[p] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(parts[p]), 1 << 16));
+            }
+            DbFileIterator it = source.iterator(tid);
+            it.open();
+            try {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (!td.equals(t.getTupleDesc())) {
+                        throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+                    }
+                    writeTuple(t, outs[hash(t.getField(keyField)) & mask(PARTITION_BITS)]);
+                    count++;
+                }
+            } finally {
+                it.close();
+            }
+            for (DataOutputStream out : outs) {
+                out.close();
+            }
+
+            int perBucket = Math.max(1, (int) (HashBucketPage.maxTuples(td) * BULK_FILL));
+            int depth = 0;
+            while (depth < MAX_DEPTH && ((long) perBucket << depth) < count) {
+                depth++;
+            }
+            int[] buckets = new int[1 << depth];
+            int nextPage = 1;
+            if (depth < PARTITION_BITS) {
+                // the spilled files share buckets; there are few tuples.
+                nextPage = writeBuckets(parts, 0, depth, buckets, nextPage);
+            } else {
+                for (int p = 0; p < nparts; p++) {
+                    nextPage = writeBuckets(new File[]{parts[p]}, p, depth, buckets, nextPage);
+                }
+            }
+            int npages = directoryPages(depth);
+            byte[] pages = new byte[npages * BufferPool.PAGE_SIZE];
+            writeDirectory(buckets, pages, 0);
+            io().writePages(nextPage, pages, npages);
+            HashHeaderPage h = new HashHeaderPage(headerId(), HashPage.createEmptyPageData(HashPageId.HEADER));
+            h.setDirectory(depth, nextPage);
+            io().writePage(0, h.getPageData());
+            io().force();
+        } finally {
+            for (int p = 0; p < nparts; p++) {
+                if (outs[p] != null) {
+                    outs[p].close();
+                }
+                if (parts[p] != null) {
+                    parts[p].delete();
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Write a tuple in its on-disk format. */
+    private void writeTuple(Tuple t, DataOutputStream out) throws IOException {
+        Type[] types = td.fieldTypes();
+        for (int j = 0; j < types.length; j++) {
+            if (types[j] == Type.INT_TYPE) {
+                out.writeInt(t.getInt(j));
+            } else {
+                t.getField(j).serialize(out);
+            }
+        }
+    }
+
+    /**
+     * Build and write the buckets of the spilled tuples of some files: all
+     * directory entries whose low PARTITION_BITS bits are part, or all
+     * entries if depth is less than PARTITION_BITS. Each bucket is written
+     * at nextPage on, followed by its overflow pages, if any.
+     *
+     * @param buckets the directory, where the first pages of the buckets
+     *        are set.
+     * @return the page after the last one written.
+     */
+    private int writeBuckets(File[] files, int part, int depth, int[] buckets, int nextPage)
+            throws IOException {
+        int tupleSize = td.getSize();
+        byte[] raw;
+        if (files.length == 1) {
+            raw = java.nio.file.Files.readAllBytes(files[0].toPath());
+        } else {
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            for (File f : files) {
+                all.write(java.nio.file.Files.readAllBytes(f.toPath()));
+            }
+            raw = all.toByteArray();
+        }
+        int n = raw.length / tupleSize;
+
+        // sort the tuples by bucket, numbering the buckets of this part from 0.
+        int shift = depth < PARTITION_BITS ? 0 : PARTITION_BITS;
+        int nbuckets = 1 << (depth - shift);
+        Type keyType = td.getFieldType(keyField);
+        int keyOffset = td.fieldOffsets()[keyField];
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        int[] bucketOf = new int[n];
+        int[] starts = new int[nbuckets + 1];
+        for (int k = 0; k < n; k++) {
+            int off = k * tupleSize + keyOffset;
+            int h;
+            if (keyType == Type.INT_TYPE) {
+                h = hashInt(buf.getInt(off));
+            } else {
+                try {
+                    h = hash(keyType.parse(buf, off));
+                } catch (java.text.ParseException e) {
+                    throw new IOException("failed to parse a spilled key: " + e.getMessage());
+                }
+            }
+            bucketOf[k] = (h & mask(depth)) >>> shift;
+            starts[bucketOf[k] + 1]++;
+        }
+        for (int b = 0; b < nbuckets; b++) {
+            starts[b + 1] += starts[b];
+        }
+        int[] order = new int[n];
+        int[] fill = Arrays.copyOf(starts, nbuckets);
+        for (int k = 0; k < n; k++) {
+            order[fill[bucketOf[k]]++] = k;
+        }
+        bucketOf = null;
+
+        int maxTuples = HashBucketPage.maxTuples(td);
+        int npages = 0;
+        for (int b = 0; b < nbuckets; b++) {
+            npages += Math.max(1, (starts[b + 1] - starts[b] + maxTuples - 1) / maxTuples);
+        }
+        byte[] pages = new byte[npages * BufferPool.PAGE_SIZE];
+        int pgNo = nextPage;
+        for (int b = 0; b < nbuckets; b++) {
+            buckets[(b << shift) | part] = pgNo;
+            int k = starts[b];
+            do {
+                HashBucketPage page = new HashBucketPage(new HashPageId(tableid, pgNo, HashPageId.BUCKET),
+                                                         HashPage.createEmptyPageData(HashPageId.BUCKET));
+                page.setLocalDepth(depth);
+                for (; k < starts[b + 1] && !page.isFull(); k++) {
+                    page.appendRaw(raw, order[k] * tupleSize);
+                }
+                if (k < starts[b + 1]) {
+                    page.setNext(pgNo + 1);
+                }
+                System.arraycopy(page.getPageData(), 0, pages, (pgNo - nextPage) * BufferPool.PAGE_SIZE,
+                                 BufferPool.PAGE_SIZE);
+                pgNo++;
+            } while (k < starts[b + 1]);
+        }
+        io().writePages(nextPage, pages, npages);
+        return pgNo;
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the table, bucket by
+     * bucket.
+     */
+    public BatchDbFileIterator iterator(TransactionId tid) {
+        return new HashIterator(tid, null);
+    }
+
+    /**
+     * @return whether indexIterator reads only the bucket of the operand:
+     *         for EQUALS, and LIKE on int keys, which is the same.
+     */
+    public boolean serves(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS
+            || (op == Predicate.Op.LIKE && td.getFieldType(keyField) == Type.INT_TYPE);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key field satisfies a
+     * predicate. If the predicate is served, see {@link #serves}, only the
+     * bucket of the operand is read: the header, a directory page and the
+     * pages of the bucket, which are usually one. Any other predicate is
+     * checked on every tuple of the table.
+     *
+     * @param p a predicate on the key field.
+     * @throws IllegalArgumentException if p is not on the key field.
+     */
+    public BatchDbFileIterator indexIterator(TransactionId tid, Predicate p) {
+        if (p.getField() != keyField) {
+            throw new IllegalArgumentException("the predicate is on field " + p.getField()
+                                               + ", the key field is " + keyField + ".");
+        }
+        return new HashIterator(tid, p);
+    }
+
+    /**
+     * Iterates over the bucket of the operand of a served predicate, or
+     * over all buckets in directory order, fetching the pages through the
+     * buffer pool, and returns the tuples that pass the predicate.
+     */
+    private class HashIterator implements BatchDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate pred;
+        /** Whether only the bucket of the operand is read. */
+        private final boolean lookup;
+        private HashHeaderPage header;
+        /** The next directory entry to look at, when scanning all buckets. */
+        private int entry;
+        /** The current page of the current bucket, or null between buckets. */
+        private HashBucketPage page;
+        /** The next tuple of page to look at. */
+        private int pos;
+        private boolean open;
+        private transient TupleBatch batch;
+
+        HashIterator(TransactionId tid, Predicate pred) {
+            this.tid = tid;
+            this.pred = pred;
+            this.lookup = pred != null && serves(pred.getOp());
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            header = header(tid, Permissions.READ_ONLY);
+            entry = 0;
+            page = null;
+            if (lookup) {
+                int i = hash(pred.getOperand()) & mask(header.getGlobalDepth());
+                page = bucket(tid, header, i, Permissions.READ_ONLY);
+            }
+            pos = 0;
+            open = true;
+        }
+
+        /**
+         * Move page to the next bucket of the scan. Each bucket is reached
+         * from the first of its entries, which is below 2^l.
+         * @return false if there is none.
+         */
+        private boolean nextBucket() throws DbException, TransactionAbortedException {
+            if (lookup) {
+                return false;
+            }
+            while (entry <= mask(header.getGlobalDepth())) {
+                int i = entry++;
+                HashBucketPage b = bucket(tid, header, i, Permissions.READ_ONLY);
+                if (i <= mask(b.getLocalDepth())) {
+                    page = b;
+                    pos = 0;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Move pos to the next tuple that passes, going along the chain and
+         * to the next bucket as needed.
+         * @return false if there is none.
+         */
+        private boolean advance() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            while (true) {
+                if (page == null) {
+                    if (!nextBucket()) {
+                        open = false;
+                        return false;
+                    }
+                    continue;
+                }
+                if (pos >= page.getNumTuples()) {
+                    HashPageId next = page.getNextId();
+                    page = next == null ? null : (HashBucketPage) getPage(tid, next, Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                if (pred == null || (lookup ? page.keyEquals(pos, pred.getOperand())
+                                     : pred.filter(page.getTuple(pos)))) {
+                    return true;
+                }
+                pos++;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return advance();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!advance()) {
+                throw new NoSuchElementException("no more tuples.");
+            }
+            return page.getTuple(pos++);
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            if (batch == null) {
+                batch = new TupleBatch(td);
+            }
+            batch.clear();
+            while (!batch.isFull() && advance()) {
+                page.fillBatch(pos++, batch);
+            }
+            return batch.numRows() == 0 ? null : batch;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            header = null;
+            page = null;
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * Page 0 of a HashFile, which tells where the directory is. The format is
+ * the category byte, the integer global depth d of the directory and the
+ * integer page number of its first page; the directory takes 2^d entries
+ * on consecutive pages from there on.
+ *
+ * @see HashFile
+ */
+public class HashHeaderPage extends HashPage {
+
+    private static final int GLOBAL_DEPTH = 1;
+    private static final int DIRECTORY = 5;
+
+    /**
+     * Create the header page of a hash file from its bytes on disk. The
+     * page keeps and works on the given array; it is not copied.
+     */
+    public HashHeaderPage(HashPageId id, byte[] data) throws IOException {
+        super(id, data);
+        if (getGlobalDepth() < 0 || getGlobalDepth() > HashFile.MAX_DEPTH) {
+            throw new IOException("the directory of table " + id.getTableId() + " has depth "
+                                  + getGlobalDepth() + ".");
+        }
+    }
+
+    /** @return the number of low bits of a hash that index the directory. */
+    public int getGlobalDepth() {
+        return buf.getInt(GLOBAL_DEPTH);
+    }
+
+    /** @return the page number of the first page of the directory. */
+    public int getDirectoryPage() {
+        return buf.getInt(DIRECTORY);
+    }
+
+    /** Make the directory of the given depth starting at a page the directory of the file. */
+    void setDirectory(int globalDepth, int firstPage) {
+        buf.putInt(GLOBAL_DEPTH, globalDepth);
+        buf.putInt(DIRECTORY, firstPage);
+    }
+
+    public HashHeaderPage getBeforeImage() {
+        try {
+            return new HashHeaderPage(pid, oldData.clone());
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * The part common to the pages of a HashFile. Like a BTreePage, a hash page
+ * keeps the page in its on-disk format and reads and writes fields at
+ * their offsets, so getPageData() serializes nothing.
+ * <p>
+ * The first byte of every page is its category, see {@link HashPageId};
+ * a page whose first byte does not match its id is rejected.
+ *
+ * @see HashFile
+ */
+public abstract class HashPage implements Page {
+
+    final HashPageId pid;
+    /** The bytes of this page. */
+    final byte[] data;
+    /** Wraps data, for reading and writing numbers at offsets. */
+    final ByteBuffer buf;
+
+    byte[] oldData;
+    TransactionId dirtier;
+
+    /**
+     * Create a page over the given bytes, which are not copied.
+     * @throws IOException if the data is shorter than a page, or is a page
+     *         of another category.
+     */
+    HashPage(HashPageId id, byte[] data) throws IOException {
+        if (data.length < BufferPool.PAGE_SIZE) {
+            throw new IOException("page data is shorter than a page: " + data.length + " bytes.");
+        }
+        if (data[0] != id.pgcateg()) {
+            throw new IOException("page " + id.pageNumber() + " has category " + data[0]
+                                  + ", expected " + id.pgcateg() + ".");
+        }
+        this.pid = id;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty page of the given category.
+     */
+    public static byte[] createEmptyPageData(int category) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        data[0] = (byte) category;
+        return data;
+    }
+
+    /** @return the HashFile of a page, from the catalog. */
+    static HashFile fileOf(HashPageId pid) {
+        return (HashFile) Database.getCatalog().getDbFile(pid.getTableId());
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * The page data is kept as is, so this returns the page's own array;
+     * callers must not modify it.
+     */
+    public byte[] getPageData() {
+        return data;
+    }
+
+    public void setBeforeImage() {
+        oldData = data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** @return the field of the given type at an offset of this page. */
+    Field readField(Type type, int off) {
+        try {
+            return type.parse(buf, off);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /** Write a field at an offset of this page. */
+    void writeField(Field f, int off) {
+        if (f instanceof IntField) {
+            buf.putInt(off, ((IntField) f).getValue());
+            return;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new IllegalStateException("failed to serialize a field: " + e.getMessage());
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, off, f.getType().getLen());
+    }
+}
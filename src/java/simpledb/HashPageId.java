@@ -0,0 +1,71 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a HashFile. Like a BTreePageId, the id
+ * tells the kind of the page, so that {@link HashFile#readPage} knows which
+ * class to build; the kind is not part of equality.
+ */
+public class HashPageId implements PageId {
+
+    /** Page 0 of every HashFile, which tells the depth and place of the directory. */
+    public static final int HEADER = 0;
+    public static final int DIRECTORY = 1;
+    public static final int BUCKET = 2;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash file.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param category HEADER, DIRECTORY or BUCKET.
+     */
+    public HashPageId(int tableId, int pgNo, int category) {
+        if (category < HEADER || category > BUCKET) {
+            throw new IllegalArgumentException("bad page category " + category);
+        }
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the table getTableId() associated with this PageId */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /** @return HEADER, DIRECTORY or BUCKET. */
+    public int pgcateg() {
+        return category;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        return (o instanceof HashPageId) && tableId == ((HashPageId) o).tableId
+            && pgNo == ((HashPageId) o).pgNo;
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ", " + category + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of integers, for
+     *  writing to disk: the table, the page number and the category.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo, category};
+    }
+}
@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -9,32 +12,87 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
- * 
+ * <p>
+ * All disk accesses go through a {@link PageIO}, which is opened the first
+ * time a page is read or written. The access mode can be chosen per table.
+ * <p>
+ * A {@link ZoneMap} of the pages is loaded from its side file, or built
+ * by reading every page, the first time a scan with predicates or
+ * {@link #insertTuple} needs it, so opening a table reads no page. Once
+ * made, it is kept up to date by the writes of this file and by
+ * {@link #insertTuple}; tuples
+ * inserted into a HeapPage directly are only seen by the map once the
+ * page is written. The side file is deleted at the first write after it
+ * was loaded or saved, and saved again by {@link #close}, so a side file
+ * on disk always describes the heap file as it is.
+ * <p>
+ * Reading and writing pages takes no lock on the HeapFile: the log writes
+ * pages during rollback and recovery while it holds its own monitor, and
+ * {@link #bulkAppend} calls the log while it holds the monitor of the
+ * file.
+ *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 @SuppressWarnings("serial")
 public class HeapFile implements DbFile {
 
+    /** The number of pages bulkAppend() writes at once. */
+    public static final int BULK_APPEND_PAGES = 256;
+
+    private static final AtomicReferenceFieldUpdater<HeapFile, PageIO> IO =
+        AtomicReferenceFieldUpdater.newUpdater(HeapFile.class, PageIO.class, "io");
+
+    private final File file;
+    private final TupleDesc td;
+    private final int tableid;
+    private volatile PageIO.Mode mode;
+    /** Opened lazily, and not kept when the file is serialized. */
+    private transient volatile PageIO io;
+    /** Loaded or built when first needed, and not kept when the file is serialized. */
+    private transient volatile ZoneMap zones;
+    /** Held while the zone map is made. */
+    private final ReentrantLock zoneLock = new ReentrantLock();
+    /** True once a page was written since the side file of the zone map was loaded or saved. */
+    private transient volatile boolean written;
+    /** The pages before this one had no empty slot at the last insert. */
+    private transient int firstFree;
+
     /**
      * Constructs a heap file backed by the specified file.
-     * 
+     *
      * @param f
      *            the file that stores the on-disk backing store for this heap
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, PageIO.DEFAULT_MODE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, accessed in the
+     * specified mode.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mode
+     *            how the pages of the file are read and written.
+     */
+    public HeapFile(File f, TupleDesc td, PageIO.Mode mode) {
+        this.file = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.mode = mode;
     }
 
     /**
      * Returns the File backing this HeapFile on disk.
-     * 
+     *
      * @return the File backing this HeapFile on disk.
      */
     public File getFile() {
-        // some code goes here
-        return null;
+        return file;
     }
 
     /**
@@ -43,64 +101,491 @@ public class HeapFile implements DbFile {
      * HeapFile has a "unique id," and that you always return the same value for
      * a particular HeapFile. We suggest hashing the absolute file name of the
      * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
-     * 
+     *
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return tableid;
     }
 
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
-     * 
+     *
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return td;
+    }
+
+    /** @return the access mode of this file. */
+    public PageIO.Mode getIOMode() {
+        return mode;
+    }
+
+    /**
+     * Change the way the pages of this file are read and written. Pages
+     * already in the buffer pool are not affected.
+     * <p>
+     * The mode may only be changed while nothing reads or writes the
+     * file: reads and writes use the PageIO of the file without holding
+     * its monitor, and this closes that PageIO, so a read running
+     * meanwhile fails.
+     */
+    public synchronized void setIOMode(PageIO.Mode mode) throws IOException {
+        if (mode == this.mode) {
+            return;
+        }
+        this.mode = mode;
+        PageIO old = IO.getAndSet(this, null);
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * @return the PageIO of this file, opening it if needed. Of threads
+     *         that open it at the same time, one installs its PageIO and
+     *         the others close theirs.
+     */
+    private PageIO io() throws IOException {
+        PageIO pio = io;
+        while (pio == null) {
+            PageIO opened = PageIO.open(file, mode);
+            if (IO.compareAndSet(this, null, opened)) {
+                return opened;
+            }
+            opened.close();
+            pio = io;
+        }
+        return pio;
+    }
+
+    /**
+     * @return the zone map of the file from its side file if there is one,
+     *         or else built by reading every page through a PageIO that is
+     *         closed again.
+     */
+    private ZoneMap loadZoneMap() throws IOException {
+        ZoneMap loaded = ZoneMap.load(file, td.fieldTypes());
+        if (loaded != null) {
+            return loaded;
+        }
+        if (!file.exists()) {
+            return new ZoneMap(td.fieldTypes(), BufferPool.PAGE_SIZE);
+        }
+        PageIO pio = PageIO.open(file, mode);
+        try {
+            return ZoneMap.build(pio, td.fieldTypes());
+        } finally {
+            pio.close();
+        }
+    }
+
+    /**
+     * @return the zone map of this file, made now if this is the first
+     *         time it is needed.
+     */
+    public ZoneMap getZoneMap() throws IOException {
+        ZoneMap z = zones;
+        if (z == null) {
+            zoneLock.lock();
+            try {
+                if (zones == null) {
+                    zones = loadZoneMap();
+                }
+                z = zones;
+            } finally {
+                zoneLock.unlock();
+            }
+        }
+        return z;
+    }
+
+    /**
+     * @return the zone map, for a writer to update for pages it wrote, or
+     *         null if it has not been made. If it is being made, this waits
+     *         for it: it may have read the pages before they were written.
+     */
+    private ZoneMap madeZoneMap() {
+        ZoneMap z = zones;
+        if (z == null) {
+            zoneLock.lock();
+            try {
+                z = zones;
+            } finally {
+                zoneLock.unlock();
+            }
+        }
+        return z;
+    }
+
+    /**
+     * Delete the side file of the zone map before the first write since it
+     * was loaded or saved: once a page changes on disk it no longer
+     * describes the file, whatever the length and time of the file say.
+     * Threads that write at the same time may both delete it.
+     */
+    private void beforeWrite() {
+        if (!written) {
+            ZoneMap.fileFor(file).delete();
+            written = true;
+        }
+    }
+
+    /**
+     * Release the file handle of this HeapFile. It is opened again when
+     * needed. The zone map, if there is one, is saved to its side file.
+     */
+    public synchronized void close() throws IOException {
+        if (zones != null && file.exists()) {
+            zones.save(file);
+            written = false;
+        }
+        PageIO old = IO.getAndSet(this, null);
+        if (old != null) {
+            old.close();
+        }
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        // some code goes here
-        return null;
+        if (pid.getTableId() != tableid) {
+            throw new IllegalArgumentException("page " + pid + " is not in table " + tableid + ".");
+        }
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0 || pgNo >= numPages()) {
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in " + file + ".");
+        }
+        try {
+            HeapPageId hpid = (pid instanceof HeapPageId) ? (HeapPageId) pid
+                : new HeapPageId(pid.getTableId(), pgNo);
+            return new HeapPage(hpid, io().readPage(pgNo));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to read page " + pgNo + " of " + file + ": " + e.getMessage());
+        }
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Write a page, and make its zone map entry exact for it.
+     */
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        byte[] data = page.getPageData();
+        beforeWrite();
+        io().writePage(page.getId().pageNumber(), data);
+        ZoneMap z = madeZoneMap();
+        if (z != null) {
+            z.setPage(page.getId().pageNumber(), ByteBuffer.wrap(data), 0);
+        }
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        // some code goes here
-        return 0;
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
     }
 
-    // see DbFile.java for javadocs
-    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+    /**
+     * Inserts a tuple into the first page, from a hint on, with an empty
+     * slot, or into a new page at the end of the file, and widens the
+     * zone map entry of the page for it.
+     * @throws DbException if the tuple does not match the schema of the file.
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for proj1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+        }
+        HeapPage page = null;
+        int n = numPages();
+        for (int pgNo = firstFree; pgNo < n && page == null; pgNo++) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(tableid, pgNo), Permissions.READ_WRITE);
+            if (p.getNumEmptySlots() > 0) {
+                page = p;
+            } else {
+                firstFree = pgNo + 1;
+            }
+        }
+        if (page == null) {
+            writePage(new HeapPage(new HeapPageId(tableid, n), HeapPage.createEmptyPageData()));
+            page = (HeapPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(tableid, n), Permissions.READ_WRITE);
+        }
+        page.insertTuple(t);
+        page.markDirty(true, tid);
+        getZoneMap().include(page.getId().pageNumber(), page.data, 0, t.getRecordId().tupleno());
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
     }
 
-    // see DbFile.java for javadocs
-    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+    /**
+     * Deletes a tuple from the page of its RecordId. The zone map entry of
+     * the page is narrowed when the page is written.
+     * @throws DbException if the tuple is not in this file.
+     */
+    public synchronized Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for proj1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableid) {
+            throw new DbException("the tuple is not in table " + tableid + ".");
+        }
+        int pgNo = rid.getPageId().pageNumber();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+            tid, new HeapPageId(tableid, pgNo), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        firstFree = Math.min(firstFree, pgNo);
+        return page;
+    }
+
+    /**
+     * Appends tuples to the end of the file in new, full pages, without
+     * going through the buffer pool. The page images are built off the pool
+     * and written in batches of BULK_APPEND_PAGES pages, one write each.
+     * Each batch is logged with a single APPEND record, see
+     * {@link LogFile#logAppend}, and the file is forced before this
+     * returns, so the transaction may commit right after. If it aborts,
+     * the appended pages are emptied.
+     * <p>
+     * Existing pages are not filled up. The new pages are visible to scans
+     * as soon as they are written.
+     *
+     * @param tid the transaction appending the tuples.
+     * @param tuples the tuples to append, in page order.
+     * @return the number of tuples appended.
+     * @throws DbException if a tuple does not match the schema of the file.
+     *         The batches before it are appended; aborting the transaction
+     *         empties them.
+     */
+    public long bulkAppend(TransactionId tid, Iterator<Tuple> tuples) throws DbException, IOException {
+        int[] has = Database.getCatalog().getHAS(tableid);
+        int headerSize = has[0];
+        int slotsPerPage = has[1];
+        int tupleSize = td.getSize();
+        PageWriter pages = new PageWriter(new byte[BULK_APPEND_PAGES * BufferPool.PAGE_SIZE]);
+        DataOutputStream out = new DataOutputStream(pages);
+        long count = 0;
+        while (tuples.hasNext()) {
+            Arrays.fill(pages.buf, (byte) 0);
+            int npages = 0;
+            while (npages < BULK_APPEND_PAGES && tuples.hasNext()) {
+                int base = npages * BufferPool.PAGE_SIZE;
+                int slot = 0;
+                while (slot < slotsPerPage && tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    if (!td.equals(t.getTupleDesc())) {
+                        throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+                    }
+                    pages.pos = base + headerSize + slot * tupleSize;
+                    for (int i = 0; i < td.numFields(); i++) {
+                        t.getField(i).serialize(out);
+                    }
+                    out.flush();
+                    pages.buf[base + (slot >> 3)] |= 1 << (slot & 7);
+                    slot++;
+                }
+                count += slot;
+                npages++;
+            }
+            synchronized (this) {
+                int first = numPages();
+                Database.getLogFile().logAppend(tid, tableid, first, npages);
+                beforeWrite();
+                io().writePages(first, pages.buf, npages);
+                ZoneMap z = madeZoneMap();
+                if (z != null) {
+                    for (int p = 0; p < npages; p++) {
+                        z.setPage(first + p, ByteBuffer.wrap(pages.buf), p * BufferPool.PAGE_SIZE);
+                    }
+                }
+            }
+        }
+        io().force();
+        return count;
+    }
+
+    /** Writes into the page images of a batch, from a settable position. */
+    private static class PageWriter extends OutputStream {
+        final byte[] buf;
+        int pos;
+
+        PageWriter(byte[] buf) {
+            this.buf = buf;
+        }
+
+        public void write(int b) {
+            buf[pos++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
     }
 
     // see DbFile.java for javadocs
-    public DbFileIterator iterator(TransactionId tid) {
-        // some code goes here
-        return null;
+    public BatchDbFileIterator iterator(TransactionId tid) {
+        return new HeapFileIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file that satisfy all of
+     * some predicates. The pages whose zone map entry rules a predicate
+     * out are skipped without being fetched, see {@link ZoneMap#mayMatch}.
+     * On the other pages the predicates are evaluated on the slot bytes,
+     * and only the tuples that satisfy them are made.
+     *
+     * @param preds the predicates; none for all tuples.
+     */
+    public HeapFileIterator iterator(TransactionId tid, Predicate... preds) {
+        return new HeapFileIterator(tid, null, preds);
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, Predicate...)}, but returns only
+     * some fields of the tuples, with the schema of the file projected on
+     * them, see {@link TupleDesc#project}. The bytes of the other fields
+     * are skipped when the pages are decoded. The predicates may be on any
+     * field of the file.
+     *
+     * @param columns the fields to return, or null for all.
+     */
+    public HeapFileIterator iterator(TransactionId tid, int[] columns, Predicate... preds) {
+        return new HeapFileIterator(tid, columns, preds);
+    }
+
+    /**
+     * Iterates over the tuples of the file page by page, fetching the pages
+     * through the buffer pool. The following pages are read ahead while
+     * the tuples of a page are returned. With predicates, pages are
+     * skipped by the zone map and the slots of the other pages are
+     * filtered before their tuples are made.
+     */
+    class HeapFileIterator implements BatchDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate[] preds;
+        /** The conjunction of the predicates compiled for td, or null. */
+        private final CompiledPredicate compiled;
+        /** The fields to return, or null for all, and their schema. */
+        private final int[] columns;
+        private final TupleDesc out;
+        /** The zone map, if there is a predicate. */
+        private ZoneMap zoneMap;
+        /** The next page to fetch, or -1 if the iterator is not open. */
+        private int pgNo = -1;
+        /** The tuples of the page being read, or null. */
+        private HeapPage.SlotIterator tuples;
+        private HeapPage page;
+        private ReadAhead readAhead;
+        private int pagesRead;
+        private int pagesSkipped;
+        private transient TupleBatch batch;
+
+        HeapFileIterator(TransactionId tid, int[] columns, Predicate[] preds) {
+            this.tid = tid;
+            this.columns = columns == null ? null : columns.clone();
+            this.out = columns == null ? td : td.project(columns);
+            this.preds = preds == null ? new Predicate[0] : preds.clone();
+            this.compiled = this.preds.length == 0 ? null : PredicateCompiler.compileAll(td, this.preds);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (compiled != null) {
+                try {
+                    zoneMap = getZoneMap();
+                } catch (IOException e) {
+                    throw new DbException("failed to read the zone map of " + file + ": " + e.getMessage());
+                }
+            }
+            pgNo = 0;
+            page = null;
+            tuples = null;
+            pagesRead = 0;
+            pagesSkipped = 0;
+            readAhead = new ReadAhead(tid, tableid, numPages());
+        }
+
+        /** @return the pages fetched since the iterator was opened. */
+        int pagesRead() {
+            return pagesRead;
+        }
+
+        /** @return the pages skipped by the zone map since the iterator was opened. */
+        int pagesSkipped() {
+            return pagesSkipped;
+        }
+
+        /** Move to the next page that has tuples left, if any. */
+        private boolean advance() throws DbException, TransactionAbortedException {
+            if (pgNo < 0) {
+                return false;
+            }
+            while (tuples == null || !tuples.hasNext()) {
+                if (pgNo >= numPages()) {
+                    return false;
+                }
+                if (zoneMap != null && !mayMatch(pgNo)) {
+                    pgNo++;
+                    pagesSkipped++;
+                    continue;
+                }
+                readAhead.pageRead(pgNo);
+                page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(tableid, pgNo++), Permissions.READ_ONLY);
+                pagesRead++;
+                tuples = page.iterator(compiled, columns, out);
+            }
+            return true;
+        }
+
+        /** @return false if the zone map rules out a predicate on a page. */
+        private boolean mayMatch(int pgNo) {
+            for (Predicate p : preds) {
+                if (!zoneMap.mayMatch(pgNo, p)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return advance();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!advance()) {
+                throw new NoSuchElementException("no more tuples.");
+            }
+            return tuples.next();
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            if (batch == null) {
+                batch = new TupleBatch(out);
+            }
+            batch.clear();
+            while (!batch.isFull() && advance()) {
+                tuples.skipTo(page.fillBatch(tuples.nextSlot(), batch, compiled, columns));
+            }
+            return batch.numRows() == 0 ? null : batch;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            pgNo = -1;
+            page = null;
+            tuples = null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+        }
     }
 
 }
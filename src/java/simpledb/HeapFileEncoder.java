@@ -2,13 +2,14 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Text files are converted by a {@link HeapFileLoader}.
  */
 
 public class HeapFileEncoder {
@@ -67,167 +68,87 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each field an int or a string
+    * as given by typeAr.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. The conversion is done by a {@link HeapFileLoader} with its
+    * default number of threads.
     *
     * @see HeapPage
     * @see HeapFile
+    * @see HeapFileLoader
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the types of the fields
+    * @param fieldSeparator the character between fields of a line
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
     */
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
- 
-      // bytes per record. 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+      new HeapFileLoader(Arrays.copyOf(typeAr, numFields), npagebytes, fieldSeparator).load(inFile, outFile);
+  }
+  /**
+   * Convert a text file in the format described above into a file of
+   * SlottedPages, whose string fields take only their bytes. Fields are
+   * trimmed of white space, and strings longer than Type.STRING_LEN are
+   * truncated.
+   *
+   * @see SlottedPage
+   * @see SlottedFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between fields of a line
+   * @return the number of pages written.
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static int convertSlotted(File inFile, File outFile, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      String sep = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+      BufferedReader in = new BufferedReader(new FileReader(inFile));
+      SlottedFile.Writer out = new SlottedFile.Writer(td, outFile);
+      try {
+          int lineNo = 0;
+          String line;
+          while ((line = in.readLine()) != null) {
+              lineNo++;
+              String[] fields = line.split(sep, -1);
+              if (fields.length != typeAr.length) {
+                  throw new IOException("line " + lineNo + " has " + fields.length
+                                        + " fields, expected " + typeAr.length);
+              }
+              Tuple t = new Tuple(td);
+              for (int i = 0; i < fields.length; i++) {
+                  String f = fields[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE) {
+                      try {
+                          t.setField(i, new IntField(Integer.parseInt(f)));
+                      } catch (NumberFormatException e) {
+                          throw new IOException("line " + lineNo + " has a bad integer");
+                      }
+                  } else {
+                      t.setField(i, new StringField(f, Type.STRING_LEN, typeAr[i]));
+                  }
+              }
+              out.add(t);
+          }
+      } catch (DbException e) {
+          throw new IOException(e.getMessage());
+      } finally {
+          in.close();
+          out.close();
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-	// System.out.println((char)c);
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r'){
-	    //System.out.println("read a white space.");
-            continue;
-	}
-
-        if (c == '\n') {
-	    //System.out.println("read a new line");
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-	    // System.out.print("curpos is " + curpos + " ");
-            String s = new String(buf, 0, curpos);
-	    // System.out.println("s is " + s);
-	    
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+      return out.numPages();
   }
 }
@@ -0,0 +1,417 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * HeapFileLoader converts a delimited text file into a heap file, with the
+ * page layout of {@link HeapPage}: the input is read in large chunks cut at
+ * line boundaries, worker threads parse the chunks straight into page
+ * images, and the pages are written in order with one large write per
+ * chunk.
+ * <p>
+ * Each line of the input is one tuple, with the fields separated by the
+ * field separator. Fields are trimmed of white space; strings longer than
+ * {@link Type#STRING_LEN} bytes are cut. Blank lines are skipped and a
+ * carriage return before the line feed is ignored. Tuples fill the pages in
+ * input order, so every page but the last is full; an empty input gives a
+ * file of one empty page.
+ * <p>
+ * A chunk is handled in two steps. A worker first counts its tuples, which
+ * only looks for line feeds, and then waits for the count of the chunk
+ * before it to learn the number of the chunk's first tuple. From there on
+ * the chunk is independent: its tuples go to known slots of known pages. The
+ * first and last page of a chunk are shared with the chunks around it, and
+ * the writer merges the two halves of such a page.
+ * <p>
+ * The writer also builds the {@link ZoneMap} of the pages it writes, and
+ * saves it next to the heap file once the file is complete.
+ */
+public class HeapFileLoader {
+
+    /** The default number of input bytes per chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    /** How many chunks each thread may have read ahead of the writer. */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final Type[] types;
+    private final int pageSize;
+    private final byte separator;
+    private final int tupleSize;
+    private final int slotsPerPage;
+    private final int headerSize;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * @param types the types of the fields of each line/tuple.
+     * @param pageSize the number of bytes per page in the output file.
+     * @param separator the field separator, a single-byte character.
+     */
+    public HeapFileLoader(Type[] types, int pageSize, char separator) {
+        if (separator > 0x7f || separator == '\n') {
+            throw new IllegalArgumentException("bad field separator " + (int) separator + ".");
+        }
+        this.types = types.clone();
+        this.pageSize = pageSize;
+        this.separator = (byte) separator;
+        int size = 0;
+        for (Type t : types) {
+            size += t.getLen();
+        }
+        this.tupleSize = size;
+        this.slotsPerPage = (pageSize * 8) / (tupleSize * 8 + 1);
+        this.headerSize = (slotsPerPage + 7) / 8;
+        if (slotsPerPage == 0) {
+            throw new IllegalArgumentException("a tuple of " + tupleSize + " bytes does not fit on a page.");
+        }
+    }
+
+    /** Set the number of threads that parse chunks; 1 parses on the calling thread. */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread.");
+        }
+        this.threads = threads;
+    }
+
+    /** Set the number of input bytes per chunk. Lines longer than a chunk still load. */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("bad chunk size " + chunkSize + ".");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Convert a text file into a heap file.
+     * @param inFile the input file to read data from.
+     * @param outFile the output file to write pages to; it is replaced,
+     *   and so is its zone map side file.
+     * @return the number of tuples loaded.
+     * @throws IOException if the files can't be read or written, or a
+     *   malformed input line is encountered.
+     */
+    public long load(File inFile, File outFile) throws IOException {
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        InputStream in = new FileInputStream(inFile);
+        FileOutputStream os = new FileOutputStream(outFile);
+        Writer writer = new Writer(os.getChannel());
+        long tuples;
+        try {
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+            Chunk previous = null;
+            byte[] carry = new byte[0];
+            int carryLength = 0;
+            long offset = 0;
+            boolean eof = false;
+            while (!eof) {
+                // the unfinished line of the last chunk starts the next one
+                byte[] text = new byte[Math.max(chunkSize, carryLength * 2)];
+                System.arraycopy(carry, 0, text, 0, carryLength);
+                int length = carryLength;
+                while (length < text.length) {
+                    int n = in.read(text, length, text.length - length);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    length += n;
+                }
+                int end = length;
+                if (!eof) {
+                    while (end > 0 && text[end - 1] != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        // no line ends in this chunk: read on with a larger one
+                        carry = text;
+                        carryLength = length;
+                        continue;
+                    }
+                }
+                carry = Arrays.copyOfRange(text, end, length);
+                carryLength = carry.length;
+
+                Chunk chunk = new Chunk(text, end, offset, previous, inFile);
+                offset += end;
+                previous = chunk;
+                if (pool == null) {
+                    writer.write(chunk.call());
+                } else {
+                    pending.add(pool.submit(chunk));
+                    while (pending.size() > threads * CHUNKS_PER_THREAD) {
+                        writer.write(get(pending.remove()));
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                writer.write(get(pending.remove()));
+            }
+            writer.finish();
+            tuples = previous == null ? 0 : previous.firstTuple + previous.count;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            in.close();
+            os.close();
+        }
+        // the side file tells the length and time of the closed heap file
+        writer.zones.save(outFile);
+        return tuples;
+    }
+
+    private static Chunk get(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while loading.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** @return whether a byte of the input is white space, which fields are trimmed of. */
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    /**
+     * Some whole lines of the input, and the pages their tuples go to once
+     * parsed.
+     */
+    private class Chunk implements Callable<Chunk> {
+        private byte[] text;
+        private final int length;
+        /** The offset of the chunk in the input file. */
+        private final long offset;
+        private final File inFile;
+        private Chunk previous;
+        /** Counted down when count and firstTuple are set. */
+        private final CountDownLatch counted = new CountDownLatch(1);
+
+        int count;
+        long firstTuple;
+        int firstPage;
+        int npages;
+        byte[] pages;
+
+        Chunk(byte[] text, int length, long offset, Chunk previous, File inFile) {
+            this.text = text;
+            this.length = length;
+            this.offset = offset;
+            this.previous = previous;
+            this.inFile = inFile;
+        }
+
+        public Chunk call() throws IOException {
+            try {
+                count = countTuples();
+                if (previous != null) {
+                    previous.counted.await();
+                    firstTuple = previous.firstTuple + previous.count;
+                    previous = null;
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while loading.");
+            } finally {
+                counted.countDown();
+            }
+            if (count > 0) {
+                firstPage = (int) (firstTuple / slotsPerPage);
+                npages = (int) ((firstTuple + count - 1) / slotsPerPage) - firstPage + 1;
+                pages = new byte[npages * pageSize];
+                parse();
+            }
+            text = null;
+            return this;
+        }
+
+        /** @return the number of lines that are not blank. */
+        private int countTuples() {
+            int n = 0;
+            boolean blank = true;
+            for (int i = 0; i < length; i++) {
+                byte b = text[i];
+                if (b == '\n') {
+                    if (!blank) {
+                        n++;
+                    }
+                    blank = true;
+                } else if (!isSpace(b)) {
+                    blank = false;
+                }
+            }
+            return blank ? n : n + 1;
+        }
+
+        private void parse() throws IOException {
+            long tuple = firstTuple;
+            int start = 0;
+            while (start < length) {
+                int end = start;
+                boolean blank = true;
+                while (end < length && text[end] != '\n') {
+                    if (!isSpace(text[end])) {
+                        blank = false;
+                    }
+                    end++;
+                }
+                if (!blank) {
+                    int slot = (int) (tuple % slotsPerPage);
+                    int page = (int) (tuple / slotsPerPage) - firstPage;
+                    int base = page * pageSize;
+                    parseLine(start, end, base + headerSize + slot * tupleSize);
+                    pages[base + (slot >> 3)] |= 1 << (slot & 7);
+                    tuple++;
+                }
+                start = end + 1;
+            }
+        }
+
+        /** Encode the fields of the line [start, end) at pages[at]. */
+        private void parseLine(int start, int end, int at) throws IOException {
+            int pos = start;
+            for (int f = 0; f < types.length; f++) {
+                if (pos > end) {
+                    throw malformed(start, end, "has " + f + " fields, expected " + types.length);
+                }
+                int fieldEnd = pos;
+                while (fieldEnd < end && text[fieldEnd] != separator) {
+                    fieldEnd++;
+                }
+                int from = pos;
+                int to = fieldEnd;
+                while (from < to && isSpace(text[from])) {
+                    from++;
+                }
+                while (to > from && isSpace(text[to - 1])) {
+                    to--;
+                }
+                if (types[f] == Type.INT_TYPE) {
+                    putInt(at, parseInt(from, to, start, end));
+                } else {
+                    int len = Math.min(to - from, Type.STRING_LEN);
+                    putInt(at, len);
+                    System.arraycopy(text, from, pages, at + 4, len);
+                }
+                at += types[f].getLen();
+                pos = fieldEnd + 1;
+            }
+            if (pos <= end) {
+                throw malformed(start, end, "has more than " + types.length + " fields");
+            }
+        }
+
+        private int parseInt(int from, int to, int start, int end) throws IOException {
+            int i = from;
+            boolean negative = false;
+            if (i < to && (text[i] == '-' || text[i] == '+')) {
+                negative = text[i] == '-';
+                i++;
+            }
+            if (i == to || to - i > 10) {
+                throw malformed(start, end, "has a bad integer");
+            }
+            long v = 0;
+            for (; i < to; i++) {
+                int d = text[i] - '0';
+                if (d < 0 || d > 9) {
+                    throw malformed(start, end, "has a bad integer");
+                }
+                v = v * 10 + d;
+            }
+            if (negative) {
+                v = -v;
+            }
+            if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+                throw malformed(start, end, "has an integer out of range");
+            }
+            return (int) v;
+        }
+
+        private void putInt(int at, int v) {
+            pages[at] = (byte) (v >>> 24);
+            pages[at + 1] = (byte) (v >>> 16);
+            pages[at + 2] = (byte) (v >>> 8);
+            pages[at + 3] = (byte) v;
+        }
+
+        private IOException malformed(int start, int end, String problem) {
+            int stop = end > start && text[end - 1] == '\r' ? end - 1 : end;
+            return new IOException("line at byte " + (offset + start) + " of " + inFile + " " + problem
+                                   + ": " + new String(text, start, stop - start));
+        }
+    }
+
+    /**
+     * Writes the pages of the chunks in order. The last page of a chunk is
+     * held back, since the next chunk may fill the rest of it.
+     */
+    private class Writer {
+        private final FileChannel out;
+        /** The zone map of the pages written so far. */
+        final ZoneMap zones = new ZoneMap(types, pageSize);
+        /** The number of the next page to write. */
+        private int pgNo;
+        private byte[] tail;
+        private int tailOffset;
+        private int tailPage = -1;
+
+        Writer(FileChannel out) {
+            this.out = out;
+        }
+
+        void write(Chunk c) throws IOException {
+            if (c.npages == 0) {
+                return;
+            }
+            if (tail != null) {
+                if (tailPage == c.firstPage) {
+                    // the two chunks use different slots of the page
+                    for (int i = 0; i < pageSize; i++) {
+                        c.pages[i] |= tail[tailOffset + i];
+                    }
+                } else {
+                    write(tail, tailOffset, pageSize);
+                }
+            }
+            write(c.pages, 0, (c.npages - 1) * pageSize);
+            tail = c.pages;
+            tailOffset = (c.npages - 1) * pageSize;
+            tailPage = c.firstPage + c.npages - 1;
+        }
+
+        void finish() throws IOException {
+            if (tail != null) {
+                write(tail, tailOffset, pageSize);
+            } else {
+                write(new byte[pageSize], 0, pageSize);
+            }
+        }
+
+        /** Write whole pages, b[off, off + len). */
+        private void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            for (int at = off; at < off + len; at += pageSize) {
+                zones.setPage(pgNo++, buf, at);
+            }
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+    }
+}
@@ -2,10 +2,17 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
- * Each instance of HeapPage stores data for one page of HeapFiles and 
+ * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the page in its on-disk format, in a ByteBuffer that may
+ * be on the heap, direct or a read-only slice of a mapped file. Fields are
+ * read at their offsets when asked for, and Tuples are only built by the
+ * iterator and {@link #getTuple}. Inserts and deletes write straight into
+ * the buffer, so the buffer is always the serialized page.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,11 +22,23 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
-    Tuple tuples[];
     int numSlots;
+    /** The number of bytes of the header. */
+    int headerSize;
+    /** The types of the fields, and their offsets within a tuple; from td. */
+    Type[] fieldTypes;
+    int[] fieldOffsets;
+    int tupleSize;
+    /** The bytes of this page, header first. Position and limit are unused. */
+    ByteBuffer data;
 
+    /**
+     * The page before it was modified, or null if it is unchanged since it
+     * was read or since {@link #setBeforeImage}. Taken by the first change,
+     * so reading a page copies nothing.
+     */
     byte[] oldData;
+    TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -33,39 +52,41 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps and works on the given array; it is not copied.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over a buffer holding a page in the format described
+     * at {@link #HeapPage(HeapPageId, byte[])}, starting at the buffer's
+     * position. The buffer is not copied. A read-only buffer is copied to
+     * the heap the first time the page is modified.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < BufferPool.PAGE_SIZE) {
+            throw new IOException("page data is shorter than a page: " + data.remaining() + " bytes.");
         }
-        dis.close();
+        this.data = data.slice();
 
-        setBeforeImage();
+        // shared with the TupleDesc, nothing is computed per page.
+        fieldTypes = td.fieldTypes();
+        fieldOffsets = td.fieldOffsets();
+        tupleSize = td.getSize();
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
-    private int getNumTuples() {        
-        // some code goes here
+    private int getNumTuples() {
 	return (Database.getCatalog().getHAS(pid.getTableId()))[1];
     }
 
@@ -73,19 +94,15 @@ public class HeapPage implements Page {
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
-    private int getHeaderSize() {        
-        
-        // some code goes here
-        // return 0;
+    private int getHeaderSize() {
 	return (Database.getCatalog().getHAS(pid.getTableId()))[0];
-                 
     }
-    
+
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, oldData != null ? oldData.clone() : copyPageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -93,124 +110,213 @@ public class HeapPage implements Page {
         }
         return null;
     }
-    
+
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        // the page as it is now; the next change takes a copy.
+        oldData = null;
     }
 
     /**
      * @return the PageId associated with this page.
      */
     public HeapPageId getId() {
-    // some code goes here
-    // throw new UnsupportedOperationException("implement this");
 	return pid;
     }
 
+    /** @return the number of tuple slots on this page. */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /** @return the offset in the page of the given field of the given slot. */
+    int offsetOf(int slotId, int field) {
+        return headerSize + slotId * tupleSize + fieldOffsets[field];
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Read one field of the tuple in a slot without building the tuple.
+     * @param slotId a used slot of this page.
+     * @param field the index of the field.
+     * @throws NoSuchElementException if the slot is not in use.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    public Field getField(int slotId, int field) throws NoSuchElementException {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+            throw new NoSuchElementException("slot " + slotId + " is empty.");
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return fieldTypes[field].parse(data, offsetOf(slotId, field));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * Read an integer field of the tuple in a slot, without allocating.
+     * The caller must make sure the slot is used and the field is an
+     * INT_TYPE field.
+     */
+    public int getInt(int slotId, int field) {
+        return data.getInt(offsetOf(slotId, field));
     }
 
     /**
-     * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
-     * <p>
-     * The invariant here is that it should be possible to pass the byte
-     * array generated by getPageData to the HeapPage constructor and
-     * have it produce an identical HeapPage object.
-     *
-     * @see #HeapPage
-     * @return A byte array correspond to the bytes of this page.
+     * Build the tuple stored in a slot.
+     * @throws NoSuchElementException if the slot is not in use.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+    public Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty.");
+        }
+        byte[] slab = null;
+        int slabBase = 0;
+        if (!td.isAllInts()) {
+            // a slab of just this tuple.
+            slab = new byte[tupleSize];
+            ByteBuffer dup = data.duplicate();
+            dup.clear();
+            dup.position(headerSize + slotId * tupleSize);
+            dup.get(slab);
+            slabBase = -(headerSize + slotId * tupleSize);
+        }
+        return makeTuple(slotId, null, td, new int[fieldTypes.length], 0, slab, slabBase);
+    }
 
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    /**
+     * Build the tuple of a used slot, or of some of its fields. Int fields
+     * are read from the page; the other fields are referred to in a slab
+     * holding the page bytes. The bytes of the fields left out are not
+     * looked at.
+     * @param columns the fields of the tuple, or null for all.
+     * @param out the schema of the tuple: td, or td projected on columns.
+     * @param values where to put the fields, from valuesBase on.
+     * @param slab a copy of (part of) the page, or null if all fields of
+     *        the tuple are ints.
+     * @param slabBase the offset in slab of byte 0 of the page.
+     */
+    private Tuple makeTuple(int slotId, int[] columns, TupleDesc out,
+                            int[] values, int valuesBase, byte[] slab, int slabBase) {
+        int base = headerSize + slotId * tupleSize;
+        int n = columns == null ? fieldTypes.length : columns.length;
+        for (int j = 0; j < n; j++) {
+            int c = columns == null ? j : columns[j];
+            int off = base + fieldOffsets[c];
+            values[valuesBase + j] = fieldTypes[c] == Type.INT_TYPE ? data.getInt(off) : slabBase + off;
         }
+        return new Tuple(out, values, valuesBase, slab, pid, slotId);
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    /**
+     * @return a copy of the page bytes for the tuples of an iterator to
+     *         share, or null if the tuples have int fields only.
+     * @param out the schema of the tuples.
+     */
+    private byte[] sharedSlab(TupleDesc out) {
+        if (out.isAllInts()) {
+            return null;
+        }
+        byte[] slab = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer dup = data.duplicate();
+        dup.clear();
+        dup.get(slab);
+        return slab;
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Copy the tuples of this page into a batch, starting at a slot, until
+     * the page ends or the batch is full. Integer fields go straight from
+     * the page bytes into the int columns of the batch.
+     * @param fromSlot the first slot to look at.
+     * @param batch a batch with the schema of this page.
+     * @return the slot to continue from; numSlots if the page is done.
+     */
+    public int fillBatch(int fromSlot, TupleBatch batch) {
+        return fillBatch(fromSlot, batch, null, null);
+    }
 
-                }
+    /**
+     * Like {@link #fillBatch(int, TupleBatch)}, but copy only the tuples
+     * that satisfy a predicate, which is evaluated on the slot bytes.
+     * @param pred a predicate compiled for the schema of this page, or
+     *        null for all tuples.
+     */
+    public int fillBatch(int fromSlot, TupleBatch batch, CompiledPredicate pred) {
+        return fillBatch(fromSlot, batch, pred, null);
+    }
+
+    /**
+     * Like {@link #fillBatch(int, TupleBatch, CompiledPredicate)}, but
+     * copy only some fields of the tuples; the bytes of the other fields
+     * are skipped, and not parsed.
+     * @param columns the fields to copy, in the order of the columns of
+     *        the batch, or null for all fields.
+     * @param batch a batch with the schema of this page projected on
+     *        columns.
+     */
+    public int fillBatch(int fromSlot, TupleBatch batch, CompiledPredicate pred, int[] columns) {
+        int[][] ints = batch.intColumns();
+        int n = columns == null ? fieldTypes.length : columns.length;
+        int slot = Math.max(fromSlot, 0);
+        while (slot < numSlots && !batch.isFull()) {
+            // the used slots from here to the end of this header byte.
+            int bits = (data.get(slot >> 3) & 0xff) >>> (slot & 7);
+            if (bits == 0) {
+                slot = (slot | 7) + 1;
                 continue;
             }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+            slot += Integer.numberOfTrailingZeros(bits);
+            if (slot >= numSlots) {
+                break;
+            }
+            int base = headerSize + slot * tupleSize;
+            if (pred != null && !pred.matches(data, base)) {
+                slot++;
+                continue;
+            }
+            int row = batch.addRow(pid, slot);
+            for (int j = 0; j < n; j++) {
+                int c = columns == null ? j : columns[j];
+                if (ints[j] != null) {
+                    ints[j][row] = data.getInt(base + fieldOffsets[c]);
+                } else {
+                    try {
+                        batch.setField(j, row, fieldTypes[c].parse(data, base + fieldOffsets[c]));
+                    } catch (java.text.ParseException e) {
+                        e.printStackTrace();
+                        throw new NoSuchElementException("parsing error!");
+                    }
                 }
             }
+            slot++;
         }
+        return Math.min(slot, numSlots);
+    }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HeapPage constructor and
+     * have it produce an identical HeapPage object.
+     * <p>
+     * Nothing is serialized: if the page is kept in a heap array, that
+     * array itself is returned, otherwise the buffer is copied out. Callers
+     * must not modify the returned array.
+     *
+     * @see #HeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        if (data.hasArray() && data.arrayOffset() == 0
+                && data.array().length == BufferPool.PAGE_SIZE) {
+            return data.array();
         }
-
-        return baos.toByteArray();
+        byte[] bytes = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer dup = data.duplicate();
+        dup.clear();
+        dup.get(bytes);
+        return bytes;
     }
 
     /**
@@ -227,6 +333,28 @@ public class HeapPage implements Page {
         return new byte[len]; //all 0
     }
 
+    /** @return a copy of the bytes of this page that the page does not use. */
+    private byte[] copyPageData() {
+        byte[] bytes = getPageData();
+        return data.hasArray() && bytes == data.array() ? bytes.clone() : bytes;
+    }
+
+    /**
+     * Take the before image if the page is unchanged since it was last
+     * set, and make sure the buffer of this page may be written, copying
+     * a read-only buffer to the heap. Every change of the bytes of the
+     * page goes through here first.
+     */
+    private void ensureWritable() {
+        if (oldData == null) {
+            oldData = copyPageData();
+        }
+        if (data.isReadOnly()) {
+            // getPageData() copies a read-only buffer out.
+            data = ByteBuffer.wrap(getPageData());
+        }
+    }
+
     /**
      * Delete the specified tuple from the page;  the tuple should be updated to reflect
      *   that it is no longer stored on any page.
@@ -235,20 +363,62 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("the tuple is not on page " + pid + ".");
+        }
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty.");
+        }
+        ensureWritable();
+        markSlotUsed(slot, false);
+        // empty slots are all zeros on disk.
+        int base = headerSize + slot * tupleSize;
+        for (int i = 0; i < tupleSize; i++) {
+            data.put(base + i, (byte) 0);
+        }
+        t.setRecordId(null);
     }
 
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
-     *  that it is now stored on this page.
+     *  that it is now stored on this page. The page does not know its
+     *  file's zone map; insert through {@link HeapFile#insertTuple} to
+     *  keep the map up to date before the page is written.
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *         is mismatch.
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of page " + pid + ".");
+        }
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot)) {
+            slot++;
+        }
+        if (slot == numSlots) {
+            throw new DbException("page " + pid + " is full.");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < fieldTypes.length; j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new DbException("failed to serialize the tuple: " + e.getMessage());
+        }
+        ensureWritable();
+        ByteBuffer dup = data.duplicate();
+        dup.clear();
+        dup.position(headerSize + slot * tupleSize);
+        dup.put(baos.toByteArray(), 0, tupleSize);
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
     }
 
     /**
@@ -256,109 +426,165 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        // some code goes here
-        // return 0;
-        int count = 0;
-	for(int i = 0; i < numSlots; ++i){
-	  count = !isSlotUsed(i) ? ++count : count;
-	}
-	return count;
+        int used = 0;
+        int full = numSlots / 8;
+        for (int i = 0; i < full; i++) {
+            used += Integer.bitCount(data.get(i) & 0xff);
+        }
+        for (int i = full * 8; i < numSlots; i++) {
+            used += isSlotUsed(i) ? 1 : 0;
+        }
+        return numSlots - used;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        // some code goes here
-        // return false;
- 	// JVM use a big-endian strategy.
-	//for(byte j: header)
-	//    System.out.printf("%2x  ", i);
 	if(i < 0 || i >= this.numSlots)
-	  return false; 
-	int slot = 0;
-	int offset = 0;
-	offset = i % 8;
-	slot = (i - offset)/8;
-	int tmp =(int) header[slot];
-	//System.out.printf("(Before)tmp is %x ", tmp);
-	//tmp = (byte) (tmp << (7-offset));
-	//tmp = tmp << 31-offset;
-	//System.out.printf("(After)tmp is %x ", tmp);
-	//tmp = (byte) (tmp >> 7);
-	//tmp = tmp >>> 31;
-	//System.out.printf("(After)tmp is %x ", tmp);
-	//boolean result = (tmp == 1);
-	return (((tmp << 31-offset) >>> 31) == 1);
-	//return ((tmp << (7-offset)) >> 7) == 1;
+	  return false;
+	// slot i is bit (i % 8) of header byte (i / 8), lowest bit first.
+	return ((data.get(i >> 3) >> (i & 7)) & 1) == 1;
     }
 
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    @SuppressWarnings("unused")
 	private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1
+        int b = data.get(i >> 3);
+        if (value) {
+            b |= (1 << (i & 7));
+        } else {
+            b &= ~(1 << (i & 7));
+        }
+        data.put(i >> 3, (byte) b);
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
-     * 
+     * <p>
+     * If the page has non-int fields, the tuples of one iterator share a
+     * single copy of the page bytes to hold them.
      */
-    public Iterator<Tuple> iterator() {
-        // some code goes here
-        // return null;
-	// this is wrong!!!!
-	// return ((List<Tuple>) Arrays.asList(tuples)).iterator();
-	class TupleIterator implements Iterator<Tuple>{
-	  private int index = 0;
-	  private Tuple[] uetus;
-	  TupleIterator(){
-	    uetus = new Tuple[numSlots - getNumEmptySlots()];
-	    int uepos = 0;
-	    for(int i = 0; i < tuples.length; i++){
-		if(isSlotUsed(i)){
-		  uetus[uepos++] = tuples[i];
-    	    }
-	  }
+    public SlotIterator iterator() {
+	return new SlotIterator(null, null, td);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy a
+     * predicate. The predicate is evaluated on the slot bytes, so the
+     * tuples it rejects are never made.
+     * @param pred a predicate compiled for the schema of this page, or
+     * null for all tuples.
+     */
+    public SlotIterator iterator(CompiledPredicate pred) {
+	return new SlotIterator(pred, null, td);
+    }
 
+    /**
+     * @return an iterator over some fields of the tuples on this page that
+     * satisfy a predicate. The tuples have the schema of this page
+     * projected on the fields, and the bytes of the other fields are not
+     * looked at.
+     * @param pred a predicate compiled for the schema of this page, or
+     * null for all tuples.
+     * @param columns the fields of the tuples, or null for all.
+     */
+    public SlotIterator iterator(CompiledPredicate pred, int[] columns) {
+	return iterator(pred, columns, columns == null ? td : td.project(columns));
+    }
+
+    /** As iterator(pred, columns), with out the projected schema. */
+    SlotIterator iterator(CompiledPredicate pred, int[] columns, TupleDesc out) {
+	return new SlotIterator(pred, columns, out);
+    }
+
+    /**
+     * Iterates over the tuples in the used slots of this page, and lets the
+     * caller skip ahead, e.g. after reading slots with {@link #fillBatch}.
+     */
+    class SlotIterator implements Iterator<Tuple>{
+	/** The tuples to return, or null for all. */
+	private final CompiledPredicate pred;
+	/** The fields of the tuples, or null for all, and their schema. */
+	private final int[] columns;
+	private final TupleDesc out;
+	private final int width;
+	/** The next used slot, or numSlots if there is none. */
+	private int slot;
+	/** The fields of the tuples made so far, allocated on first use. */
+	private int[] values;
+	private int used = 0;
+	/** The page bytes the tuples refer to, copied on first use. */
+	private byte[] slab;
+
+	SlotIterator(CompiledPredicate pred, int[] columns, TupleDesc out){
+	  this.pred = pred;
+	  this.columns = columns;
+	  this.out = out;
+	  this.width = out.numFields();
+	  this.slot = advance(0);
+	}
+
+	private int advance(int from){
+	  while(from < numSlots && (!isSlotUsed(from)
+	      || (pred != null && !pred.matches(data, headerSize + from * tupleSize)))){
+	    from++;
 	  }
-	  public Tuple next(){
-    	    return tuples[index++];
+	  return from;
+	}
+
+	/** @return the slot of the next tuple, or numSlots if there is none. */
+	int nextSlot(){
+	  return slot;
+	}
 
-	  } 
-	  public boolean hasNext(){
-		return index < uetus.length;
+	/** Continue at the first used slot from the given one on. */
+	void skipTo(int from){
+	  slot = advance(Math.max(from, slot));
+	}
+
+	public Tuple next(){
+	  if(slot >= numSlots){
+	    throw new NoSuchElementException();
 	  }
-	  public Iterator<Tuple> reset(){
-		return new this();
+	  if(values == null){
+	    slab = sharedSlab(out);
 	  }
-	  public void remove(){
-	    throw new UnsupportedOperationException("remove operation on iterator is not implemented.");
+	  if(values == null || (used + 1) * width > values.length){
+	    // first use, or tuples were added since; with a predicate, room
+	    // for a few tuples at a time, as most may not be wanted.
+	    int n = numSlots - getNumEmptySlots();
+	    values = new int[(pred == null ? n : Math.min(n, 32)) * width];
+	    used = 0;
 	  }
-	  
+	  Tuple t = makeTuple(slot, columns, out, values, used * width, slab, 0);
+	  used++;
+	  slot = advance(slot + 1);
+	  return t;
+	}
+	public boolean hasNext(){
+	  return slot < numSlots;
+	}
+	public void remove(){
+	  throw new UnsupportedOperationException("remove operation on iterator is not implemented.");
 	}
-	return new TupleIterator();
     }
 
 }
@@ -0,0 +1,32 @@
+package simpledb;
+
+/**
+ * An IndexFile is a DbFile that organizes its tuples by one key field, so
+ * that the tuples whose key satisfies some predicates are found without
+ * reading the whole file. Tables stored in an IndexFile are read through
+ * the index with an {@link IndexScan}.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the index of the key field. */
+    public int keyField();
+
+    /**
+     * @return whether {@link #indexIterator} finds the tuples whose key
+     *         passes a predicate with the given operator by reading only a
+     *         part of the file. Other predicates are checked on every tuple.
+     */
+    public boolean serves(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the tuples whose key field satisfies a
+     * predicate.
+     *
+     * @param p a predicate on the key field.
+     * @throws IllegalArgumentException if p is not on the key field.
+     */
+    public BatchDbFileIterator indexIterator(TransactionId tid, Predicate p);
+}
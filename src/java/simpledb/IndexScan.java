@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table stored in
+ * an IndexFile whose key field satisfies a predicate. On a BTreeFile the
+ * tuples come in key order, and only the leaves that may hold matching
+ * tuples are read; on a HashFile an equality predicate reads only the
+ * bucket of its operand.
+ * <p>
+ * Like SeqScan, tuples can also be read in batches with nextBatch().
+ *
+ * @see IndexFile#indexIterator
+ */
+public class IndexScan implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Predicate pred;
+    private final TupleDesc td;
+    /** The iterator of the index, or null if the scan is not open. */
+    private transient BatchDbFileIterator it;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; its file must be an IndexFile.
+     * @param tableAlias
+     *            the alias of this table, see {@link SeqScan#SeqScan}.
+     * @param pred
+     *            a predicate on the key field of the table.
+     * @throws IllegalArgumentException if the table is not an IndexFile
+     *             or the predicate is not on its key field.
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate pred) {
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        if (!(f instanceof IndexFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not an IndexFile.");
+        }
+        if (pred.getField() != ((IndexFile) f).keyField()) {
+            throw new IllegalArgumentException("the predicate is not on the key field of table "
+                                               + tableid + ".");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.pred = pred;
+        this.td = SeqScan.aliasedTupleDesc(f.getTupleDesc(), tableAlias);
+    }
+
+    public IndexScan(TransactionId tid, int tableid, Predicate pred) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), pred);
+    }
+
+    /** @return the name of the table in the catalog. */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans. */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the predicate on the key field. */
+    public Predicate getPredicate() {
+        return pred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = ((IndexFile) Database.getCatalog().getDbFile(tableid)).indexIterator(tid, pred);
+        it.open();
+    }
+
+    private BatchDbFileIterator checkOpen() {
+        if (it == null) {
+            throw new IllegalStateException("the scan is not open.");
+        }
+        return it;
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with
+     *         the table alias.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return checkOpen().hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return checkOpen().next();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return checkOpen().nextBatch();
+    }
+
+    public void close() {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        checkOpen().rewind();
+    }
+}
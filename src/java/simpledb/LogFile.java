@@ -4,6 +4,12 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Checksum;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -39,42 +45,129 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> Records are addressed by log sequence numbers (LSNs), which are
+byte addresses in the log.  They never change: truncating the log
+deletes old segment files instead of moving the records, see below.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log file itself only holds a header: the integer LOG_MAGIC, the
+integer format version LOG_VERSION, and a long integer that is the LSN
+of the last written checkpoint, or -1 if there are no checkpoints
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> The records are in segment files next to it, named after the log
+file and the LSN at which the segment starts, see LogSegment.  A new
+segment is started when the current one would grow past
+setSegmentSize() bytes.  Log records are variable length, and never
+span two segments.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record begins with the integer length of its body and
+the CRC-32C checksum of its body.  The body is a byte type, a long
+integer transaction id, and the data of the record type.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> Each log record ends with a long integer LSN representing the
+position in the log where the record began.  Readers stop at the first
+record whose length, checksum or start LSN is wrong, such as one that
+was cut short by a crash.
+
+<li> There are eight record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, DELTA, CLR and APPEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  Page and page id classes are written as small integer tags,
+see PageTypeRegistry.  See LogFile.print() for an example.
+
+<li>DELTA records describe an update like UPDATE records, but only hold
+the byte ranges in which the images differ: the page class and page id,
+the integer page size, and the ranges as written by PageDelta.
+LogFile.readImage() rebuilds either image from the current page.
+
+<li>APPEND records describe HeapPages that were appended to the end of
+a file without going through the buffer pool, see logAppend().  They
+consist of the integer table id, the integer number of the first page,
+the integer number of pages and the integer page size.
+
+<li>CLR (compensation log) records are written when the change of an
+UPDATE, DELTA or APPEND record is undone.  They consist of the long
+integer LSN of the undone record, the byte type of the change that
+undoes it (UPDATE, DELTA or APPEND) and the data of that change.  An
+APPEND is undone by emptying its pages, which a CLR of type APPEND
+redoes.  CLRs are only ever redone, never undone.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, and of
+the dirty page table.  The format of the record is an integer count of
+the number of transactions, as well as a long integer transaction id
+and a long integer first record LSN for each active transaction,
+then an integer count of dirty pages, as well as a page id (see
+writePageId) and a long integer first record LSN for each page.
 
 </ul>
 
+<u> Recovery: </u>
+<p>
+
+Recovery follows ARIES.  The log keeps a dirty page table: for every
+page that has logged changes which may not be on disk yet, the LSN
+of the first of them.  BufferPool logs a page and forces the log
+before it writes the page (write ahead logging), and then tells the
+log with pageFlushed().  Checkpoints write the table and the live
+transactions without flushing any page, so they do not hold up the
+system.
+<p>
+
+recover() first scans the log from the last checkpoint to rebuild
+the dirty page table and the transactions that did not finish
+(analysis).  It then redoes every logged change to a dirty page from
+the first LSN of the page on, in log order per page.  Since the
+changes of different pages are independent, redo is split by page id
+across setRecoveryThreads() threads.  Finally it undoes the changes of
+the unfinished transactions, newest first, logging a CLR for each, and
+aborts them.  rollback() undoes a single transaction the same way.
+<p>
+
+Pages carry no pageLSN.  Instead, every change record is a physical
+write of absolute bytes: an UPDATE holds the whole after image, a DELTA
+the new value of every byte in which the images differ, and the CLR of
+an APPEND zeros its pages.  Replaying such records in log order leaves
+every byte with the value of the last record that wrote it, whatever
+the page held before, so redo may start at the first LSN of a page
+that is on disk with some of the changes already, and recovery may
+run again after a crash during recovery.  Undo of a transaction, newest
+change first, is idempotent the same way.  Both rely on the before image
+of each record being the page as of the previous logged change to it:
+operators set the before image of a page after they log a change, and
+BufferPool.flushPage() after it logs and writes the page.  logWrite()
+checks that each DELTA turns its before image into its after image.
+<p>
+
+A checkpoint then truncates the log: it deletes the segments that
+end before the first record that recovery from the checkpoint needs.
+
+<u> Group commit: </u>
+<p>
+
+Forcing the log is by far the most expensive part of a commit.  By
+default logCommit() does not hold the log while it forces it: a commit
+that finds no force in progress forces the log up to the end of the
+records appended so far, and the commits appended meanwhile wait for
+that force to end, when one of them forces for all of them.  A lone
+committer thus forces inline, and concurrent committers share one
+force, with no hand-off to another thread.
+<p>
+setGroupCommitPolicy() may instead hold back a force until a batch of
+commits is pending or a delay has passed.  Commits then append their
+record and wait for a flusher thread, which forces once for all the
+commits appended since its last force.  The flusher thread is started
+on demand and stops again when the log is idle.
 */
 
 public class LogFile {
 
     File logFile;
-    RandomAccessFile raf;
+    RandomAccessFile raf; // the log file, which holds the header
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,16 +175,89 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int CLR_RECORD = 7;
+    static final int APPEND_RECORD = 8;
     static final long NO_CHECKPOINT_ID = -1;
 
     static int INT_SIZE = 4;
     static int LONG_SIZE = 8;
 
+    /** "SDBL", the first integer of a log file. */
+    static final int LOG_MAGIC = 0x5344424c;
+    /** The version of the log format; 1 was the format before checksums,
+        2 the format before segments. */
+    static final int LOG_VERSION = 3;
+    /** The offset of the last checkpoint LSN in the header. */
+    static final int CHECKPOINT_POINTER = 8;
+    /** The size of the header of the log file and of every segment. */
+    static final int HEADER_SIZE = 16;
+    /** Body length and checksum. */
+    static final int FRAME_HEADER = 8;
+    /** Record type and transaction id. */
+    static final int BODY_HEADER = 9;
+    /** The size of a record without data. */
+    static final int RECORD_OVERHEAD = FRAME_HEADER + BODY_HEADER + 8;
+
+    /** The default number of pending commits that triggers a force. */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+    /** How long an idle flusher thread waits for commits before it stops. */
+    static final long FLUSHER_IDLE_MILLIS = 1000;
+    /** The number of records a redo thread may have queued. */
+    static final int REDO_QUEUE_SIZE = 1024;
+    /** The default size at which a new log segment is started. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    /** The segments of the log by start LSN, and the one appended to. */
+    TreeMap<Long,LogSegment> segments = new TreeMap<Long,LogSegment>();
+    LogSegment current;
+    int segmentSize = DEFAULT_SEGMENT_SIZE;
+    /** The LSN of the next record. */
     long currentOffset = -1;
     int pageSize;
     int totalRecords = 0; // for PatchTest
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    /** The dirty page table: the LSN of the first logged change of
+        every page that may not be on disk with that change yet. */
+    HashMap<PageId,Long> dirtyPages = new HashMap<PageId,Long>();
+    /** The number of threads that recover() redoes pages with. */
+    int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The log is known to be on disk up to this LSN. */
+    long durableLsn = 0;
+
+    /** Whether logWrite() may log only the changed bytes of a page. */
+    boolean deltaUpdates = true;
+
+    boolean groupCommit = true;
+    int groupCommitBatch = DEFAULT_GROUP_COMMIT_BATCH;
+    long groupCommitDelayNanos = 0;
+    /** Commits appended since the flusher last started a force. */
+    int pendingCommits = 0;
+    /** Set while a commit or the flusher forces the log without holding it. */
+    boolean forcing = false;
+    long firstPendingNanos;
+    /** The running flusher thread, or null. */
+    Thread flusher;
+    /** Set when a force of the flusher failed; later commits fail too. */
+    IOException flushError;
+
+    /** The record being written, see beginRecord(). */
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final Checksum crc = Crc32c.create();
+
+    /** A ByteArrayOutputStream that gives access to its array. */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(2 * BufferPool.PAGE_SIZE + 256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -127,17 +293,265 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            createLog();
+        }
+    }
+
+    /** Throw out the log and start an empty one at LSN 0. */
+    private void createLog() throws IOException {
+        for (LogSegment s : segments.values()) {
+            s.close();
+        }
+        segments.clear();
+        current = null;
+        for (File f : segmentFiles().values()) {
+            if (!f.delete()) {
+                throw new IOException("cannot delete log segment " + f + ".");
+            }
         }
+        raf.seek(0);
+        raf.setLength(0);
+        writeHeader(raf, NO_CHECKPOINT_ID);
+        startSegment(0);
+    }
+
+    /** @return the file of the segment that starts at the given LSN. */
+    public File segmentFile(long start) {
+        return new File(logFile.getAbsoluteFile().getParentFile(),
+                        logFile.getName() + "." + String.format("%016x", start));
+    }
+
+    /** @return the segment files of the log on disk, by start LSN. */
+    private TreeMap<Long,File> segmentFiles() {
+        TreeMap<Long,File> files = new TreeMap<Long,File>();
+        String prefix = logFile.getName() + ".";
+        File[] all = logFile.getAbsoluteFile().getParentFile().listFiles();
+        if (all == null) {
+            return files;
+        }
+        for (File f : all) {
+            String name = f.getName();
+            if (name.length() == prefix.length() + 16 && name.startsWith(prefix)) {
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length()), 16), f);
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        return files;
+    }
+
+    /** Open the segments of an existing log, and continue appending at
+        the end of the last one.  A last segment that a crash left without
+        a complete header is deleted.
+    */
+    private void openSegments() throws IOException {
+        if (!segments.isEmpty()) {
+            return;
+        }
+        TreeMap<Long,File> files = segmentFiles();
+        for (Map.Entry<Long,File> e : files.entrySet()) {
+            LogSegment s = LogSegment.open(e.getValue(), e.getKey());
+            if (s == null) {
+                if (e.getKey() != files.lastKey()) {
+                    throw new IOException("log segment " + e.getValue() + " has no header.");
+                }
+                e.getValue().delete();
+                continue;
+            }
+            segments.put(s.start, s);
+        }
+        if (!segments.isEmpty()) {
+            current = segments.lastEntry().getValue();
+            currentOffset = current.end();
+        }
+    }
+
+    /** Start a new segment at the given LSN and append to it.  The old
+        segment is forced first, since the flusher only forces the
+        current one.
+    */
+    private void startSegment(long start) throws IOException {
+        if (current != null) {
+            current.channel().force(true);
+            markDurable(currentOffset);
+        }
+        current = LogSegment.create(segmentFile(start), start);
+        segments.put(start, current);
+        currentOffset = start + HEADER_SIZE;
+        syncDirectory();
+    }
+
+    /** Force the directory of the log, so that new segment files survive
+        a crash.  Not every platform can open a directory; there this does
+        nothing.
+    */
+    private void syncDirectory() {
+        try {
+            FileChannel dir = FileChannel.open(logFile.getAbsoluteFile().getParentFile().toPath(),
+                                               StandardOpenOption.READ);
+            try {
+                dir.force(true);
+            } finally {
+                dir.close();
+            }
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    /** @return the LSN of the first record in the log. */
+    long firstLsn() {
+        return segments.firstKey() + HEADER_SIZE;
+    }
+
+    static void writeHeader(DataOutput out, long checkpoint) throws IOException {
+        out.writeInt(LOG_MAGIC);
+        out.writeInt(LOG_VERSION);
+        out.writeLong(checkpoint);
+    }
+
+    /** Check the header of the log file.
+        @return the LSN of the last checkpoint, or NO_CHECKPOINT_ID
+    */
+    long readHeader() throws IOException {
+        raf.seek(0);
+        if (raf.length() < HEADER_SIZE || raf.readInt() != LOG_MAGIC) {
+            throw new IOException(logFile + " is not a log file.");
+        }
+        int version = raf.readInt();
+        if (version != LOG_VERSION) {
+            throw new IOException(logFile + " has log format " + version
+                                  + ", expected " + LOG_VERSION + ".");
+        }
+        return raf.readLong();
+    }
+
+    /** Start a record of the given type in the record buffer; the data of
+        the record is written to the returned stream.
+    */
+    DataOutputStream beginRecord(int type, long tid) throws IOException {
+        record.reset();
+        recordOut.writeInt(0); // length and checksum, see appendRecord()
+        recordOut.writeInt(0);
+        recordOut.writeByte(type);
+        recordOut.writeLong(tid);
+        return recordOut;
+    }
+
+    /** Frame the record in the record buffer and append it to the log
+        with one write.  If the record does not fit into the current
+        segment, a new segment is started for it.
+        @return the LSN of the record
+    */
+    long appendRecord() throws IOException {
+        int size = record.size() + LONG_SIZE;
+        long used = currentOffset - current.start;
+        if (used > HEADER_SIZE && used + size > segmentSize) {
+            startSegment(currentOffset);
+        }
+        long start = currentOffset;
+        recordOut.writeLong(start);
+        byte[] b = record.array();
+        int bodyLength = record.size() - FRAME_HEADER - LONG_SIZE;
+        crc.reset();
+        crc.update(b, FRAME_HEADER, bodyLength);
+        ByteBuffer frame = ByteBuffer.wrap(b);
+        frame.putInt(0, bodyLength);
+        frame.putInt(4, (int) crc.getValue());
+        current.raf.write(b, 0, size);
+        currentOffset = start + size;
+        return start;
+    }
+
+    /** @return a reader over the records of the log from lsn on.
+        @throws IOException if the log was truncated past lsn.
+    */
+    LogReader reader(long lsn) throws IOException {
+        if (segments.isEmpty() || lsn < segments.firstKey()) {
+            throw new IOException("LSN " + lsn + " is no longer in the log.");
+        }
+        return new LogReader(segments, lsn, currentOffset);
     }
 
     public int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the LSN just past the last record appended to the log. */
+    public synchronized long getAppendedLsn() {
+        return Math.max(currentOffset, 0);
+    }
+
+    /** @return the LSN up to which the log is known to be on disk. */
+    public synchronized long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /** Turn DELTA records on or off.  When they are off, every
+        logWrite() writes both page images.
+    */
+    public synchronized void setDeltaUpdates(boolean enabled) {
+        deltaUpdates = enabled;
+    }
+
+    /** Set the size at which the log starts a new segment file.  A
+        segment holds at least one record, so records larger than this
+        get a segment of their own.
+    */
+    public synchronized void setSegmentSize(int bytes) {
+        if (bytes <= HEADER_SIZE) {
+            throw new IllegalArgumentException("bad log segment size: " + bytes);
+        }
+        segmentSize = bytes;
+    }
+
+    /** @return the number of bytes in the segment files of the log. */
+    public synchronized long getLogSize() throws IOException {
+        long size = 0;
+        for (LogSegment s : segments.values()) {
+            size += s.end() - s.start;
+        }
+        return size;
+    }
+
+    /** Set the number of threads that recover() splits redo across. */
+    public synchronized void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("bad number of recovery threads: " + threads);
+        }
+        recoveryThreads = threads;
+    }
+
+    /** Turn group commit on or off.  When it is off, every logCommit()
+        forces the log itself while holding the log.
+    */
+    public synchronized void setGroupCommit(boolean enabled) {
+        groupCommit = enabled;
+    }
+
+    /** Set when the log is forced: as soon as batchSize commits are
+        pending, or delayMicros after the first of them was appended.
+        With a delay of 0 (the default) commits force the log
+        themselves, and only share a force with the ones that arrive
+        while the previous force is in progress; batchSize then does
+        not matter.
+
+        @param batchSize The number of pending commits that triggers a
+        force, at least 1.
+        @param delayMicros The longest a commit waits for others to
+        join its force.
+    */
+    public synchronized void setGroupCommitPolicy(int batchSize, long delayMicros) {
+        if (batchSize < 1 || delayMicros < 0) {
+            throw new IllegalArgumentException("bad group commit policy: batch "
+                + batchSize + ", delay " + delayMicros + "us");
+        }
+        groupCommitBatch = batchSize;
+        groupCommitDelayNanos = delayMicros * 1000;
+        notifyAll();
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -158,10 +572,8 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                beginRecord(ABORT_RECORD, tid.getId());
+                appendRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,25 +581,183 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  With group commit, this returns once
+        a force that started after the record was appended is done.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long target;
+        FileChannel channel;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            beginRecord(COMMIT_RECORD, tid.getId());
+            appendRecord();
+            tidToFirstLogRecord.remove(tid.getId());
+            if (!groupCommit) {
+                force();
+                return;
+            }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+            long commitLsn = currentOffset;
+            if (groupCommitDelayNanos > 0) {
+                if (pendingCommits++ == 0) {
+                    firstPendingNanos = System.nanoTime();
+                }
+                if (flusher == null) {
+                    flusher = new Thread("simpledb-log-flusher") {
+                        public void run() {
+                            flushLoop();
+                        }
+                    };
+                    flusher.setDaemon(true);
+                    flusher.start();
+                } else if (pendingCommits == 1 || pendingCommits >= groupCommitBatch) {
+                    notifyAll();
+                }
+                waitDurable(commitLsn);
+                return;
+            }
+
+            // wait for the force in progress, if any; if it did not
+            // cover this record, lead the next one.
+            while (durableLsn < commitLsn && forcing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for commit to reach disk");
+                }
+            }
+            if (durableLsn >= commitLsn) {
+                return;
+            }
+            forcing = true;
+            target = currentOffset;
+            channel = current.channel();
+        }
+
+        // force without holding the log, so that other commits can append
+        // meanwhile and share the next force.
+        IOException error = null;
+        try {
+            channel.force(true);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            forcing = false;
+            notifyAll();
+            if (error instanceof ClosedChannelException) {
+                // the log was closed or started anew meanwhile.
+                force();
+            } else if (error != null) {
+                throw error;
+            } else {
+                markDurable(target);
+            }
+        }
+    }
+
+    /** Wait until the log is on disk up to lsn. */
+    synchronized void waitDurable(long lsn) throws IOException {
+        while (durableLsn < lsn) {
+            if (flushError != null) {
+                throw new IOException("log force failed: " + flushError.getMessage());
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for commit to reach disk");
+            }
+        }
+    }
+
+    /** Body of the flusher thread: force the log whenever commits wait
+        for it, until it has been idle for FLUSHER_IDLE_MILLIS.
+    */
+    void flushLoop() {
+        while (true) {
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                try {
+                    long idleSince = System.currentTimeMillis();
+                    while (pendingCommits == 0 || forcing) {
+                        if (pendingCommits > 0) {
+                            // a commit is forcing the log itself; the
+                            // pending ones share the next force.
+                            wait();
+                            continue;
+                        }
+                        long left = idleSince + FLUSHER_IDLE_MILLIS - System.currentTimeMillis();
+                        if (left <= 0) {
+                            flusher = null;
+                            return;
+                        }
+                        wait(left);
+                    }
+                    // give more commits a chance to join this force
+                    while (pendingCommits < groupCommitBatch) {
+                        long left = firstPendingNanos + groupCommitDelayNanos - System.nanoTime();
+                        if (left <= 0) {
+                            break;
+                        }
+                        wait(left / 1000000, (int) (left % 1000000));
+                    }
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                target = currentOffset;
+                pendingCommits = 0;
+                channel = current.channel();
+                forcing = true;
+            }
+
+            // force without holding the log, so that other transactions
+            // can append meanwhile.
+            try {
+                channel.force(true);
+            } catch (ClosedChannelException e) {
+                // the log was closed or started anew meanwhile.
+                synchronized (this) {
+                    forcing = false;
+                }
+                continue;
+            } catch (IOException e) {
+                synchronized (this) {
+                    forcing = false;
+                    flushError = e;
+                    notifyAll();
+                }
+                continue;
+            }
+            synchronized (this) {
+                forcing = false;
+                markDurable(target);
+            }
+        }
+    }
+
+    /** Record that the log is on disk up to lsn, and wake the commits
+        waiting for it.  Must hold the log.
+    */
+    void markDurable(long lsn) {
+        if (lsn > durableLsn) {
+            durableLsn = lsn;
+            notifyAll();
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  If only a
+        small part of the page changed, this writes a DELTA record with
+        just the changed bytes instead.  If nothing changed, nothing is
+        written.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -197,102 +767,477 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
+        byte[] beforeData = before.getPageData();
+        byte[] afterData = after.getPageData();
+        PageDelta delta = null;
+        if (before.getClass() == after.getClass()
+            && before.getId().equals(after.getId())
+            && beforeData.length == afterData.length) {
+            delta = PageDelta.diff(beforeData, afterData);
+            if (delta.numRanges() == 0) {
+                return;
+            }
+            if (!deltaUpdates || delta.encodedSize() >= 2 * afterData.length) {
+                delta = null;
+            } else {
+                // redo writes only the ranges, so they must hold every changed byte
+                byte[] redone = beforeData.clone();
+                delta.applyAfter(redone);
+                if (!Arrays.equals(redone, afterData)) {
+                    throw new IllegalStateException("delta of page " + after.getId()
+                                                    + " does not reproduce its after image.");
+                }
+            }
+        }
+        preAppend();
+
+        if (delta == null) {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start LSN
+            */
+            DataOutputStream out = beginRecord(UPDATE_RECORD, tid.getId());
+            writePageData(out, new PageRef(before), beforeData);
+            writePageData(out, new PageRef(after), afterData);
+        } else {
+            /* delta record consists of
+
+               record type
+               transaction id
+               page reference (see writePageRef)
+               page size
+               changed byte ranges (see PageDelta)
+               start LSN
+            */
+            DataOutputStream out = beginRecord(DELTA_RECORD, tid.getId());
+            writePageRef(out, new PageRef(after));
+            out.writeInt(afterData.length);
+            delta.write(out);
+        }
+        appendChange(after.getId());
+
+        Debug.log("WRITE OFFSET = " + currentOffset);
+    }
+
+    /** Start a record that changes a page, of type UPDATE_RECORD or
+        DELTA_RECORD.  If undone is not -1, the change is written as a
+        CLR that compensates the record at LSN undone.
+    */
+    private DataOutputStream beginChange(int type, long tid, long undone) throws IOException {
+        if (undone == -1) {
+            return beginRecord(type, tid);
+        }
+        DataOutputStream out = beginRecord(CLR_RECORD, tid);
+        out.writeLong(undone);
+        out.writeByte(type);
+        return out;
+    }
+
+    /** Append the page change in the record buffer, and add the page
+        to the dirty page table if it is not in it yet.
+        @return the LSN of the record
+    */
+    private long appendChange(PageId pid) throws IOException {
+        long offset = appendRecord();
+        if (!dirtyPages.containsKey(pid)) {
+            dirtyPages.put(pid, offset);
+        }
+        return offset;
+    }
+
+    /** Record that a page has been written to disk with all its logged
+        changes, so recovery need not redo them.  BufferPool calls this
+        after it flushed the page.
+    */
+    public synchronized void pageFlushed(PageId pid) {
+        dirtyPages.remove(pid);
+    }
+
+    /** Write an APPEND record for HeapPages that a transaction is about
+        to write past the end of a file, bypassing the buffer pool, and
+        force the log.  The pages must not be written before this
+        returns, and must be forced to disk before the transaction
+        commits: redo never rewrites them, undo empties them.
+        @param tid The transaction appending the pages
+        @param tableId The table of the file
+        @param firstPage The page number of the first page
+        @param npages The number of pages
+    */
+    public synchronized void logAppend(TransactionId tid, int tableId, int firstPage, int npages)
+        throws IOException {
         preAppend();
-        /* update record conists of
+        /* append record consists of
 
            record type
            transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
+           table id, first page, number of pages and page size
+           start LSN
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        DataOutputStream out = beginRecord(APPEND_RECORD, tid.getId());
+        writeAppend(out, tableId, firstPage, npages, BufferPool.PAGE_SIZE);
+        appendRecord();
+        force();
+    }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    private static void writeAppend(DataOutputStream out, int tableId, int firstPage, int npages,
+                                    int pageSize) throws IOException {
+        out.writeInt(tableId);
+        out.writeInt(firstPage);
+        out.writeInt(npages);
+        out.writeInt(pageSize);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
+    void writePageData(DataOutputStream out, Page p) throws IOException{
+        writePageData(out, new PageRef(p), p.getPageData());
+    }
 
+    private static void writePageData(DataOutputStream out, PageRef ref, byte[] pageData) throws IOException{
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
+        // page reference
         // page class bytes
         // page class data
+        writePageRef(out, ref);
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
+    /** Write the page class and page id of a page. */
+    private static void writePageRef(DataOutputStream out, PageRef ref) throws IOException{
+        //page reference is:
+        // page class tag (and name, if the class is not registered)
+        // page id (see writePageId)
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        out.writeShort(ref.pageTag);
+        if (ref.pageTag == PageTypeRegistry.UNREGISTERED) {
+            writeClassName(out, ref.pageClassName);
+        }
+        writePageId(out, ref.pid);
+    }
+
+    /** Write a page id. */
+    static void writePageId(DataOutputStream out, PageId pid) throws IOException{
+        int pageInfo[] = pid.serialize();
+
+        //page id is:
+        // id class tag (and name, if the class is not registered)
+        // id class ints
+        // id class data
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        int idTag = PageTypeRegistry.pageIdTag(pid.getClass());
+        out.writeShort(idTag);
+        if (idTag == PageTypeRegistry.UNREGISTERED) {
+            writeClassName(out, pid.getClass().getName());
+        }
 
-        raf.writeInt(pageInfo.length);
+        out.writeByte(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            out.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    private static void writeClassName(DataOutputStream out, String className) throws IOException {
+        byte[] name = className.getBytes("UTF-8");
+        out.writeShort(name.length);
+        out.write(name);
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    private static String readClassName(ByteBuffer in) throws IOException {
+        byte[] name = new byte[in.getShort() & 0xffff];
+        in.get(name);
+        return new String(name, "UTF-8");
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+    /** A page reference: the page id, and how to build the page from
+        its bytes.
+    */
+    private static class PageRef {
+        final int pageTag;
+        final String pageClassName;
+        final PageId pid;
+
+        PageRef(int pageTag, String pageClassName, PageId pid) {
+            this.pageTag = pageTag;
+            this.pageClassName = pageClassName;
+            this.pid = pid;
+        }
+
+        PageRef(Page p) {
+            pageTag = PageTypeRegistry.pageTag(p.getClass());
+            pageClassName = pageTag == PageTypeRegistry.UNREGISTERED ? p.getClass().getName() : null;
+            pid = p.getId();
+        }
+
+        Page page(byte[] pageData) throws IOException {
+            if (pageClassName == null) {
+                PageTypeRegistry.PageDecoder d = PageTypeRegistry.pageDecoder(pageTag);
+                if (d == null) {
+                    throw new IOException("unknown page tag " + pageTag + " in log.");
+                }
+                return d.decode(pid, pageData);
+            }
+            return (Page) construct(pageClassName, pid, pageData);
+        }
+    }
+
+    /** Read a page reference written by writePageRef from the position of
+        in, and move the position past it.
+    */
+    private static PageRef readPageRef(ByteBuffer in) throws IOException {
+        int pageTag = in.getShort();
+        String pageClassName = null;
+        if (pageTag == PageTypeRegistry.UNREGISTERED) {
+            pageClassName = readClassName(in);
+        }
+        return new PageRef(pageTag, pageClassName, readPageId(in));
+    }
+
+    /** Read a page id written by writePageId from the position of in,
+        and move the position past it.
+    */
+    static PageId readPageId(ByteBuffer in) throws IOException {
+        int idTag = in.getShort();
+        String idClassName = idTag == PageTypeRegistry.UNREGISTERED ? readClassName(in) : null;
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+        int[] idArgs = new int[in.get()];
+        for (int i = 0; i < idArgs.length; i++) {
+            idArgs[i] = in.getInt();
+        }
+        if (idClassName == null) {
+            PageTypeRegistry.PageIdDecoder d = PageTypeRegistry.pageIdDecoder(idTag);
+            if (d == null) {
+                throw new IOException("unknown page id tag " + idTag + " in log.");
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            return d.decode(idArgs);
+        }
+        return (PageId) construct(idClassName, idArgs);
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /** Read a page written by writePageData from the position of in, and
+        move the position past it.
+    */
+    Page readPageData(ByteBuffer in) throws IOException {
+        PageRef ref = readPageRef(in);
+        byte[] pageData = new byte[in.getInt()];
+        in.get(pageData);
+        return ref.page(pageData);
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    /** A page change read from an UPDATE, DELTA, APPEND or CLR record. */
+    private static class Change {
+        /** The LSN and transaction of the record. */
+        long offset;
+        long tid;
+        /** UPDATE_RECORD, DELTA_RECORD or APPEND_RECORD; for a CLR, the
+            type of the change that undoes the record at LSN undone. */
+        int type;
+        long undone = -1;
+        /** The changed page; for an APPEND, the first of its pages. */
+        PageRef ref;
+        int pageSize;
+        /** The number of pages of an APPEND. */
+        int count = 1;
+        /** The images of an UPDATE. */
+        byte[] before;
+        byte[] after;
+        /** The changed bytes of a DELTA. */
+        PageDelta delta;
+
+        /** @return page i of the change, counting from 0. */
+        PageRef pageRef(int i) {
+            if (i == 0) {
+                return ref;
+            }
+            return new PageRef(ref.pageTag, ref.pageClassName,
+                               new HeapPageId(ref.pid.getTableId(), ref.pid.pageNumber() + i));
+        }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        /** Write the after image of the change into data.  This writes
+            absolute bytes, so redoing a change again, or on a page that
+            already has later changes, leaves the same bytes as once.
+        */
+        void redo(byte[] data) {
+            if (type == APPEND_RECORD) {
+                // only a CLR of an APPEND is redone, which empties the page
+                Arrays.fill(data, (byte) 0);
+            } else if (delta != null) {
+                delta.applyAfter(data);
+            } else {
+                System.arraycopy(after, 0, data, 0, pageSize);
+            }
+        }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        /** Write the before image of the change into data. */
+        void undo(byte[] data) {
+            if (type == APPEND_RECORD) {
+                Arrays.fill(data, (byte) 0);
+            } else if (delta != null) {
+                delta.applyBefore(data);
+            } else {
+                System.arraycopy(before, 0, data, 0, pageSize);
+            }
+        }
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
+    /** Read the change of an UPDATE, DELTA, APPEND or CLR record.
+        @param payload The payload of the record; it is not moved.
+    */
+    private static Change readChange(int type, ByteBuffer payload) throws IOException {
+        ByteBuffer in = payload.duplicate();
+        Change c = new Change();
+        c.type = type;
+        if (type == CLR_RECORD) {
+            c.undone = in.getLong();
+            c.type = in.get();
+        }
+        if (c.type == UPDATE_RECORD) {
+            readPageRef(in);
+            c.before = new byte[in.getInt()];
+            in.get(c.before);
+            c.ref = readPageRef(in);
+            c.after = new byte[in.getInt()];
+            in.get(c.after);
+            if (c.before.length != c.after.length) {
+                throw new IOException("page images of " + c.before.length + " and "
+                                      + c.after.length + " bytes in log.");
+            }
+            c.pageSize = c.after.length;
+        } else if (c.type == DELTA_RECORD) {
+            c.ref = readPageRef(in);
+            c.pageSize = in.getInt();
+            c.delta = PageDelta.read(in, c.pageSize);
+        } else if (c.type == APPEND_RECORD) {
+            int tableId = in.getInt();
+            int firstPage = in.getInt();
+            c.count = in.getInt();
+            c.pageSize = in.getInt();
+            c.ref = new PageRef(PageTypeRegistry.pageTag(HeapPage.class), null,
+                                new HeapPageId(tableId, firstPage));
+        } else {
+            throw new IllegalArgumentException("record type " + type + " changes no page.");
+        }
+        return c;
+    }
+
+    /** @return the id of the page changed by an UPDATE, DELTA or CLR
+        record, given the type and the payload of the record.
+    */
+    static PageId readUpdatedPageId(int type, ByteBuffer payload) throws IOException {
+        if (changeType(type, payload) == APPEND_RECORD) {
+            return readChange(type, payload).ref.pid;
+        }
+        ByteBuffer in = payload.duplicate();
+        if (type == CLR_RECORD) {
+            in.position(in.position() + LONG_SIZE + 1);
+        }
+        return readPageRef(in).pid;
+    }
+
+    /** @return the ids of all pages changed by an UPDATE, DELTA, APPEND
+        or CLR record.
+    */
+    private static List<PageId> readUpdatedPageIds(int type, ByteBuffer payload) throws IOException {
+        if (changeType(type, payload) != APPEND_RECORD) {
+            return Collections.singletonList(readUpdatedPageId(type, payload));
+        }
+        Change c = readChange(type, payload);
+        ArrayList<PageId> pids = new ArrayList<PageId>(c.count);
+        for (int i = 0; i < c.count; i++) {
+            pids.add(c.pageRef(i).pid);
+        }
+        return pids;
+    }
+
+    /** @return the type of the change of a record: for a CLR the type of
+        the change that undoes a record, else the type of the record.
+    */
+    private static int changeType(int type, ByteBuffer payload) {
+        return type == CLR_RECORD ? payload.get(payload.position() + LONG_SIZE) : type;
+    }
+
+    /** Read the before or the after image of the page changed by an
+        UPDATE, DELTA or CLR record.  A DELTA record only holds the bytes
+        that changed; the rest of the image is taken from current.
+
+        @param type UPDATE_RECORD, DELTA_RECORD or CLR_RECORD
+        @param payload The payload of the record; it is not moved.
+        @param after Whether to return the after image, i.e. redo the
+        change, or the before image, i.e. undo it.
+        @param current For a DELTA record, the page data as it is now; if
+        null, the page is read from its file.
+    */
+    Page readImage(int type, ByteBuffer payload, boolean after, byte[] current)
+        throws IOException {
+        Change c = readChange(type, payload);
+        byte[] data;
+        if (c.delta == null) {
+            data = new byte[c.pageSize];
+        } else if (current != null) {
+            data = current.clone();
+        } else {
+            data = readPageFromFile(c.ref.pid, c.pageSize);
+        }
+        if (data.length != c.pageSize) {
+            throw new IOException("page " + c.ref.pid + " has " + data.length
+                                  + " bytes, the log has " + c.pageSize + ".");
+        }
+        if (after) {
+            c.redo(data);
+        } else {
+            c.undo(data);
+        }
+        return c.ref.page(data);
+    }
+
+    /** @return the data of a page as it is in its file, or zeros if the
+        file does not have the page yet.
+    */
+    private static byte[] readPageFromFile(PageId pid, int pageSize) throws IOException {
+        DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+        byte[] data;
+        try {
+            data = f.readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            return new byte[pageSize];
+        }
+        if (data.length != pageSize) {
+            throw new IOException("page " + pid + " has " + data.length
+                                  + " bytes, the log has " + pageSize + ".");
+        }
+        return data;
+    }
+
+    /** Construct a page id from its ints, or a page from its id and data,
+        by reflection, for classes that are not in the PageTypeRegistry.
+    */
+    private static Object construct(String className, Object... args) throws IOException {
+        try {
+            Class<?> c = Class.forName(className);
+            if (args[0] instanceof int[]) {
+                int[] ints = (int[]) args[0];
+                Object[] idArgs = new Object[ints.length];
+                for (int i = 0; i < ints.length; i++) {
+                    idArgs[i] = ints[i];
+                }
+                return c.getDeclaredConstructors()[0].newInstance(idArgs);
+            }
+            Constructor<?> pageConst = c.getDeclaredConstructor(args[0].getClass(), byte[].class);
+            return pageConst.newInstance(args);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("cannot read " + className + " from log: " + e);
         } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
+            throw new IOException("cannot read " + className + " from log: " + e);
         } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
+            throw new IOException("cannot read " + className + " from log: " + e);
         } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+            throw new IOException("cannot read " + className + " from log: " + e.getCause());
+        } catch (NoSuchMethodException e) {
+            throw new IOException("cannot read " + className + " from log: " + e);
         }
-        return newPage;
-
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,150 +1252,112 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        beginRecord(BEGIN_RECORD, tid.getId());
+        tidToFirstLogRecord.put(tid.getId(), appendRecord());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  This is a
+        fuzzy checkpoint: it writes the dirty page table instead of
+        flushing the dirty pages.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset;
+            DataOutputStream out = beginRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long,Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                writePageId(out, e.getKey());
+                out.writeLong(e.getValue());
             }
+            startCpOffset = appendRecord();
+            // the header must not point to a checkpoint that is not on disk
+            force();
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated, and on disk before
+            // truncation deletes the segments of the last one
+            raf.seek(CHECKPOINT_POINTER);
+            raf.writeLong(startCpOffset);
+            raf.getChannel().force(true);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
+    /** Read the payload of a CHECKPOINT record into the live transactions
+        and the dirty page table.
+    */
+    private static void readCheckpoint(ByteBuffer cp, Map<Long,Long> xactions,
+                                       Map<PageId,Long> pages) throws IOException {
+        int numXactions = cp.getInt();
+        for (int i = 0; i < numXactions; i++) {
+            long tid = cp.getLong();
+            xactions.put(tid, cp.getLong());
+        }
+        int numPages = cp.getInt();
+        for (int i = 0; i < numPages; i++) {
+            PageId pid = readPageId(cp);
+            pages.put(pid, cp.getLong());
+        }
+    }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption.  This deletes the segments that end before the first
+        record recovery from the last checkpoint needs; the log is only
+        held while they are chosen, not while they are deleted.
+    */
+    public void logTruncate() throws IOException {
+        ArrayList<LogSegment> dropped = new ArrayList<LogSegment>();
+        synchronized (this) {
+            preAppend();
+            long cpLoc = readHeader();
+            if (cpLoc == NO_CHECKPOINT_ID) {
+                return;
+            }
 
-            if (cpType != CHECKPOINT_RECORD) {
+            LogReader in = reader(cpLoc);
+            if (!in.next() || in.type() != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+            // recovery needs the records of the live transactions and
+            // of the dirty pages
+            long minLogRecord = cpLoc;
+            HashMap<Long,Long> xactions = new HashMap<Long,Long>();
+            HashMap<PageId,Long> pages = new HashMap<PageId,Long>();
+            readCheckpoint(in.payload(), xactions, pages);
+            for (long firstLogRecord : xactions.values()) {
+                minLogRecord = Math.min(minLogRecord, firstLogRecord);
+            }
+            for (long firstLogRecord : pages.values()) {
+                minLogRecord = Math.min(minLogRecord, firstLogRecord);
             }
-        }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
 
-            } catch (EOFException e) {
-                break;
+            long keep = segments.floorKey(minLogRecord);
+            while (segments.firstKey() < keep) {
+                dropped.add(segments.pollFirstEntry().getValue());
             }
+            Debug.log("TRUNCATING LOG; DROPPING " + dropped.size() + " SEGMENTS; NEW START : " + keep);
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        for (LogSegment s : dropped) {
+            s.delete();
+        }
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -459,15 +1366,133 @@ public class LogFile {
         transactions that have already committed (though this may not
         be enforced by this method.)
 
+        The changes are undone on the pages as they are logged: the before
+        image of a page in the buffer pool (see Page.getBeforeImage), or
+        else the page on disk.  The rolled back pages are written to disk
+        and dropped from the buffer pool.
+
         @param tid The transaction to rollback
+        @throws NoSuchElementException if the transaction is not live.
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live.");
+                }
+                HashMap<PageId,PageImage> pages = new HashMap<PageId,PageImage>();
+                undo(Collections.singletonMap(tid.getId(), first), pages);
+                installPages(pages);
+            }
+        }
+    }
+
+    /** The data of a page that recovery works on. */
+    private static class PageImage {
+        final PageRef ref;
+        final byte[] data;
+
+        PageImage(PageRef ref, byte[] data) {
+            this.ref = ref;
+            this.data = data;
+        }
+    }
+
+    /** Undo the changes of the given transactions, newest first, and log
+        a CLR for each.  Changes that a CLR compensates already, because
+        an earlier undo was cut short, are skipped.
+
+        @param losers The transactions, with the LSN of their first
+        record.
+        @param pages The pages to undo on; other pages are read as
+        rollback() describes and added.
+    */
+    private void undo(Map<Long,Long> losers, Map<PageId,PageImage> pages) throws IOException {
+        if (losers.isEmpty()) {
+            return;
+        }
+        ArrayList<Change> changes = new ArrayList<Change>();
+        HashSet<Long> compensated = new HashSet<Long>();
+        LogReader in = reader(Collections.min(losers.values()));
+        while (in.next()) {
+            int type = in.type();
+            if (!losers.containsKey(in.tid())) {
+                continue;
+            }
+            if (type == CLR_RECORD) {
+                compensated.add(in.payload().getLong(0));
+            } else if (type == UPDATE_RECORD || type == DELTA_RECORD || type == APPEND_RECORD) {
+                Change c = readChange(type, in.payload());
+                c.offset = in.offset();
+                c.tid = in.tid();
+                changes.add(c);
+            }
+        }
+
+        BufferPool pool = Database.getBufferPool();
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change c = changes.get(i);
+            if (compensated.contains(c.offset)) {
+                continue;
+            }
+            if (c.type == APPEND_RECORD) {
+                // empty the appended pages, whatever is on them now
+                DataOutputStream out = beginChange(APPEND_RECORD, c.tid, c.offset);
+                writeAppend(out, c.ref.pid.getTableId(), c.ref.pid.pageNumber(), c.count, c.pageSize);
+                long lsn = appendRecord();
+                for (int p = 0; p < c.count; p++) {
+                    PageRef ref = c.pageRef(p);
+                    if (!dirtyPages.containsKey(ref.pid)) {
+                        dirtyPages.put(ref.pid, lsn);
+                    }
+                    PageImage page = pages.get(ref.pid);
+                    if (page == null) {
+                        page = new PageImage(ref, new byte[c.pageSize]);
+                        pages.put(ref.pid, page);
+                    }
+                    c.undo(page.data);
+                }
+                continue;
+            }
+            PageId pid = c.ref.pid;
+            PageImage page = pages.get(pid);
+            if (page == null) {
+                Page cached = pool.getCachedPage(pid);
+                byte[] data = cached != null ? cached.getBeforeImage().getPageData().clone()
+                    : readPageFromFile(pid, c.pageSize);
+                page = new PageImage(c.ref, data);
+                pages.put(pid, page);
+            }
+
+            DataOutputStream out = beginChange(c.type, c.tid, c.offset);
+            if (c.delta != null) {
+                writePageRef(out, c.ref);
+                out.writeInt(c.pageSize);
+                c.delta.inverse().write(out);
+            } else {
+                writePageData(out, c.ref, page.data);
+                writePageData(out, c.ref, c.before);
             }
+            appendChange(pid);
+            c.undo(page.data);
+        }
+    }
+
+    /** Write pages that recovery changed to their files once the log is
+        on disk, and drop them from the buffer pool, whose copies are
+        stale.
+    */
+    private void installPages(Map<PageId,PageImage> pages) throws IOException {
+        force();
+        BufferPool pool = Database.getBufferPool();
+        for (PageImage page : pages.values()) {
+            PageId pid = page.ref.pid;
+            Database.getCatalog().getDbFile(pid.getTableId()).writePage(page.ref.page(page.data));
+            pool.discardPage(pid);
+            dirtyPages.remove(pid);
         }
     }
 
@@ -479,6 +1504,9 @@ public class LogFile {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
+            for (LogSegment s : segments.values()) {
+                s.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -493,18 +1521,303 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                openSegments();
+                if (raf.length() == 0 || segments.isEmpty()) {
+                    // a new log
+                    createLog();
+                    return;
+                }
+                long cpLoc = readHeader();
+
+                // analysis: find the unfinished transactions and the
+                // pages that may miss changes
+                HashMap<Long,Long> losers = new HashMap<Long,Long>();
+                HashMap<PageId,Long> pages = new HashMap<PageId,Long>();
+                LogReader in = reader(cpLoc == NO_CHECKPOINT_ID ? firstLsn() : cpLoc);
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    if (!in.next() || in.type() != CHECKPOINT_RECORD) {
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                    }
+                    readCheckpoint(in.payload(), losers, pages);
+                }
+                while (in.next()) {
+                    switch (in.type()) {
+                    case BEGIN_RECORD:
+                        losers.put(in.tid(), in.offset());
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        losers.remove(in.tid());
+                        break;
+                    case UPDATE_RECORD:
+                    case DELTA_RECORD:
+                    case CLR_RECORD:
+                        for (PageId pid : readUpdatedPageIds(in.type(), in.payload())) {
+                            if (!pages.containsKey(pid)) {
+                                pages.put(pid, in.offset());
+                            }
+                        }
+                        break;
+                    }
+                }
+
+                // drop a record that a crash cut short, new records go
+                // after the last complete one
+                long end = in.endOffset();
+                LogSegment last = segments.floorEntry(end).getValue();
+                while (segments.lastKey() > last.start) {
+                    segments.pollLastEntry().getValue().delete();
+                }
+                last.raf.setLength(end - last.start);
+                last.raf.seek(end - last.start);
+                current = last;
+                currentOffset = end;
+                markDurable(end);
+
+                Map<PageId,PageImage> images = redo(pages);
+                undo(losers, images);
+                for (long tid : losers.keySet()) {
+                    beginRecord(ABORT_RECORD, tid);
+                    appendRecord();
+                }
+                installPages(images);
+                tidToFirstLogRecord.clear();
+                dirtyPages.clear();
             }
          }
     }
 
+    /** Redo the logged changes of the given pages, from the first LSN
+        of each page on.  A page on disk may have some of the changes
+        already; redoing them again is harmless, see the class comment.
+        The pages are split across recoveryThreads
+        threads by page id; the changes of each page are redone in log
+        order by one thread.
+        @return the redone pages, which are not written to disk yet.
+    */
+    private Map<PageId,PageImage> redo(Map<PageId,Long> pages) throws IOException {
+        HashMap<PageId,PageImage> images = new HashMap<PageId,PageImage>();
+        if (pages.isEmpty()) {
+            return images;
+        }
+        RedoWorker[] workers = new RedoWorker[Math.min(recoveryThreads, pages.size())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new RedoWorker(i);
+            if (workers.length > 1) {
+                workers[i].start();
+            }
+        }
+
+        try {
+            LogReader in = reader(Collections.min(pages.values()));
+            while (in.next()) {
+                int type = in.type();
+                if (type != UPDATE_RECORD && type != DELTA_RECORD && type != CLR_RECORD) {
+                    continue;
+                }
+                ByteBuffer payload = in.payload();
+                if (changeType(type, payload) == APPEND_RECORD) {
+                    // split into a CLR per page, as the pages may go to
+                    // different workers
+                    Change c = readChange(type, payload);
+                    for (int i = 0; i < c.count; i++) {
+                        PageId pid = c.pageRef(i).pid;
+                        Long first = pages.get(pid);
+                        if (first == null || in.offset() < first) {
+                            continue;
+                        }
+                        ByteBuffer one = ByteBuffer.allocate(LONG_SIZE + 1 + 16);
+                        one.putLong(c.undone).put((byte) APPEND_RECORD).putInt(pid.getTableId())
+                            .putInt(pid.pageNumber()).putInt(1).putInt(c.pageSize).flip();
+                        redo(workers, pid, type, one);
+                    }
+                    continue;
+                }
+                PageId pid = readUpdatedPageId(type, payload);
+                Long first = pages.get(pid);
+                if (first == null || in.offset() < first) {
+                    continue;
+                }
+                redo(workers, pid, type, payload);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during redo");
+        } finally {
+            if (workers.length > 1) {
+                for (RedoWorker worker : workers) {
+                    worker.finish();
+                }
+            }
+        }
+
+        for (RedoWorker worker : workers) {
+            if (worker.error != null) {
+                throw new IOException("redo failed: " + worker.error, worker.error);
+            }
+            images.putAll(worker.pages);
+        }
+        return images;
+    }
+
+    /** Redo a change to a page on the worker of the page. */
+    private static void redo(RedoWorker[] workers, PageId pid, int type, ByteBuffer payload)
+        throws IOException, InterruptedException {
+        RedoWorker worker = workers[(pid.hashCode() & 0x7fffffff) % workers.length];
+        if (workers.length == 1) {
+            worker.redo(type, payload);
+            return;
+        }
+        // the reader reuses its buffer, so the worker gets a copy
+        byte[] task = new byte[1 + payload.remaining()];
+        task[0] = (byte) type;
+        payload.get(task, 1, task.length - 1);
+        worker.queue.put(task);
+    }
+
+    /** A thread that redoes the changes to its share of the pages, in the
+        order it is given them.
+    */
+    private static class RedoWorker extends Thread {
+        /** Marks the end of the queue. */
+        private static final byte[] END = new byte[0];
+
+        /** Record type and payload of the changes to redo. */
+        final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(REDO_QUEUE_SIZE);
+        final HashMap<PageId,PageImage> pages = new HashMap<PageId,PageImage>();
+        /** The first failure; the thread ignores its changes after one. */
+        volatile Throwable error;
+
+        RedoWorker(int i) {
+            super("simpledb-redo-" + i);
+            setDaemon(true);
+        }
+
+        void redo(int type, ByteBuffer payload) throws IOException {
+            Change c = readChange(type, payload);
+            PageImage page = pages.get(c.ref.pid);
+            if (page == null) {
+                page = new PageImage(c.ref, readPageFromFile(c.ref.pid, c.pageSize));
+                pages.put(c.ref.pid, page);
+            }
+            c.redo(page.data);
+        }
+
+        public void run() {
+            while (true) {
+                byte[] task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    error = e;
+                    continue;
+                }
+                if (task == END) {
+                    return;
+                }
+                if (error != null) {
+                    continue;
+                }
+                try {
+                    redo(task[0], ByteBuffer.wrap(task, 1, task.length - 1).slice());
+                } catch (Throwable t) {
+                    error = t;
+                }
+            }
+        }
+
+        /** Wait until the thread has redone all changes it was given. */
+        void finish() throws InterruptedIOException {
+            try {
+                queue.put(END);
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted during redo");
+            }
+        }
+    }
+
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        // some code goes here
+    public synchronized void print() throws IOException {
+        long cpLoc = readHeader();
+        openSegments();
+        System.out.println("LOG " + logFile + ", LAST CHECKPOINT AT " + cpLoc);
+        if (segments.isEmpty()) {
+            return;
+        }
+        for (LogSegment s : segments.values()) {
+            System.out.println("SEGMENT " + s.file.getName() + " FROM " + s.start);
+        }
+        LogReader in = reader(firstLsn());
+        while (in.next()) {
+            StringBuilder line = new StringBuilder();
+            line.append(in.offset()).append(": ");
+            ByteBuffer data = in.payload();
+            switch (in.type()) {
+            case ABORT_RECORD:
+                line.append("ABORT ").append(in.tid());
+                break;
+            case COMMIT_RECORD:
+                line.append("COMMIT ").append(in.tid());
+                break;
+            case BEGIN_RECORD:
+                line.append("BEGIN ").append(in.tid());
+                break;
+            case UPDATE_RECORD:
+                Page before = readPageData(data);
+                Page after = readPageData(data);
+                line.append("UPDATE ").append(in.tid()).append(" ").append(before.getId());
+                if (!before.getId().equals(after.getId())) {
+                    line.append(" -> ").append(after.getId());
+                }
+                break;
+            case DELTA_RECORD:
+            case APPEND_RECORD:
+            case CLR_RECORD:
+                Change c = readChange(in.type(), data);
+                line.append(c.undone != -1 ? "CLR " : c.type == APPEND_RECORD ? "APPEND " : "DELTA ")
+                    .append(in.tid()).append(" ").append(c.ref.pid);
+                if (c.type == APPEND_RECORD) {
+                    line.append(" AND ").append(c.count - 1).append(" PAGES AFTER IT");
+                }
+                if (c.undone != -1) {
+                    line.append(" UNDOES ").append(c.undone);
+                }
+                if (c.delta != null) {
+                    line.append(", ").append(c.delta.changedBytes()).append(" bytes in ")
+                        .append(c.delta.numRanges()).append(" ranges");
+                }
+                break;
+            case CHECKPOINT_RECORD:
+                line.append("CHECKPOINT");
+                HashMap<Long,Long> xactions = new HashMap<Long,Long>();
+                HashMap<PageId,Long> pages = new HashMap<PageId,Long>();
+                readCheckpoint(data, xactions, pages);
+                for (Map.Entry<Long,Long> e : xactions.entrySet()) {
+                    line.append(" ").append(e.getKey()).append("@").append(e.getValue());
+                }
+                line.append(", DIRTY");
+                for (Map.Entry<PageId,Long> e : pages.entrySet()) {
+                    line.append(" ").append(e.getKey()).append("@").append(e.getValue());
+                }
+                break;
+            default:
+                line.append("UNKNOWN RECORD TYPE ").append(in.type());
+            }
+            System.out.println(line);
+        }
+        if (in.isDamaged()) {
+            System.out.println(in.endOffset() + ": DAMAGED OR INCOMPLETE RECORD, END OF LOG");
+        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        long target = getAppendedLsn();
+        if (current != null) {
+            current.channel().force(true);
+        }
+        markDurable(target);
     }
 
 }
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.zip.Checksum;
+
+/**
+ * Reads the records of a log in order, through a large buffer, and checks
+ * their checksums. See {@link LogFile} for the record format. Positions are
+ * LSNs; the reader moves on from the end of one log segment to the first
+ * record of the next one.
+ * <p>
+ * The reader stops at the end of the log, and at the first record that is
+ * incomplete or damaged, e.g. because the system crashed while writing it.
+ * Accessors refer to the record last returned by next(); the buffers they
+ * return are only valid until the next call to next().
+ */
+class LogReader {
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private final NavigableMap<Long, LogSegment> segments;
+    private final long end;
+    private final Checksum crc = Crc32c.create();
+    private ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+    /** The LSN of buf[0]; buf only ever holds bytes of one segment. */
+    private long bufStart = 0;
+    /** The segment of pos, and the LSN where its records end. */
+    private LogSegment segment;
+    private long segmentEnd;
+    /** The LSN of the next record. */
+    private long pos;
+    private boolean damaged;
+
+    // the current record
+    private long offset = -1;
+    private int type;
+    private long tid;
+    private int checksum;
+    /** Index of the record body in buf, and its length. */
+    private int bodyStart;
+    private int bodyLength;
+
+    /**
+     * @param segments the segments of the log by start LSN.
+     * @param start the LSN of the first record to read.
+     * @param end the LSN where the log ends.
+     */
+    LogReader(NavigableMap<Long, LogSegment> segments, long start, long end) {
+        this.segments = segments;
+        this.end = end;
+        buf.limit(0);
+        seek(start);
+    }
+
+    /** Continue reading at the record that starts at the given LSN. */
+    void seek(long lsn) {
+        Map.Entry<Long, LogSegment> e = segments.floorEntry(lsn);
+        if (e == null) {
+            throw new IllegalArgumentException("LSN " + lsn + " is before the start of the log.");
+        }
+        enter(e.getValue());
+        pos = lsn;
+        damaged = false;
+    }
+
+    private void enter(LogSegment s) {
+        segment = s;
+        Long next = segments.higherKey(s.start);
+        segmentEnd = next == null ? end : Math.min(next, end);
+    }
+
+    /** @return the offset of buf holding len bytes from LSN at, or -1 if the segment ends before. */
+    private int fill(long at, int len) throws IOException {
+        if (at >= bufStart && at + len <= bufStart + buf.limit()) {
+            return (int) (at - bufStart);
+        }
+        if (len > buf.capacity()) {
+            buf = ByteBuffer.allocate(Math.max(len, 2 * buf.capacity()));
+        }
+        buf.clear();
+        FileChannel channel = segment.channel();
+        long p = at - segment.start;
+        while (buf.position() < len) {
+            int n = channel.read(buf, p);
+            if (n < 0) {
+                break;
+            }
+            p += n;
+        }
+        buf.flip();
+        bufStart = at;
+        return buf.limit() < len ? -1 : 0;
+    }
+
+    /**
+     * Move to the next record.
+     * @return false at the end of the log or at a damaged record.
+     */
+    boolean next() throws IOException {
+        offset = -1;
+        if (damaged) {
+            return false;
+        }
+        while (pos >= segmentEnd) {
+            Map.Entry<Long, LogSegment> next = segments.higherEntry(segment.start);
+            if (next == null || next.getKey() >= end) {
+                return false;
+            }
+            enter(next.getValue());
+            pos = next.getKey() + LogFile.HEADER_SIZE;
+        }
+        int i = fill(pos, LogFile.FRAME_HEADER);
+        if (i < 0) {
+            damaged = true;
+            return false;
+        }
+        int len = buf.getInt(i);
+        int sum = buf.getInt(i + 4);
+        if (pos + LogFile.RECORD_OVERHEAD > segmentEnd || len < LogFile.BODY_HEADER || pos + LogFile.FRAME_HEADER + len + LogFile.LONG_SIZE > segmentEnd) {
+            damaged = true;
+            return false;
+        }
+        i = fill(pos, LogFile.FRAME_HEADER + len + LogFile.LONG_SIZE);
+        if (i < 0) {
+            damaged = true;
+            return false;
+        }
+        int body = i + LogFile.FRAME_HEADER;
+        crc.reset();
+        crc.update(buf.array(), buf.arrayOffset() + body, len);
+        if ((int) crc.getValue() != sum || buf.getLong(body + len) != pos) {
+            damaged = true;
+            return false;
+        }
+        offset = pos;
+        type = buf.get(body);
+        tid = buf.getLong(body + 1);
+        checksum = sum;
+        bodyStart = body;
+        bodyLength = len;
+        pos += LogFile.FRAME_HEADER + len + LogFile.LONG_SIZE;
+        return true;
+    }
+
+    /** @return true if reading stopped at an incomplete or damaged record. */
+    boolean isDamaged() {
+        return damaged;
+    }
+
+    /** @return the LSN of the current record. */
+    long offset() {
+        return offset;
+    }
+
+    /** @return the LSN just past the current record, or where reading stopped. */
+    long endOffset() {
+        return pos;
+    }
+
+    int type() {
+        return type;
+    }
+
+    long tid() {
+        return tid;
+    }
+
+    /** @return the checksum of the body of the current record. */
+    int checksum() {
+        return checksum;
+    }
+
+    /** @return the body of the current record: type, tid and payload. */
+    ByteBuffer body() {
+        ByteBuffer b = buf.duplicate();
+        b.limit(bodyStart + bodyLength);
+        b.position(bodyStart);
+        return b.slice();
+    }
+
+    /** @return the payload of the current record, after type and tid. */
+    ByteBuffer payload() {
+        ByteBuffer b = buf.duplicate();
+        b.limit(bodyStart + bodyLength);
+        b.position(bodyStart + LogFile.BODY_HEADER);
+        return b.slice();
+    }
+}
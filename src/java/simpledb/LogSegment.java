@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * One file of the log. A segment holds the records of a contiguous range of
+ * LSNs: the LSN of a byte in the segment is the LSN the segment starts at
+ * plus the file offset of the byte, and the next segment starts at the LSN
+ * where this one ends. A record never spans two segments.
+ * <p>
+ * The file starts with a header of {@link LogFile#HEADER_SIZE} bytes: the
+ * integer LOG_MAGIC, the integer format version, and the long LSN the
+ * segment starts at. The records follow it.
+ */
+class LogSegment {
+
+    final long start;
+    final File file;
+    final RandomAccessFile raf;
+
+    private LogSegment(long start, File file, RandomAccessFile raf) {
+        this.start = start;
+        this.file = file;
+        this.raf = raf;
+    }
+
+    /** Create a segment file that starts at the given LSN, with just the header. */
+    static LogSegment create(File file, long start) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        LogFile.writeHeader(raf, start);
+        return new LogSegment(start, file, raf);
+    }
+
+    /**
+     * Open an existing segment file, positioned at its end.
+     * @return null if the file is too short to hold a header, as when the
+     *         system crashed while creating it.
+     * @throws IOException if the file is not a segment of this log format
+     *         starting at the given LSN.
+     */
+    static LogSegment open(File file, long start) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < LogFile.HEADER_SIZE) {
+            raf.close();
+            return null;
+        }
+        int magic = raf.readInt();
+        int version = raf.readInt();
+        long headerStart = raf.readLong();
+        if (magic != LogFile.LOG_MAGIC || version != LogFile.LOG_VERSION || headerStart != start) {
+            raf.close();
+            throw new IOException(file + " is not a log segment of format " + LogFile.LOG_VERSION
+                                  + " starting at LSN " + start + ".");
+        }
+        raf.seek(raf.length());
+        return new LogSegment(start, file, raf);
+    }
+
+    FileChannel channel() {
+        return raf.getChannel();
+    }
+
+    /** @return the LSN just past the last byte of the file. */
+    long end() throws IOException {
+        return start + raf.length();
+    }
+
+    void close() throws IOException {
+        raf.close();
+    }
+
+    /** Close and remove the segment file. */
+    void delete() throws IOException {
+        raf.close();
+        if (!file.delete() && file.exists()) {
+            throw new IOException("cannot delete log segment " + file + ".");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * The LRU-K replacement policy (O'Neil, O'Neil and Weikum). The victim is
+ * the page whose K-th most recent reference is the oldest. Pages referenced
+ * fewer than K times count as infinitely old and go first, least recently
+ * used first, so pages touched once by a scan leave before the pages that
+ * are used over and over.
+ * <p>
+ * Frames are kept in two queues. Pages with fewer than K references wait
+ * in a correlated-reference queue, least recently used first; a page that
+ * reaches K references moves to the queue of hot pages, which is an LRU
+ * list too. The reference count of an evicted page is kept in a history
+ * queue for a while (as many pages as the pool holds), so a page that
+ * comes back soon keeps its history.
+ * <p>
+ * Ordering the hot pages by their K-th reference would need a sorted
+ * structure and O(log n) work per hit; ordering them by their last
+ * reference keeps every operation O(1), apart from skipping frames that
+ * cannot be evicted right now. Pages with fewer than K references are
+ * still evicted exactly as LRU-K would.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** The default K. LRU-2 already tells hot pages from scanned ones. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    /** The references of the page of each frame, up to K. */
+    private int[] refs;
+    private PageId[] pids;
+    /** Frames of pages with fewer than K references, least recently used first. */
+    private LinkedHashSet<Integer> correlated;
+    /** Frames of pages with K references or more, least recently used first. */
+    private LinkedHashSet<Integer> hot;
+    /** Reference counts of recently evicted pages, oldest first. */
+    private LinkedHashMap<PageId, Integer> history;
+
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of references to look back. Must be at least 1;
+     *        LRU-1 is plain LRU.
+     */
+    public LruKPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1.");
+        }
+        this.k = k;
+    }
+
+    public void init(final int numFrames) {
+        refs = new int[numFrames];
+        pids = new PageId[numFrames];
+        correlated = new LinkedHashSet<Integer>();
+        hot = new LinkedHashSet<Integer>();
+        history = new LinkedHashMap<PageId, Integer>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Integer> eldest) {
+                return size() > numFrames;
+            }
+        };
+    }
+
+    /** Count a reference to the page of a frame, and queue the frame at the end. */
+    private void reference(int frame) {
+        if (refs[frame] < k) {
+            refs[frame]++;
+        }
+        if (refs[frame] < k) {
+            correlated.remove(frame);
+            correlated.add(frame);
+        } else {
+            if (!hot.remove(frame)) {
+                correlated.remove(frame);
+            }
+            hot.add(frame);
+        }
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        Integer seen = history.remove(pid);
+        refs[frame] = seen == null ? 0 : seen;
+        pids[frame] = pid;
+        reference(frame);
+    }
+
+    public synchronized void pageHit(int frame) {
+        if (pids[frame] == null) {
+            return;
+        }
+        reference(frame);
+    }
+
+    public synchronized int chooseVictim(FrameFilter filter) {
+        int victim = first(correlated, filter);
+        return victim >= 0 ? victim : first(hot, filter);
+    }
+
+    private static int first(LinkedHashSet<Integer> queue, FrameFilter filter) {
+        Iterator<Integer> it = queue.iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (filter.isEvictable(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void pageEvicted(int frame) {
+        if (pids[frame] == null) {
+            return;
+        }
+        if (!correlated.remove(frame)) {
+            hot.remove(frame);
+        }
+        history.put(pids[frame], refs[frame]);
+        refs[frame] = 0;
+        pids[frame] = null;
+    }
+
+    public String toString() {
+        return "LRU-" + k;
+    }
+}
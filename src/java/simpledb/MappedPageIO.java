@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * PageIO that maps the file into memory in fixed-size segments and serves
+ * each page as a read-only slice of its segment, so reading a page copies
+ * nothing. A HeapPage over such a slice copies it to the heap the first
+ * time the page is modified.
+ * <p>
+ * Segments are mapped read-only and only as far as the file goes; when
+ * the file grows, the last segment is mapped again. Writes go through the
+ * channel and show up in the mapping, which shares the OS page cache.
+ */
+class MappedPageIO extends PageIO {
+
+    /** The number of pages in a segment (4 MB with 4 KB pages). */
+    static final int SEGMENT_PAGES = 1024;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /** The mapped segments; a segment may be null or shorter than full. */
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    MappedPageIO(File f) throws IOException {
+        raf = new RandomAccessFile(f, "rw");
+        channel = raf.getChannel();
+    }
+
+    /** @return a segment mapped at least up to the end of page pgNo. */
+    private synchronized MappedByteBuffer segmentFor(int pgNo) throws IOException {
+        int seg = pgNo / SEGMENT_PAGES;
+        int inSeg = pgNo % SEGMENT_PAGES;
+        if (seg >= segments.length) {
+            segments = Arrays.copyOf(segments, seg + 1);
+        }
+        MappedByteBuffer mbb = segments[seg];
+        if (mbb == null || mbb.capacity() < (inSeg + 1) * BufferPool.PAGE_SIZE) {
+            long start = (long) seg * SEGMENT_PAGES * BufferPool.PAGE_SIZE;
+            long len = Math.min((long) SEGMENT_PAGES * BufferPool.PAGE_SIZE,
+                                channel.size() - start);
+            len -= len % BufferPool.PAGE_SIZE;
+            if (len < (long) (inSeg + 1) * BufferPool.PAGE_SIZE) {
+                throw new EOFException("page " + pgNo + " is past the end of the file.");
+            }
+            mbb = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+            segments[seg] = mbb;
+        }
+        return mbb;
+    }
+
+    public ByteBuffer readPage(int pgNo) throws IOException {
+        ByteBuffer dup = segmentFor(pgNo).duplicate();
+        int off = (pgNo % SEGMENT_PAGES) * BufferPool.PAGE_SIZE;
+        dup.position(off);
+        dup.limit(off + BufferPool.PAGE_SIZE);
+        return dup.slice();
+    }
+
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, BufferPool.PAGE_SIZE);
+        long pos = (long) pgNo * BufferPool.PAGE_SIZE;
+        while (buf.hasRemaining()) {
+            channel.write(buf, pos + buf.position());
+        }
+    }
+
+    public void writePages(int pgNo, byte[] data, int npages) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, npages * BufferPool.PAGE_SIZE);
+        long pos = (long) pgNo * BufferPool.PAGE_SIZE;
+        while (buf.hasRemaining()) {
+            channel.write(buf, pos + buf.position());
+        }
+    }
+
+    public void force() throws IOException {
+        channel.force(true);
+    }
+
+    public int numPages() throws IOException {
+        return (int) (channel.size() / BufferPool.PAGE_SIZE);
+    }
+
+    public Mode getMode() {
+        return Mode.MAPPED;
+    }
+
+    public synchronized void close() throws IOException {
+        segments = new MappedByteBuffer[0];
+        raf.close();
+    }
+}
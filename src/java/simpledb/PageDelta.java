@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The byte ranges in which two images of a page differ, with the bytes of
+ * both images in each range. The log writes a PageDelta instead of two full
+ * page images when only a small part of a page changed; redo writes the
+ * after bytes of the ranges into the page and undo the before bytes.
+ * <p>
+ * The encoding is an integer range count, then per range an integer
+ * offset, an integer length, the before bytes and the after bytes.
+ */
+class PageDelta {
+
+    /**
+     * Ranges that are at most this many bytes apart are merged, since an
+     * unchanged gap of g bytes costs 2g bytes but a range header costs 8.
+     */
+    static final int MERGE_GAP = 4;
+
+    private final int[] offsets;
+    private final int[] lengths;
+    private final byte[] before;
+    private final byte[] after;
+
+    private PageDelta(int[] offsets, int[] lengths, byte[] before, byte[] after) {
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.before = before;
+        this.after = after;
+    }
+
+    /** @return the ranges in which two images of the same length differ. */
+    static PageDelta diff(byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            throw new IllegalArgumentException("page images of " + before.length
+                                               + " and " + after.length + " bytes.");
+        }
+        int n = before.length;
+        int[] offsets = new int[8];
+        int[] lengths = new int[8];
+        int count = 0;
+        int changed = 0;
+        int i = 0;
+        while (i < n) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1; // past the last differing byte
+            for (i = end; i < n && i - end <= MERGE_GAP; i++) {
+                if (before[i] != after[i]) {
+                    end = i + 1;
+                }
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * count);
+                lengths = Arrays.copyOf(lengths, 2 * count);
+            }
+            offsets[count] = start;
+            lengths[count] = end - start;
+            changed += end - start;
+            count++;
+            i = end;
+        }
+        byte[] b = new byte[changed];
+        byte[] a = new byte[changed];
+        int at = 0;
+        for (int r = 0; r < count; r++) {
+            System.arraycopy(before, offsets[r], b, at, lengths[r]);
+            System.arraycopy(after, offsets[r], a, at, lengths[r]);
+            at += lengths[r];
+        }
+        return new PageDelta(Arrays.copyOf(offsets, count),
+                             Arrays.copyOf(lengths, count), b, a);
+    }
+
+    /** @return the number of ranges. */
+    int numRanges() {
+        return offsets.length;
+    }
+
+    /** @return the number of changed bytes, summed over the ranges. */
+    int changedBytes() {
+        return before.length;
+    }
+
+    /** @return the number of bytes write() writes. */
+    int encodedSize() {
+        return 4 + 8 * offsets.length + 2 * before.length;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(offsets.length);
+        int at = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(lengths[r]);
+            out.write(before, at, lengths[r]);
+            out.write(after, at, lengths[r]);
+            at += lengths[r];
+        }
+    }
+
+    /**
+     * Read a delta written by write() from the position of in, and move
+     * the position past it.
+     * @param pageSize the size of the page the delta applies to.
+     * @throws IOException if a range is outside the page.
+     */
+    static PageDelta read(ByteBuffer in, int pageSize) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > pageSize) {
+            throw new IOException("bad page delta with " + count + " ranges.");
+        }
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        ByteBuffer start = in.duplicate();
+        int changed = 0;
+        for (int r = 0; r < count; r++) {
+            offsets[r] = in.getInt();
+            lengths[r] = in.getInt();
+            if (offsets[r] < 0 || lengths[r] < 0 || offsets[r] + lengths[r] > pageSize) {
+                throw new IOException("page delta range " + offsets[r] + "+" + lengths[r]
+                                      + " is outside the page.");
+            }
+            in.position(in.position() + 2 * lengths[r]);
+            changed += lengths[r];
+        }
+        byte[] b = new byte[changed];
+        byte[] a = new byte[changed];
+        int at = 0;
+        for (int r = 0; r < count; r++) {
+            start.position(start.position() + 8);
+            start.get(b, at, lengths[r]);
+            start.get(a, at, lengths[r]);
+            at += lengths[r];
+        }
+        return new PageDelta(offsets, lengths, b, a);
+    }
+
+    /** @return the delta that changes the after bytes back to the before bytes. */
+    PageDelta inverse() {
+        return new PageDelta(offsets, lengths, after, before);
+    }
+
+    /** Write the after bytes of every range into page, i.e. redo the change. */
+    void applyAfter(byte[] page) {
+        apply(after, page);
+    }
+
+    /** Write the before bytes of every range into page, i.e. undo the change. */
+    void applyBefore(byte[] page) {
+        apply(before, page);
+    }
+
+    private void apply(byte[] bytes, byte[] page) {
+        int at = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(bytes, at, page, offsets[r], lengths[r]);
+            at += lengths[r];
+        }
+    }
+}
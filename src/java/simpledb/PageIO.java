@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PageIO reads and writes the fixed-size pages of one file. A HeapFile
+ * uses one PageIO for all of its disk accesses; which one is chosen per
+ * table by a {@link Mode}, see {@link Catalog#addTable(DbFile, String, String, PageIO.Mode)}.
+ * <p>
+ * Implementations must allow concurrent reads and writes of different
+ * pages from many threads.
+ */
+public abstract class PageIO {
+
+    /** The ways a file can be accessed. */
+    public enum Mode {
+        /**
+         * Positional reads and writes on a FileChannel (pread/pwrite),
+         * staged through pooled direct buffers.
+         */
+        POSITIONAL,
+        /**
+         * The file is mapped in fixed-size segments and pages are served as
+         * read-only slices of the mapping, without copying.
+         */
+        MAPPED,
+        /** RandomAccessFile seek and read, one access at a time. */
+        STREAM
+    }
+
+    /** The default mode of new HeapFiles. */
+    public static final Mode DEFAULT_MODE = Mode.POSITIONAL;
+
+    /**
+     * Open a file for page access. The file is created if it does not exist.
+     * @param f the file.
+     * @param mode how to access the file.
+     */
+    public static PageIO open(File f, Mode mode) throws IOException {
+        switch (mode) {
+        case MAPPED:
+            return new MappedPageIO(f);
+        case STREAM:
+            return new StreamPageIO(f);
+        default:
+            return new PositionalPageIO(f);
+        }
+    }
+
+    /**
+     * Read a page. The returned buffer holds the page from its position to
+     * its limit. It may be read-only; the caller must not write to it then.
+     * @param pgNo the page number; the page must exist in the file.
+     */
+    public abstract ByteBuffer readPage(int pgNo) throws IOException;
+
+    /**
+     * Write a page, growing the file if needed.
+     * @param pgNo the page number.
+     * @param data BufferPool.PAGE_SIZE bytes.
+     */
+    public abstract void writePage(int pgNo, byte[] data) throws IOException;
+
+    /**
+     * Write consecutive pages with one large write, growing the file if
+     * needed.
+     * @param pgNo the page number of the first page.
+     * @param data the pages, from the start of the array.
+     * @param npages the number of pages to write.
+     */
+    public abstract void writePages(int pgNo, byte[] data, int npages) throws IOException;
+
+    /** Force the written pages, and the length of the file, to the disk. */
+    public abstract void force() throws IOException;
+
+    /** @return the number of whole pages in the file. */
+    public abstract int numPages() throws IOException;
+
+    /** @return the access mode of this PageIO. */
+    public abstract Mode getMode();
+
+    /** Release the file. The PageIO may not be used afterwards. */
+    public abstract void close() throws IOException;
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageTypeRegistry gives page and page id classes small integer tags, which
+ * the log writes instead of class names, and decodes them again without
+ * reflection.
+ * <p>
+ * Tags are stored in the log, so a class must keep its tag for as long as
+ * logs that use it may be read. Tag 0 is reserved: classes that are not
+ * registered are written with their class name, and read by reflection.
+ */
+public class PageTypeRegistry {
+
+    /** Builds a page id from the ints of {@link PageId#serialize()}. */
+    public interface PageIdDecoder {
+        PageId decode(int[] data);
+    }
+
+    /** Builds a page from its id and the bytes of {@link Page#getPageData()}. */
+    public interface PageDecoder {
+        Page decode(PageId pid, byte[] data) throws IOException;
+    }
+
+    /** The tag of classes that are not registered. */
+    public static final int UNREGISTERED = 0;
+
+    private static final ConcurrentHashMap<Class<?>, Integer> pageTags =
+        new ConcurrentHashMap<Class<?>, Integer>();
+    private static final ConcurrentHashMap<Class<?>, Integer> idTags =
+        new ConcurrentHashMap<Class<?>, Integer>();
+    // indexed by tag; replaced, never modified, when a class is registered.
+    private static volatile PageDecoder[] pageDecoders = new PageDecoder[1];
+    private static volatile PageIdDecoder[] idDecoders = new PageIdDecoder[1];
+
+    static {
+        registerPageId(1, HeapPageId.class, new PageIdDecoder() {
+            public PageId decode(int[] data) {
+                return new HeapPageId(data[0], data[1]);
+            }
+        });
+        registerPage(1, HeapPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new HeapPage((HeapPageId) pid, data);
+            }
+        });
+        registerPageId(2, BTreePageId.class, new PageIdDecoder() {
+            public PageId decode(int[] data) {
+                return new BTreePageId(data[0], data[1], data[2]);
+            }
+        });
+        registerPage(2, BTreeRootPtrPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new BTreeRootPtrPage((BTreePageId) pid, data);
+            }
+        });
+        registerPage(3, BTreeInternalPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new BTreeInternalPage((BTreePageId) pid, data);
+            }
+        });
+        registerPage(4, BTreeLeafPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new BTreeLeafPage((BTreePageId) pid, data);
+            }
+        });
+        registerPageId(3, HashPageId.class, new PageIdDecoder() {
+            public PageId decode(int[] data) {
+                return new HashPageId(data[0], data[1], data[2]);
+            }
+        });
+        registerPage(5, HashHeaderPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new HashHeaderPage((HashPageId) pid, data);
+            }
+        });
+        registerPage(6, HashDirectoryPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new HashDirectoryPage((HashPageId) pid, data);
+            }
+        });
+        registerPage(7, HashBucketPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new HashBucketPage((HashPageId) pid, data);
+            }
+        });
+        registerPage(8, SlottedPage.class, new PageDecoder() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new SlottedPage((HeapPageId) pid, data);
+            }
+        });
+    }
+
+    /**
+     * Check that tag may be given to c: it is in range, c has no other tag
+     * and no other class has tag.
+     */
+    private static void checkTag(int tag, Class<?> c, ConcurrentHashMap<Class<?>, Integer> tags) {
+        if (tag <= UNREGISTERED || tag > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("bad tag " + tag + " for " + c.getName());
+        }
+        for (Map.Entry<Class<?>, Integer> e : tags.entrySet()) {
+            if (e.getKey().equals(c) != (e.getValue() == tag)) {
+                throw new IllegalArgumentException("cannot give tag " + tag + " to " + c.getName()
+                    + ", " + e.getKey().getName() + " has tag " + e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Register a page id class.
+     * @throws IllegalArgumentException if the tag is out of range or taken
+     *   by another class.
+     */
+    public static synchronized void registerPageId(int tag, Class<? extends PageId> c,
+                                                   PageIdDecoder decoder) {
+        checkTag(tag, c, idTags);
+        PageIdDecoder[] ds = Arrays.copyOf(idDecoders, Math.max(idDecoders.length, tag + 1));
+        ds[tag] = decoder;
+        idDecoders = ds;
+        idTags.put(c, tag);
+    }
+
+    /**
+     * Register a page class.
+     * @throws IllegalArgumentException if the tag is out of range or taken
+     *   by another class.
+     */
+    public static synchronized void registerPage(int tag, Class<? extends Page> c,
+                                                 PageDecoder decoder) {
+        checkTag(tag, c, pageTags);
+        PageDecoder[] ds = Arrays.copyOf(pageDecoders, Math.max(pageDecoders.length, tag + 1));
+        ds[tag] = decoder;
+        pageDecoders = ds;
+        pageTags.put(c, tag);
+    }
+
+    /** @return the tag of a page class, or UNREGISTERED. */
+    static int pageTag(Class<?> c) {
+        Integer tag = pageTags.get(c);
+        return tag == null ? UNREGISTERED : tag;
+    }
+
+    /** @return the tag of a page id class, or UNREGISTERED. */
+    static int pageIdTag(Class<?> c) {
+        Integer tag = idTags.get(c);
+        return tag == null ? UNREGISTERED : tag;
+    }
+
+    /** @return the decoder of a page tag, or null if the tag is unknown. */
+    static PageDecoder pageDecoder(int tag) {
+        PageDecoder[] ds = pageDecoders;
+        return tag < ds.length ? ds[tag] : null;
+    }
+
+    /** @return the decoder of a page id tag, or null if the tag is unknown. */
+    static PageIdDecoder pageIdDecoder(int tag) {
+        PageIdDecoder[] ds = idDecoders;
+        return tag < ds.length ? ds[tag] : null;
+    }
+}
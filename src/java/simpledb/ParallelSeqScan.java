@@ -0,0 +1,324 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan reads a HeapFile with several threads. The pages
+ * [0, numPages()) are cut into morsels of {@link #MORSEL_PAGES} pages;
+ * worker tasks take the next morsel as soon as they are done with the
+ * previous one, so a slow morsel does not hold up the others. The tuples
+ * of each morsel are handed to the consuming thread as one chunk.
+ * <p>
+ * The workers of all scans run on one shared pool of daemon threads,
+ * which are reused and stop when they have been idle for a minute. A scan
+ * uses at most {@link #getMaxWorkers()} workers, by default one per core: decoding cached
+ * pages is CPU bound, and more threads than cores only take turns. The
+ * pool is not a ForkJoinPool, because workers block while they are ahead
+ * of the consumer, and blocked workers of one scan must not hold up the
+ * workers of another.
+ * <p>
+ * At most {@link #MORSELS_PER_THREAD} morsels per thread may be read and
+ * not yet consumed; workers wait when they are that far ahead. In ordered
+ * mode the tuples come out in the same order as from SeqScan. In unordered
+ * mode chunks come out as soon as they are ready, so the consumer never
+ * waits for a slow morsel.
+ */
+public class ParallelSeqScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of pages in a morsel. */
+    public static final int MORSEL_PAGES = 16;
+    /** How many morsels per thread may be waiting for the consumer. */
+    public static final int MORSELS_PER_THREAD = 2;
+    /** The default for the most workers a scan reads with: one per core. */
+    public static final int DEFAULT_MAX_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    private static volatile int maxWorkers = DEFAULT_MAX_WORKERS;
+
+    /** Runs the workers of all scans. */
+    private static final ExecutorService workers =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-parallel-scan");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final TupleDesc td;
+    private final int threads;
+    private final boolean ordered;
+
+    /** The state of an open scan, or null if the scan is not open. */
+    private transient Run run;
+    private transient Iterator<Tuple> chunk;
+
+    /**
+     * Creates a parallel scan over the specified table that returns its
+     * tuples in the order of SeqScan.
+     *
+     * @param tid the transaction this scan is running as a part of.
+     * @param tableid the table to scan; its file must be a HeapFile.
+     * @param tableAlias the alias of this table, see {@link SeqScan}.
+     * @param threads the number of threads to read with, at most
+     *        {@link #getMaxWorkers()}.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int threads) {
+        this(tid, tableid, tableAlias, threads, true);
+    }
+
+    /**
+     * Creates a parallel scan over the specified table.
+     *
+     * @param tid the transaction this scan is running as a part of.
+     * @param tableid the table to scan; its file must be a HeapFile.
+     * @param tableAlias the alias of this table, see {@link SeqScan}.
+     * @param threads the number of threads to read with, at most
+     *        {@link #getMaxWorkers()}.
+     * @param ordered false if the tuples may come out in any order.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+                           int threads, boolean ordered) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("a scan needs at least one thread.");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.td = SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableid), tableAlias);
+        this.threads = threads;
+        this.ordered = ordered;
+    }
+
+    /** @return the alias of the table this operator scans. */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the number of threads this scan was asked to read with; it
+     *         reads with at most {@link #getMaxWorkers()}.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /** @return the most workers a scan reads with. */
+    public static int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * Set the most workers a scan opened from now on reads with. Tests use
+     * this to run several workers on machines with few cores.
+     */
+    public static void setMaxWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("a scan needs at least one worker.");
+        }
+        maxWorkers = workers;
+    }
+
+    /** @return true if the tuples come out in the order of SeqScan. */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        if (!(f instanceof HeapFile)) {
+            throw new DbException("a parallel scan needs a HeapFile, not " + f.getClass().getName() + ".");
+        }
+        run = new Run((HeapFile) f);
+        chunk = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (run == null) {
+            throw new IllegalStateException("the scan is not open.");
+        }
+        while (chunk == null || !chunk.hasNext()) {
+            List<Tuple> next = run.take();
+            if (next == null) {
+                chunk = null;
+                return false;
+            }
+            chunk = next.iterator();
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more tuples.");
+        }
+        return chunk.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (run != null) {
+            run.cancel();
+            run = null;
+        }
+        chunk = null;
+    }
+
+    /** The workers and results of one pass over the file. */
+    private class Run {
+        private final HeapFile file;
+        private final int numPages;
+        private final int numMorsels;
+        /** The number of workers of this run. */
+        private final int numWorkers;
+        /** The next morsel for a worker to take. */
+        private final AtomicInteger nextMorsel = new AtomicInteger(0);
+        /** One permit per morsel that may be read ahead of the consumer. */
+        private final Semaphore window;
+        /** Unordered mode: chunks in the order they were read. */
+        private final ArrayBlockingQueue<List<Tuple>> done;
+        /** Ordered mode: the chunk of each morsel, guarded by itself. */
+        private final List<Tuple>[] results;
+        /** The number of chunks the consumer has taken. */
+        private int taken = 0;
+        private volatile Throwable failure;
+        private volatile boolean cancelled = false;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Run(HeapFile file) {
+            this.file = file;
+            this.numPages = file.numPages();
+            this.numMorsels = (numPages + MORSEL_PAGES - 1) / MORSEL_PAGES;
+            this.numWorkers = Math.max(1, Math.min(Math.min(threads, maxWorkers), numMorsels));
+            int inFlight = numWorkers * MORSELS_PER_THREAD;
+            this.window = new Semaphore(inFlight);
+            this.done = ordered ? null : new ArrayBlockingQueue<List<Tuple>>(inFlight);
+            this.results = ordered ? new List[numMorsels] : null;
+            for (int i = 0; i < numWorkers; i++) {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        work();
+                    }
+                });
+            }
+        }
+
+        /** Read morsels until there are none left. */
+        private void work() {
+            try {
+                while (!cancelled) {
+                    window.acquire();
+                    int m = nextMorsel.getAndIncrement();
+                    if (m >= numMorsels || cancelled) {
+                        window.release();
+                        return;
+                    }
+                    List<Tuple> tuples = readMorsel(m);
+                    if (cancelled) {
+                        return;
+                    }
+                    if (ordered) {
+                        synchronized (results) {
+                            results[m] = tuples;
+                            results.notifyAll();
+                        }
+                    } else {
+                        done.put(tuples);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the pool's threads are not interrupted; give up the morsel.
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure = e;
+                // wake up the consumer.
+                if (ordered) {
+                    synchronized (results) {
+                        results.notifyAll();
+                    }
+                } else {
+                    done.offer(Collections.<Tuple>emptyList());
+                }
+            }
+        }
+
+        private List<Tuple> readMorsel(int m) throws DbException, TransactionAbortedException {
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            int end = Math.min(numPages, (m + 1) * MORSEL_PAGES);
+            for (int pgNo = m * MORSEL_PAGES; pgNo < end && !cancelled; pgNo++) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    tuples.add(it.next());
+                }
+            }
+            return tuples;
+        }
+
+        /**
+         * Wait for the next chunk.
+         * @return the chunk, or null if all morsels have been taken.
+         */
+        List<Tuple> take() throws DbException {
+            if (taken >= numMorsels) {
+                return null;
+            }
+            List<Tuple> chunk;
+            try {
+                if (ordered) {
+                    synchronized (results) {
+                        while ((chunk = results[taken]) == null && failure == null) {
+                            results.wait();
+                        }
+                        results[taken] = null;
+                    }
+                } else {
+                    chunk = done.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for the scan.");
+            }
+            if (failure != null) {
+                throw new DbException("parallel scan failed: " + failure);
+            }
+            taken++;
+            window.release();
+            return chunk;
+        }
+
+        /**
+         * Stop the workers. They are not interrupted, since an interrupted
+         * read closes the channel of the file; those waiting for room are
+         * let through instead, and leave at their next check.
+         */
+        void cancel() {
+            cancelled = true;
+            if (done != null) {
+                // each worker puts at most one more chunk, and finds room.
+                done.clear();
+            }
+            window.release(numWorkers);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * PageIO on positional FileChannel reads and writes. These take no file
+ * pointer, so any number of threads can read and write at once.
+ * <p>
+ * A read or write on a heap buffer makes the channel copy through a
+ * temporary direct buffer. We keep a pool of page-sized direct buffers and
+ * stage every access through one of them instead, so the only copy is the
+ * one between the staging buffer and the page array.
+ */
+class PositionalPageIO extends PageIO {
+
+    /** The most direct buffers kept for reuse, over all files. */
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool =
+        new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    PositionalPageIO(File f) throws IOException {
+        raf = new RandomAccessFile(f, "rw");
+        channel = raf.getChannel();
+    }
+
+    private static ByteBuffer takeBuffer() {
+        ByteBuffer buf = bufferPool.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private static void giveBuffer(ByteBuffer buf) {
+        // the size check is racy, at worst a few more buffers are kept.
+        if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.add(buf);
+        }
+    }
+
+    public ByteBuffer readPage(int pgNo) throws IOException {
+        ByteBuffer staging = takeBuffer();
+        try {
+            long pos = (long) pgNo * BufferPool.PAGE_SIZE;
+            while (staging.hasRemaining()) {
+                int n = channel.read(staging, pos + staging.position());
+                if (n < 0) {
+                    throw new EOFException("page " + pgNo + " is past the end of the file.");
+                }
+            }
+            staging.flip();
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            staging.get(data);
+            return ByteBuffer.wrap(data);
+        } finally {
+            giveBuffer(staging);
+        }
+    }
+
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        ByteBuffer staging = takeBuffer();
+        try {
+            staging.put(data, 0, BufferPool.PAGE_SIZE);
+            staging.flip();
+            long pos = (long) pgNo * BufferPool.PAGE_SIZE;
+            while (staging.hasRemaining()) {
+                channel.write(staging, pos + staging.position());
+            }
+        } finally {
+            giveBuffer(staging);
+        }
+    }
+
+    public void writePages(int pgNo, byte[] data, int npages) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, npages * BufferPool.PAGE_SIZE);
+        long pos = (long) pgNo * BufferPool.PAGE_SIZE;
+        while (buf.hasRemaining()) {
+            channel.write(buf, pos + buf.position());
+        }
+    }
+
+    public void force() throws IOException {
+        channel.force(true);
+    }
+
+    public int numPages() throws IOException {
+        return (int) (channel.size() / BufferPool.PAGE_SIZE);
+    }
+
+    public Mode getMode() {
+        return Mode.POSITIONAL;
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+}
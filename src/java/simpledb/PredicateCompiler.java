@@ -0,0 +1,425 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Turns Predicates into {@link CompiledPredicate}s for a given schema.
+ * <p>
+ * {@link Predicate#filter} fetches the field of each tuple and calls
+ * Field.compare, which casts the operand and switches on the operator for
+ * every row. A compiled predicate is picked once per type and operator:
+ * "int column 3 &gt; 7" becomes an object that only knows column 3, its
+ * offset in the tuple and the constant 7, and whose batch loop is a single
+ * comparison per row with no branch on the outcome. The JIT sees one
+ * small, fixed loop per kernel.
+ * <p>
+ * Compiled predicates are combined with {@link #and} and {@link #or}.
+ */
+public class PredicateCompiler {
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * Compile a predicate over tuples of the given schema.
+     * @throws IllegalArgumentException if the field does not exist or the
+     *         operand does not have the type of the field.
+     */
+    public static CompiledPredicate compile(Predicate p, TupleDesc td) {
+        int field = p.getField();
+        if (field < 0 || field >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + field + " in " + td + ".");
+        }
+        Type type = td.getFieldType(field);
+        Field operand = p.getOperand();
+        if (operand == null || (operand.getType() != type
+                                && !(type.isString() && operand.getType().isString()))) {
+            throw new IllegalArgumentException("operand " + operand + " does not match field type " + type + ".");
+        }
+        int offset = td.getFieldOffset(field);
+        if (type == Type.INT_TYPE) {
+            int value = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, offset, value);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, offset, value);
+            case LESS_THAN:
+                return new IntLessThan(field, offset, value);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(field, offset, value);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, offset, value);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(field, offset, value);
+            default:
+                throw new IllegalArgumentException("unknown operator " + p.getOp() + ".");
+            }
+        }
+        return new FieldPredicate(field, offset, type, p.getOp(), operand);
+    }
+
+    /** Compile a conjunction of predicates over tuples of the given schema. */
+    public static CompiledPredicate compileAll(TupleDesc td, Predicate... ps) {
+        CompiledPredicate[] cs = new CompiledPredicate[ps.length];
+        for (int i = 0; i < ps.length; i++) {
+            cs[i] = compile(ps[i], td);
+        }
+        return and(cs);
+    }
+
+    /** @return a predicate satisfied when all of the given ones are. */
+    public static CompiledPredicate and(CompiledPredicate... ps) {
+        if (ps.length == 1) {
+            return ps[0];
+        }
+        return new And(ps.clone());
+    }
+
+    /** @return a predicate satisfied when any of the given ones is. */
+    public static CompiledPredicate or(CompiledPredicate... ps) {
+        if (ps.length == 1) {
+            return ps[0];
+        }
+        return new Or(ps.clone());
+    }
+
+    /**
+     * Base of the int kernels. Each subclass has its own batch loop, so
+     * that every loop compares with one fixed operator.
+     */
+    private static abstract class IntPredicate extends CompiledPredicate {
+        final int field;
+        final int offset;
+        final int value;
+
+        IntPredicate(int field, int offset, int value) {
+            this.field = field;
+            this.offset = offset;
+            this.value = value;
+        }
+
+        abstract boolean test(int v);
+
+        public boolean matches(Tuple t) {
+            return test(((IntField) t.getField(field)).getValue());
+        }
+
+        public boolean matches(ByteBuffer buf, int tupleOffset) {
+            return test(buf.getInt(tupleOffset + offset));
+        }
+
+        public boolean matchesRow(TupleBatch batch, int row) {
+            return test(batch.getInt(field, row));
+        }
+    }
+
+    /** int column == constant. */
+    private static final class IntEquals extends IntPredicate {
+        IntEquals(int field, int offset, int value) {
+            super(field, offset, value);
+        }
+
+        boolean test(int v) {
+            return v == value;
+        }
+
+        public int filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                sel[n] = row;
+                n += col[row] == value ? 1 : 0;
+            }
+            batch.setNumSelected(n);
+            return n;
+        }
+    }
+
+    /** int column != constant. */
+    private static final class IntNotEquals extends IntPredicate {
+        IntNotEquals(int field, int offset, int value) {
+            super(field, offset, value);
+        }
+
+        boolean test(int v) {
+            return v != value;
+        }
+
+        public int filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                sel[n] = row;
+                n += col[row] != value ? 1 : 0;
+            }
+            batch.setNumSelected(n);
+            return n;
+        }
+    }
+
+    /** int column < constant. */
+    private static final class IntLessThan extends IntPredicate {
+        IntLessThan(int field, int offset, int value) {
+            super(field, offset, value);
+        }
+
+        boolean test(int v) {
+            return v < value;
+        }
+
+        public int filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                sel[n] = row;
+                n += col[row] < value ? 1 : 0;
+            }
+            batch.setNumSelected(n);
+            return n;
+        }
+    }
+
+    /** int column <= constant. */
+    private static final class IntLessThanOrEq extends IntPredicate {
+        IntLessThanOrEq(int field, int offset, int value) {
+            super(field, offset, value);
+        }
+
+        boolean test(int v) {
+            return v <= value;
+        }
+
+        public int filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                sel[n] = row;
+                n += col[row] <= value ? 1 : 0;
+            }
+            batch.setNumSelected(n);
+            return n;
+        }
+    }
+
+    /** int column > constant. */
+    private static final class IntGreaterThan extends IntPredicate {
+        IntGreaterThan(int field, int offset, int value) {
+            super(field, offset, value);
+        }
+
+        boolean test(int v) {
+            return v > value;
+        }
+
+        public int filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                sel[n] = row;
+                n += col[row] > value ? 1 : 0;
+            }
+            batch.setNumSelected(n);
+            return n;
+        }
+    }
+
+    /** int column >= constant. */
+    private static final class IntGreaterThanOrEq extends IntPredicate {
+        IntGreaterThanOrEq(int field, int offset, int value) {
+            super(field, offset, value);
+        }
+
+        boolean test(int v) {
+            return v >= value;
+        }
+
+        public int filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                sel[n] = row;
+                n += col[row] >= value ? 1 : 0;
+            }
+            batch.setNumSelected(n);
+            return n;
+        }
+    }
+
+    /**
+     * Any operator on a column that is not an int column; compares Fields.
+     * Equality of strings in page bytes is tested on the bytes.
+     */
+    private static final class FieldPredicate extends CompiledPredicate {
+        private final int field;
+        private final int offset;
+        private final Type type;
+        private final Predicate.Op op;
+        private final Field operand;
+        /** The serialized operand, for byte-wise equality; or null. */
+        private final byte[] operandBytes;
+
+        FieldPredicate(int field, int offset, Type type, Predicate.Op op, Field operand) {
+            this.field = field;
+            this.offset = offset;
+            this.type = type;
+            this.op = op;
+            this.operand = operand;
+            if (type.isString()
+                && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+                java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+                try {
+                    operand.serialize(new java.io.DataOutputStream(baos));
+                } catch (java.io.IOException e) {
+                    throw new RuntimeException(e);
+                }
+                operandBytes = baos.toByteArray();
+            } else {
+                operandBytes = null;
+            }
+        }
+
+        public boolean matches(Tuple t) {
+            return t.getField(field).compare(op, operand);
+        }
+
+        public boolean matches(ByteBuffer buf, int tupleOffset) {
+            int off = tupleOffset + offset;
+            if (operandBytes != null) {
+                boolean equal = true;
+                // length, then the bytes up to the length; padding is zeros.
+                int len = 4 + buf.getInt(off);
+                for (int i = 0; i < len && equal; i++) {
+                    equal = buf.get(off + i) == operandBytes[i];
+                }
+                return equal == (op == Predicate.Op.EQUALS);
+            }
+            try {
+                return type.parse(buf, off).compare(op, operand);
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("cannot parse field " + field + ": " + e.getMessage());
+            }
+        }
+
+        public boolean matchesRow(TupleBatch batch, int row) {
+            return batch.getField(field, row).compare(op, operand);
+        }
+
+        public int filter(TupleBatch batch) {
+            Field[] col = batch.getFieldColumn(field);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                if (col[row].compare(op, operand)) {
+                    sel[n++] = row;
+                }
+            }
+            batch.setNumSelected(n);
+            return n;
+        }
+    }
+
+    /** All children must match. Batches are narrowed by each in turn. */
+    private static final class And extends CompiledPredicate {
+        private final CompiledPredicate[] children;
+
+        And(CompiledPredicate[] children) {
+            this.children = children;
+        }
+
+        public boolean matches(Tuple t) {
+            for (CompiledPredicate c : children) {
+                if (!c.matches(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean matches(ByteBuffer buf, int tupleOffset) {
+            for (CompiledPredicate c : children) {
+                if (!c.matches(buf, tupleOffset)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean matchesRow(TupleBatch batch, int row) {
+            for (CompiledPredicate c : children) {
+                if (!c.matchesRow(batch, row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int filter(TupleBatch batch) {
+            int n = batch.numSelected();
+            for (int i = 0; i < children.length && n > 0; i++) {
+                n = children[i].filter(batch);
+            }
+            return n;
+        }
+
+        public String toString() {
+            return "and" + Arrays.toString(children);
+        }
+    }
+
+    /** Any child must match. Batches are filtered row by row. */
+    private static final class Or extends CompiledPredicate {
+        private final CompiledPredicate[] children;
+
+        Or(CompiledPredicate[] children) {
+            this.children = children;
+        }
+
+        public boolean matches(Tuple t) {
+            for (CompiledPredicate c : children) {
+                if (c.matches(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean matches(ByteBuffer buf, int tupleOffset) {
+            for (CompiledPredicate c : children) {
+                if (c.matches(buf, tupleOffset)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean matchesRow(TupleBatch batch, int row) {
+            for (CompiledPredicate c : children) {
+                if (c.matchesRow(batch, row)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public String toString() {
+            return "or" + Arrays.toString(children);
+        }
+    }
+}
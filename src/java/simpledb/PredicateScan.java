@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PredicateScan reads the tuples of a table that satisfy a predicate, and
+ * picks the access method when it is made: an {@link IndexScan} when the
+ * table is stored in an IndexFile keyed on the predicate's field that
+ * serves its operator, such as a HashFile for an equality on its key, and
+ * a {@link SeqScan} that evaluates the predicate itself otherwise.
+ */
+public class PredicateScan implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate pred;
+    private final boolean usesIndex;
+    private final BatchDbIterator child;
+
+    /**
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, see {@link SeqScan#SeqScan}.
+     * @param pred
+     *            the predicate the tuples must satisfy, on a field of the
+     *            table.
+     */
+    public PredicateScan(TransactionId tid, int tableid, String tableAlias, Predicate pred) {
+        this.pred = pred;
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        this.usesIndex = f instanceof IndexFile && ((IndexFile) f).keyField() == pred.getField()
+            && ((IndexFile) f).serves(pred.getOp());
+        this.child = usesIndex ? new IndexScan(tid, tableid, tableAlias, pred)
+            : new SeqScan(tid, tableid, tableAlias, pred);
+    }
+
+    public PredicateScan(TransactionId tid, int tableid, Predicate pred) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), pred);
+    }
+
+    /** @return whether the tuples are found through the table's index. */
+    public boolean usesIndex() {
+        return usesIndex;
+    }
+
+    /** @return the predicate the tuples satisfy. */
+    public Predicate getPredicate() {
+        return pred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with
+     *         the table alias.
+     */
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return child.next();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return child.nextBatch();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.rewind();
+    }
+}
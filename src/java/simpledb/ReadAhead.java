@@ -0,0 +1,122 @@
+package simpledb;
+
+/**
+ * ReadAhead watches the pages a scan of one file asks for and, once the
+ * scan is seen to go through the file in order, reads the next pages into
+ * the buffer pool on its read-ahead threads so that they are there when
+ * the scan gets to them. Nothing is read unless read-ahead is enabled on
+ * the pool.
+ * <p>
+ * The window starts at {@link #MIN_WINDOW} pages and doubles with every
+ * batch, up to {@link #MAX_WINDOW}. A new batch is issued when the scan is
+ * half-way through the pages read ahead. When the buffer pool refuses
+ * pages because its prefetch budget is used up, the window is halved, and
+ * no batch is issued while the budget is empty.
+ * <p>
+ * A ReadAhead belongs to one iterator and is not thread-safe.
+ */
+class ReadAhead {
+
+    /** The number of pages read ahead by the first batch. */
+    static final int MIN_WINDOW = 4;
+    /** The most pages read ahead of the scan. */
+    static final int MAX_WINDOW = 64;
+    /** How many pages in a row must be asked for before reading ahead. */
+    static final int SEQUENTIAL_RUN = 2;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final int numPages;
+
+    private int lastPgNo = -2;
+    private int run = 0;
+    private int window = MIN_WINDOW;
+    /** The first page that has not been read ahead. */
+    private int nextPgNo = 0;
+    private boolean issued = false;
+    /** Set by a batch that stopped because the pool refused a page. */
+    private volatile boolean pressured = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param tid the transaction of the scan.
+     * @param tableid the file being scanned.
+     * @param numPages the number of pages of the file.
+     */
+    ReadAhead(TransactionId tid, int tableid, int numPages) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.numPages = numPages;
+    }
+
+    /**
+     * Tell that the scan is about to ask the buffer pool for a page. May
+     * start reading the following pages.
+     */
+    void pageRead(int pgNo) {
+        if (pgNo == lastPgNo + 1) {
+            run++;
+        } else {
+            run = 0;
+            window = MIN_WINDOW;
+            issued = false;
+        }
+        lastPgNo = pgNo;
+        if (nextPgNo <= pgNo) {
+            nextPgNo = pgNo + 1;
+        }
+        if (run < SEQUENTIAL_RUN || closed || nextPgNo >= numPages
+            || nextPgNo - pgNo > window / 2) {
+            return;
+        }
+        BufferPool pool = Database.getBufferPool();
+        if (!pool.isReadAheadEnabled()) {
+            return;
+        }
+        if (pressured) {
+            pressured = false;
+            window = Math.max(MIN_WINDOW, window / 2);
+        } else if (issued) {
+            window = Math.min(MAX_WINDOW, window * 2);
+        }
+        int end = Math.min(numPages, pgNo + 1 + window);
+        end = Math.min(end, nextPgNo + pool.getPrefetchBudget());
+        if (end <= nextPgNo) {
+            // the pool is full of pages read ahead; let the scans catch up.
+            return;
+        }
+        if (!pool.submitReadAhead(new Batch(pool, nextPgNo, end))) {
+            return;
+        }
+        nextPgNo = end;
+        issued = true;
+    }
+
+    /** Stop reading ahead. Batches in progress stop after the current page. */
+    void close() {
+        closed = true;
+    }
+
+    /** Reads a range of pages into a buffer pool. */
+    private class Batch implements Runnable {
+        private final BufferPool pool;
+        private final int start;
+        private final int end;
+
+        Batch(BufferPool pool, int start, int end) {
+            this.pool = pool;
+            this.start = start;
+            this.end = end;
+        }
+
+        public void run() {
+            for (int pgNo = start; pgNo < end && !closed && pool.isReadAheadEnabled(); pgNo++) {
+                if (!pool.prefetchPage(tid, new HeapPageId(tableid, pgNo))
+                    && pool.getPrefetchBudget() <= 0) {
+                    pressured = true;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool throws out when it
+ * needs room for a new one. The pool identifies pages by the index of the
+ * frame that holds them, from 0 to numFrames-1, and tells the policy about
+ * every load, hit and removal.
+ * <p>
+ * The BufferPool calls a policy from many threads at once; implementations
+ * must do their own synchronization.
+ *
+ * @see BufferPool
+ * @see Database#resetBufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Tells the policy whether a frame may be evicted right now. Frames
+     * that are pinned, dirty or still being read in are not.
+     */
+    public interface FrameFilter {
+        public boolean isEvictable(int frame);
+    }
+
+    /**
+     * Prepare the policy for a pool of the given size. Called once, by the
+     * constructor of the BufferPool that uses this policy.
+     * @param numFrames the number of frames of the pool.
+     */
+    public void init(int numFrames);
+
+    /**
+     * A page has been read into a frame.
+     * @param frame the frame that holds the page now.
+     * @param pid the id of the page.
+     */
+    public void pageLoaded(int frame, PageId pid);
+
+    /**
+     * The page in a frame has been requested again.
+     * @param frame the frame holding the requested page.
+     */
+    public void pageHit(int frame);
+
+    /**
+     * Choose the frame whose page should be thrown out. The policy does not
+     * forget the page until {@link #pageEvicted} is called, since the pool
+     * may fail to take the frame and ask again.
+     * @param filter tells which frames may be chosen.
+     * @return the index of the chosen frame, or -1 if no frame is evictable.
+     */
+    public int chooseVictim(FrameFilter filter);
+
+    /**
+     * The page in a frame has been thrown out, either because it was chosen
+     * as victim or because it was discarded.
+     * @param frame the frame that is empty now.
+     */
+    public void pageEvicted(int frame);
+}
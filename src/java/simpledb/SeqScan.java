@@ -6,11 +6,38 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Besides next(), tuples can be read in batches with nextBatch(); on a
+ * HeapFile the batches are filled straight from the page bytes.
+ * <p>
+ * A scan may be given predicates, and then returns only the tuples that
+ * satisfy all of them. On a HeapFile, the pages that its {@link ZoneMap}
+ * rules out are skipped, see {@link #getPagesSkipped}, and the predicates
+ * are evaluated on the slot bytes of the other pages, so that no Tuple is
+ * made for a slot that fails them.
+ * <p>
+ * A scan may also be given the columns it is to return. Its TupleDesc then
+ * has just those fields, and on a HeapFile the bytes of the other fields
+ * are skipped when the pages are decoded; a wide table with strings that
+ * a query does not read is decoded much faster.
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
+    private final TransactionId tid;
+    private int tableid;
+    private String tableAlias;
+    private TupleDesc td;
+    /** The predicates the tuples must satisfy; none for all tuples. */
+    private final Predicate[] preds;
+    /** The fields of the table to return, or null for all. */
+    private final int[] columns;
+    /** The iterator of the table's file, or null if the scan is not open. */
+    private transient BatchDbFileIterator it;
+    private int pagesRead;
+    private int pagesSkipped;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -28,7 +55,70 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
-        // some code goes here
+        this(tid, tableid, tableAlias, new Predicate[0]);
+    }
+
+    /**
+     * Creates a sequential scan that returns the tuples of the specified
+     * table that satisfy all of some predicates.
+     *
+     * @param preds
+     *            the predicates, on fields of the table; none for all
+     *            tuples.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate... preds) {
+        this(tid, tableid, tableAlias, null, preds);
+    }
+
+    /**
+     * Creates a sequential scan that returns some fields of the tuples of
+     * the specified table that satisfy all of some predicates.
+     *
+     * @param columns
+     *            the fields of the table to return, in order, or null for
+     *            all; the TupleDesc of the scan has just these fields.
+     * @param preds
+     *            the predicates, on any fields of the table; none for all
+     *            tuples.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+                   Predicate... preds) {
+        this.tid = tid;
+        this.columns = columns == null ? null : columns.clone();
+        this.preds = preds == null ? new Predicate[0] : preds.clone();
+        reset(tableid, tableAlias);
+    }
+
+    /** @return the fields of the table the scan returns, or null for all. */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /** @return the predicates of the scan; none if it returns all tuples. */
+    public Predicate[] getPredicates() {
+        return preds.clone();
+    }
+
+    /**
+     * @return the pages the scan fetched, for a HeapFile, as of the last
+     *         close() or so far if the scan is open.
+     */
+    public int getPagesRead() {
+        if (it instanceof HeapFile.HeapFileIterator) {
+            return ((HeapFile.HeapFileIterator) it).pagesRead();
+        }
+        return pagesRead;
+    }
+
+    /**
+     * @return the pages the scan skipped by the zone map of a HeapFile, as
+     *         of the last close() or so far if the scan is open.
+     */
+    public int getPagesSkipped() {
+        if (it instanceof HeapFile.HeapFileIterator) {
+            return ((HeapFile.HeapFileIterator) it).pagesSkipped();
+        }
+        return pagesSkipped;
     }
 
     /**
@@ -37,7 +127,7 @@ public class SeqScan implements DbIterator {
      *       be the actual name of the table in the catalog of the database
      * */
     public String getTableName() {
-        return null;
+        return Database.getCatalog().getTableName(tableid);
     }
     
     /**
@@ -45,8 +135,7 @@ public class SeqScan implements DbIterator {
      * */
     public String getAlias()
     {
-        // some code goes here
-        return null;
+        return tableAlias;
     }
 
     /**
@@ -62,7 +151,25 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-        // some code goes here
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        TupleDesc base = Database.getCatalog().getTupleDesc(tableid);
+        this.td = aliasedTupleDesc(columns == null ? base : base.project(columns), tableAlias);
+    }
+
+    /**
+     * @return a TupleDesc like base whose field names are prefixed with
+     *         the alias, as in alias.fieldName.
+     */
+    static TupleDesc aliasedTupleDesc(TupleDesc base, String tableAlias) {
+        int n = base.numFields();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = tableAlias + "." + base.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -70,7 +177,27 @@ public class SeqScan implements DbIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        // some code goes here
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        if (f instanceof HeapFile) {
+            it = ((HeapFile) f).iterator(tid, columns, preds);
+        } else {
+            DbFileIterator fit = f.iterator(tid);
+            TupleDesc base = Database.getCatalog().getTupleDesc(tableid);
+            it = (fit instanceof BatchDbFileIterator && preds.length == 0 && columns == null)
+                ? (BatchDbFileIterator) fit
+                : new BatchingFileIterator(fit, base, columns,
+                                           preds.length == 0 ? null : PredicateCompiler.compileAll(base, preds));
+        }
+        pagesRead = 0;
+        pagesSkipped = 0;
+        it.open();
+    }
+
+    private BatchDbFileIterator checkOpen() {
+        if (it == null) {
+            throw new IllegalStateException("the scan is not open.");
+        }
+        return it;
     }
 
     /**
@@ -83,27 +210,117 @@ public class SeqScan implements DbIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return false;
+        return checkOpen().hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        return checkOpen().next();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return checkOpen().nextBatch();
     }
 
     public void close() {
-        // some code goes here
+        if (it instanceof HeapFile.HeapFileIterator) {
+            HeapFile.HeapFileIterator hit = (HeapFile.HeapFileIterator) it;
+            pagesRead = hit.pagesRead();
+            pagesSkipped = hit.pagesSkipped();
+            if (preds.length > 0) {
+                Debug.log(1, "SeqScan of %s where %s: %d pages read, %d skipped",
+                          tableAlias, Arrays.toString(preds), pagesRead, pagesSkipped);
+            }
+        }
+        if (it != null) {
+            it.close();
+            it = null;
+        }
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        checkOpen().rewind();
+    }
+
+    /**
+     * Batches the tuples of a file whose iterator has no batch support, or
+     * filters and projects the tuples of a file that cannot do so itself.
+     */
+    private static class BatchingFileIterator implements BatchDbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final DbFileIterator child;
+        private final TupleBatch batch;
+        /** The predicate the tuples must satisfy, or null. */
+        private final CompiledPredicate pred;
+        /** The fields to return, or null for all, and their schema. */
+        private final int[] columns;
+        private final TupleDesc out;
+        /** A tuple that passed, found by hasNext(). */
+        private Tuple pending;
+
+        BatchingFileIterator(DbFileIterator child, TupleDesc td, int[] columns,
+                             CompiledPredicate pred) {
+            this.child = child;
+            this.columns = columns;
+            this.out = columns == null ? td : td.project(columns);
+            this.batch = new TupleBatch(out);
+            this.pred = pred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pending = null;
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (pending == null && child.hasNext()) {
+                Tuple t = child.next();
+                if (pred == null || pred.matches(t)) {
+                    pending = t;
+                }
+            }
+            return pending != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("no more tuples.");
+            }
+            Tuple t = pending;
+            pending = null;
+            if (columns == null) {
+                return t;
+            }
+            Tuple projected = new Tuple(out);
+            for (int j = 0; j < columns.length; j++) {
+                projected.setField(j, t.getField(columns[j]));
+            }
+            projected.setRecordId(t.getRecordId());
+            return projected;
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            batch.clear();
+            while (!batch.isFull() && hasNext()) {
+                batch.append(next());
+            }
+            return batch.numRows() == 0 ? null : batch;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            pending = null;
+            child.rewind();
+        }
+
+        public void close() {
+            child.close();
+        }
     }
 }
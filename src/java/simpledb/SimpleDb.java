@@ -15,6 +15,15 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // convert [--threads N] file columns [types [separator]]
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (args.length > 2 && args[1].equals("--threads")) {
+                threads = Integer.parseInt(args[2]);
+                String[] rest = new String[args.length - 2];
+                rest[0] = args[0];
+                System.arraycopy(args, 3, rest, 1, args.length - 3);
+                args = rest;
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -42,6 +51,8 @@ public class SimpleDb {
                             ts[index++]=Type.INT_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
+                        else if (s.toLowerCase().equals("varchar"))
+                                ts[index++]=Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -51,8 +62,19 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            if (Arrays.asList(ts).contains(Type.VARCHAR_TYPE)) {
+                // tables with varchar fields are stored on slotted pages
+                int pages = HeapFileEncoder.convertSlotted(sourceTxtFile, targetDatFile, ts, fieldSeparator);
+                System.out.printf("Wrote %d slotted pages from %s%n", pages, sourceTxtFile);
+                return;
+            }
+            HeapFileLoader loader = new HeapFileLoader(ts, BufferPool.PAGE_SIZE, fieldSeparator);
+            loader.setThreads(threads);
+            long start = System.nanoTime();
+            long tuples = loader.load(sourceTxtFile, targetDatFile);
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Loaded %d tuples from %s in %.2fs, %.1f MB/s with %d threads%n",
+                    tuples, sourceTxtFile, secs, sourceTxtFile.length() / secs / (1 << 20), threads);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -77,6 +99,13 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("catalog")) {
+            // catalog schema.txt catalogFile: write the tables of a text schema to a catalog file
+            Utility.checkArgs(args, 3, 3, "Usage: catalog schema.txt catalogFile");
+            Catalog catalog = new Catalog();
+            catalog.loadSchema(args[1]);
+            catalog.saveCatalog(new File(args[2]));
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,319 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile that, like a HeapFile, stores a collection of
+ * tuples in no particular order, but on SlottedPages, whose records take
+ * only the bytes of their strings. It is the file of tables with a
+ * {@link Type#VARCHAR_TYPE} field. The pages are identified by
+ * HeapPageIds.
+ * <p>
+ * Tuples are inserted on the first page, from a hint on, that has room
+ * for them, or else on a new page at the end of the file. The hint moves
+ * back when a delete makes room on an earlier page.
+ *
+ * @see SlottedPage
+ */
+@SuppressWarnings("serial")
+public class SlottedFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int tableid;
+    private final PageIO.Mode mode;
+    /** Opened lazily, and not kept when the file is serialized. */
+    private transient volatile PageIO io;
+    /** The pages before this one were full at the last insert. */
+    private transient int firstFree;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this(f, td, PageIO.DEFAULT_MODE);
+    }
+
+    /**
+     * Constructs a slotted file backed by the specified file, accessed in
+     * the specified mode.
+     */
+    public SlottedFile(File f, TupleDesc td, PageIO.Mode mode) {
+        this.file = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.mode = mode;
+    }
+
+    /** @return the File backing this SlottedFile on disk. */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the hash of the absolute file name, as for a HeapFile. */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the PageIO of this file, opening it if needed. */
+    private PageIO io() throws IOException {
+        PageIO pio = io;
+        if (pio == null) {
+            synchronized (this) {
+                if (io == null) {
+                    io = PageIO.open(file, mode);
+                }
+                pio = io;
+            }
+        }
+        return pio;
+    }
+
+    /** Close the PageIO of this file; it is reopened if needed. */
+    public synchronized void close() throws IOException {
+        if (io != null) {
+            io.close();
+            io = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != tableid) {
+            throw new IllegalArgumentException("page " + pid + " is not in table " + tableid + ".");
+        }
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0 || pgNo >= numPages()) {
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in " + file + ".");
+        }
+        try {
+            HeapPageId hpid = (pid instanceof HeapPageId) ? (HeapPageId) pid
+                : new HeapPageId(pid.getTableId(), pgNo);
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            io().readPage(pgNo).duplicate().get(data);
+            return new SlottedPage(hpid, td, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to read page " + pgNo + " of " + file + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io().writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Inserts a tuple on the first page from the hint on that has room for
+     * it, or on a new page at the end of the file.
+     * @throws DbException if the tuple does not match the schema of the
+     *         file, or its record is larger than a page.
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of table " + tableid + ".");
+        }
+        int size = SlottedPage.recordSize(t);
+        if (size + SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE > BufferPool.PAGE_SIZE) {
+            throw new DbException("a record of " + size + " bytes does not fit on a page.");
+        }
+        SlottedPage page = null;
+        int n = numPages();
+        for (int pgNo = firstFree; pgNo < n && page == null; pgNo++) {
+            SlottedPage p = (SlottedPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(tableid, pgNo), Permissions.READ_WRITE);
+            if (p.fits(size)) {
+                page = p;
+            } else {
+                firstFree = pgNo + 1;
+            }
+        }
+        if (page == null) {
+            io().writePage(n, SlottedPage.createEmptyPageData());
+            page = (SlottedPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(tableid, n), Permissions.READ_WRITE);
+        }
+        page.insertTuple(t);
+        page.markDirty(true, tid);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    /**
+     * Deletes a tuple from the page of its RecordId, compacting the page.
+     * @throws DbException if the tuple is not in this file.
+     */
+    public synchronized Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableid) {
+            throw new DbException("the tuple is not in table " + tableid + ".");
+        }
+        int pgNo = rid.getPageId().pageNumber();
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(
+            tid, new HeapPageId(tableid, pgNo), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        firstFree = Math.min(firstFree, pgNo);
+        return page;
+    }
+
+    /**
+     * Writes tuples to a new slotted file, filling each page before
+     * starting the next, without going through the buffer pool.
+     *
+     * @return the number of pages written.
+     * @throws DbException if a tuple does not match the schema, or its
+     *         record is larger than a page.
+     */
+    public static int write(Iterator<Tuple> tuples, TupleDesc td, File outFile)
+            throws DbException, IOException {
+        Writer out = new Writer(td, outFile);
+        try {
+            while (tuples.hasNext()) {
+                out.add(tuples.next());
+            }
+        } finally {
+            out.close();
+        }
+        return out.numPages();
+    }
+
+    /**
+     * Writes the pages of a new slotted file, off the buffer pool: each
+     * page is filled before it is written and the next one started.
+     */
+    public static class Writer {
+        private final TupleDesc td;
+        private final OutputStream out;
+        private SlottedPage page;
+        private int pages;
+
+        /** Create the file, or empty it if it exists. */
+        public Writer(TupleDesc td, File outFile) throws IOException {
+            this.td = td;
+            this.out = new BufferedOutputStream(new FileOutputStream(outFile));
+        }
+
+        /**
+         * Add a tuple to the current page, or to a new one if it does not fit.
+         * @throws DbException if the tuple does not match the schema, or
+         *         its record is larger than a page.
+         */
+        public void add(Tuple t) throws DbException, IOException {
+            if (!td.equals(t.getTupleDesc())) {
+                throw new DbException("the tuple does not match the schema " + td + ".");
+            }
+            int size = SlottedPage.recordSize(t);
+            if (page != null && !page.fits(size)) {
+                out.write(page.getPageData());
+                page = null;
+            }
+            if (page == null) {
+                page = new SlottedPage(new HeapPageId(0, pages++), td, SlottedPage.createEmptyPageData());
+            }
+            page.insertTuple(t);
+        }
+
+        /** @return the pages started so far. */
+        public int numPages() {
+            return pages;
+        }
+
+        /** Write the last page, and close the file. */
+        public void close() throws IOException {
+            try {
+                if (page != null) {
+                    out.write(page.getPageData());
+                    page = null;
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(tid);
+    }
+
+    /**
+     * Iterates over the tuples of the file page by page, fetching the pages
+     * through the buffer pool. The following pages are read ahead while
+     * the tuples of a page are returned.
+     */
+    private class SlottedFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        /** The next page to fetch, or -1 if the iterator is not open. */
+        private int pgNo = -1;
+        /** The tuples of the page being read, or null. */
+        private Iterator<Tuple> tuples;
+        private ReadAhead readAhead;
+
+        SlottedFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pgNo = 0;
+            tuples = null;
+            readAhead = new ReadAhead(tid, tableid, numPages());
+        }
+
+        /** Move to the next page that has tuples left, if any. */
+        private boolean advance() throws DbException, TransactionAbortedException {
+            if (pgNo < 0) {
+                return false;
+            }
+            while (tuples == null || !tuples.hasNext()) {
+                if (pgNo >= numPages()) {
+                    return false;
+                }
+                readAhead.pageRead(pgNo);
+                SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(tableid, pgNo++), Permissions.READ_ONLY);
+                tuples = page.iterator();
+            }
+            return true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return advance();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!advance()) {
+                throw new NoSuchElementException("no more tuples.");
+            }
+            return tuples.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            pgNo = -1;
+            tuples = null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+        }
+    }
+}
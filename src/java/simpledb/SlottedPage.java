@@ -0,0 +1,361 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedFile.
+ * Unlike a HeapPage, whose slots all take the size of the largest tuple, a
+ * slotted page keeps records of variable length: a string field takes its
+ * 4-byte length and its bytes, not {@link Type#STRING_LEN} + 4 bytes, so
+ * pages of short strings hold several times as many tuples.
+ * <p>
+ * The page starts with a header of two ints: the number of entries of the
+ * slot directory, and the start of the record area, or 0 for the end of
+ * the page. The slot directory follows: for each slot, the offset and the
+ * length of its record as unsigned shorts, with offset 0 for an empty
+ * slot. Records are packed at the end of the page, growing down towards
+ * the directory; a record holds the fields of a tuple in order, an int as
+ * 4 bytes and a string as its length and bytes. An all-zero page is an
+ * empty page.
+ * <p>
+ * Deleting a record compacts the record area at once, so the free space
+ * of a page is always the one gap between the directory and the records.
+ * Slot numbers do not change, so the RecordIds of the other tuples stay
+ * valid; an empty slot is reused by the next insert, and empty slots at
+ * the end of the directory are dropped.
+ * <p>
+ * Like a HashPage, the page is kept in its on-disk format, so
+ * getPageData() serializes nothing.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    /** The bytes of the header: the directory size and the record area start. */
+    static final int HEADER_SIZE = 8;
+    /** The bytes of a slot directory entry. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** The bytes of this page. */
+    final byte[] data;
+    /** Wraps data, for reading and writing numbers at offsets. */
+    final ByteBuffer buf;
+
+    byte[] oldData;
+    TransactionId dirtier;
+
+    /**
+     * Create a page of a table in the catalog over the given bytes, which
+     * are not copied.
+     * @throws IOException if the data is shorter than a page or its header
+     *         is not valid.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a page of tuples of the given schema over the given bytes,
+     * which are not copied.
+     */
+    SlottedPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        if (data.length < BufferPool.PAGE_SIZE) {
+            throw new IOException("page data is shorter than a page: " + data.length + " bytes.");
+        }
+        this.pid = id;
+        this.td = td;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        int n = getNumSlots();
+        int end = recordsStart();
+        if (n < 0 || end > BufferPool.PAGE_SIZE || n > (end - HEADER_SIZE) / SLOT_SIZE) {
+            throw new IOException("page " + id.pageNumber() + " has a bad header: "
+                                  + n + " slots, records from " + end + ".");
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty page.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * The page data is kept as is, so this returns the page's own array;
+     * callers must not modify it.
+     */
+    public byte[] getPageData() {
+        return data;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, td, oldData.clone());
+        } catch (IOException e) {
+            // we parsed it OK before.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** @return the number of entries of the slot directory, used or not. */
+    public int getNumSlots() {
+        return buf.getInt(0);
+    }
+
+    /** @return the offset of the first byte of the record area. */
+    private int recordsStart() {
+        int end = buf.getInt(4);
+        return end == 0 ? BufferPool.PAGE_SIZE : end;
+    }
+
+    private int slotOffset(int slot) {
+        return buf.getShort(HEADER_SIZE + slot * SLOT_SIZE) & 0xffff;
+    }
+
+    private int slotLength(int slot) {
+        return buf.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        buf.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+    }
+
+    /** @return true if the slot holds a record. */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < getNumSlots() && slotOffset(slot) != 0;
+    }
+
+    /** @return the number of tuples on this page. */
+    public int getNumTuples() {
+        int n = 0;
+        for (int slot = getNumSlots() - 1; slot >= 0; slot--) {
+            n += slotOffset(slot) != 0 ? 1 : 0;
+        }
+        return n;
+    }
+
+    /** @return the bytes between the slot directory and the records. */
+    public int getFreeSpace() {
+        return recordsStart() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    /**
+     * @return the bytes of the record of a tuple: 4 per int field, and 4
+     *         plus the length of the string per string field.
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                size += 4 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            }
+        }
+        return size;
+    }
+
+    /** @return the first empty slot, or getNumSlots() if there is none. */
+    private int emptySlot() {
+        int n = getNumSlots();
+        int slot = 0;
+        while (slot < n && slotOffset(slot) != 0) {
+            slot++;
+        }
+        return slot;
+    }
+
+    /** @return true if a record of the given size fits on this page. */
+    public boolean fits(int recordSize) {
+        int directory = emptySlot() < getNumSlots() ? 0 : SLOT_SIZE;
+        return recordSize + directory <= getFreeSpace();
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot; the
+     * tuple is updated to reflect that it is now stored on this page.
+     * @throws DbException if the tuple does not fit, or its schema does
+     *         not match the page.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("the tuple does not match the schema of page " + pid + ".");
+        }
+        int size = recordSize(t);
+        if (!fits(size)) {
+            throw new DbException("a record of " + size + " bytes does not fit on page " + pid + ".");
+        }
+        int slot = emptySlot();
+        if (slot == getNumSlots()) {
+            buf.putInt(0, slot + 1);
+        }
+        int at = recordsStart() - size;
+        buf.putInt(4, at);
+        setSlot(slot, at, size);
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                buf.putInt(at, ((IntField) f).getValue());
+                at += 4;
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.putInt(at, len);
+                // one byte per char, like DataOutputStream.writeBytes
+                for (int i = 0; i < len; i++) {
+                    data[at + 4 + i] = (byte) s.charAt(i);
+                }
+                at += 4 + len;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page, and close the gap its
+     * record leaves by moving the records below it; the tuple is updated
+     * to reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("the tuple is not on page " + pid + ".");
+        }
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty.");
+        }
+        int off = slotOffset(slot);
+        int len = slotLength(slot);
+        int start = recordsStart();
+        System.arraycopy(data, start, data, start + len, off - start);
+        Arrays.fill(data, start, start + len, (byte) 0);
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            int o = slotOffset(i);
+            if (o != 0 && o < off) {
+                setSlot(i, o + len, slotLength(i));
+            }
+        }
+        setSlot(slot, 0, 0);
+        while (n > 0 && slotOffset(n - 1) == 0) {
+            n--;
+        }
+        buf.putInt(0, n);
+        int end = start + len;
+        buf.putInt(4, end == BufferPool.PAGE_SIZE ? 0 : end);
+        t.setRecordId(null);
+    }
+
+    /**
+     * Set the fields of the record at off in values, from valuesBase on:
+     * ints by value, strings by their offset in the page.
+     */
+    private void readRecord(int off, int[] values, int valuesBase) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                values[valuesBase + j] = buf.getInt(off);
+                off += 4;
+            } else {
+                values[valuesBase + j] = off;
+                off += 4 + buf.getInt(off);
+            }
+        }
+    }
+
+    /**
+     * @return the tuple in a used slot, with a copy of its record.
+     * @throws NoSuchElementException if the slot is not in use.
+     */
+    public Tuple getTuple(int slot) throws NoSuchElementException {
+        if (!isSlotUsed(slot)) {
+            throw new NoSuchElementException("slot " + slot + " is empty.");
+        }
+        int off = slotOffset(slot);
+        int len = slotLength(slot);
+        int[] values = new int[td.numFields()];
+        readRecord(off, values, 0);
+        byte[] slab = null;
+        if (!td.isAllInts()) {
+            slab = Arrays.copyOfRange(data, off, off + len);
+            for (int j = 0; j < values.length; j++) {
+                if (td.getFieldType(j) != Type.INT_TYPE) {
+                    values[j] -= off;
+                }
+            }
+        }
+        return new Tuple(td, values, 0, slab, true, pid, slot);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order
+     * (calling remove on this iterator throws an UnsupportedOperationException).
+     * <p>
+     * The tuples of one iterator share a single int array and, if the page
+     * has string fields, a single copy of the page bytes.
+     */
+    public Iterator<Tuple> iterator() {
+        final int n = getNumSlots();
+        final int[] values = new int[getNumTuples() * td.numFields()];
+        final byte[] slab = td.isAllInts() ? null : data.clone();
+        return new Iterator<Tuple>() {
+            private int slot = advance(0);
+            private int used = 0;
+
+            private int advance(int from) {
+                while (from < n && slotOffset(from) == 0) {
+                    from++;
+                }
+                return from;
+            }
+
+            public boolean hasNext() {
+                return slot < n;
+            }
+
+            public Tuple next() {
+                if (slot >= n) {
+                    throw new NoSuchElementException();
+                }
+                int base = used++ * td.numFields();
+                readRecord(slotOffset(slot), values, base);
+                Tuple t = new Tuple(td, values, base, slab, true, pid, slot);
+                slot = advance(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("remove operation on iterator is not implemented.");
+            }
+        };
+    }
+}
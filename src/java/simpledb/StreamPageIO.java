@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PageIO on RandomAccessFile seek and read. The file pointer is shared, so
+ * accesses are serialized. Kept as the plain baseline for the other modes.
+ */
+class StreamPageIO extends PageIO {
+
+    private final RandomAccessFile raf;
+
+    StreamPageIO(File f) throws IOException {
+        raf = new RandomAccessFile(f, "rw");
+    }
+
+    public synchronized ByteBuffer readPage(int pgNo) throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        raf.readFully(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    public synchronized void writePage(int pgNo, byte[] data) throws IOException {
+        raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        raf.write(data, 0, BufferPool.PAGE_SIZE);
+    }
+
+    public synchronized void writePages(int pgNo, byte[] data, int npages) throws IOException {
+        raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        raf.write(data, 0, npages * BufferPool.PAGE_SIZE);
+    }
+
+    public synchronized void force() throws IOException {
+        raf.getChannel().force(true);
+    }
+
+    public synchronized int numPages() throws IOException {
+        return (int) (raf.length() / BufferPool.PAGE_SIZE);
+    }
+
+    public Mode getMode() {
+        return Mode.STREAM;
+    }
+
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+}
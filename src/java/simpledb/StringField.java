@@ -4,13 +4,20 @@ import java.io.*;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
+ * <p>
+ * The field of a VARCHAR_TYPE column is a StringField too; it only
+ * differs in its type, which decides how a SlottedPage stores it.
  */
 public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Zeros to pad serialized strings with. */
+	private static final byte[] ZEROS = new byte[Type.STRING_LEN];
+
 	private String value;
 	private int maxSize;
+	private Type type;
 
 	public String getValue() {
 		return value;
@@ -25,7 +32,25 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            STRING_TYPE or VARCHAR_TYPE
+	 */
+	public StringField(String s, int maxSize, Type type) {
+		if (!type.isString()) {
+			throw new IllegalArgumentException(type + " is not a string type.");
+		}
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -62,8 +87,11 @@ public class StringField implements Field {
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
-		while (overflow-- > 0)
-			dos.write((byte) 0);
+		while (overflow > 0) {
+			int n = Math.min(overflow, ZEROS.length);
+			dos.write(ZEROS, 0, n);
+			overflow -= n;
+		}
 	}
 
 	/**
@@ -110,6 +138,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -1,24 +1,52 @@
 package simpledb;
 
-import java.io.Serializable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
- *
- * We use an array to hold the fields. It is allocated by calling constructor.
+ * <p>
+ * Fields are not kept as Field objects. Each field has one int: the value
+ * itself for INT_TYPE fields, and for other fields the offset of the
+ * serialized field in a byte slab. The ints of the tuples read from one
+ * page are consecutive runs of one shared int array, and their other
+ * fields live in one shared copy of the page bytes, so such a tuple is a
+ * single small object. Field objects are made when {@link #getField} is
+ * called; {@link #getInt} reads an int field without making one.
+ * Likewise, the RecordId is kept as a page id and a slot number.
  */
-@SuppressWarnings("unused")
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
-   
-    private Field[] fields; 
-    private TupleDesc tud;
-    private RecordId rid;
+
+    private final TupleDesc tud;
+    /**
+     * Field i is values[base + i]: an int field by value, another field by
+     * its offset in slab. The array may be shared with other tuples, each
+     * using its own run.
+     */
+    private final int[] values;
+    private final int base;
+    /**
+     * Holds the serialized non-int fields, or null if there are none. It
+     * may be shared with other tuples, each using its own part.
+     */
+    private byte[] slab;
+    /**
+     * True if the non-int fields in slab take just their length and bytes,
+     * as in a {@link SlottedPage}, rather than getLen() bytes each.
+     */
+    private boolean packed;
+    /** One bit per field that has been set, or null if all fields are set. */
+    private long[] setBits;
+    private PageId pid;
+    private int slot;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -28,24 +56,75 @@ public class Tuple implements Serializable {
      *            instance with at least one field.
      */
     public Tuple(TupleDesc td) {
-        // some code goes here
         if(td == null){
           // When get a null td, print warning.
           Debug.log("!!!Warning: a null TupleDesc is passed to Tuple constructor."); 
         }
-        this.fields = new Field[td.numFields()];
-        this.tud = td; 
-        this.rid = null;
-   }
+        this.tud = td;
+        this.values = new int[td.numFields()];
+        this.base = 0;
+        this.setBits = new long[(td.numFields() + 63) >>> 6];
+    }
+
+    /**
+     * Create a tuple with all of its fields set.
+     *
+     * @param td the schema of this tuple.
+     * @param values holds the int fields, and the offsets of the other
+     *        fields in slab, from base on. The tuple owns that run.
+     * @param base the index in values of field 0.
+     * @param slab the bytes the other fields are serialized in, or null if
+     *        all fields are ints. The tuple owns the parts its offsets
+     *        point to.
+     * @param pid the page of the tuple, or null.
+     * @param slot the slot of the tuple in the page.
+     */
+    Tuple(TupleDesc td, int[] values, int base, byte[] slab, PageId pid, int slot) {
+        this(td, values, base, slab, false, pid, slot);
+    }
+
+    /**
+     * Create a tuple with all of its fields set, as above.
+     *
+     * @param packed true if each non-int field takes only its length and
+     *        bytes in slab, so that the field cannot be overwritten in
+     *        place. Setting such a field first moves the fields to a slab
+     *        of the tuple's own.
+     */
+    Tuple(TupleDesc td, int[] values, int base, byte[] slab, boolean packed, PageId pid, int slot) {
+        this.tud = td;
+        this.values = values;
+        this.base = base;
+        this.slab = slab;
+        this.packed = packed;
+        this.pid = pid;
+        this.slot = slot;
+    }
+
+    /** Move the packed non-int fields to a slab laid out like the serialized tuple. */
+    private void unpack() {
+        byte[] own = new byte[tud.getSize()];
+        for (int j = 0; j < tud.numFields(); j++) {
+          if (tud.getFieldType(j) != Type.INT_TYPE) {
+            int off = tud.getFieldOffset(j);
+            if (isSet(j)) {
+              int from = values[base + j];
+              int len = ByteBuffer.wrap(slab).getInt(from);
+              System.arraycopy(slab, from, own, off, 4 + len);
+            }
+            values[base + j] = off;
+          }
+        }
+        slab = own;
+        packed = false;
+    }
 
     /**
      * @return The TupleDesc representing the schema of this tuple.
      *
      * Note: The returned TupleDesc is the same object that this Tuple used.
-     *       Change the returned value, change the inner structure. Be careful.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
         return this.tud;
     }
 
@@ -54,8 +133,7 @@ public class Tuple implements Serializable {
      *         be null.
      */
     public RecordId getRecordId() {
-        // some code goes here
-        return this.rid;
+        return pid == null ? null : new RecordId(pid, slot);
     }
 
     /**
@@ -65,8 +143,17 @@ public class Tuple implements Serializable {
      *            the new RecordId for this tuple.
      */
     public void setRecordId(RecordId rid) {
-        // some code goes here
-        this.rid = rid;
+        if (rid == null) {
+          this.pid = null;
+          this.slot = 0;
+        } else {
+          this.pid = rid.getPageId();
+          this.slot = rid.tupleno();
+        }
+    }
+
+    private boolean isSet(int i) {
+        return setBits == null || (setBits[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
@@ -78,23 +165,90 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-        // some code goes here
-        if(i >= 0 && i < fields.length){
-          this.fields[i] = f; 
-        } else{
+        if(i < 0 || i >= tud.numFields()){
           Debug.log("!!!Fatal error: the index is invalid.(Tuple.setField).");
-        } 
+          return;
+        }
+        if (f == null) {
+          if (setBits == null) {
+            setBits = new long[(tud.numFields() + 63) >>> 6];
+            Arrays.fill(setBits, -1L);
+          }
+          setBits[i >>> 6] &= ~(1L << i);
+          return;
+        }
+        if (tud.getFieldType(i) == Type.INT_TYPE) {
+          values[base + i] = ((IntField) f).getValue();
+        } else {
+          if (packed) {
+            unpack();
+          }
+          if (slab == null) {
+            // lay out the slab like the serialized tuple.
+            slab = new byte[tud.getSize()];
+            for (int j = 0; j < tud.numFields(); j++) {
+              if (tud.getFieldType(j) != Type.INT_TYPE) {
+                values[base + j] = tud.getFieldOffset(j);
+              }
+            }
+          }
+          putString(values[base + i], tud.getFieldType(i).getLen(), ((StringField) f).getValue());
+        }
+        if (setBits != null) {
+          setBits[i >>> 6] |= 1L << i;
+        }
+    }
+
+    /**
+     * Write a string into the len bytes of slab from off, as
+     * StringField.serialize lays out a field of that size: the length as a
+     * big-endian int, one byte per char, and zeros up to len. A string that
+     * does not fit is cut.
+     */
+    private void putString(int off, int len, String s) {
+        int n = Math.min(s.length(), len - 4);
+        slab[off] = (byte) (n >>> 24);
+        slab[off + 1] = (byte) (n >>> 16);
+        slab[off + 2] = (byte) (n >>> 8);
+        slab[off + 3] = (byte) n;
+        for (int k = 0; k < n; k++) {
+          slab[off + 4 + k] = (byte) s.charAt(k);
+        }
+        Arrays.fill(slab, off + 4 + n, off + len, (byte) 0);
     }
 
     /**
      * @return the value of the ith field, or null if it has not been set.
+     *         The Field is made on each call.
      * 
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        // some code goes here
-        return this.fields[i];
+        if (!isSet(i)) {
+          return null;
+        }
+        Type t = tud.getFieldType(i);
+        if (t == Type.INT_TYPE) {
+          return new IntField(values[base + i]);
+        }
+        try {
+          return t.parse(ByteBuffer.wrap(slab), values[base + i]);
+        } catch (ParseException e) {
+          throw new IllegalStateException("field " + i + " cannot be parsed.");
+        }
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field.
+     *         Nothing is allocated.
+     * @throws IllegalArgumentException if the field is not an int field.
+     */
+    public int getInt(int i) {
+        if (tud.getFieldType(i) != Type.INT_TYPE) {
+          throw new IllegalArgumentException("field " + i + " is not an int field.");
+        }
+        return values[base + i];
     }
 
     /**
@@ -106,14 +260,13 @@ public class Tuple implements Serializable {
      * where \t is any whitespace, except newline, and \n is a newline
      */
     public String toString() {
-        // some code goes here
-        // throw new UnsupportedOperationException("Implement this");
- 	StringBuilder result = new StringBuilder();
-	for(Field f: fields){
-	  result.append(f.toString());
-	  result.append('\t');
+	StringBuilder result = new StringBuilder();
+	for (int i = 0; i < tud.numFields(); i++) {
+	  if (i > 0) {
+	    result.append('\t');
+	  }
+	  result.append(getField(i));
 	}
-	result.delete(fields.length-1, fields.length);		
 	result.append('\n');
 	return result.toString();
     }
@@ -125,21 +278,22 @@ public class Tuple implements Serializable {
     
     public Iterator<Field> fields()
     {
-        // some code goes here
         class FieldIterator implements Iterator<Field>{
           int loc = 0; 
           public boolean hasNext(){
-            return loc < fields.length;
+            return loc < tud.numFields();
           }
           public Field next(){
-            loc++;
-            return fields[loc-1]; 
+            if (loc >= tud.numFields()) {
+              throw new NoSuchElementException();
+            }
+            return getField(loc++);
           }
           public void remove(){
             throw new UnsupportedOperationException();
           }
         }
-        return (Iterator<Field>)new FieldIterator();
+        return new FieldIterator();
     }
 
 }
@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one schema, column by
+ * column. Integer columns are plain int arrays, indexed by row; columns of
+ * other types hold Field objects. The location of each row on disk is kept
+ * as a page id and a slot number, so no RecordId is made unless a Tuple is
+ * built from the row.
+ * <p>
+ * Which rows are part of the batch is given by a selection vector: the
+ * first {@link #numSelected()} entries of {@link #getSelection()} are the
+ * row indexes, in increasing order. A filter drops rows by compacting the
+ * selection vector in place and calling {@link #setNumSelected}; the
+ * column data are not touched.
+ * <p>
+ * Batches are meant to be reused; an iterator hands out the same batch on
+ * every call, refilled.
+ *
+ * @see BatchDbIterator
+ */
+public class TupleBatch {
+
+    /** The default and largest useful number of rows of a batch. */
+    public static final int MAX_ROWS = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    /** The int columns, null for columns of other types. */
+    private final int[][] ints;
+    /** The columns of other types, null for int columns. */
+    private final Field[][] fields;
+    private final PageId[] pageIds;
+    private final int[] slots;
+    private int numRows;
+    private final int[] selection;
+    private int numSelected;
+
+    /**
+     * Create an empty batch of {@link #MAX_ROWS} rows.
+     * @param td the schema of the rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, MAX_ROWS);
+    }
+
+    /**
+     * Create an empty batch.
+     * @param td the schema of the rows.
+     * @param capacity the most rows the batch can hold.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("a batch must hold at least one row.");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+        pageIds = new PageId[capacity];
+        slots = new int[capacity];
+        selection = new int[capacity];
+    }
+
+    /** @return the schema of the rows of this batch. */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the most rows this batch can hold. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows filled in, selected or not. */
+    public int numRows() {
+        return numRows;
+    }
+
+    /** @return true if no more rows can be added. */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    /** Remove all rows. */
+    public void clear() {
+        // drop references to fields so they can be collected.
+        for (Field[] col : fields) {
+            if (col != null) {
+                Arrays.fill(col, 0, numRows, null);
+            }
+        }
+        Arrays.fill(pageIds, 0, numRows, null);
+        numRows = 0;
+        numSelected = 0;
+    }
+
+    /** @return true if the given column is an int column. */
+    public boolean isIntColumn(int col) {
+        return ints[col] != null;
+    }
+
+    /**
+     * @return the values of an int column, indexed by row. The array is
+     *         the batch's own and has room for {@link #getCapacity()} rows.
+     * @throws IllegalArgumentException if the column is not an int column.
+     */
+    public int[] getIntColumn(int col) {
+        if (ints[col] == null) {
+            throw new IllegalArgumentException("column " + col + " is not an int column.");
+        }
+        return ints[col];
+    }
+
+    /** @return the int columns, null for columns of other types. */
+    int[][] intColumns() {
+        return ints;
+    }
+
+    /**
+     * @return the values of a column that is not an int column, indexed by
+     *         row. The array is the batch's own.
+     * @throws IllegalArgumentException if the column is an int column.
+     */
+    public Field[] getFieldColumn(int col) {
+        if (fields[col] == null) {
+            throw new IllegalArgumentException("column " + col + " is an int column.");
+        }
+        return fields[col];
+    }
+
+    /** @return the int value of a column of a row. */
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    /** @return the value of a column of a row, as a Field. */
+    public Field getField(int col, int row) {
+        if (ints[col] != null) {
+            return new IntField(ints[col][row]);
+        }
+        return fields[col][row];
+    }
+
+    /** Set the value of a column of a row. */
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null) {
+            ints[col][row] = ((IntField) f).getValue();
+        } else {
+            fields[col][row] = f;
+        }
+    }
+
+    /**
+     * @return the selection vector. Its first {@link #numSelected()}
+     *         entries are the selected rows; it may be changed in place.
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /** @return the number of selected rows. */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /**
+     * Keep only the first n entries of the selection vector.
+     * @throws IllegalArgumentException if n is more than the rows selected.
+     */
+    public void setNumSelected(int n) {
+        if (n < 0 || n > numSelected) {
+            throw new IllegalArgumentException("cannot select " + n + " of " + numSelected + " rows.");
+        }
+        numSelected = n;
+    }
+
+    /**
+     * Drop the first n entries of the selection vector, e.g. because these
+     * rows have already been consumed one by one.
+     */
+    public void skipSelected(int n) {
+        if (n <= 0) {
+            return;
+        }
+        n = Math.min(n, numSelected);
+        System.arraycopy(selection, n, selection, 0, numSelected - n);
+        numSelected -= n;
+    }
+
+    /**
+     * Add an empty, selected row. Its columns must then be filled in.
+     * @param pid the page the row is stored on, or null.
+     * @param slot the slot of the row in the page.
+     * @return the index of the new row.
+     * @throws IllegalStateException if the batch is full.
+     */
+    public int addRow(PageId pid, int slot) {
+        if (numRows == capacity) {
+            throw new IllegalStateException("the batch is full.");
+        }
+        int row = numRows++;
+        pageIds[row] = pid;
+        slots[row] = slot;
+        selection[numSelected++] = row;
+        return row;
+    }
+
+    /**
+     * Add a tuple as a new, selected row.
+     * @throws IllegalStateException if the batch is full.
+     */
+    public void append(Tuple t) {
+        RecordId rid = t.getRecordId();
+        int row = rid == null ? addRow(null, 0) : addRow(rid.getPageId(), rid.tupleno());
+        for (int i = 0; i < ints.length; i++) {
+            setField(i, row, t.getField(i));
+        }
+    }
+
+    /**
+     * Build a Tuple of a row, with the RecordId of the row if it is known.
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(i, row));
+        }
+        if (pageIds[row] != null) {
+            t.setRecordId(new RecordId(pageIds[row], slots[row]));
+        }
+        return t;
+    }
+}
@@ -5,7 +5,9 @@ import java.util.*;
 
       
 /**
- * TupleDesc describes the schema of a tuple.
+ * TupleDesc describes the schema of a tuple. It is immutable: fields are
+ * kept in arrays, and offsets, size and hash code are computed when it is
+ * made, so looking up a field is a constant-time array access.
  */
 public class TupleDesc implements Serializable {
 
@@ -23,12 +25,12 @@ public class TupleDesc implements Serializable {
         /**
          * The type of the field
          * */
-        Type fieldType;
+        final Type fieldType;
         
         /**
          * The name of the field
          * */
-        String fieldName;
+        final String fieldName;
 
         public TDItem(Type t, String n) {
             this.fieldName = n;
@@ -67,30 +69,61 @@ public class TupleDesc implements Serializable {
      *        that are included in this TupleDesc
      * */
     public Iterator<TDItem> iterator() {
-        // some code goes here
-        return repo.listIterator(iterBase); 
+        return Collections.unmodifiableList(Arrays.asList(items)).iterator();
     }
 
     private static final long serialVersionUID = 1L;
 
-    /**
-     * The number of fields of this tuple.
-     * */
-    private int fieldNum; 
-
-    // A internal data structure to hold the field decription
-    // of a Tuple.
-    private LinkedList<TDItem> repo;
+    /*
+     * A TupleDesc never changes once it is made, so everything a per-row
+     * loop may ask for is worked out here, once: the type, name and byte
+     * offset of each field by index, the tuple size, the index of each name
+     * and the hash code.
+     */
+    private final TDItem[] items;
+    private final Type[] types;
+    private final String[] names;
+    /** The offset of each field within a serialized tuple. */
+    private final int[] offsets;
+    private final int size;
+    private final boolean allInts;
+    /** The first index of each non-null field name. */
+    private final HashMap<String, Integer> nameToIndex;
+    private final int hash;
 
-    // Starting index of iterator.
-    private final static int iterBase = 0;
-    
     /**
      * Create an empty TupleDesc.
      */
     public TupleDesc(){
-      repo = new LinkedList<TDItem>();
-      fieldNum = 0;
+      this(new TDItem[0]);
+    }
+
+    /** Build a TupleDesc over the given items, which it takes ownership of. */
+    private TupleDesc(TDItem[] items) {
+      this.items = items;
+      int n = items.length;
+      types = new Type[n];
+      names = new String[n];
+      offsets = new int[n];
+      nameToIndex = new HashMap<String, Integer>(Math.max(16, 2 * n));
+      int off = 0;
+      int h = 1;
+      boolean ints = true;
+      for (int i = 0; i < n; i++) {
+        ints &= items[i].fieldType == Type.INT_TYPE;
+        types[i] = items[i].fieldType;
+        names[i] = items[i].fieldName;
+        offsets[i] = off;
+        off += types[i].getLen();
+        if (names[i] != null && !nameToIndex.containsKey(names[i])) {
+          nameToIndex.put(names[i], i);
+        }
+        h = 31 * h + types[i].ordinal();
+        h = 31 * h + (names[i] == null ? 0 : names[i].hashCode());
+      }
+      size = off;
+      hash = h;
+      allInts = ints;
     }
 
     /**
@@ -110,16 +143,16 @@ public class TupleDesc implements Serializable {
      *            be null.
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
-        // some code goes here
-        repo = new LinkedList<TDItem>(); 
-        for(int i = 0; i < typeAr.length; i++){
-          if(i < fieldAr.length){
-            repo.add(new TDItem(typeAr[i], fieldAr[i]));
-          } else{
-            repo.add(new TDItem(typeAr[i], null));
-          } 
+        this(makeItems(typeAr, fieldAr));
+    }
+
+    private static TDItem[] makeItems(Type[] typeAr, String[] fieldAr) {
+        TDItem[] items = new TDItem[typeAr.length];
+        for (int i = 0; i < typeAr.length; i++) {
+          String name = (fieldAr != null && i < fieldAr.length) ? fieldAr[i] : null;
+          items[i] = new TDItem(typeAr[i], name);
         }
-        fieldNum = typeAr.length;
+        return items;
     }
 
     /**
@@ -131,17 +164,14 @@ public class TupleDesc implements Serializable {
      *            TupleDesc. It must contain at least one entry.
      */
     public TupleDesc(Type[] typeAr) {
-        // some code goes here
-        
-        this(typeAr, new String[1]);
+        this(typeAr, null);
     }
 
     /**
      * @return the number of fields in this TupleDesc
      */
     public int numFields() {
-        // some code goes here
-        return this.fieldNum;
+        return items.length;
     }
 
     /**
@@ -154,17 +184,10 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public String getFieldName(int i) throws NoSuchElementException {
-        // some code goes here
-        if(i < fieldNum && i >= 0){
-          Iterator<TDItem> iter = iterator();
-          while(i-- > 0){
-            // here may throw an exception.
-            iter.next();
-          } 
-          return (iter.next()).fieldName;
-        } else{
+        if (i < 0 || i >= names.length) {
           throw new NoSuchElementException("invalid index");
         }
+        return names[i];
     }
 
     /**
@@ -178,17 +201,45 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public Type getFieldType(int i) throws NoSuchElementException {
-        // some code goes here
-        if(i < fieldNum && i >= 0){
-          Iterator<TDItem> iter = iterator();
-          while(i-- > 0){
-            // here may throw an exception.
-            iter.next();
-          } 
-          return (iter.next()).fieldType;
-        } else{
+        if (i < 0 || i >= types.length) {
           throw new NoSuchElementException("invalid index");
         }
+        return types[i];
+    }
+
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the sum of the lengths of the fields before the ith field.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= offsets.length) {
+          throw new NoSuchElementException("invalid index");
+        }
+        return offsets[i];
+    }
+
+    /**
+     * @return the types of the fields. The array is shared; do not modify.
+     */
+    Type[] fieldTypes() {
+        return types;
+    }
+
+    /**
+     * @return the offsets of the fields. The array is shared; do not modify.
+     */
+    int[] fieldOffsets() {
+        return offsets;
+    }
+
+    /** @return true if every field is an INT_TYPE field. */
+    boolean isAllInts() {
+        return allInts;
     }
 
     /**
@@ -201,21 +252,18 @@ public class TupleDesc implements Serializable {
      *             if no field with a matching name is found.
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
-        // some code goes here
-        TDItem tmp = null;
-        int i = 0;
-        Iterator<TDItem> iter = iterator();
-        while(iter.hasNext()){
-          tmp = iter.next();
-          if(tmp.fieldName == null){
-            if(name == null)
-              {return i;}
-          } else{
-            if((name != null) && (tmp.fieldName.compareTo(name) == 0)){
-              return i;}
-          } 
-          ++i; 
-        } 
+        if (name == null) {
+          for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) {
+              return i;
+            }
+          }
+        } else {
+          Integer i = nameToIndex.get(name);
+          if (i != null) {
+            return i.intValue();
+          }
+        }
         throw new NoSuchElementException("no such named feild");
     }
 
@@ -224,14 +272,6 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-        // some code goes here
-        TDItem tmp = null;
-        int size = 0;
-        Iterator<TDItem> iter = iterator();
-        while(iter.hasNext()){
-          tmp = iter.next();
-          size += tmp.fieldType.getLen();
-        }  
         return size;
     }
 
@@ -246,16 +286,25 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-        // some code goes here
-        TupleDesc result = new TupleDesc(); 
-        // Will get an unchecked cast.
-        // result.repo = (LinkedList<TDItem>) td1.repo.clone() <--it is an Object;
-        result.repo = new LinkedList<TDItem>(td1.repo);
-        if(!result.repo.addAll(td2.repo)){
-          Debug.log("!!!Warning: TupleDesc merge failed.");
-        } 
-        result.fieldNum = td1.numFields() + td2.numFields();
-        return result;
+        TDItem[] items = Arrays.copyOf(td1.items, td1.items.length + td2.items.length);
+        System.arraycopy(td2.items, 0, items, td1.items.length, td2.items.length);
+        return new TupleDesc(items);
+    }
+
+    /**
+     * @param fields indexes of fields of this TupleDesc, in any order.
+     * @return a TupleDesc with those fields, in the given order.
+     * @throws NoSuchElementException if an index is not a valid field index.
+     */
+    public TupleDesc project(int[] fields) throws NoSuchElementException {
+        TDItem[] projected = new TDItem[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] < 0 || fields[i] >= items.length) {
+                throw new NoSuchElementException("no field " + fields[i] + " in " + this + ".");
+            }
+            projected[i] = items[fields[i]];
+        }
+        return new TupleDesc(projected);
     }
 
     /**
@@ -268,29 +317,28 @@ public class TupleDesc implements Serializable {
      * @return true if the object is equal to this TupleDesc.
      */
     public boolean equals(Object o) {
-        // some code goes here
         // avoid NullPointerException and o is not a TupleDesc object.
         if((o == null) || !(o instanceof TupleDesc)){
           return false;
         }
         TupleDesc td = ((TupleDesc) o);
-        if(this.fieldNum == td.fieldNum){
-          Iterator<TDItem> iterf = iterator();
-          Iterator<TDItem> iters = td.iterator();
-          while(iterf.hasNext() && iters.hasNext()){
-            if(!iterf.next().equals(iters.next())){
-              return false;
-            }
-          }
+        if (td == this) {
           return true;
         }
-        return false;
+        if (hash != td.hash || items.length != td.items.length) {
+          return false;
+        }
+        for (int i = 0; i < items.length; i++) {
+          if (!items[i].equals(td.items[i])) {
+            return false;
+          }
+        }
+        return true;
     }
 
+    /** @return a hash of the types and names, computed when it is made. */
     public int hashCode() {
-        // If you want to use TupleDesc as keys for HashMap, implement this so
-        // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        return hash;
     }
 
     /**
@@ -301,18 +349,13 @@ public class TupleDesc implements Serializable {
      * @return String describing this descriptor.
      */
     public String toString() {
-        // some code goes here
         StringBuilder result = new StringBuilder();
-        TDItem tdi = null;
-        int index = 0;
-        Iterator<TDItem> iter = iterator();
-        while(iter.hasNext()){
-          tdi = iter.next();
-          result.append(String.format("%s[%d](%s[%d]),",
-                        tdi.fieldType, index, tdi.fieldName, index));
-          ++index; 
-        } 
-        result.delete(result.length()-1, result.length());
+        for (int i = 0; i < items.length; i++) {
+          if (i > 0) {
+            result.append(',');
+          }
+          result.append(String.format("%s[%d](%s[%d])", types[i], i, names[i], i));
+        }
         return result.toString();
     }
 }
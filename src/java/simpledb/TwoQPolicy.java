@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The 2Q replacement policy (Johnson and Shasha, full version). New pages
+ * enter a FIFO queue, A1in. When they leave it their ids are remembered in
+ * a ghost queue, A1out; a page that is requested again while its id is in
+ * A1out is hot and goes to the LRU queue Am. Pages read once by a scan pass
+ * through A1in and never reach Am, so they cannot push the hot pages out.
+ * <p>
+ * All operations are O(1), apart from skipping frames that cannot be
+ * evicted right now.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+    /** The share of the pool given to A1in. */
+    private static final double KIN_RATIO = 0.25;
+    /** The number of ghost entries kept in A1out, relative to the pool size. */
+    private static final double KOUT_RATIO = 0.5;
+
+    private int kin;
+    private int kout;
+    private PageId[] pids;
+    /** Frames read in recently, oldest first. */
+    private LinkedHashSet<Integer> a1in;
+    /** Frames of hot pages, least recently used first. */
+    private LinkedHashSet<Integer> am;
+    /** Ids of pages thrown out of A1in, oldest first. */
+    private LinkedHashSet<PageId> a1out;
+
+    public void init(int numFrames) {
+        kin = Math.max(1, (int) (numFrames * KIN_RATIO));
+        kout = Math.max(1, (int) (numFrames * KOUT_RATIO));
+        pids = new PageId[numFrames];
+        a1in = new LinkedHashSet<Integer>();
+        am = new LinkedHashSet<Integer>();
+        a1out = new LinkedHashSet<PageId>();
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        pids[frame] = pid;
+        if (a1out.remove(pid)) {
+            am.add(frame);
+        } else {
+            a1in.add(frame);
+        }
+    }
+
+    public synchronized void pageHit(int frame) {
+        // hits in A1in are left alone; they are likely correlated references.
+        if (am.remove(frame)) {
+            am.add(frame);
+        }
+    }
+
+    public synchronized int chooseVictim(FrameFilter filter) {
+        int victim = -1;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = first(a1in, filter);
+        }
+        if (victim < 0) {
+            victim = first(am, filter);
+        }
+        if (victim < 0) {
+            victim = first(a1in, filter);
+        }
+        return victim;
+    }
+
+    private static int first(LinkedHashSet<Integer> queue, FrameFilter filter) {
+        Iterator<Integer> it = queue.iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (filter.isEvictable(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void pageEvicted(int frame) {
+        if (a1in.remove(frame)) {
+            a1out.add(pids[frame]);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(frame);
+        }
+        pids[frame] = null;
+    }
+
+    public String toString() {
+        return "2Q";
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -32,20 +42,78 @@ public enum Type implements Serializable {
 
         @Override
         public Field parse(DataInputStream dis) throws ParseException {
-            try {
-                int strLen = dis.readInt();
-                byte bs[] = new byte[strLen];
-                dis.read(bs);
-                dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
-            } catch (IOException e) {
-                throw new ParseException("couldn't parse", 0);
-            }
+            return parseString(dis, this);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            return parseString(buf, offset, this);
+        }
+
+        @Override
+        public boolean isString() {
+            return true;
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * The most bytes of a field. In a {@link SlottedPage} a field only
+         * takes the 4-byte length and the bytes of its string; elsewhere it
+         * is laid out like a STRING_TYPE field.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return parseString(dis, this);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            return parseString(buf, offset, this);
+        }
+
+        @Override
+        public boolean isString() {
+            return true;
         }
     };
     
     public static final int STRING_LEN = 128;
 
+    /** Read a string field of the given type: its length, then its bytes. */
+    private static Field parseString(DataInputStream dis, Type type) throws ParseException {
+        try {
+            int strLen = dis.readInt();
+            byte bs[] = new byte[strLen];
+            dis.read(bs);
+            dis.skipBytes(STRING_LEN-strLen);
+            return new StringField(new String(bs), STRING_LEN, type);
+        } catch (IOException e) {
+            throw new ParseException("couldn't parse", 0);
+        }
+    }
+
+    /** Read a string field of the given type at an offset of buf. */
+    private static Field parseString(ByteBuffer buf, int offset, Type type) throws ParseException {
+        try {
+            int strLen = buf.getInt(offset);
+            if (strLen < 0 || strLen > STRING_LEN) {
+                throw new ParseException("bad string length " + strLen, offset);
+            }
+            byte bs[] = new byte[strLen];
+            ByteBuffer dup = buf.duplicate();
+            dup.clear();
+            dup.position(offset + 4);
+            dup.get(bs);
+            return new StringField(new String(bs), STRING_LEN, type);
+        } catch (IndexOutOfBoundsException e) {
+            throw new ParseException("couldn't parse", offset);
+        }
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -60,4 +128,23 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the buffer at the given absolute offset. The position of
+   *   the buffer is not changed.
+   * @param buf The buffer to read from
+   * @param offset The offset of the field in the buffer
+   * @throws ParseException if the bytes at offset are not a valid field of
+   *   this type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
+  /**
+   * @return true if the fields of this type are StringFields, which may be
+   *   compared with each other.
+   */
+    public boolean isString() {
+        return false;
+    }
+
 }
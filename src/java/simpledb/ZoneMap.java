@@ -0,0 +1,303 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A ZoneMap keeps, for each page of a heap file, the number of used slots
+ * and the smallest and largest value of each int column, so that a scan
+ * with a predicate can skip the pages that cannot hold a match without
+ * fetching them. See {@link HeapFile#iterator(TransactionId, Predicate)}.
+ * <p>
+ * An entry must cover every version of its page that a scan may read: the
+ * page in the buffer pool, and the page on disk that an abort goes back
+ * to. So an entry is exact when the page is written to disk, and only
+ * widened by inserts in between; deletes take effect when the page is
+ * written. A page without an entry, e.g. one beyond the end of the map,
+ * may hold anything.
+ * <p>
+ * The map of a heap file is kept in a small side file, the heap file's
+ * name with ".zm" appended. The side file is written by
+ * {@link HeapFileLoader} when it builds a heap file, and by
+ * {@link HeapFile#close}; a HeapFile deletes it before it first writes a
+ * page, so a side file is only there while it describes the heap file.
+ * Length and modification time are only a second check: a page rewritten
+ * in place within the granularity of the file system's clock changes
+ * neither.
+ */
+public class ZoneMap {
+
+    /** The first int of a side file, "SDZM". */
+    static final int MAGIC = 0x53445a4d;
+    static final int VERSION = 1;
+
+    private final int pageSize;
+    private final int slotsPerPage;
+    private final int headerSize;
+    private final int tupleSize;
+    /** The field index of each int column, and the offset of the column in a tuple. */
+    private final int[] intFields;
+    private final int[] intOffsets;
+    /** For each field, its int column, or -1 if it is not an int field. */
+    private final int[] columnOf;
+
+    private int numPages;
+    /** The used slots of each page, or -1 if the page has no entry. */
+    private int[] counts;
+    /** The bounds of int column k of page p, at p * intFields.length + k. */
+    private int[] mins;
+    private int[] maxs;
+
+    /**
+     * Create an empty map for heap files of the given schema and page
+     * size, with the slot layout of {@link HeapPage}.
+     */
+    public ZoneMap(Type[] types, int pageSize) {
+        this.pageSize = pageSize;
+        int size = 0;
+        int ints = 0;
+        for (Type t : types) {
+            size += t.getLen();
+            ints += t == Type.INT_TYPE ? 1 : 0;
+        }
+        this.tupleSize = size;
+        this.slotsPerPage = (pageSize * 8) / (tupleSize * 8 + 1);
+        this.headerSize = (slotsPerPage + 7) / 8;
+        this.intFields = new int[ints];
+        this.intOffsets = new int[ints];
+        this.columnOf = new int[types.length];
+        int off = 0;
+        for (int i = 0, k = 0; i < types.length; i++) {
+            columnOf[i] = types[i] == Type.INT_TYPE ? k : -1;
+            if (types[i] == Type.INT_TYPE) {
+                intFields[k] = i;
+                intOffsets[k++] = off;
+            }
+            off += types[i].getLen();
+        }
+        this.counts = new int[16];
+        Arrays.fill(counts, -1);
+        this.mins = new int[16 * ints];
+        this.maxs = new int[16 * ints];
+    }
+
+    /** @return the side file of a heap file. */
+    static File fileFor(File heapFile) {
+        return new File(heapFile.getPath() + ".zm");
+    }
+
+    /** @return the number of pages the map has entries for, or may have. */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the used slots of a page, at most; -1 if the page has no entry. */
+    public synchronized int getUsedSlots(int pgNo) {
+        return pgNo < numPages ? counts[pgNo] : -1;
+    }
+
+    /**
+     * @return the smallest value of an int field on a page, at least; only
+     *         meaningful if the page has an entry with used slots.
+     */
+    public synchronized int getMin(int pgNo, int field) {
+        return mins[pgNo * intFields.length + column(field)];
+    }
+
+    /**
+     * @return the largest value of an int field on a page, at most; only
+     *         meaningful if the page has an entry with used slots.
+     */
+    public synchronized int getMax(int pgNo, int field) {
+        return maxs[pgNo * intFields.length + column(field)];
+    }
+
+    private int column(int field) {
+        if (field < 0 || field >= columnOf.length || columnOf[field] < 0) {
+            throw new IllegalArgumentException("field " + field + " is not an int field.");
+        }
+        return columnOf[field];
+    }
+
+    /** Make room for the entries of pages up to pgNo, with no entries for the new pages. */
+    private void grow(int pgNo) {
+        if (pgNo < numPages) {
+            return;
+        }
+        if (pgNo >= counts.length) {
+            int n = Math.max(counts.length * 2, pgNo + 1);
+            int old = counts.length;
+            counts = Arrays.copyOf(counts, n);
+            Arrays.fill(counts, old, n, -1);
+            mins = Arrays.copyOf(mins, n * intFields.length);
+            maxs = Arrays.copyOf(maxs, n * intFields.length);
+        }
+        numPages = pgNo + 1;
+    }
+
+    /**
+     * Set the entry of a page from its bytes.
+     * @param data the page, from off on, in the format of HeapPage.
+     */
+    public synchronized void setPage(int pgNo, ByteBuffer data, int off) {
+        grow(pgNo);
+        int base = pgNo * intFields.length;
+        Arrays.fill(mins, base, base + intFields.length, Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + intFields.length, Integer.MIN_VALUE);
+        int used = 0;
+        for (int slot = 0; slot < slotsPerPage; slot++) {
+            if (((data.get(off + (slot >> 3)) >> (slot & 7)) & 1) == 0) {
+                continue;
+            }
+            used++;
+            widen(base, data, off + headerSize + slot * tupleSize);
+        }
+        counts[pgNo] = used;
+    }
+
+    /**
+     * Widen the entry of a page for a tuple added to it. A page without an
+     * entry stays without one.
+     * @param data the page, from off on, in the format of HeapPage.
+     */
+    public synchronized void include(int pgNo, ByteBuffer data, int off, int slot) {
+        if (pgNo >= numPages || counts[pgNo] < 0) {
+            return;
+        }
+        counts[pgNo] = Math.min(counts[pgNo] + 1, slotsPerPage);
+        widen(pgNo * intFields.length, data, off + headerSize + slot * tupleSize);
+    }
+
+    private void widen(int base, ByteBuffer data, int tupleOffset) {
+        for (int k = 0; k < intFields.length; k++) {
+            int v = data.getInt(tupleOffset + intOffsets[k]);
+            if (v < mins[base + k]) {
+                mins[base + k] = v;
+            }
+            if (v > maxs[base + k]) {
+                maxs[base + k] = v;
+            }
+        }
+    }
+
+    /**
+     * @return false if no tuple of a page can satisfy the predicate: the
+     *         page is empty, or the predicate is on an int field and its
+     *         operand is out of the bounds of the page.
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate p) {
+        if (pgNo >= numPages || counts[pgNo] < 0) {
+            return true;
+        }
+        if (counts[pgNo] == 0) {
+            return false;
+        }
+        int field = p.getField();
+        if (field < 0 || field >= columnOf.length || columnOf[field] < 0
+                || !(p.getOperand() instanceof IntField)) {
+            return true;
+        }
+        int min = mins[pgNo * intFields.length + columnOf[field]];
+        int max = maxs[pgNo * intFields.length + columnOf[field]];
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        default:
+            return !(min == v && max == v);
+        }
+    }
+
+    /**
+     * Build the map of a file by reading all of its pages.
+     */
+    static ZoneMap build(PageIO io, Type[] types) throws IOException {
+        ZoneMap z = new ZoneMap(types, BufferPool.PAGE_SIZE);
+        int n = io.numPages();
+        for (int pgNo = 0; pgNo < n; pgNo++) {
+            ByteBuffer page = io.readPage(pgNo);
+            z.setPage(pgNo, page, page.position());
+        }
+        return z;
+    }
+
+    /**
+     * Write the map to the side file of a heap file, for the heap file as
+     * it is now. The side file is replaced atomically.
+     */
+    public synchronized void save(File heapFile) throws IOException {
+        File f = fileFor(heapFile);
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pageSize);
+            out.writeInt(columnOf.length);
+            out.writeInt(intFields.length);
+            out.writeLong(heapFile.length());
+            out.writeLong(heapFile.lastModified());
+            out.writeInt(numPages);
+            for (int p = 0; p < numPages; p++) {
+                out.writeInt(counts[p]);
+                for (int k = 0; k < intFields.length; k++) {
+                    out.writeInt(mins[p * intFields.length + k]);
+                    out.writeInt(maxs[p * intFields.length + k]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the map of a heap file from its side file.
+     * @return the map, or null if there is no side file, or it was written
+     *         for another schema or another version of the heap file.
+     */
+    static ZoneMap load(File heapFile, Type[] types) throws IOException {
+        File f = fileFor(heapFile);
+        if (!f.exists()) {
+            return null;
+        }
+        ZoneMap z = new ZoneMap(types, BufferPool.PAGE_SIZE);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != z.pageSize
+                    || in.readInt() != types.length || in.readInt() != z.intFields.length
+                    || in.readLong() != heapFile.length() || in.readLong() != heapFile.lastModified()) {
+                return null;
+            }
+            int n = in.readInt();
+            if (n > 0) {
+                z.grow(n - 1);
+            }
+            for (int p = 0; p < n; p++) {
+                z.counts[p] = in.readInt();
+                for (int k = 0; k < z.intFields.length; k++) {
+                    z.mins[p * z.intFields.length + k] = in.readInt();
+                    z.maxs[p * z.intFields.length + k] = in.readInt();
+                }
+            }
+            return z;
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final Predicate.Op[] OPS = Predicate.Op.values();
+
+    private TransactionId tid;
+    private Random r;
+
+    @Before public void setUp() throws Exception {
+        // inserts keep their pages dirty in the pool.
+        Database.resetBufferPool(4000);
+        tid = new TransactionId();
+        r = new Random(1);
+    }
+
+    /** @return an empty tree of two int fields, keyed on field 0, in the catalog. */
+    private BTreeFile emptyTree() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+
+    /** Insert n tuples with keys below maxKey, and add them to expected. */
+    private void insert(BTreeFile bf, int n, int maxKey, List<ArrayList<Integer>> expected)
+            throws Exception {
+        for (int i = 0; i < n; i++) {
+            int[] values = {r.nextInt(maxKey), r.nextInt()};
+            bf.insertTuple(tid, Utility.getHeapTuple(values));
+            expected.add(new ArrayList<Integer>(Arrays.asList(values[0], values[1])));
+        }
+    }
+
+    /** @return the tuples of an iterator, which must come in key order. */
+    private static ArrayList<ArrayList<Integer>> read(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(it.next());
+            if (!tuples.isEmpty()) {
+                assertTrue("out of key order", tuples.get(tuples.size() - 1).get(0) <= t.get(0));
+            }
+            tuples.add(t);
+        }
+        it.close();
+        return tuples;
+    }
+
+    private static final Comparator<ArrayList<Integer>> BY_FIELDS = new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            int c = a.get(0).compareTo(b.get(0));
+            return c != 0 ? c : a.get(1).compareTo(b.get(1));
+        }
+    };
+
+    private static void assertSameTuples(List<ArrayList<Integer>> expected, List<ArrayList<Integer>> actual) {
+        ArrayList<ArrayList<Integer>> e = new ArrayList<ArrayList<Integer>>(expected);
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>(actual);
+        Collections.sort(e, BY_FIELDS);
+        Collections.sort(a, BY_FIELDS);
+        assertEquals(e, a);
+    }
+
+    /** Every operator on the given keys finds the same tuples as a filter. */
+    private void checkPredicates(BTreeFile bf, List<ArrayList<Integer>> expected, int... operands)
+            throws Exception {
+        for (int operand : operands) {
+            for (Predicate.Op op : OPS) {
+                Predicate p = new Predicate(0, op, new IntField(operand));
+                ArrayList<ArrayList<Integer>> matches = new ArrayList<ArrayList<Integer>>();
+                for (ArrayList<Integer> t : expected) {
+                    if (new IntField(t.get(0)).compare(op, p.getOperand())) {
+                        matches.add(t);
+                    }
+                }
+                assertSameTuples(matches, read(bf.indexIterator(tid, p)));
+
+                // and the same in batches
+                IndexScan scan = new IndexScan(tid, bf.getId(), "t", p);
+                scan.open();
+                int rows = 0;
+                for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch()) {
+                    for (int i = 0; i < b.numSelected(); i++) {
+                        assertTrue(p.filter(b.getTuple(b.getSelection()[i])));
+                        rows++;
+                    }
+                }
+                scan.close();
+                assertEquals(op + " " + operand, matches.size(), rows);
+            }
+        }
+    }
+
+    @Test public void scanEmptyTree() throws Exception {
+        BTreeFile bf = emptyTree();
+        assertTrue(read(bf.iterator(tid)).isEmpty());
+        checkPredicates(bf, new ArrayList<ArrayList<Integer>>(), 0);
+        assertEquals(2, bf.numPages());
+    }
+
+    /**
+     * Inserts split leaves and internal pages, and all tuples are found in
+     * key order, also keys that are on many leaves.
+     */
+    @Test public void insertSplits() throws Exception {
+        BTreeFile bf = emptyTree();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        // many duplicates: keys span several leaves
+        insert(bf, 3000, 3, expected);
+        insert(bf, 30000, 100000, expected);
+        int leafTuples = BTreeLeafPage.maxTuples(bf.getTupleDesc());
+        assertTrue(bf.numPages() > expected.size() / leafTuples);
+        BTreeRootPtrPage ptr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+            new BTreePageId(bf.getId(), 0, BTreePageId.ROOT_PTR), Permissions.READ_ONLY);
+        assertEquals(BTreePageId.INTERNAL, ptr.getRootId().pgcateg());
+
+        assertSameTuples(expected, read(bf.iterator(tid)));
+        checkPredicates(bf, expected, -1, 0, 1, 2, 3, expected.get(5000).get(0), 99999, 100000);
+    }
+
+    /** Internal pages split too when keys are long. */
+    @Test public void stringKeys() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        BTreeFile bf = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        ArrayList<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = new Tuple(td);
+            String key = "key" + r.nextInt(100000);
+            t.setField(0, new StringField(key, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            bf.insertTuple(tid, t);
+            keys.add(key);
+        }
+        Collections.sort(keys);
+        assertTrue(bf.numPages() > 5000 / BTreeInternalPage.maxKeys(Type.STRING_TYPE));
+
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        for (String key : keys) {
+            assertEquals(key, ((StringField) it.next().getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+
+        String probe = keys.get(1234);
+        int count = Collections.frequency(keys, probe);
+        Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new StringField(probe, Type.STRING_LEN));
+        assertEquals(count, count(new IndexScan(tid, bf.getId(), eq)));
+        Predicate like = new Predicate(0, Predicate.Op.LIKE, new StringField("99", Type.STRING_LEN));
+        int likes = 0;
+        for (String key : keys) {
+            likes += key.contains("99") ? 1 : 0;
+        }
+        assertEquals(likes, count(new IndexScan(tid, bf.getId(), like)));
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    @Test public void deleteTuples() throws Exception {
+        BTreeFile bf = emptyTree();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        insert(bf, 5000, 50, expected);
+        Collections.shuffle(expected, r);
+        for (int i = 0; i < 2500; i++) {
+            ArrayList<Integer> t = expected.remove(expected.size() - 1);
+            bf.deleteTuple(tid, Utility.getHeapTuple(new int[]{t.get(0), t.get(1)}));
+        }
+        assertSameTuples(expected, read(bf.iterator(tid)));
+        checkPredicates(bf, expected, 0, 25, 49);
+        try {
+            bf.deleteTuple(tid, Utility.getHeapTuple(new int[]{7, 7}));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * A bulk loaded tree holds the tuples of the sorted file, and takes
+     * inserts afterwards.
+     */
+    @Test public void bulkLoad() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 400000; i++) {
+            expected.add(new ArrayList<Integer>(Arrays.asList(i / 3, r.nextInt())));
+        }
+        File sorted = File.createTempFile("sorted", ".dat");
+        sorted.deleteOnExit();
+        HeapFileEncoder.convert(expected, sorted, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = Utility.openHeapFile(2, sorted);
+
+        BTreeFile bf = emptyTree();
+        assertEquals(expected.size(), bf.bulkLoad(tid, hf));
+        assertSameTuples(expected, read(bf.iterator(tid)));
+        checkPredicates(bf, expected, -5, 0, 77777, 133333, 200000);
+        try {
+            bf.bulkLoad(tid, hf);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        insert(bf, 2000, 140000, expected);
+        assertSameTuples(expected, read(bf.iterator(tid)));
+        checkPredicates(bf, expected, 100, 133333);
+    }
+
+    @Test public void bulkLoadUnsorted() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        try {
+            emptyTree().bulkLoad(tid, hf);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    @Test public void predicateOnOtherField() throws Exception {
+        BTreeFile bf = emptyTree();
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new IntField(1));
+        try {
+            new IndexScan(tid, bf.getId(), p);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * The changes to B+ tree pages are logged and rolled back like those
+     * of heap pages.
+     */
+    @Test public void rollback() throws Exception {
+        BTreeFile bf = emptyTree();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        Database.getLogFile().logXactionBegin(tid);
+        insert(bf, 1000, 1000, expected);
+        Database.getBufferPool().flushPages(tid);
+        Database.getLogFile().logCommit(tid);
+
+        TransactionId t2 = new TransactionId();
+        Database.getLogFile().logXactionBegin(t2);
+        TransactionId first = tid;
+        tid = t2;
+        insert(bf, 3000, 1000, new ArrayList<ArrayList<Integer>>());
+        Database.getBufferPool().flushPages(t2);
+        Database.getLogFile().rollback(t2);
+        Database.getLogFile().logAbort(t2);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = first;
+        assertSameTuples(expected, read(bf.iterator(tid)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
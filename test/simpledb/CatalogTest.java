@@ -1,8 +1,16 @@
 package simpledb;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.Assert;
 import junit.framework.JUnit4TestAdapter;
@@ -68,6 +76,154 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Adding a table with the id of another replaces it, also under its
+     * name; a name taken by another table goes to the last one added.
+     */
+    @Test public void replaceTable() throws Exception {
+        Catalog c = Database.getCatalog();
+        SkeletonFile wide = new SkeletonFile(-1, Utility.getTupleDesc(3));
+        c.addTable(wide, "wide");
+        assertEquals(Utility.getTupleDesc(3), c.getTupleDesc(-1));
+        assertEquals(wide, c.getDbFile(-1));
+        assertEquals(-1, c.getTableId("wide"));
+        try {
+            c.getTableId(nameThisTestRun);
+            Assert.fail("the old name should be gone");
+        } catch (NoSuchElementException e) {
+        }
+
+        c.addTable(new SkeletonFile(-3, Utility.getTupleDesc(1)), name);
+        assertEquals(-3, c.getTableId(name));
+        assertEquals(name, c.getTableName(-2));
+
+        int count = 0;
+        for (Iterator<Integer> it = c.tableIdIterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        assertEquals(3, count);
+
+        c.clear();
+        assertFalse(c.tableIdIterator().hasNext());
+        c.addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), "again");
+        assertEquals(-1, c.getTableId("again"));
+    }
+
+    /**
+     * Lookups from several threads while tables are replaced always find
+     * the table, with one of its schemas.
+     */
+    @Test public void concurrentLookups() throws Exception {
+        final Catalog c = Database.getCatalog();
+        final int tables = 1000;
+        for (int i = 0; i < tables; i++) {
+            c.addTable(new SkeletonFile(i, Utility.getTupleDesc(1)), "t" + i);
+        }
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; !stop.get(); i = (i + 1) % tables) {
+                            int id = c.getTableId("t" + i);
+                            assertEquals(i, id);
+                            assertTrue(c.getTupleDesc(id).numFields() <= 2);
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < tables; i++) {
+                c.addTable(new SkeletonFile(i, Utility.getTupleDesc(1 + (round + i) % 2)), "t" + i);
+            }
+        }
+        stop.set(true);
+        for (Thread t : readers) {
+            t.join();
+        }
+        assertNull(error.get());
+    }
+
+    /**
+     * A saved catalog loads with the same tables, schemas and statistics,
+     * and the tables read the same, whether the catalog file is in the
+     * directory of the table file or not. Tables that are not HeapFiles are
+     * not saved.
+     */
+    @Test public void saveLoadCatalog() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(3, 2000, 1000, null, tuples);
+        data.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                                     new String[]{"a", null, "c\u00e9"});
+        HeapFile hf = new HeapFile(data, td);
+        Catalog c = Database.getCatalog();
+        c.addTable(hf, "heap", "a");
+        assertEquals(-1, c.getNumPages(hf.getId()));
+
+        File sibling = new File(data.getParentFile(), data.getName() + ".catalog");
+        sibling.deleteOnExit();
+        File elsewhere = new File(Files.createTempDirectory("catalog").toFile(), "catalog");
+        elsewhere.deleteOnExit();
+        elsewhere.getParentFile().deleteOnExit();
+        c.saveCatalog(sibling);
+        c.saveCatalog(elsewhere);
+        assertEquals(hf.numPages(), c.getNumPages(hf.getId()));
+        assertEquals(tuples.size(), c.getNumTuples(hf.getId()));
+
+        for (File f : new File[]{sibling, elsewhere}) {
+            c.clear();
+            c.loadCatalog(f);
+            int id = c.getTableId("heap");
+            assertEquals(hf.getId(), id);
+            assertEquals("heap", c.getTableName(id));
+            assertEquals("a", c.getPrimaryKey(id));
+            assertEquals(td, c.getTupleDesc(id));
+            assertEquals("c\u00e9", c.getTupleDesc(id).getFieldName(2));
+            assertNull(c.getTupleDesc(id).getFieldName(1));
+            assertEquals(hf.numPages(), c.getNumPages(id));
+            assertEquals(tuples.size(), c.getNumTuples(id));
+            assertTrue(Arrays.equals(c.getHAS(hf.getId()), new int[]{
+                    (int) Math.ceil((BufferPool.PAGE_SIZE * 8 / 97) / 8.0), BufferPool.PAGE_SIZE * 8 / 97}));
+            try {
+                c.getTableId(name);
+                Assert.fail("the skeleton table should not be saved");
+            } catch (NoSuchElementException e) {
+            }
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            SystemTestUtil.matchTuples(c.getDbFile(id), tuples);
+        }
+    }
+
+    /** Files that are not catalog files, or are cut short, fail to load. */
+    @Test public void loadBadCatalog() throws Exception {
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1000, null, null);
+        data.deleteOnExit();
+        Database.getCatalog().addTable(Utility.openHeapFile(2, data), "heap");
+        File f = File.createTempFile("catalog", ".catalog");
+        f.deleteOnExit();
+        Database.getCatalog().saveCatalog(f);
+        byte[] good = Files.readAllBytes(f.toPath());
+
+        byte[][] bad = {new byte[0], Arrays.copyOf(good, 4), Arrays.copyOf(good, 20),
+                        Arrays.copyOf(good, good.length - 1), good.clone()};
+        bad[4][7] = 99; // version
+        for (byte[] b : bad) {
+            Files.write(f.toPath(), b);
+            try {
+                new Catalog().loadCatalog(f);
+                Assert.fail("expected exception");
+            } catch (IOException e) {
+            }
+        }
+    }
+
     /**
      * JUnit suite target
      */
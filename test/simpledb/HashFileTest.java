@@ -0,0 +1,304 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+    private static final Predicate.Op[] OPS = Predicate.Op.values();
+
+    private TransactionId tid;
+    private Random r;
+
+    @Before public void setUp() throws Exception {
+        // inserts keep their pages dirty in the pool.
+        Database.resetBufferPool(4000);
+        tid = new TransactionId();
+        r = new Random(1);
+    }
+
+    /** @return an empty table of two int fields, hashed on field 0, in the catalog. */
+    private HashFile emptyTable() throws Exception {
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        HashFile hf = new HashFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /** Insert n tuples with keys below maxKey, and add them to expected. */
+    private void insert(HashFile hf, int n, int maxKey, List<ArrayList<Integer>> expected)
+            throws Exception {
+        for (int i = 0; i < n; i++) {
+            int[] values = {r.nextInt(maxKey), r.nextInt()};
+            hf.insertTuple(tid, Utility.getHeapTuple(values));
+            expected.add(new ArrayList<Integer>(Arrays.asList(values[0], values[1])));
+        }
+    }
+
+    private static ArrayList<ArrayList<Integer>> read(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return tuples;
+    }
+
+    private static final Comparator<ArrayList<Integer>> BY_FIELDS = new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            int c = a.get(0).compareTo(b.get(0));
+            return c != 0 ? c : a.get(1).compareTo(b.get(1));
+        }
+    };
+
+    private static void assertSameTuples(List<ArrayList<Integer>> expected, List<ArrayList<Integer>> actual) {
+        ArrayList<ArrayList<Integer>> e = new ArrayList<ArrayList<Integer>>(expected);
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>(actual);
+        Collections.sort(e, BY_FIELDS);
+        Collections.sort(a, BY_FIELDS);
+        assertEquals(e, a);
+    }
+
+    /**
+     * Every operator on the given keys finds the same tuples as a filter,
+     * through the index and through a PredicateScan.
+     */
+    private void checkPredicates(HashFile hf, List<ArrayList<Integer>> expected, int... operands)
+            throws Exception {
+        for (int operand : operands) {
+            for (Predicate.Op op : OPS) {
+                Predicate p = new Predicate(0, op, new IntField(operand));
+                ArrayList<ArrayList<Integer>> matches = new ArrayList<ArrayList<Integer>>();
+                for (ArrayList<Integer> t : expected) {
+                    if (new IntField(t.get(0)).compare(op, p.getOperand())) {
+                        matches.add(t);
+                    }
+                }
+                assertSameTuples(matches, read(hf.indexIterator(tid, p)));
+
+                // and the same in batches
+                PredicateScan scan = new PredicateScan(tid, hf.getId(), "t", p);
+                assertEquals(hf.serves(op), scan.usesIndex());
+                scan.open();
+                int rows = 0;
+                for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch()) {
+                    for (int i = 0; i < b.numSelected(); i++) {
+                        assertTrue(p.filter(b.getTuple(b.getSelection()[i])));
+                        rows++;
+                    }
+                }
+                scan.close();
+                assertEquals(op + " " + operand, matches.size(), rows);
+            }
+        }
+    }
+
+    private HashHeaderPage header(HashFile hf) throws Exception {
+        return (HashHeaderPage) Database.getBufferPool().getPage(tid,
+            new HashPageId(hf.getId(), 0, HashPageId.HEADER), Permissions.READ_ONLY);
+    }
+
+    @Test public void scanEmptyTable() throws Exception {
+        HashFile hf = emptyTable();
+        assertTrue(read(hf.iterator(tid)).isEmpty());
+        checkPredicates(hf, new ArrayList<ArrayList<Integer>>(), 0);
+        assertEquals(3, hf.numPages());
+        assertEquals(0, header(hf).getGlobalDepth());
+    }
+
+    /**
+     * Inserts split buckets and double the directory, and every tuple is
+     * found by a scan and by a lookup of its key.
+     */
+    @Test public void insertSplits() throws Exception {
+        HashFile hf = emptyTable();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        insert(hf, 30000, 100000, expected);
+        int bucketTuples = HashBucketPage.maxTuples(hf.getTupleDesc());
+        assertTrue(hf.numPages() > expected.size() / bucketTuples);
+        assertTrue(1 << header(hf).getGlobalDepth() >= expected.size() / bucketTuples);
+
+        assertSameTuples(expected, read(hf.iterator(tid)));
+        checkPredicates(hf, expected, -1, 0, expected.get(5000).get(0), expected.get(29999).get(0), 100000);
+    }
+
+    /**
+     * Tuples of one key that fill more than a page share a chain, and
+     * other keys of the bucket can still be split off.
+     */
+    @Test public void duplicateKeys() throws Exception {
+        HashFile hf = emptyTable();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        int bucketTuples = HashBucketPage.maxTuples(hf.getTupleDesc());
+        insert(hf, 3 * bucketTuples, 1, expected);
+        insert(hf, 5000, 1000, expected);
+        assertSameTuples(expected, read(hf.iterator(tid)));
+        checkPredicates(hf, expected, 0, 1, 500);
+    }
+
+    /** String keys are hashed and compared as strings. */
+    @Test public void stringKeys() throws Exception {
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        HashFile hf = new HashFile(f, 0, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        ArrayList<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = new Tuple(td);
+            String key = "key" + r.nextInt(1000);
+            t.setField(0, new StringField(key, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            hf.insertTuple(tid, t);
+            keys.add(key);
+        }
+        assertEquals(keys.size(), count(new SeqScan(tid, hf.getId(), "t")));
+
+        String probe = keys.get(1234);
+        Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new StringField(probe, Type.STRING_LEN));
+        PredicateScan scan = new PredicateScan(tid, hf.getId(), eq);
+        assertTrue(scan.usesIndex());
+        assertEquals(Collections.frequency(keys, probe), count(scan));
+        Predicate like = new Predicate(0, Predicate.Op.LIKE, new StringField("99", Type.STRING_LEN));
+        scan = new PredicateScan(tid, hf.getId(), like);
+        assertFalse(scan.usesIndex());
+        int likes = 0;
+        for (String key : keys) {
+            likes += key.contains("99") ? 1 : 0;
+        }
+        assertEquals(likes, count(scan));
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    @Test public void deleteTuples() throws Exception {
+        HashFile hf = emptyTable();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        insert(hf, 5000, 50, expected);
+        Collections.shuffle(expected, r);
+        for (int i = 0; i < 2500; i++) {
+            ArrayList<Integer> t = expected.remove(expected.size() - 1);
+            hf.deleteTuple(tid, Utility.getHeapTuple(new int[]{t.get(0), t.get(1)}));
+        }
+        assertSameTuples(expected, read(hf.iterator(tid)));
+        checkPredicates(hf, expected, 0, 25, 49);
+        try {
+            hf.deleteTuple(tid, Utility.getHeapTuple(new int[]{7, 7}));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * A bulk loaded table holds the tuples of the source file, and takes
+     * inserts afterwards.
+     */
+    @Test public void bulkLoad() throws Exception {
+        for (int rows : new int[]{1000, 400000}) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (int i = 0; i < rows; i++) {
+                expected.add(new ArrayList<Integer>(Arrays.asList(r.nextInt(rows / 3), r.nextInt())));
+            }
+            File source = File.createTempFile("source", ".dat");
+            source.deleteOnExit();
+            HeapFileEncoder.convert(expected, source, BufferPool.PAGE_SIZE, 2);
+            HeapFile heap = Utility.openHeapFile(2, source);
+
+            HashFile hf = emptyTable();
+            assertEquals(expected.size(), hf.bulkLoad(tid, heap));
+            assertSameTuples(expected, read(hf.iterator(tid)));
+            checkPredicates(hf, expected, -5, 0, expected.get(77).get(0), rows / 3 - 1);
+            try {
+                hf.bulkLoad(tid, heap);
+                fail("expected exception");
+            } catch (DbException e) {
+            }
+
+            insert(hf, 2000, rows / 3, expected);
+            assertSameTuples(expected, read(hf.iterator(tid)));
+            checkPredicates(hf, expected, 1, expected.get(expected.size() - 1).get(0));
+        }
+    }
+
+    @Test public void bulkLoadEmpty() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HashFile hf = emptyTable();
+        assertEquals(0, hf.bulkLoad(tid, heap));
+        assertTrue(read(hf.iterator(tid)).isEmpty());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        insert(hf, 1000, 100, expected);
+        assertSameTuples(expected, read(hf.iterator(tid)));
+    }
+
+    /** A PredicateScan uses the index only on the key field, and not of a heap file. */
+    @Test public void predicateScanChoice() throws Exception {
+        HashFile hf = emptyTable();
+        Predicate onKey = new Predicate(0, Predicate.Op.EQUALS, new IntField(1));
+        Predicate other = new Predicate(1, Predicate.Op.EQUALS, new IntField(1));
+        assertTrue(new PredicateScan(tid, hf.getId(), onKey).usesIndex());
+        assertFalse(new PredicateScan(tid, hf.getId(), other).usesIndex());
+        try {
+            new IndexScan(tid, hf.getId(), other);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        assertFalse(new PredicateScan(tid, heap.getId(), onKey).usesIndex());
+    }
+
+    /**
+     * The changes to hash pages are logged and rolled back like those of
+     * heap pages, also when the directory was doubled.
+     */
+    @Test public void rollback() throws Exception {
+        HashFile hf = emptyTable();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        Database.getLogFile().logXactionBegin(tid);
+        insert(hf, 1000, 1000, expected);
+        Database.getBufferPool().flushPages(tid);
+        Database.getLogFile().logCommit(tid);
+        int depth = header(hf).getGlobalDepth();
+
+        TransactionId t2 = new TransactionId();
+        Database.getLogFile().logXactionBegin(t2);
+        TransactionId first = tid;
+        tid = t2;
+        insert(hf, 5000, 100000, new ArrayList<ArrayList<Integer>>());
+        assertTrue(header(hf).getGlobalDepth() > depth);
+        Database.getBufferPool().flushPages(t2);
+        Database.getLogFile().rollback(t2);
+        Database.getLogFile().logAbort(t2);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = first;
+        assertEquals(depth, header(hf).getGlobalDepth());
+        assertSameTuples(expected, read(hf.iterator(tid)));
+        checkPredicates(hf, expected, expected.get(0).get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
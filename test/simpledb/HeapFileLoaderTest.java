@@ -0,0 +1,147 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileLoaderTest extends SimpleDbTestBase {
+
+    private static File textFile(String text) throws IOException {
+        File f = File.createTempFile("loader", ".txt");
+        f.deleteOnExit();
+        OutputStream out = new FileOutputStream(f);
+        out.write(text.getBytes("UTF-8"));
+        out.close();
+        return f;
+    }
+
+    private static File load(File in, Type[] types, int threads, int chunkSize) throws IOException {
+        File out = File.createTempFile("loader", ".dat");
+        out.deleteOnExit();
+        HeapFileLoader loader = new HeapFileLoader(types, BufferPool.PAGE_SIZE, ',');
+        loader.setThreads(threads);
+        loader.setChunkSize(chunkSize);
+        loader.load(in, out);
+        return out;
+    }
+
+    private static Type[] ints(int n) {
+        Type[] types = new Type[n];
+        Arrays.fill(types, Type.INT_TYPE);
+        return types;
+    }
+
+    /** @return the tuples of a heap file, in order. */
+    private static List<Tuple> read(File f, Type[] types) throws Exception {
+        HeapFile table = new HeapFile(f, new TupleDesc(types));
+        Database.getCatalog().addTable(table, UUID.randomUUID().toString());
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * The pages are those of HeapPage.insertTuple into full pages, with
+     * chunks that cut most pages in two, from any number of threads.
+     */
+    @Test public void samePagesAsHeapPage() throws Exception {
+        int rows = 2000;
+        StringBuilder text = new StringBuilder();
+        File empty = File.createTempFile("loader", ".dat");
+        empty.deleteOnExit();
+        HeapFile table = Utility.openHeapFile(2, empty);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        HeapPage page = null;
+        for (int i = 0; i < rows; i++) {
+            text.append(i).append(',').append(-i * 7919).append('\n');
+            if (page == null || page.getNumEmptySlots() == 0) {
+                if (page != null) {
+                    expected.write(page.getPageData());
+                }
+                page = new HeapPage(new HeapPageId(table.getId(), expected.size() / BufferPool.PAGE_SIZE),
+                                    HeapPage.createEmptyPageData());
+            }
+            page.insertTuple(Utility.getHeapTuple(new int[]{i, -i * 7919}));
+        }
+        expected.write(page.getPageData());
+        assertTrue(expected.size() > 3 * BufferPool.PAGE_SIZE);
+
+        File in = textFile(text.toString());
+        for (int threads : new int[]{1, 4}) {
+            for (int chunkSize : new int[]{HeapFileLoader.DEFAULT_CHUNK_SIZE, 100, 7}) {
+                File out = load(in, ints(2), threads, chunkSize);
+                assertTrue(threads + " threads, " + chunkSize + " byte chunks",
+                           Arrays.equals(expected.toByteArray(), Files.readAllBytes(out.toPath())));
+            }
+        }
+    }
+
+    /** Blank lines, white space, carriage returns and a missing last line feed. */
+    @Test public void lineFormats() throws Exception {
+        File in = textFile("\n1,2\r\n\r\n  3 ,\t4\n\n   \n+5,-6\n2147483647,-2147483648");
+        for (int threads : new int[]{1, 3}) {
+            List<Tuple> tuples = read(load(in, ints(2), threads, 4), ints(2));
+            int[][] expected = {{1, 2}, {3, 4}, {5, -6}, {Integer.MAX_VALUE, Integer.MIN_VALUE}};
+            assertEquals(expected.length, tuples.size());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i][0], ((IntField) tuples.get(i).getField(0)).getValue());
+                assertEquals(expected[i][1], ((IntField) tuples.get(i).getField(1)).getValue());
+            }
+        }
+    }
+
+    /** Strings are trimmed and cut to STRING_LEN, also when longer than a chunk. */
+    @Test public void strings() throws Exception {
+        char[] longChars = new char[Type.STRING_LEN + 50];
+        Arrays.fill(longChars, 'x');
+        String longString = new String(longChars);
+        File in = textFile("1, hello ,2\n3,,4\n5," + longString + ",6\n");
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        List<Tuple> tuples = read(load(in, types, 2, 16), types);
+        assertEquals(3, tuples.size());
+        assertEquals("hello", ((StringField) tuples.get(0).getField(1)).getValue());
+        assertEquals(2, ((IntField) tuples.get(0).getField(2)).getValue());
+        assertEquals("", ((StringField) tuples.get(1).getField(1)).getValue());
+        assertEquals(longString.substring(0, Type.STRING_LEN),
+                     ((StringField) tuples.get(2).getField(1)).getValue());
+        assertEquals(6, ((IntField) tuples.get(2).getField(2)).getValue());
+    }
+
+    /** An empty input gives one empty page. */
+    @Test public void empty() throws Exception {
+        File out = load(textFile("\n\n"), ints(2), 2, 1);
+        assertArrayEquals(new byte[BufferPool.PAGE_SIZE], Files.readAllBytes(out.toPath()));
+    }
+
+    /** Bad integers and wrong numbers of fields fail the load. */
+    @Test public void malformed() throws Exception {
+        String[] bad = {"1,2\n3,x\n", "1,2\n3\n", "1,2,3\n", "1,2,\n", "1,99999999999\n", "1,-\n"};
+        for (String text : bad) {
+            for (int threads : new int[]{1, 2}) {
+                try {
+                    load(textFile(text), ints(2), threads, 4);
+                    fail("expected exception for " + text);
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoaderTest.class);
+    }
+}
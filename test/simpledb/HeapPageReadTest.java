@@ -6,12 +6,15 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -103,6 +106,50 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(CompiledPredicate)
+     */
+    @Test public void iteratorWithPredicate() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        CompiledPredicate pred = PredicateCompiler.compileAll(Utility.getTupleDesc(2),
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)),
+            new Predicate(1, Predicate.Op.LESS_THAN, new IntField(40000)));
+        Iterator<Tuple> it = page.iterator(pred);
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] > 30000 && values[1] < 40000) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+            }
+        }
+        assertFalse(it.hasNext());
+
+        pred = PredicateCompiler.compile(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)),
+                                         Utility.getTupleDesc(2));
+        assertFalse(page.iterator(pred).hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.fillBatch(int, TupleBatch, CompiledPredicate)
+     */
+    @Test public void fillBatchWithPredicate() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        CompiledPredicate pred = PredicateCompiler.compile(
+            new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50000)), Utility.getTupleDesc(2));
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2));
+        assertEquals(page.getNumEmptySlots() + EXAMPLE_VALUES.length, page.fillBatch(0, batch, pred));
+        int row = 0;
+        for (int slot = 0; slot < EXAMPLE_VALUES.length; slot++) {
+            if (EXAMPLE_VALUES[slot][1] >= 50000) {
+                assertEquals(new RecordId(pid, slot), batch.getTuple(row).getRecordId());
+                assertEquals(EXAMPLE_VALUES[slot][0], batch.getInt(0, row));
+                row++;
+            }
+        }
+        assertEquals(row, batch.numRows());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -124,6 +171,32 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a clean page
+     */
+    @Test public void getPageDataNoCopy() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        assertSame(data, page.getPageData());
+    }
+
+    /**
+     * Unit test for a HeapPage over a direct buffer
+     */
+    @Test public void directBuffer() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        buf.put(EXAMPLE_DATA);
+        buf.flip();
+        HeapPage page = new HeapPage(pid, buf);
+
+        assertEquals(484, page.getNumEmptySlots());
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][0], page.getInt(row, 0));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), page.getField(row, 1));
+        }
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,128 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapPageWriteTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple()
+     */
+    @Test public void addTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int free = page.getNumEmptySlots();
+
+        for (int i = 0; i < free; ++i) {
+            Tuple addition = Utility.getHeapTuple(i, 2);
+            page.insertTuple(addition);
+            assertEquals(free - i - 1, page.getNumEmptySlots());
+            assertEquals(pid, addition.getRecordId().getPageId());
+            assertEquals(i, addition.getRecordId().tupleno());
+        }
+
+        // the page is full now
+        try {
+            page.insertTuple(Utility.getHeapTuple(0, 2));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        // the bytes reproduce the page
+        HeapPage copy = new HeapPage(pid, page.getPageData().clone());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < free; ++i) {
+            assertTrue(it.hasNext());
+            assertEquals(new IntField(i), it.next().getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple()
+     */
+    @Test public void deleteTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            page.insertTuple(t);
+            added.add(t);
+        }
+        int free = page.getNumEmptySlots();
+
+        page.deleteTuple(added.get(3));
+        assertEquals(free + 1, page.getNumEmptySlots());
+        assertFalse(page.isSlotUsed(3));
+
+        // the freed slot is used again
+        Tuple t = Utility.getHeapTuple(42, 2);
+        page.insertTuple(t);
+        assertEquals(3, t.getRecordId().tupleno());
+        assertEquals(42, page.getInt(3, 0));
+
+        // a tuple that is not on the page
+        try {
+            page.deleteTuple(Utility.getHeapTuple(1, 2));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * A page over a read-only buffer copies it before the first write.
+     */
+    @Test public void readOnlyBuffer() throws Exception {
+        byte[] data = HeapPage.createEmptyPageData();
+        HeapPage page = new HeapPage(pid, ByteBuffer.wrap(data).asReadOnlyBuffer());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        assertEquals(7, page.getInt(0, 1));
+        assertArrayEquals(HeapPage.createEmptyPageData(), data);
+    }
+
+    /**
+     * The before image is taken by the first change after the page was
+     * read or the image was set, not when the page is read.
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] data = HeapPage.createEmptyPageData();
+        HeapPage page = new HeapPage(pid, ByteBuffer.wrap(data).asReadOnlyBuffer());
+        assertNull(page.oldData);
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        page.insertTuple(t);
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+        byte[] inserted = page.getPageData().clone();
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        page.deleteTuple(t);
+        assertArrayEquals(inserted, page.getBeforeImage().getPageData());
+        assertArrayEquals(data, page.getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageWriteTest.class);
+    }
+}
@@ -0,0 +1,339 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFormatTest extends SimpleDbTestBase {
+    private File file;
+    private LogFile log;
+
+    /** A page class that is not in the PageTypeRegistry. */
+    static class UnregisteredPage extends HeapPage {
+        public UnregisteredPage(HeapPageId id, byte[] data) throws IOException {
+            super(id, data);
+        }
+    }
+
+    @After public void deleteLog() {
+        SystemTestUtil.deleteLog(file);
+    }
+
+    @Before public void createLog() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        file = File.createTempFile("logformat", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    private HeapPage page(int pgNo, int value) throws IOException {
+        HeapPage p = new HeapPage(new HeapPageId(-1, pgNo), HeapPage.createEmptyPageData());
+        byte[] data = p.getPageData();
+        data[data.length - 1] = (byte) value;
+        return new HeapPage(new HeapPageId(-1, pgNo), data);
+    }
+
+    /** Log a transaction that updates one page from before to after. */
+    private TransactionId update(Page before, Page after) throws IOException {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, after);
+        log.logCommit(tid);
+        return tid;
+    }
+
+    /** Check the value of CRC-32C on the standard test vector. */
+    @Test public void crc32c() {
+        Crc32c crc = new Crc32c();
+        crc.update("123456789".getBytes());
+        assertEquals(0xE3069283L, crc.getValue());
+        crc.reset();
+        for (byte b : "123456789".getBytes()) {
+            crc.update(b);
+        }
+        assertEquals(0xE3069283L, crc.getValue());
+        crc.reset();
+        crc.update(ByteBuffer.wrap("0123456789".getBytes(), 1, 9));
+        assertEquals(0xE3069283L, crc.getValue());
+
+        // the same as the JDK's on longer input, if there is one
+        byte[] data = new byte[1000];
+        new java.util.Random(0).nextBytes(data);
+        crc.reset();
+        crc.update(data, 3, 990);
+        java.util.zip.Checksum other = Crc32c.create();
+        other.update(data, 3, 990);
+        assertEquals(other.getValue(), crc.getValue());
+        try {
+            Class.forName("java.util.zip.CRC32C");
+            assertEquals("java.util.zip.CRC32C", other.getClass().getName());
+        } catch (ClassNotFoundException e) {
+            assertEquals(Crc32c.class, other.getClass());
+        }
+    }
+
+    /** Records come back with their types, tids and pages. */
+    @Test public void readBack() throws Exception {
+        log.setDeltaUpdates(false);
+        TransactionId tid = update(page(3, 1), page(3, 2));
+        LogReader in = log.reader(LogFile.HEADER_SIZE);
+        assertTrue(in.next());
+        assertEquals(LogFile.BEGIN_RECORD, in.type());
+        assertEquals(tid.getId(), in.tid());
+        assertEquals(LogFile.HEADER_SIZE, in.offset());
+        assertTrue(in.next());
+        assertEquals(LogFile.UPDATE_RECORD, in.type());
+        ByteBuffer data = in.payload();
+        Page before = log.readPageData(data);
+        Page after = log.readPageData(data);
+        assertFalse(data.hasRemaining());
+        assertEquals(HeapPage.class, before.getClass());
+        assertEquals(new HeapPageId(-1, 3), after.getId());
+        assertArrayEquals(page(3, 1).getPageData(), before.getPageData());
+        assertArrayEquals(page(3, 2).getPageData(), after.getPageData());
+        assertTrue(in.next());
+        assertEquals(LogFile.COMMIT_RECORD, in.type());
+        assertFalse(in.next());
+        assertFalse(in.isDamaged());
+        assertEquals(log.segmentFile(0).length(), in.endOffset());
+    }
+
+    /** Classes without a tag are written by name, and read by reflection. */
+    @Test public void unregisteredClass() throws Exception {
+        HeapPage p = page(0, 7);
+        update(p, new UnregisteredPage(p.getId(), p.getPageData()));
+        LogReader in = log.reader(LogFile.HEADER_SIZE);
+        in.next();
+        in.next();
+        ByteBuffer data = in.payload();
+        assertEquals(HeapPage.class, log.readPageData(data).getClass());
+        Page after = log.readPageData(data);
+        assertEquals(UnregisteredPage.class, after.getClass());
+        assertArrayEquals(p.getPageData(), after.getPageData());
+    }
+
+    /** Reading stops at a record with a bad checksum, or one cut short. */
+    @Test public void damagedRecords() throws Exception {
+        File segment = log.segmentFile(0);
+        update(page(0, 1), page(0, 2));
+        long end = segment.length();
+        update(page(1, 1), page(1, 2));
+
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.setLength(segment.length() - 3);
+        raf.close();
+        LogReader in = log.reader(LogFile.HEADER_SIZE);
+        int records = 0;
+        while (in.next()) {
+            records++;
+        }
+        assertEquals(5, records);
+        assertTrue(in.isDamaged());
+
+        // flip a bit in the page data of the first update
+        raf = new RandomAccessFile(segment, "rw");
+        long at = end / 2;
+        raf.seek(at);
+        int b = raf.read();
+        raf.seek(at);
+        raf.write(b ^ 0x10);
+        raf.close();
+        in = log.reader(LogFile.HEADER_SIZE);
+        assertTrue(in.next());
+        assertFalse(in.next());
+        assertTrue(in.isDamaged());
+        assertEquals(LogFile.HEADER_SIZE + LogFile.RECORD_OVERHEAD, in.endOffset());
+    }
+
+    /** Ranges closer than MERGE_GAP bytes are merged. */
+    @Test public void pageDelta() throws Exception {
+        byte[] before = new byte[100];
+        byte[] after = before.clone();
+        after[10] = 1;
+        after[12] = 1;
+        after[30] = 1;
+        after[99] = 1;
+        PageDelta delta = PageDelta.diff(before, after);
+        assertEquals(3, delta.numRanges());
+        assertEquals(3 + 1 + 1, delta.changedBytes());
+
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        delta.write(new java.io.DataOutputStream(bytes));
+        assertEquals(delta.encodedSize(), bytes.size());
+        PageDelta read = PageDelta.read(ByteBuffer.wrap(bytes.toByteArray()), 100);
+        byte[] page = before.clone();
+        read.applyAfter(page);
+        assertArrayEquals(after, page);
+        read.applyBefore(page);
+        assertArrayEquals(before, page);
+
+        try {
+            PageDelta.read(ByteBuffer.wrap(bytes.toByteArray()), 50);
+            fail("expected exception");
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Inserting a tuple logs a DELTA record, from which both images of
+     * the page can be rebuilt.
+     */
+    @Test public void deltaRecord() throws Exception {
+        HeapPage p = new HeapPage(new HeapPageId(-1, 5), HeapPage.createEmptyPageData());
+        p.setBeforeImage();
+        p.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        byte[] beforeData = p.getBeforeImage().getPageData();
+        byte[] afterData = p.getPageData();
+        TransactionId tid = update(p.getBeforeImage(), p);
+
+        LogReader in = log.reader(LogFile.HEADER_SIZE);
+        in.next();
+        in.next();
+        assertEquals(LogFile.DELTA_RECORD, in.type());
+        assertEquals(tid.getId(), in.tid());
+        assertTrue(in.endOffset() - in.offset() < 100);
+        ByteBuffer data = in.payload();
+        assertEquals(p.getId(), LogFile.readUpdatedPageId(in.type(), data));
+
+        Page redone = log.readImage(in.type(), data, true, beforeData);
+        assertEquals(HeapPage.class, redone.getClass());
+        assertEquals(p.getId(), redone.getId());
+        assertArrayEquals(afterData, redone.getPageData());
+        Page undone = log.readImage(in.type(), data, false, afterData);
+        assertArrayEquals(beforeData, undone.getPageData());
+        assertEquals(data, in.payload());
+    }
+
+    /** If most of the page changed, both images are logged. */
+    @Test public void fullImages() throws Exception {
+        java.util.Random r = new java.util.Random(0);
+        byte[] a = new byte[BufferPool.PAGE_SIZE];
+        byte[] b = new byte[BufferPool.PAGE_SIZE];
+        r.nextBytes(a);
+        r.nextBytes(b);
+        HeapPageId pid = new HeapPageId(-1, 0);
+        update(new HeapPage(pid, a), new HeapPage(pid, b));
+        LogReader in = log.reader(LogFile.HEADER_SIZE);
+        in.next();
+        in.next();
+        assertEquals(LogFile.UPDATE_RECORD, in.type());
+        assertArrayEquals(b, log.readImage(in.type(), in.payload(), true, null).getPageData());
+        assertArrayEquals(a, log.readImage(in.type(), in.payload(), false, null).getPageData());
+    }
+
+    /** Registering a tag that another class has fails. */
+    @Test public void tagCollision() {
+        try {
+            PageTypeRegistry.registerPage(1, UnregisteredPage.class, null);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(PageTypeRegistry.UNREGISTERED, PageTypeRegistry.pageTag(UnregisteredPage.class));
+    }
+
+    /** Records go to a new segment when the current one is full, and are
+        read back across segments in order. */
+    @Test public void segments() throws Exception {
+        log.setSegmentSize(256);
+        for (int i = 0; i < 20; i++) {
+            update(page(i, 1), page(i, 2));
+        }
+        LogReader in = log.reader(LogFile.HEADER_SIZE);
+        int records = 0;
+        long last = 0;
+        while (in.next()) {
+            assertTrue(in.offset() > last);
+            if (records % 3 == 0) {
+                assertEquals(LogFile.BEGIN_RECORD, in.type());
+            }
+            last = in.offset();
+            records++;
+        }
+        assertEquals(60, records);
+        assertFalse(in.isDamaged());
+        assertEquals(log.getAppendedLsn(), in.endOffset());
+
+        // every segment starts where the one before it ends
+        int segments = 0;
+        long start = 0;
+        while (log.segmentFile(start).exists()) {
+            File segment = log.segmentFile(start);
+            assertTrue(segment.length() <= 256);
+            start += segment.length();
+            segments++;
+        }
+        assertTrue(segments > 5);
+        assertEquals(log.getAppendedLsn(), start);
+        assertEquals(start, log.getLogSize());
+    }
+
+    /**
+     * A checkpoint deletes the segments before the oldest live transaction
+     * and the oldest dirty page, and the other records keep their LSNs.
+     */
+    @Test public void truncate() throws Exception {
+        log.setSegmentSize(1024);
+        for (int i = 0; i < 10; i++) {
+            update(page(i, 1), page(i, 2));
+            log.pageFlushed(new HeapPageId(-1, i));
+        }
+        TransactionId live = new TransactionId();
+        log.logXactionBegin(live);
+        long first = log.tidToFirstLogRecord.get(live.getId());
+        log.logWrite(live, page(20, 1), page(20, 2));
+        long before = log.getLogSize();
+        log.logCheckpoint();
+        assertTrue(log.getLogSize() < before);
+        assertFalse(log.segmentFile(0).exists());
+        try {
+            log.reader(LogFile.HEADER_SIZE);
+            fail("expected exception");
+        } catch (IOException e) {
+        }
+
+        LogReader in = log.reader(first);
+        assertTrue(in.next());
+        assertEquals(LogFile.BEGIN_RECORD, in.type());
+        assertEquals(live.getId(), in.tid());
+        assertEquals(first, (long) log.tidToFirstLogRecord.get(live.getId()));
+        assertTrue(in.next());
+        assertEquals(LogFile.DELTA_RECORD, in.type());
+        long update = in.offset();
+        assertTrue(in.next());
+        assertEquals(LogFile.CHECKPOINT_RECORD, in.type());
+        long cp = in.offset();
+        ByteBuffer data = in.payload();
+        assertEquals(1, data.getInt());
+        assertEquals(live.getId(), data.getLong());
+        assertEquals(first, data.getLong());
+        assertEquals(1, data.getInt());
+        assertEquals(new HeapPageId(-1, 20), LogFile.readPageId(data));
+        assertEquals(update, data.getLong());
+        assertFalse(in.next());
+        assertFalse(in.isDamaged());
+        assertEquals(cp, log.readHeader());
+
+        // appending continues after the checkpoint
+        log.logCommit(live);
+        in = log.reader(cp);
+        assertTrue(in.next());
+        assertTrue(in.next());
+        assertEquals(LogFile.COMMIT_RECORD, in.type());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFormatTest.class);
+    }
+}
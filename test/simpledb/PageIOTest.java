@@ -0,0 +1,121 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageIOTest extends SimpleDbTestBase {
+
+    private static byte[] pageOf(int n) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        Arrays.fill(data, (byte) n);
+        return data;
+    }
+
+    private static byte[] bytesOf(ByteBuffer buf) {
+        byte[] data = new byte[buf.remaining()];
+        buf.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     * Every mode reads back what it wrote, also after the file has grown.
+     */
+    @Test public void readWrite() throws Exception {
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            File f = File.createTempFile("pageio", ".dat");
+            f.deleteOnExit();
+            PageIO io = PageIO.open(f, mode);
+            assertEquals(mode, io.getMode());
+            assertEquals(0, io.numPages());
+
+            io.writePage(0, pageOf(1));
+            assertArrayEquals(pageOf(1), bytesOf(io.readPage(0)));
+
+            io.writePage(2, pageOf(3));
+            assertEquals(3, io.numPages());
+            assertArrayEquals(pageOf(3), bytesOf(io.readPage(2)));
+            assertArrayEquals(pageOf(0), bytesOf(io.readPage(1)));
+
+            // overwrite a page that has been read before
+            io.writePage(0, pageOf(5));
+            assertArrayEquals(pageOf(5), bytesOf(io.readPage(0)));
+
+            // several pages at once, of a longer array
+            byte[] pages = new byte[3 * BufferPool.PAGE_SIZE];
+            System.arraycopy(pageOf(7), 0, pages, 0, BufferPool.PAGE_SIZE);
+            System.arraycopy(pageOf(8), 0, pages, BufferPool.PAGE_SIZE, BufferPool.PAGE_SIZE);
+            io.writePages(3, pages, 2);
+            io.force();
+            assertEquals(5, io.numPages());
+            assertArrayEquals(pageOf(7), bytesOf(io.readPage(3)));
+            assertArrayEquals(pageOf(8), bytesOf(io.readPage(4)));
+            io.writePages(0, pages, 2);
+            assertArrayEquals(pageOf(8), bytesOf(io.readPage(1)));
+            assertArrayEquals(pageOf(3), bytesOf(io.readPage(2)));
+
+            try {
+                io.readPage(5);
+                fail("expected exception");
+            } catch (java.io.IOException e) {
+            }
+            io.close();
+        }
+    }
+
+    /**
+     * Mapped pages are read-only slices of the mapping.
+     */
+    @Test public void mappedIsReadOnly() throws Exception {
+        File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        PageIO io = PageIO.open(f, PageIO.Mode.MAPPED);
+        io.writePage(0, pageOf(1));
+        ByteBuffer page = io.readPage(0);
+        assertTrue(page.isReadOnly());
+        assertTrue(page.isDirect());
+        assertEquals(BufferPool.PAGE_SIZE, page.remaining());
+        io.close();
+    }
+
+    /**
+     * Catalog.addTable sets the mode of a HeapFile, and the table reads the
+     * same in every mode.
+     */
+    @Test public void catalogMode() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000, null, tuples);
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID(), "", mode);
+            assertEquals(mode, hf.getIOMode());
+
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                assertEquals(tuples.get(count), SystemTestUtil.tupleToList(it.next()));
+                count++;
+            }
+            it.close();
+            assertEquals(tuples.size(), count);
+            hf.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageIOTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = Predicate.Op.values();
+
+    /** @return the tuple serialized at offset 3 of a buffer. */
+    private static ByteBuffer serialize(Tuple t) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.write(new byte[3]);
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            t.getField(i).serialize(dos);
+        }
+        return ByteBuffer.wrap(baos.toByteArray());
+    }
+
+    /**
+     * Check a compiled predicate against Predicate.filter on tuples, page
+     * bytes, batch rows and whole batches.
+     */
+    private void check(CompiledPredicate cp, ArrayList<Predicate> ps, boolean and,
+                       ArrayList<Tuple> tuples) throws Exception {
+        TupleBatch batch = new TupleBatch(tuples.get(0).getTupleDesc());
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int row = 0; row < tuples.size(); row++) {
+            Tuple t = tuples.get(row);
+            boolean want = and;
+            for (Predicate p : ps) {
+                want = and ? want && p.filter(t) : want || p.filter(t);
+            }
+            if (want) {
+                expected.add(row);
+            }
+            assertEquals(want, cp.matches(t));
+            assertEquals(want, cp.matches(serialize(t), 3));
+            batch.append(t);
+            assertEquals(want, cp.matchesRow(batch, row));
+        }
+        assertEquals(expected.size(), cp.filter(batch));
+        for (int k = 0; k < expected.size(); k++) {
+            assertEquals(expected.get(k).intValue(), batch.getSelection()[k]);
+        }
+    }
+
+    /** Every int operator agrees with Field.compare. */
+    @Test public void intOps() throws Exception {
+        Random r = new Random(1);
+        TupleDesc td = Utility.getTupleDesc(3);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 200; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(10), r.nextInt(10), r.nextInt(10) }));
+        }
+        for (Predicate.Op op : OPS) {
+            for (int field = 0; field < 3; field++) {
+                Predicate p = new Predicate(field, op, new IntField(5));
+                ArrayList<Predicate> ps = new ArrayList<Predicate>();
+                ps.add(p);
+                check(PredicateCompiler.compile(p, td), ps, true, tuples);
+            }
+        }
+    }
+
+    /** AND and OR trees agree with Predicate.filter. */
+    @Test public void trees() throws Exception {
+        Random r = new Random(2);
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 200; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(10), r.nextInt(10) }));
+        }
+        ArrayList<Predicate> ps = new ArrayList<Predicate>();
+        ps.add(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(3)));
+        ps.add(new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(6)));
+        CompiledPredicate a = PredicateCompiler.compile(ps.get(0), td);
+        CompiledPredicate b = PredicateCompiler.compile(ps.get(1), td);
+        check(PredicateCompiler.and(a, b), ps, true, tuples);
+        check(PredicateCompiler.compileAll(td, ps.get(0), ps.get(1)), ps, true, tuples);
+        check(PredicateCompiler.or(a, b), ps, false, tuples);
+    }
+
+    /** String predicates, including equality on the serialized bytes. */
+    @Test public void strings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        String[] values = { "", "a", "ab", "abc", "b", "ba" };
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < values.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(values[i], Type.STRING_LEN));
+            tuples.add(t);
+        }
+        for (Predicate.Op op : OPS) {
+            Predicate p = new Predicate(1, op, new StringField("ab", Type.STRING_LEN));
+            ArrayList<Predicate> ps = new ArrayList<Predicate>();
+            ps.add(p);
+            check(PredicateCompiler.compile(p, td), ps, true, tuples);
+        }
+    }
+
+    /** A predicate on a field that does not exist, or of the wrong type. */
+    @Test public void badPredicates() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        try {
+            PredicateCompiler.compile(new Predicate(2, Predicate.Op.EQUALS, new IntField(1)), td);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            PredicateCompiler.compile(new Predicate(0, Predicate.Op.EQUALS,
+                    new StringField("a", Type.STRING_LEN)), td);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /** BatchFilter returns the tuples of its child that match. */
+    @Test public void batchFilter() throws Exception {
+        int[] data = new int[2 * 3000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 7;
+        }
+        DbIterator child = TestUtil.createTupleList(2, data);
+        BatchFilter f = new BatchFilter(child, new Predicate(0, Predicate.Op.EQUALS, new IntField(3)));
+        f.open();
+        int count = 0;
+        while (f.hasNext()) {
+            assertEquals(new IntField(3), f.next().getField(0));
+            count++;
+        }
+        f.rewind();
+        int batched = 0;
+        TupleBatch batch;
+        while ((batch = f.nextBatch()) != null) {
+            batched += batch.numSelected();
+        }
+        f.close();
+        assertEquals(count, batched);
+        int expected = 0;
+        for (int i = 0; i < data.length; i += 2) {
+            expected += data[i] == 3 ? 1 : 0;
+        }
+        assertEquals(expected, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateCompilerTest.class);
+    }
+}
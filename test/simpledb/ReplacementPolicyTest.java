@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+    private static final int HOT_PAGES = 8;
+    /** Longer than the pool, so a scan burst sweeps out an LRU-like pool. */
+    private static final int SCAN_BURST = 30;
+
+    private TestUtil.MemFile hot;
+    private TestUtil.MemFile scanned;
+    private TransactionId tid;
+
+    @Before public void addTables() {
+        hot = new TestUtil.MemFile(-20);
+        scanned = new TestUtil.MemFile(-21);
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(scanned, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    private void touchHot(BufferPool pool) throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++) {
+            pool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Alternate passes over a small hot table with bursts of a sequential
+     * scan over a big one.
+     * @return the hit ratio of the hot table after the warm up.
+     */
+    private double hotHitRatio(ReplacementPolicy policy) throws Exception {
+        BufferPool pool = new BufferPool(POOL_PAGES, policy);
+        int next = 0;
+        // warm up: short scans, so the hot pages get a chance to prove hot.
+        for (int round = 0; round < 10; round++) {
+            touchHot(pool);
+            for (int i = 0; i < HOT_PAGES; i++) {
+                pool.getPage(tid, new HeapPageId(scanned.getId(), next++), Permissions.READ_ONLY);
+            }
+        }
+        long hotHits = 0;
+        for (int round = 0; round < 50; round++) {
+            long before = pool.getHitCount();
+            touchHot(pool);
+            hotHits += pool.getHitCount() - before;
+            for (int i = 0; i < SCAN_BURST; i++) {
+                pool.getPage(tid, new HeapPageId(scanned.getId(), next++), Permissions.READ_ONLY);
+            }
+        }
+        return (double) hotHits / (50 * HOT_PAGES);
+    }
+
+    /**
+     * Unit test for BufferPool hit and miss counters.
+     */
+    @Test public void counters() throws Exception {
+        BufferPool pool = new BufferPool(POOL_PAGES);
+        touchHot(pool);
+        touchHot(pool);
+        assertEquals(HOT_PAGES, pool.getMissCount());
+        assertEquals(HOT_PAGES, pool.getHitCount());
+        assertEquals(0.5, pool.getHitRatio(), 1e-9);
+        assertEquals(0, pool.getEvictionCount());
+
+        for (int i = 0; i < POOL_PAGES; i++) {
+            pool.getPage(tid, new HeapPageId(scanned.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(HOT_PAGES, pool.getEvictionCount());
+
+        pool.resetStats();
+        assertEquals(0, pool.getHitCount());
+        assertEquals(0.0, pool.getHitRatio(), 1e-9);
+    }
+
+    /**
+     * Every policy must keep serving pages once the pool is full.
+     */
+    @Test public void evictsWhenFull() throws Exception {
+        ReplacementPolicy[] policies = new ReplacementPolicy[]{
+            new ClockPolicy(), new LruKPolicy(), new TwoQPolicy(), new ArcPolicy()};
+        for (ReplacementPolicy policy : policies) {
+            BufferPool pool = new BufferPool(POOL_PAGES, policy);
+            for (int i = 0; i < 10 * POOL_PAGES; i++) {
+                HeapPageId pid = new HeapPageId(scanned.getId(), i % (3 * POOL_PAGES));
+                assertEquals(pid, pool.getPage(tid, pid, Permissions.READ_ONLY).getId());
+            }
+            assertEquals(0, pool.getNumFreeFrames());
+            assertEquals(pool.getMissCount() - POOL_PAGES, pool.getEvictionCount());
+        }
+    }
+
+    /**
+     * Sequential scans must not flush the hot pages out of the scan
+     * resistant policies.
+     */
+    @Test public void scanResistance() throws Exception {
+        double clock = hotHitRatio(new ClockPolicy());
+        double lruk = hotHitRatio(new LruKPolicy());
+        double twoq = hotHitRatio(new TwoQPolicy());
+        double arc = hotHitRatio(new ArcPolicy());
+        System.out.printf("hot table hit ratio: CLOCK %.2f, LRU-2 %.2f, 2Q %.2f, ARC %.2f\n",
+                clock, lruk, twoq, arc);
+        assertTrue(clock < 0.1);
+        assertTrue(lruk > 0.9);
+        assertTrue(twoq > 0.9);
+        assertTrue(arc > 0.9);
+    }
+
+    /**
+     * LRU-2 evicts pages referenced once, least recently used first, before
+     * pages referenced twice, and remembers the references of evicted pages.
+     */
+    @Test public void lruKOrder() throws Exception {
+        ReplacementPolicy policy = new LruKPolicy();
+        policy.init(4);
+        ReplacementPolicy.FrameFilter all = new ReplacementPolicy.FrameFilter() {
+            public boolean isEvictable(int frame) {
+                return true;
+            }
+        };
+        for (int i = 0; i < 4; i++) {
+            policy.pageLoaded(i, new HeapPageId(hot.getId(), i));
+        }
+        policy.pageHit(0);
+        policy.pageHit(2);
+        policy.pageHit(1);
+        policy.pageHit(1);
+        assertEquals(3, policy.chooseVictim(all));
+        policy.pageEvicted(3);
+        // the hot pages go least recently used first
+        assertEquals(0, policy.chooseVictim(all));
+        policy.pageHit(0);
+        assertEquals(2, policy.chooseVictim(all));
+
+        // a page that comes back keeps its reference, and is hot at once
+        policy.pageEvicted(2);
+        policy.pageLoaded(2, new HeapPageId(hot.getId(), 2));
+        policy.pageLoaded(3, new HeapPageId(hot.getId(), 4));
+        assertEquals(3, policy.chooseVictim(all));
+        policy.pageEvicted(3);
+        // frames that cannot be evicted are skipped
+        assertEquals(1, policy.chooseVictim(all));
+        assertEquals(0, policy.chooseVictim(new ReplacementPolicy.FrameFilter() {
+            public boolean isEvictable(int frame) {
+                return frame != 1;
+            }
+        }));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.VARCHAR_TYPE};
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(TYPES, new String[]{"id", "name"});
+        pid = new HeapPageId(-1, 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN, Type.VARCHAR_TYPE));
+        return t;
+    }
+
+    private SlottedPage emptyPage() throws IOException {
+        return new SlottedPage(pid, td, SlottedPage.createEmptyPageData());
+    }
+
+    private static void assertTuple(int id, String name, Tuple t) {
+        assertEquals(id, ((IntField) t.getField(0)).getValue());
+        assertEquals(name, ((StringField) t.getField(1)).getValue());
+        assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+    }
+
+    @Test public void insertAndRead() throws Exception {
+        SlottedPage page = emptyPage();
+        assertEquals(0, page.getNumTuples());
+        int free = page.getFreeSpace();
+        Tuple t = tuple(7, "seven");
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        // 4 for the int, 4 + 5 for the string, 4 for the slot entry
+        assertEquals(free - 17, page.getFreeSpace());
+        page.insertTuple(tuple(8, ""));
+        assertEquals(2, page.getNumTuples());
+        assertTuple(7, "seven", page.getTuple(0));
+        assertTuple(8, "", page.getTuple(1));
+
+        // the bytes reproduce the page
+        SlottedPage copy = new SlottedPage(pid, td, page.getPageData().clone());
+        Iterator<Tuple> it = copy.iterator();
+        assertTuple(7, "seven", it.next());
+        Tuple last = it.next();
+        assertTuple(8, "", last);
+        assertEquals(new RecordId(pid, 1), last.getRecordId());
+        assertFalse(it.hasNext());
+    }
+
+    /** Short strings fill a page with several times the tuples of a HeapPage. */
+    @Test public void capacity() throws Exception {
+        SlottedPage page = emptyPage();
+        int n = 0;
+        while (page.fits(4 + 4 + 6)) {
+            page.insertTuple(tuple(n, "name" + (n % 100)));
+            n++;
+        }
+        int heapSlots = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n + " tuples", n > 5 * heapSlots);
+        try {
+            page.insertTuple(tuple(0, "too long for the room left on the page"));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+        assertEquals(n, page.getNumTuples());
+    }
+
+    /** Deletes close the gap at once, and keep the slots of other tuples. */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedPage page = emptyPage();
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = tuple(i, "name-" + i);
+            page.insertTuple(t);
+            added.add(t);
+        }
+        int free = page.getFreeSpace();
+        page.deleteTuple(added.get(3));
+        assertNull(added.get(3).getRecordId());
+        assertFalse(page.isSlotUsed(3));
+        // the record's bytes are free; the slot entry is kept
+        assertEquals(free + 4 + 4 + 6, page.getFreeSpace());
+        for (int i = 0; i < 10; i++) {
+            if (i != 3) {
+                assertTuple(i, "name-" + i, page.getTuple(i));
+            }
+        }
+        try {
+            page.deleteTuple(added.get(3));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        // the empty slot is used again
+        Tuple t = tuple(42, "a longer name than before");
+        page.insertTuple(t);
+        assertEquals(3, t.getRecordId().tupleno());
+        assertTuple(42, "a longer name than before", page.getTuple(3));
+
+        // deleting the last slots shrinks the directory
+        page.deleteTuple(added.get(9));
+        page.deleteTuple(added.get(8));
+        assertEquals(8, page.getNumSlots());
+        for (int i = 0; i < 8; i++) {
+            page.deleteTuple(page.getTuple(i));
+        }
+        assertEquals(0, page.getNumSlots());
+        assertArrayEquals(SlottedPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /** Setting a field of a tuple read from a page leaves the page and other tuples alone. */
+    @Test public void setField() throws Exception {
+        SlottedPage page = emptyPage();
+        page.insertTuple(tuple(1, "one"));
+        page.insertTuple(tuple(2, "two"));
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+        first.setField(1, new StringField("a much longer value", Type.STRING_LEN, Type.VARCHAR_TYPE));
+        assertTuple(1, "a much longer value", first);
+        assertTuple(2, "two", second);
+        assertTuple(1, "one", page.getTuple(0));
+    }
+
+    @Test public void badHeader() throws Exception {
+        byte[] data = SlottedPage.createEmptyPageData();
+        data[0] = 0x7f;
+        try {
+            new SlottedPage(pid, td, data);
+            fail("expected exception");
+        } catch (IOException e) {
+        }
+    }
+
+    /** Tuples inserted through a SlottedFile are scanned, and deleted, through the buffer pool. */
+    @Test public void slottedFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedFile sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int rows = 2000;
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = tuple(i, "row" + i);
+            sf.insertTuple(tid, t);
+            added.add(t);
+        }
+        assertTrue(sf.numPages() > 1);
+        Database.getBufferPool().flushAllPages();
+
+        for (int i = 0; i < rows; i += 2) {
+            sf.deleteTuple(tid, added.get(i));
+        }
+        int pages = sf.numPages();
+        for (int i = 0; i < rows; i += 2) {
+            sf.insertTuple(tid, tuple(i, "row" + i));
+        }
+        // the room freed by the deletes is used again
+        assertEquals(pages, sf.numPages());
+
+        SeqScan scan = new SeqScan(tid, sf.getId(), "s",
+                                   new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("row" + id, ((StringField) t.getField(1)).getValue());
+            ids.add(id);
+        }
+        scan.close();
+        Collections.sort(ids);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ids);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -243,6 +243,64 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * A page that lives only in memory, for buffer pool tests.
+     */
+    public static class MemPage implements Page {
+        private final PageId pid;
+
+        public MemPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return new byte[BufferPool.PAGE_SIZE];
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /**
+     * Stub DbFile that makes up MemPages instead of reading them, and
+     * counts how many it made.
+     */
+    @SuppressWarnings("serial")
+    public static class MemFile extends SkeletonFile {
+        private final java.util.concurrent.atomic.AtomicLong reads =
+            new java.util.concurrent.atomic.AtomicLong(0);
+
+        public MemFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(1));
+        }
+
+        @Override
+        public Page readPage(PageId id) {
+            reads.incrementAndGet();
+            return new MemPage(id);
+        }
+
+        /** @return the number of pages read so far. */
+        public long getReadCount() {
+            return reads.get();
+        }
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
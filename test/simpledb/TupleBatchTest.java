@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    /**
+     * Rows appended to a batch come back as equal tuples, and filtering
+     * through the selection vector drops rows.
+     */
+    @Test public void appendAndSelect() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        TupleBatch batch = new TupleBatch(td, 4);
+        assertEquals(4, batch.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            batch.append(Utility.getHeapTuple(new int[] { i, 10 * i }));
+        }
+        assertTrue(batch.isFull());
+        assertEquals(4, batch.numSelected());
+        assertEquals(30, batch.getIntColumn(1)[3]);
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { 2, 20 }), batch.getTuple(2)));
+
+        // keep the odd rows.
+        int[] sel = batch.getSelection();
+        int n = 0;
+        for (int k = 0; k < batch.numSelected(); k++) {
+            if ((batch.getInt(0, sel[k]) & 1) == 1) {
+                sel[n++] = sel[k];
+            }
+        }
+        batch.setNumSelected(n);
+        assertEquals(2, batch.numSelected());
+        assertEquals(1, sel[0]);
+        assertEquals(3, sel[1]);
+
+        batch.skipSelected(1);
+        assertEquals(1, batch.numSelected());
+        assertEquals(3, sel[0]);
+
+        try {
+            batch.append(Utility.getHeapTuple(new int[] { 5, 50 }));
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+        }
+
+        batch.clear();
+        assertEquals(0, batch.numRows());
+        assertEquals(0, batch.numSelected());
+    }
+
+    /**
+     * A batch keeps the RecordId of its rows.
+     */
+    @Test public void recordIds() {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(1));
+        Tuple t = Utility.getHeapTuple(new int[] { 7 });
+        RecordId rid = new RecordId(new HeapPageId(-1, 3), 5);
+        t.setRecordId(rid);
+        batch.append(t);
+        Tuple u = new Tuple(Utility.getTupleDesc(1));
+        u.setField(0, new IntField(8));
+        batch.append(u);
+        assertEquals(rid, batch.getTuple(0).getRecordId());
+        assertNull(batch.getTuple(1).getRecordId());
+    }
+
+    /**
+     * String columns are kept as fields.
+     */
+    @Test public void stringColumns() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleBatch batch = new TupleBatch(td);
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("one", Type.STRING_LEN));
+        batch.append(t);
+        assertTrue(batch.isIntColumn(0));
+        assertFalse(batch.isIntColumn(1));
+        assertEquals(new StringField("one", Type.STRING_LEN), batch.getFieldColumn(1)[0]);
+        assertTrue(TestUtil.compareTuples(t, batch.getTuple(0)));
+    }
+
+    /**
+     * BatchingIterator batches a tuple iterator; next() and nextBatch() can
+     * be mixed.
+     */
+    @Test public void batchingIterator() throws Exception {
+        int rows = TupleBatch.MAX_ROWS + 10;
+        int[] data = new int[2 * rows];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i;
+        }
+        BatchingIterator it = new BatchingIterator(TestUtil.createTupleList(2, data));
+        it.open();
+        assertEquals(0, ((IntField) it.next().getField(0)).getValue());
+        TupleBatch batch = it.nextBatch();
+        assertEquals(TupleBatch.MAX_ROWS, batch.numSelected());
+        assertEquals(2, batch.getInt(0, 0));
+        batch = it.nextBatch();
+        assertEquals(9, batch.numSelected());
+        assertNull(it.nextBatch());
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /** Produces the rows 0..n-1 of a one-column table in batches of 3. */
+    private static class CountingIterator extends AbstractBatchIterator {
+        private static final long serialVersionUID = 1L;
+        private final int n;
+        private final TupleBatch batch = new TupleBatch(Utility.getTupleDesc(1), 3);
+        private int next = -1;
+
+        CountingIterator(int n) {
+            this.n = n;
+        }
+
+        public void open() {
+            next = 0;
+            resetBatches();
+        }
+
+        protected TupleBatch fetchBatch() {
+            if (next < 0) {
+                throw new IllegalStateException("not open");
+            }
+            batch.clear();
+            while (!batch.isFull() && next < n) {
+                int row = batch.addRow(null, 0);
+                batch.getIntColumn(0)[row] = next++;
+            }
+            return batch.numRows() == 0 ? null : batch;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return batch.getTupleDesc();
+        }
+
+        public void close() {
+            next = -1;
+            resetBatches();
+        }
+    }
+
+    /**
+     * AbstractBatchIterator gives the tuples of the batches one by one, and
+     * nextBatch() resumes after the last tuple returned.
+     */
+    @Test public void abstractBatchIterator() throws Exception {
+        CountingIterator it = new CountingIterator(7);
+        it.open();
+        ArrayList<Integer> seen = new ArrayList<Integer>();
+        seen.add(((IntField) it.next().getField(0)).getValue());
+        TupleBatch batch = it.nextBatch();
+        assertEquals(2, batch.numSelected());
+        for (int k = 0; k < batch.numSelected(); k++) {
+            seen.add(batch.getInt(0, batch.getSelection()[k]));
+        }
+        while (it.hasNext()) {
+            seen.add(((IntField) it.next().getField(0)).getValue());
+        }
+        assertEquals(7, seen.size());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i, seen.get(i).intValue());
+        }
+        try {
+            it.next();
+            fail("expected exception");
+        } catch (NoSuchElementException e) {
+        }
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
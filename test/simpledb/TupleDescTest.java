@@ -172,6 +172,56 @@ public class TupleDescTest extends SimpleDbTestBase {
         assertFalse(intString.equals(singleInt2));
     }
 
+    /**
+     * Unit test for TupleDesc.getFieldOffset()
+     */
+    @Test public void getFieldOffset() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getFieldOffset(2));
+        try {
+            td.getFieldOffset(3);
+            Assert.fail("3 is not a valid field");
+        } catch (NoSuchElementException e) {
+            // expected to get here
+        }
+    }
+
+    /**
+     * Unit test for TupleDesc.project()
+     */
+    @Test public void project() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                                     new String[]{"a", "b", "c"});
+        TupleDesc p = td.project(new int[]{2, 1});
+        assertEquals(2, p.numFields());
+        assertEquals("c", p.getFieldName(0));
+        assertEquals(Type.STRING_TYPE, p.getFieldType(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), p.getSize());
+        assertEquals(Type.INT_TYPE.getLen(), p.getFieldOffset(1));
+        assertEquals(td, td.project(new int[]{0, 1, 2}));
+        try {
+            td.project(new int[]{3});
+            Assert.fail("3 is not a valid field");
+        } catch (NoSuchElementException e) {
+            // expected to get here
+        }
+    }
+
+    @Test public void testHashCode() {
+        TupleDesc td1 = Utility.getTupleDesc(3, "a");
+        TupleDesc td2 = Utility.getTupleDesc(3, "a");
+        assertEquals(td1, td2);
+        assertEquals(td1.hashCode(), td2.hashCode());
+        assertEquals(TupleDesc.merge(td1, td2).hashCode(), TupleDesc.merge(td2, td1).hashCode());
+
+        java.util.HashSet<TupleDesc> set = new java.util.HashSet<TupleDesc>();
+        set.add(td1);
+        assertTrue(set.contains(td2));
+        assertFalse(set.contains(Utility.getTupleDesc(3, "b")));
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,6 +1,6 @@
 package simpledb;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +57,56 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.getInt(), string fields and unset fields
+     */
+    @Test public void compactFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        assertNull(tup.getField(1));
+
+        tup.setField(0, new IntField(42));
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+        assertEquals(42, tup.getInt(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(1));
+        assertNull(tup.getField(2));
+
+        tup.setField(2, new StringField("de", Type.STRING_LEN));
+        tup.setField(1, new StringField("xyz", Type.STRING_LEN));
+        assertEquals(new StringField("xyz", Type.STRING_LEN), tup.getField(1));
+        assertEquals(new StringField("de", Type.STRING_LEN), tup.getField(2));
+        assertEquals("42\txyz\tde\n", tup.toString());
+
+        try {
+            tup.getInt(1);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * String fields of any maxSize fill their slot: shorter ones are
+     * padded, longer ones cut to the field length.
+     */
+    @Test public void stringFieldSizes() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        tup.setField(0, new StringField("a much longer value", Type.STRING_LEN));
+        tup.setField(0, new StringField("short", 5));
+        tup.setField(1, new IntField(7));
+        assertEquals("short", ((StringField) tup.getField(0)).getValue());
+        assertEquals(7, tup.getInt(1));
+
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 2 * Type.STRING_LEN; i++) {
+            big.append((char) ('a' + i % 26));
+        }
+        tup.setField(0, new StringField(big.toString(), 2 * Type.STRING_LEN));
+        assertEquals(big.substring(0, Type.STRING_LEN), ((StringField) tup.getField(0)).getValue());
+        assertEquals(7, tup.getInt(1));
+    }
+
     /**
      * JUnit suite target
      */
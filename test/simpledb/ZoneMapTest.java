@@ -0,0 +1,265 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private TransactionId tid;
+    private File file;
+    private HeapFile hf;
+    private int perPage;
+
+    /** A table of ROWS tuples (i, -i), loaded in order of i. */
+    @Before public void setUp() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        file = File.createTempFile("zones", ".dat");
+        file.deleteOnExit();
+        ZoneMap.fileFor(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, file);
+        perPage = (BufferPool.PAGE_SIZE * 8) / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        tid = new TransactionId();
+    }
+
+    private ArrayList<ArrayList<Integer>> scan(SeqScan scan) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(scan.next()));
+        }
+        scan.close();
+        return tuples;
+    }
+
+    /** @return the number of tuples of a scan, read in batches. */
+    private static int count(SeqScan scan) throws Exception {
+        int n = 0;
+        scan.open();
+        for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch()) {
+            n += b.numSelected();
+        }
+        scan.close();
+        return n;
+    }
+
+    private SeqScan scan(int field, Predicate.Op op, int v) {
+        return new SeqScan(tid, hf.getId(), "t", new Predicate(field, op, new IntField(v)));
+    }
+
+    @Test public void bounds() throws Exception {
+        ZoneMap z = hf.getZoneMap();
+        assertEquals(hf.numPages(), z.numPages());
+        for (int p = 0; p < z.numPages(); p++) {
+            int first = p * perPage;
+            int last = Math.min(ROWS, first + perPage) - 1;
+            assertEquals(last - first + 1, z.getUsedSlots(p));
+            assertEquals(first, z.getMin(p, 0));
+            assertEquals(last, z.getMax(p, 0));
+            assertEquals(-last, z.getMin(p, 1));
+            assertEquals(-first, z.getMax(p, 1));
+        }
+        try {
+            z.getMin(0, 2);
+            fail("no field 2");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test public void mayMatch() throws Exception {
+        ZoneMap z = hf.getZoneMap();
+        int last = perPage - 1;
+        assertTrue(z.mayMatch(0, new Predicate(0, Predicate.Op.EQUALS, new IntField(last))));
+        assertFalse(z.mayMatch(0, new Predicate(0, Predicate.Op.EQUALS, new IntField(perPage))));
+        assertFalse(z.mayMatch(0, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(last))));
+        assertTrue(z.mayMatch(0, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(last))));
+        assertFalse(z.mayMatch(1, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(perPage))));
+        assertTrue(z.mayMatch(1, new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(perPage))));
+        assertTrue(z.mayMatch(0, new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(0))));
+        assertFalse(z.mayMatch(0, new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0))));
+        // pages beyond the map may hold anything
+        assertTrue(z.mayMatch(z.numPages(), new Predicate(0, Predicate.Op.EQUALS, new IntField(-1))));
+    }
+
+    @Test public void scanSkipsPages() throws Exception {
+        int pages = hf.numPages();
+        SeqScan s = scan(0, Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10);
+        ArrayList<ArrayList<Integer>> result = scan(s);
+        assertEquals(10, result.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ROWS - 10 + i, (int) result.get(i).get(0));
+        }
+        assertEquals(1, s.getPagesRead());
+        assertEquals(pages - 1, s.getPagesSkipped());
+
+        s = scan(0, Predicate.Op.LESS_THAN, perPage + 1);
+        assertEquals(perPage + 1, count(s));
+        assertEquals(2, s.getPagesRead());
+
+        s = scan(1, Predicate.Op.EQUALS, -2 * perPage);
+        assertEquals(1, count(s));
+        assertEquals(1, s.getPagesRead());
+
+        s = scan(0, Predicate.Op.NOT_EQUALS, 3);
+        assertEquals(ROWS - 1, count(s));
+        assertEquals(pages, s.getPagesRead());
+        assertEquals(0, s.getPagesSkipped());
+
+        s = scan(0, Predicate.Op.GREATER_THAN, ROWS);
+        assertEquals(0, count(s));
+        assertEquals(0, s.getPagesRead());
+
+        // no predicate: every tuple of every page
+        s = new SeqScan(tid, hf.getId(), "t");
+        assertEquals(ROWS, count(s));
+        assertEquals(pages, s.getPagesRead());
+    }
+
+    @Test public void rewind() throws Exception {
+        SeqScan s = scan(0, Predicate.Op.LESS_THAN, 3);
+        s.open();
+        assertTrue(s.hasNext());
+        s.next();
+        s.rewind();
+        int n = 0;
+        while (s.hasNext()) {
+            s.next();
+            n++;
+        }
+        s.close();
+        assertEquals(3, n);
+    }
+
+    /** Inserts widen the entry of their page, and writes make it exact. */
+    @Test public void insertAndWrite() throws Exception {
+        ZoneMap z = hf.getZoneMap();
+        HeapPageId pid = new HeapPageId(hf.getId(), hf.numPages() - 1);
+        int used = z.getUsedSlots(pid.pageNumber());
+        Tuple t = Utility.getHeapTuple(new int[]{-5, 1000000});
+        // the last page is the only one with empty slots
+        HeapPage page = (HeapPage) hf.insertTuple(tid, t).get(0);
+        assertEquals(pid, page.getId());
+        assertEquals(used + 1, z.getUsedSlots(pid.pageNumber()));
+        assertEquals(-5, z.getMin(pid.pageNumber(), 0));
+        assertEquals(1000000, z.getMax(pid.pageNumber(), 1));
+
+        SeqScan s = scan(1, Predicate.Op.GREATER_THAN, 0);
+        ArrayList<ArrayList<Integer>> result = scan(s);
+        assertEquals(1, result.size());
+        assertEquals(Arrays.asList(-5, 1000000), result.get(0));
+        assertEquals(1, s.getPagesRead());
+
+        // deletes take effect once the page is written
+        hf.deleteTuple(tid, t);
+        assertEquals(-5, z.getMin(pid.pageNumber(), 0));
+        Database.getBufferPool().flushAllPages();
+        int first = pid.pageNumber() * perPage;
+        assertEquals(used, z.getUsedSlots(pid.pageNumber()));
+        assertEquals(first, z.getMin(pid.pageNumber(), 0));
+        assertEquals(-first, z.getMax(pid.pageNumber(), 1));
+        assertEquals(0, count(scan(1, Predicate.Op.GREATER_THAN, 0)));
+    }
+
+    @Test public void sideFile() throws Exception {
+        // written by the loader, for the file as it is
+        File zm = ZoneMap.fileFor(file);
+        assertTrue(zm.exists());
+        ZoneMap z = ZoneMap.load(file, hf.getTupleDesc().fieldTypes());
+        assertNotNull(z);
+        assertEquals(hf.numPages(), z.numPages());
+        assertEquals(ROWS - 1, z.getMax(z.numPages() - 1, 0));
+
+        // another schema
+        assertNull(ZoneMap.load(file, Utility.getTypes(3)));
+
+        // a changed heap file
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() + BufferPool.PAGE_SIZE);
+        raf.close();
+        assertNull(ZoneMap.load(file, hf.getTupleDesc().fieldTypes()));
+
+        // not made until it is needed
+        zm.delete();
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        reopened.close();
+        assertFalse(zm.exists());
+
+        // rebuilt when missing, and saved on close
+        reopened = Utility.openHeapFile(2, file);
+        assertEquals(hf.numPages(), reopened.getZoneMap().numPages());
+        assertEquals(0, reopened.getZoneMap().getUsedSlots(hf.numPages() - 1));
+        reopened.close();
+        z = ZoneMap.load(file, hf.getTupleDesc().fieldTypes());
+        assertNotNull(z);
+        assertEquals(hf.numPages(), z.numPages());
+    }
+
+    /** Inserts into a full file go to a new page, whose entry covers them. */
+    @Test public void insertNewPage() throws Exception {
+        int pages = hf.numPages();
+        int free = ((HeapPage) Database.getBufferPool().getPage(tid,
+            new HeapPageId(hf.getId(), pages - 1), Permissions.READ_ONLY)).getNumEmptySlots();
+        for (int i = 0; i <= free; i++) {
+            hf.insertTuple(tid, Utility.getHeapTuple(new int[]{ROWS + i, 1}));
+        }
+        assertEquals(pages + 1, hf.numPages());
+        ZoneMap z = hf.getZoneMap();
+        assertEquals(1, z.getUsedSlots(pages));
+        assertEquals(ROWS + free, z.getMin(pages, 0));
+        SeqScan s = scan(0, Predicate.Op.EQUALS, ROWS + free);
+        assertEquals(1, count(s));
+        assertEquals(1, s.getPagesRead());
+    }
+
+    /**
+     * The side file is deleted by the first write after it was loaded, so
+     * a crash before close() cannot leave a stale map behind, even when
+     * the heap file keeps its length and time.
+     */
+    @Test public void sideFileInvalidatedByWrite() throws Exception {
+        File zm = ZoneMap.fileFor(file);
+        hf.getZoneMap();
+        long length = file.length();
+        long modified = file.lastModified();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple t = page.getTuple(0);
+        page.deleteTuple(t);
+        hf.writePage(page);
+        assertFalse(zm.exists());
+        file.setLastModified(modified);
+        assertEquals(length, file.length());
+        assertNull(ZoneMap.load(file, hf.getTupleDesc().fieldTypes()));
+
+        // a new HeapFile of the file builds an exact map
+        HeapFile reopened = new HeapFile(file, hf.getTupleDesc());
+        assertEquals(perPage - 1, reopened.getZoneMap().getUsedSlots(0));
+        assertEquals(1, reopened.getZoneMap().getMin(0, 0));
+
+        // saved on close, and deleted again by the next write
+        hf.close();
+        assertTrue(zm.exists());
+        assertEquals(perPage - 1, ZoneMap.load(file, hf.getTupleDesc().fieldTypes()).getUsedSlots(0));
+        hf.writePage(page);
+        assertFalse(zm.exists());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Times a scan-and-filter over a cached table two ways: SeqScan.next() and
+ * a test on the IntField of each tuple, and SeqScan.nextBatch() and a loop
+ * over the int column that compacts the selection vector. Rounds of the
+ * two alternate, and the best round of each is reported, for filters that
+ * keep from 1% to all of the tuples.
+ */
+public class BatchScanBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 500000;
+    private static final int ROUNDS = 7;
+    private static final int MAX_VALUE = 1000;
+
+    /** Count the tuples with field 0 below a bound, one tuple at a time. */
+    private static int filterTuples(SeqScan scan, int bound) throws Exception {
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(0)).getValue() < bound) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Count the tuples with field 0 below a bound, a batch at a time. */
+    private static int filterBatches(SeqScan scan, int bound) throws Exception {
+        scan.rewind();
+        int count = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            int[] col = batch.getIntColumn(0);
+            int[] sel = batch.getSelection();
+            int n = 0;
+            for (int k = 0, len = batch.numSelected(); k < len; k++) {
+                int row = sel[k];
+                sel[n] = row;
+                n += col[row] < bound ? 1 : 0;
+            }
+            batch.setNumSelected(n);
+            count += n;
+        }
+        return count;
+    }
+
+    @Test public void scanAndFilter() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+        Database.resetBufferPool(f.numPages() + 10);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+
+        for (int bound : new int[]{MAX_VALUE / 100, MAX_VALUE / 2, MAX_VALUE}) {
+            int expected = 0;
+            for (ArrayList<Integer> t : tuples) {
+                expected += t.get(0) < bound ? 1 : 0;
+            }
+            long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+            for (int round = 0; round < ROUNDS + 2; round++) {
+                long start = System.nanoTime();
+                assertEquals(expected, filterTuples(scan, bound));
+                long mid = System.nanoTime();
+                assertEquals(expected, filterBatches(scan, bound));
+                // the first rounds warm up the pool and the JIT
+                if (round >= 2) {
+                    best[0] = Math.min(best[0], mid - start);
+                    best[1] = Math.min(best[1], System.nanoTime() - mid);
+                }
+            }
+            System.out.printf("scan and filter, %3d%% kept: tuples %,12.0f rows/s, "
+                    + "batches %,12.0f rows/s (x%.1f)\n",
+                    100 * bound / MAX_VALUE, ROWS / (best[0] / 1e9), ROWS / (best[1] / 1e9),
+                    (double) best[0] / best[1]);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchScanBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that batch scans return the same tuples as tuple-at-a-time scans.
+ * BatchScanBenchmarkTest times the two on a scan-and-filter query.
+ */
+public class BatchScanTest extends SimpleDbTestBase {
+    private static final int ROUNDS = 20;
+
+    /** Batches give the table's tuples, also when mixed with next(). */
+    @Test public void matchTuples() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        int count = 0;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(tuples.get(count++), SystemTestUtil.tupleToList(scan.next()));
+        }
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            assertTrue(batch.numSelected() <= TupleBatch.MAX_ROWS);
+            int[] sel = batch.getSelection();
+            for (int k = 0; k < batch.numSelected(); k++) {
+                Tuple t = batch.getTuple(sel[k]);
+                assertEquals(tuples.get(count++), SystemTestUtil.tupleToList(t));
+                assertNotNull(t.getRecordId());
+            }
+        }
+        assertEquals(tuples.size(), count);
+        assertFalse(scan.hasNext());
+
+        scan.rewind();
+        SystemTestUtil.matchTuples(new BatchingIterator(scan), tuples);
+        scan.close();
+    }
+
+    /**
+     * Compares Predicate.filter on tuples with a compiled predicate on
+     * batches, for a conjunction over two columns.
+     */
+    @Test public void compiledFilter() throws Exception {
+        int rows = 200000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, tuples);
+        Database.resetBufferPool(f.numPages() + 10);
+        Predicate p0 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+        Predicate p1 = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(250));
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            expected += t.get(0) < 500 && t.get(1) >= 250 ? 1 : 0;
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        BatchFilter filter = new BatchFilter(scan,
+                PredicateCompiler.compileAll(scan.getTupleDesc(), p0, p1));
+        filter.open();
+        double[] secs = new double[2];
+        for (int round = -1; round < ROUNDS; round++) {
+            // round -1 warms up the pool and the JIT
+            long start = System.nanoTime();
+            scan.rewind();
+            int count = 0;
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                if (p0.filter(t) && p1.filter(t)) {
+                    count++;
+                }
+            }
+            assertEquals(expected, count);
+            long mid = System.nanoTime();
+            filter.rewind();
+            count = 0;
+            TupleBatch batch;
+            while ((batch = filter.nextBatch()) != null) {
+                count += batch.numSelected();
+            }
+            assertEquals(expected, count);
+            if (round >= 0) {
+                secs[0] += (mid - start) / 1e9;
+                secs[1] += (System.nanoTime() - mid) / 1e9;
+            }
+        }
+        filter.close();
+
+        System.out.printf("two-column filter: Predicate.filter %,.0f rows/s, compiled %,.0f rows/s (x%.1f)\n",
+                ROUNDS * rows / secs[0], ROUNDS * rows / secs[1], secs[0] / secs[1]);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchScanTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Measures how many getPage calls per second the BufferPool serves when
+ * many threads hit and fill it at once. The BufferPool, with its default
+ * partitions and with a single one, is compared against the locking of
+ * the pool it replaced: one synchronized map of all pages, locked for
+ * every lookup and held while a page is read.
+ */
+public class BufferPoolThroughputTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 256;
+    /** Twice the pool size, so about half of the requests miss. */
+    private static final int TABLE_PAGES = 512;
+    private static final long RUN_MILLIS = 200;
+    private static final int[] THREADS = new int[]{1, 4, 16, 64};
+    /** The runs of each pool per workload, taken in turns; the best one counts. */
+    private static final int ROUNDS = 3;
+
+    /** How long a read of the slow file blocks, like a read from disk. */
+    private static final long READ_NANOS = 100000;
+
+    private TestUtil.MemFile file;
+    private TestUtil.MemFile slowFile;
+
+    @Before public void addTable() {
+        file = new TestUtil.MemFile(-17);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        slowFile = new TestUtil.MemFile(-18) {
+            @Override
+            public Page readPage(PageId id) {
+                LockSupport.parkNanos(READ_NANOS);
+                return super.readPage(id);
+            }
+        };
+        Database.getCatalog().addTable(slowFile, SystemTestUtil.getUUID());
+    }
+
+    /** The getPage call of the pools being compared. */
+    private interface Pool {
+        Page getPage(TransactionId tid, PageId pid) throws Exception;
+    }
+
+    private static Pool bufferPool(final BufferPool pool) {
+        return new Pool() {
+            public Page getPage(TransactionId tid, PageId pid) throws Exception {
+                return pool.getPage(tid, pid, Permissions.READ_ONLY);
+            }
+        };
+    }
+
+    /**
+     * A pool locked like the one the partitioned BufferPool replaced: a
+     * single monitor guards the map of all pages and the CLOCK state, and
+     * is held while a missing page is read.
+     */
+    private static class SynchronizedMapPool implements Pool {
+        private final HashMap<PageId, Integer> slotOf = new HashMap<PageId, Integer>();
+        private final Page[] pages;
+        private final boolean[] referenced;
+        private int hand = 0;
+        private int used = 0;
+
+        SynchronizedMapPool(int numPages) {
+            pages = new Page[numPages];
+            referenced = new boolean[numPages];
+        }
+
+        public synchronized Page getPage(TransactionId tid, PageId pid) {
+            Integer slot = slotOf.get(pid);
+            if (slot != null) {
+                referenced[slot] = true;
+                return pages[slot];
+            }
+            int i;
+            if (used < pages.length) {
+                i = used++;
+            } else {
+                while (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) % pages.length;
+                }
+                i = hand;
+                hand = (hand + 1) % pages.length;
+                slotOf.remove(pages[i].getId());
+            }
+            pages[i] = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+            referenced[i] = true;
+            slotOf.put(pid, i);
+            return pages[i];
+        }
+    }
+
+    /** @return getPage calls per second, over the first tablePages pages of a table. */
+    private double run(final Pool pool, int threads, final int tableid, final int tablePages)
+            throws Exception {
+        final AtomicLong ops = new AtomicLong(0);
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        final long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Random r = new Random(t);
+            workers.add(new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    long n = 0;
+                    try {
+                        while (System.currentTimeMillis() < deadline) {
+                            for (int i = 0; i < 256; i++) {
+                                HeapPageId pid = new HeapPageId(tableid, r.nextInt(tablePages));
+                                Page p = pool.getPage(tid, pid);
+                                if (!pid.equals(p.getId())) {
+                                    throw new AssertionError("got page " + p.getId() + " for " + pid);
+                                }
+                            }
+                            n += 256;
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                    ops.addAndGet(n);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+        if (!errors.isEmpty()) {
+            throw new RuntimeException(errors.get(0));
+        }
+        return ops.get() / secs;
+    }
+
+    /**
+     * Compare the BufferPool, with one partition and with the default
+     * number, against a single synchronized map, when all requests hit,
+     * when about half of them miss, and when half of them miss and every
+     * read blocks.
+     */
+    @Test public void testThroughput() throws Exception {
+        System.out.printf("Runtime.availableProcessors() = %d\n", Runtime.getRuntime().availableProcessors());
+        TestUtil.MemFile[] tables = {file, file, slowFile};
+        int[] tablePages = {POOL_PAGES, TABLE_PAGES, TABLE_PAGES};
+        for (int w = 0; w < tables.length; w++) {
+            System.out.printf("%d pages in a pool of %d%s:\n", tablePages[w], POOL_PAGES,
+                    tables[w] == slowFile ? ", reads block " + READ_NANOS / 1000 + "us" : "");
+            for (int threads : THREADS) {
+                double[] best = new double[3];
+                for (int round = 0; round < ROUNDS; round++) {
+                    // the pools start full, so the pages read to fill them do not count.
+                    Pool[] pools = {new SynchronizedMapPool(POOL_PAGES),
+                                    bufferPool(new BufferPool(POOL_PAGES, 1)),
+                                    bufferPool(new BufferPool(POOL_PAGES))};
+                    for (int i = 0; i < pools.length; i++) {
+                        TransactionId tid = new TransactionId();
+                        for (int pg = 0; pg < POOL_PAGES; pg++) {
+                            pools[i].getPage(tid, new HeapPageId(tables[w].getId(), pg));
+                        }
+                        best[i] = Math.max(best[i], run(pools[i], threads, tables[w].getId(), tablePages[w]));
+                    }
+                }
+                System.out.printf("  %2d threads: synchronized map %,11.0f gets/s, BufferPool 1 partition %,11.0f (x%.2f), "
+                        + "%d partitions %,11.0f (x%.2f)\n",
+                        threads, best[0], best[1], best[1] / best[0],
+                        BufferPool.DEFAULT_STRIPES, best[2], best[2] / best[0]);
+                assertTrue(best[0] > 0 && best[1] > 0 && best[2] > 0);
+            }
+        }
+    }
+
+    /** Many threads asking for the same missing pages read each page once. */
+    @Test public void testConcurrentFill() throws Exception {
+        final BufferPool pool = new BufferPool(TABLE_PAGES);
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        for (int t = 0; t < 16; t++) {
+            workers.add(new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        for (int i = 0; i < TABLE_PAGES; i++) {
+                            HeapPageId pid = new HeapPageId(file.getId(), i);
+                            assertEquals(pid, pool.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        assertTrue(errors.isEmpty());
+        assertEquals(TABLE_PAGES, file.getReadCount());
+        assertEquals(0, pool.getNumFreeFrames());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolThroughputTest.class);
+    }
+}
@@ -0,0 +1,250 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Appends tuples with HeapFile.bulkAppend and checks that committed
+ * appends survive a crash and aborted ones leave no tuples, and compares
+ * the time and log volume with inserting through the buffer pool.
+ */
+public class BulkAppendTest extends SimpleDbTestBase {
+    private File file;
+    private HeapFile table;
+    /** The tuples the table must hold. */
+    private ArrayList<ArrayList<Integer>> expected;
+
+    @Before public void createTable() throws Exception {
+        expected = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 300, 1000, null, expected);
+        file.deleteOnExit();
+        table = Utility.openHeapFile(2, file);
+    }
+
+    /** Lose the buffer pool and restart from the files on disk. */
+    private void crash() throws IOException {
+        Database.reset();
+        table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+    }
+
+    private TransactionId begin() throws IOException {
+        TransactionId tid = new TransactionId();
+        Database.getLogFile().logXactionBegin(tid);
+        return tid;
+    }
+
+    /** @return n tuples of the table, with values from first on. */
+    private static ArrayList<Tuple> tuples(int first, int n) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            tuples.add(Utility.getHeapTuple(new int[]{first + i, -i}));
+        }
+        return tuples;
+    }
+
+    private void append(TransactionId tid, ArrayList<Tuple> tuples) throws Exception {
+        assertEquals(tuples.size(), table.bulkAppend(tid, tuples.iterator()));
+    }
+
+    private void expect(ArrayList<Tuple> tuples) {
+        for (Tuple t : tuples) {
+            expected.add(SystemTestUtil.tupleToList(t));
+        }
+    }
+
+    /** One APPEND record per batch, and the pages are full. */
+    @Test public void appendCommit() throws Exception {
+        int pagesBefore = table.numPages();
+        int records = Database.getLogFile().getTotalRecords();
+        int perPage = Database.getCatalog().getHAS(table.getId())[1];
+        int n = perPage * (HeapFile.BULK_APPEND_PAGES + 10) + 1;
+        TransactionId tid = begin();
+        ArrayList<Tuple> tuples = tuples(10000, n);
+        append(tid, tuples);
+        Database.getLogFile().logCommit(tid);
+        expect(tuples);
+
+        assertEquals(pagesBefore + HeapFile.BULK_APPEND_PAGES + 11, table.numPages());
+        // BEGIN, two APPENDs and COMMIT
+        assertEquals(records + 4, Database.getLogFile().getTotalRecords());
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /** Rolling back empties the appended pages. */
+    @Test public void rollback() throws Exception {
+        TransactionId tid = begin();
+        append(tid, tuples(10000, 5000));
+        Database.getLogFile().rollback(tid);
+        Database.getLogFile().logAbort(tid);
+        SystemTestUtil.matchTuples(table, expected);
+
+        // and a later append goes after the emptied pages
+        TransactionId t2 = begin();
+        ArrayList<Tuple> tuples = tuples(20000, 100);
+        append(t2, tuples);
+        Database.getLogFile().logCommit(t2);
+        expect(tuples);
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /**
+     * One transaction aborts, and writes the emptied pages to the file,
+     * over and over while another appends to the same file: neither may
+     * wait for the other forever.
+     */
+    @Test public void abortDuringAppend() throws Exception {
+        final int rounds = 200;
+        final ArrayList<Tuple> committed = new ArrayList<Tuple>();
+        final Throwable[] failure = new Throwable[2];
+        Thread appender = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        TransactionId tid = begin();
+                        ArrayList<Tuple> tuples = tuples(100000 + 100 * i, 100);
+                        append(tid, tuples);
+                        Database.getLogFile().logCommit(tid);
+                        committed.addAll(tuples);
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        Thread aborter = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        TransactionId tid = begin();
+                        append(tid, tuples(200000 + 100 * i, 100));
+                        Database.getLogFile().logAbort(tid);
+                    }
+                } catch (Throwable e) {
+                    failure[1] = e;
+                }
+            }
+        };
+        // daemons, so that threads stuck on each other do not outlive the test
+        appender.setDaemon(true);
+        aborter.setDaemon(true);
+        appender.start();
+        aborter.start();
+        appender.join(60000);
+        aborter.join(60000);
+        assertFalse("the appender is stuck", appender.isAlive());
+        assertFalse("the aborter is stuck", aborter.isAlive());
+        assertNull(failure[0]);
+        assertNull(failure[1]);
+        expect(committed);
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /** A tuple of another schema fails the append. */
+    @Test public void wrongSchema() throws Exception {
+        ArrayList<Tuple> tuples = tuples(0, 10);
+        tuples.add(Utility.getHeapTuple(1, 3));
+        try {
+            table.bulkAppend(begin(), tuples.iterator());
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    @Test public void crashRestart() throws Exception {
+        // committed
+        TransactionId t1 = begin();
+        ArrayList<Tuple> committed = tuples(10000, 3000);
+        append(t1, committed);
+        Database.getLogFile().logCommit(t1);
+        expect(committed);
+
+        // running at the crash
+        TransactionId t2 = begin();
+        append(t2, tuples(20000, 3000));
+
+        // checkpointed, then committed after a running one appended
+        TransactionId t3 = begin();
+        Database.getLogFile().logCheckpoint();
+        ArrayList<Tuple> late = tuples(30000, 200);
+        append(t3, late);
+        Database.getLogFile().logCommit(t3);
+        expect(late);
+
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+
+        // a crash after rolling back, before the emptied pages are on
+        // disk: the CLR empties them again
+        TransactionId t4 = begin();
+        append(t4, tuples(40000, 500));
+        byte[] appended = Files.readAllBytes(file.toPath());
+        Database.getLogFile().rollback(t4);
+        Files.write(file.toPath(), appended);
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /**
+     * Time and log volume of appending with bulkAppend and of inserting
+     * into pages of the buffer pool and logging each insert.
+     */
+    @Test public void compareInserts() throws Exception {
+        final int n = 200000;
+        LogFile log = Database.getLogFile();
+
+        long size = log.getLogSize();
+        long start = System.nanoTime();
+        TransactionId tid = begin();
+        table.bulkAppend(tid, tuples(0, n).iterator());
+        log.logCommit(tid);
+        double bulkSecs = (System.nanoTime() - start) / 1e9;
+        long bulkLog = log.getLogSize() - size;
+
+        size = log.getLogSize();
+        start = System.nanoTime();
+        tid = begin();
+        int pgNo = table.numPages();
+        HeapPage page = null;
+        Iterator<Tuple> it = tuples(0, n).iterator();
+        while (it.hasNext()) {
+            if (page == null || page.getNumEmptySlots() == 0) {
+                if (page != null) {
+                    Database.getBufferPool().flushPages(tid);
+                }
+                table.writePage(new HeapPage(new HeapPageId(table.getId(), pgNo), HeapPage.createEmptyPageData()));
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(table.getId(), pgNo++), Permissions.READ_WRITE);
+            }
+            page.insertTuple(it.next());
+            page.markDirty(true, tid);
+            log.logWrite(tid, page.getBeforeImage(), page);
+            page.setBeforeImage();
+        }
+        Database.getBufferPool().flushPages(tid);
+        log.logCommit(tid);
+        double poolSecs = (System.nanoTime() - start) / 1e9;
+        long poolLog = log.getLogSize() - size;
+
+        System.out.printf("bulkAppend: %,10.0f tuples/s, %,10d bytes of log\n", n / bulkSecs, bulkLog);
+        System.out.printf("per insert: %,10.0f tuples/s, %,10d bytes of log\n", n / poolSecs, poolLog);
+        assertTrue(bulkLog * 100 < poolLog);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkAppendTest.class);
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Loads a text file of ints and strings with HeapFileLoader on 1, 2 and 4
+ * threads, and reports the load rate in MB of text per second. The input
+ * is small enough to stay in the OS cache, so this measures parsing and
+ * page encoding, not the disk.
+ */
+public class BulkLoadBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 400000;
+
+    @Test public void loadRate() throws Exception {
+        File in = File.createTempFile("bulkload", ".txt");
+        in.deleteOnExit();
+        Random r = new Random(0);
+        Writer w = new BufferedWriter(new FileWriter(in), 1 << 16);
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i + "," + (r.nextInt() >> r.nextInt(32)) + ",name" + r.nextInt(1000000)
+                    + "," + r.nextInt(1000) + "\n");
+        }
+        w.close();
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+        byte[] first = null;
+        System.out.printf("%,d bytes of text\nthreads       MB/s   tuples/s\n", in.length());
+        for (int threads : new int[]{1, 2, 4, 1, 2, 4}) {
+            File out = File.createTempFile("bulkload", ".dat");
+            out.deleteOnExit();
+            HeapFileLoader loader = new HeapFileLoader(types, BufferPool.PAGE_SIZE, ',');
+            loader.setThreads(threads);
+            long start = System.nanoTime();
+            long tuples = loader.load(in, out);
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%7d %10.1f %,10.0f\n", threads, in.length() / secs / (1 << 20), tuples / secs);
+            assertEquals(ROWS, tuples);
+
+            // every thread count writes the same file
+            byte[] data = Files.readAllBytes(out.toPath());
+            if (first == null) {
+                first = data;
+            } else {
+                assertTrue(Arrays.equals(first, data));
+            }
+            out.delete();
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkLoadBenchmarkTest.class);
+    }
+}
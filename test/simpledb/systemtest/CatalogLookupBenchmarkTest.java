@@ -0,0 +1,59 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.TestUtil.SkeletonFile;
+
+/**
+ * Measures Catalog lookups by name and by id with few and with many
+ * tables, and checks that every name finds its table. Lookups are hash
+ * lookups, so the rate should barely change.
+ */
+public class CatalogLookupBenchmarkTest extends SimpleDbTestBase {
+    private static final int LOOKUPS = 2000000;
+
+    /** @return lookups per second in a catalog of n tables. */
+    private double lookups(int n) {
+        Catalog c = new Catalog();
+        String[] names = new String[n];
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            names[i] = "table" + i;
+            c.addTable(new SkeletonFile(i, Utility.getTupleDesc(2)), names[i]);
+        }
+        double addSecs = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            int id = c.getTableId(names[i % n]);
+            sum += c.getTupleDesc(id).numFields();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        assertEquals(2L * LOOKUPS, sum);
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, c.getTableId(names[i]));
+            assertEquals(names[i], c.getTableName(i));
+        }
+        System.out.printf("%,7d tables: added in %7.2fms, %,12.0f lookups/s\n", n, addSecs * 1000,
+                LOOKUPS / secs);
+        return LOOKUPS / secs;
+    }
+
+    @Test public void lookupRate() {
+        // warm up
+        lookups(10);
+        double few = lookups(10);
+        double many = lookups(10000);
+        // timings vary with the machine; they are reported, not checked.
+        System.out.printf("10,000 tables: x%.2f the lookup rate of 10\n", many / few);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CatalogLookupBenchmarkTest.class);
+    }
+}
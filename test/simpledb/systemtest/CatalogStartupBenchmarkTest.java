@@ -0,0 +1,88 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Measures the startup of a catalog of 10,000 tables from a text schema with
+ * Catalog.loadSchema and from a catalog file with Catalog.loadCatalog, and
+ * the first use of the lazily loaded tables. Checks that loadCatalog
+ * decodes no schema, and that a table used afterwards has the schema it
+ * was saved with.
+ */
+public class CatalogStartupBenchmarkTest extends SimpleDbTestBase {
+    private static final int TABLES = 10000;
+
+    @Test public void startupTime() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(schema));
+        for (int i = 0; i < TABLES; i++) {
+            w.write("table" + i + " (id int pk, name string, a" + i + " int, b int, c int)\n");
+        }
+        w.close();
+        File catalogFile = new File(dir, "catalog");
+        catalogFile.deleteOnExit();
+        PrintStream stdout = System.out;
+        PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+        System.setOut(quiet);
+        Catalog text = new Catalog();
+        text.loadSchema(schema.getPath());
+        System.setOut(stdout);
+        text.saveCatalog(catalogFile);
+
+        double schemaSecs = Double.MAX_VALUE, catalogSecs = Double.MAX_VALUE, useSecs = 0;
+        for (int round = 0; round < 3; round++) {
+            // loadSchema prints every table; time the parsing, not the console
+            System.setOut(quiet);
+            long start = System.nanoTime();
+            text = new Catalog();
+            text.loadSchema(schema.getPath());
+            schemaSecs = Math.min(schemaSecs, (System.nanoTime() - start) / 1e9);
+            System.setOut(stdout);
+
+            start = System.nanoTime();
+            Catalog binary = new Catalog();
+            binary.loadCatalog(catalogFile);
+            catalogSecs = Math.min(catalogSecs, (System.nanoTime() - start) / 1e9);
+
+            // names and ids are there at once; no schema is decoded yet
+            for (int i = 0; i < TABLES; i++) {
+                int id = binary.getTableId("table" + i);
+                assertEquals(text.getTableId("table" + i), id);
+                assertEquals("table" + i, binary.getTableName(id));
+                assertFalse(binary.isLoaded(id));
+            }
+
+            // using a table loads it, and only it
+            start = System.nanoTime();
+            for (int i = 0; i < TABLES; i += 2) {
+                int id = binary.getTableId("table" + i);
+                assertEquals(text.getTupleDesc(id), binary.getTupleDesc(id));
+                assertTrue(binary.isLoaded(id));
+                assertEquals(0, binary.getNumPages(id));
+                assertEquals(0, binary.getNumTuples(id));
+                assertEquals("id", binary.getPrimaryKey(id));
+                assertEquals(binary.getTupleDesc(id), binary.getDbFile(id).getTupleDesc());
+                assertFalse(binary.isLoaded(binary.getTableId("table" + (i + 1))));
+            }
+            useSecs = (System.nanoTime() - start) / 1e9 * 2;
+        }
+        // timings vary with the machine; they are reported, not checked.
+        System.out.printf("%,d tables: loadSchema %7.2fms, loadCatalog %7.2fms, first use of all %7.2fms\n",
+                TABLES, schemaSecs * 1000, catalogSecs * 1000, useSecs * 1000);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CatalogStartupBenchmarkTest.class);
+    }
+}
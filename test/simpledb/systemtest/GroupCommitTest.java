@@ -0,0 +1,144 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Commits transactions from many threads at once, with every commit forcing
+ * the log itself and with group commit, and reports commits/s and the
+ * 99th percentile commit latency.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    /** The log segment header: magic, version and start LSN. */
+    private static final int LOG_HEADER = 4 + 4 + 8;
+    /**
+     * BEGIN and COMMIT records: length, checksum, type, tid and start
+     * offset each.
+     */
+    private static final int BYTES_PER_XACTION = 2 * (4 + 4 + 1 + 8 + 8);
+    /** The runs of each commit mode per number of committers. */
+    private static final int ROUNDS = 3;
+
+    /** Result of one run: commits/s and the sorted commit latencies in ns. */
+    private static class Run {
+        double rate;
+        long[] latencies;
+
+        long percentile(double p) {
+            return latencies[(int) Math.min(latencies.length - 1, p * latencies.length)];
+        }
+    }
+
+    /**
+     * Run perThread transactions on each of threads threads against a new
+     * log, and check that every record made it to the log.
+     */
+    private Run commit(boolean group, int batch, long delayMicros, int threads, final int perThread)
+            throws Exception {
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        final LogFile log = new LogFile(f);
+        log.setGroupCommit(group);
+        log.setGroupCommitPolicy(batch, delayMicros);
+
+        final long[][] latencies = new long[threads][perThread];
+        final Throwable[] error = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long[] mine = latencies[i];
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < perThread; j++) {
+                            TransactionId tid = new TransactionId();
+                            long start = System.nanoTime();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                            mine[j] = System.nanoTime() - start;
+                            // the commit record must be on disk when logCommit returns
+                            if (log.getDurableLsn() < LOG_HEADER + BYTES_PER_XACTION) {
+                                throw new AssertionError("commit returned before the log was forced");
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (error) {
+                            error[0] = t;
+                        }
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (error[0] != null) {
+            throw new AssertionError(error[0]);
+        }
+
+        int commits = threads * perThread;
+        assertEquals(2 * commits, log.getTotalRecords());
+        assertEquals(LOG_HEADER + (long) commits * BYTES_PER_XACTION, log.getLogSize());
+        assertEquals(log.getAppendedLsn(), log.getDurableLsn());
+        SystemTestUtil.deleteLog(f);
+
+        Run run = new Run();
+        run.rate = commits / (elapsed / 1e9);
+        run.latencies = new long[commits];
+        for (int i = 0; i < threads; i++) {
+            System.arraycopy(latencies[i], 0, run.latencies, i * perThread, perThread);
+        }
+        Arrays.sort(run.latencies);
+        return run;
+    }
+
+    /** @return the run with the higher commit rate. */
+    private static Run best(Run a, Run b) {
+        return a == null || b.rate > a.rate ? b : a;
+    }
+
+    /** A batch that never fills must still be forced after the delay. */
+    @Test public void delayedBatch() throws Exception {
+        Run one = commit(true, 16, 2000, 1, 20);
+        assertTrue(one.percentile(0.5) >= 2000 * 1000);
+        commit(true, 4, 2000, 8, 20);
+    }
+
+    @Test public void compareCommitModes() throws Exception {
+        // warm up the JIT
+        commit(false, 1, 0, 4, 50);
+        commit(true, 1, 0, 4, 50);
+
+        System.out.println("committers     forced each            group commit");
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            int perThread = Math.max(10, 400 / threads);
+            // forces take very different times from run to run; keep the
+            // best of a few runs of each mode, taken in turns.
+            Run each = null;
+            Run group = null;
+            for (int round = 0; round < ROUNDS; round++) {
+                each = best(each, commit(false, 1, 0, threads, perThread));
+                group = best(group, commit(true, LogFile.DEFAULT_GROUP_COMMIT_BATCH, 0, threads, perThread));
+            }
+            System.out.printf("%10d %,9.0f/s p99 %6.2fms %,9.0f/s p99 %6.2fms (x%.1f)\n",
+                    threads, each.rate, each.percentile(0.99) / 1e6,
+                    group.rate, group.percentile(0.99) / 1e6, group.rate / each.rate);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
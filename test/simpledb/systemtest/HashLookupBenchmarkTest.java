@@ -0,0 +1,107 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Bulk loads a hash table from a heap file of 100M rows, and compares the
+ * latency of equality lookups on the key through a PredicateScan, which
+ * reads the key's bucket, and through a SeqScan and a filter. Each lookup
+ * reads the header, one directory page and one bucket page.
+ * <p>
+ * This takes about a minute and 2 GB of temporary files, so it is only run
+ * by the benchmark target; HashLookupTest checks the same lookups on a
+ * small table.
+ */
+public class HashLookupBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 100000000;
+
+    /** @return the number of tuples of a query, read in batches. */
+    private static long count(BatchDbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        for (TupleBatch b = it.nextBatch(); b != null; b = it.nextBatch()) {
+            n += b.numSelected();
+        }
+        it.close();
+        return n;
+    }
+
+    @Test public void lookupLatency() throws Exception {
+        final Random r = new Random(0);
+        File heapFile = File.createTempFile("keys", ".dat");
+        heapFile.deleteOnExit();
+        HeapFile hf = Utility.openHeapFile(2, heapFile);
+        TransactionId tid = new TransactionId();
+        Database.getLogFile().logXactionBegin(tid);
+        long start = System.nanoTime();
+        hf.bulkAppend(tid, new Iterator<Tuple>() {
+            private int i = 0;
+
+            public boolean hasNext() {
+                return i < ROWS;
+            }
+
+            public Tuple next() {
+                return Utility.getHeapTuple(new int[]{i++, r.nextInt()});
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Database.getLogFile().logCommit(tid);
+        double appendSecs = (System.nanoTime() - start) / 1e9;
+
+        File hashFile = File.createTempFile("hash", ".dat");
+        hashFile.deleteOnExit();
+        HashFile hash = new HashFile(hashFile, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hash, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+        start = System.nanoTime();
+        assertEquals(ROWS, hash.bulkLoad(tid, hf));
+        double loadSecs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d rows: heap file in %.1fs, hash table bulk loaded in %.1fs, %,d pages\n",
+                ROWS, appendSecs, loadSecs, hash.numPages());
+
+        Predicate[] points = new Predicate[1000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Predicate(0, Predicate.Op.EQUALS, new IntField(r.nextInt(ROWS)));
+        }
+
+        // one warm-up query each
+        PredicateScan lookup = new PredicateScan(tid, hash.getId(), "t", points[0]);
+        assertTrue(lookup.usesIndex());
+        assertEquals(1, count(lookup));
+        assertEquals(1, count(new BatchFilter(new SeqScan(tid, hf.getId(), "t"), points[0])));
+
+        start = System.nanoTime();
+        for (Predicate p : points) {
+            assertEquals(1, count(new PredicateScan(tid, hash.getId(), "t", p)));
+        }
+        double indexPoint = (System.nanoTime() - start) / 1e6 / points.length;
+        start = System.nanoTime();
+        for (int i = 1; i < 3; i++) {
+            assertEquals(1, count(new BatchFilter(new SeqScan(tid, hf.getId(), "t"), points[i])));
+        }
+        double seqPoint = (System.nanoTime() - start) / 1e6 / 2;
+
+        System.out.printf("point query: hash lookup %9.3fms, SeqScan+filter %9.1fms\n", indexPoint, seqPoint);
+        hf.close();
+        hash.close();
+        heapFile.delete();
+        hashFile.delete();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashLookupBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Bulk loads a hash table from a heap file, inserts enough tuples to split
+ * buckets and double the directory, and checks that equality lookups on
+ * the key go through the index and find the same tuples as a SeqScan.
+ */
+public class HashLookupTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+
+    /** @return the number of tuples of a query, read in batches. */
+    private static long count(BatchDbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        for (TupleBatch b = it.nextBatch(); b != null; b = it.nextBatch()) {
+            n += b.numSelected();
+        }
+        it.close();
+        return n;
+    }
+
+    private static int globalDepth(TransactionId tid, HashFile hash) throws Exception {
+        HashHeaderPage header = (HashHeaderPage) Database.getBufferPool().getPage(tid,
+            new HashPageId(hash.getId(), 0, HashPageId.HEADER), Permissions.READ_ONLY);
+        return header.getGlobalDepth();
+    }
+
+    @Test public void lookups() throws Exception {
+        // inserts keep their pages dirty in the pool.
+        Database.resetBufferPool(4000);
+        Random r = new Random(0);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HashMap<Integer, Integer> keys = new HashMap<Integer, Integer>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 2 * ROWS, null, tuples);
+        for (ArrayList<Integer> t : tuples) {
+            Integer n = keys.get(t.get(0));
+            keys.put(t.get(0), n == null ? 1 : n + 1);
+        }
+
+        File hashFile = File.createTempFile("hash", ".dat");
+        hashFile.deleteOnExit();
+        HashFile hash = new HashFile(hashFile, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hash, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, hash.bulkLoad(tid, hf));
+        int loadedDepth = globalDepth(tid, hash);
+        int loadedPages = hash.numPages();
+
+        // as many again, to split buckets and double the directory
+        for (int i = 0; i < ROWS; i++) {
+            int key = r.nextInt(2 * ROWS);
+            hash.insertTuple(tid, Utility.getHeapTuple(new int[]{key, i}));
+            Integer n = keys.get(key);
+            keys.put(key, n == null ? 1 : n + 1);
+        }
+        assertTrue(hash.numPages() > loadedPages);
+        assertTrue(globalDepth(tid, hash) > loadedDepth);
+        assertEquals(2 * ROWS, count(new PredicateScan(tid, hash.getId(), "t",
+            new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(Integer.MIN_VALUE)))));
+
+        for (int i = 0; i < 200; i++) {
+            int key = i < 100 ? tuples.get(r.nextInt(ROWS)).get(0) : r.nextInt(2 * ROWS);
+            Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(key));
+            Integer expected = keys.get(key);
+            PredicateScan lookup = new PredicateScan(tid, hash.getId(), "t", p);
+            assertTrue(lookup.usesIndex());
+            assertEquals("key " + key, expected == null ? 0 : (long) expected, count(lookup));
+        }
+
+        // a predicate the index does not serve scans the table
+        Predicate range = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        PredicateScan scan = new PredicateScan(tid, hash.getId(), "t", range);
+        assertFalse(scan.usesIndex());
+        long expected = 0;
+        for (Map.Entry<Integer, Integer> e : keys.entrySet()) {
+            expected += e.getKey() < 100 ? e.getValue() : 0;
+        }
+        assertEquals(expected, count(scan));
+        hash.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashLookupTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Bulk loads a B+ tree from a sorted table of 10M rows, and compares the
+ * latency of point and range queries with an IndexScan and with a SeqScan
+ * and a filter. The files are small enough to stay in the OS cache, so
+ * this measures the pages read, not the disk.
+ * <p>
+ * This takes several seconds, so it is only run by the benchmark target.
+ * It prints the latencies, and checks only the results of the queries.
+ */
+public class IndexScanBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000000;
+    /** The number of rows a range query returns. */
+    private static final int RANGE = 10000;
+
+    /** @return the number of tuples of a query, read in batches. */
+    private static long count(BatchDbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        for (TupleBatch b = it.nextBatch(); b != null; b = it.nextBatch()) {
+            n += b.numSelected();
+        }
+        it.close();
+        return n;
+    }
+
+    /** Check that a query returns the keys from first to last, in order, each once. */
+    private static void checkKeys(BatchDbIterator it, int first, int last) throws Exception {
+        int next = first;
+        it.open();
+        for (TupleBatch b = it.nextBatch(); b != null; b = it.nextBatch()) {
+            int[] sel = b.getSelection();
+            for (int k = 0; k < b.numSelected(); k++) {
+                assertEquals(next, b.getInt(0, sel[k]));
+                next++;
+            }
+        }
+        it.close();
+        assertEquals(last + 1, next);
+    }
+
+    @Test public void queryLatency() throws Exception {
+        final Random r = new Random(0);
+        File heapFile = File.createTempFile("sorted", ".dat");
+        heapFile.deleteOnExit();
+        HeapFile hf = Utility.openHeapFile(2, heapFile);
+        TransactionId tid = new TransactionId();
+        Database.getLogFile().logXactionBegin(tid);
+        long start = System.nanoTime();
+        hf.bulkAppend(tid, new Iterator<Tuple>() {
+            private int i = 0;
+
+            public boolean hasNext() {
+                return i < ROWS;
+            }
+
+            public Tuple next() {
+                return Utility.getHeapTuple(new int[]{i++, r.nextInt()});
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Database.getLogFile().logCommit(tid);
+        double appendSecs = (System.nanoTime() - start) / 1e9;
+
+        File treeFile = File.createTempFile("btree", ".dat");
+        treeFile.deleteOnExit();
+        BTreeFile bf = new BTreeFile(treeFile, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+        start = System.nanoTime();
+        assertEquals(ROWS, bf.bulkLoad(tid, hf));
+        double loadSecs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d rows: heap file in %.1fs, B+ tree bulk loaded in %.1fs, %,d pages\n",
+                ROWS, appendSecs, loadSecs, bf.numPages());
+
+        Predicate[] points = new Predicate[1000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Predicate(0, Predicate.Op.EQUALS, new IntField(r.nextInt(ROWS)));
+        }
+        Predicate range = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - RANGE));
+
+        // one warm-up query each
+        assertEquals(1, count(new IndexScan(tid, bf.getId(), "t", points[0])));
+        assertEquals(1, count(new BatchFilter(new SeqScan(tid, hf.getId(), "t"), points[0])));
+
+        start = System.nanoTime();
+        for (Predicate p : points) {
+            assertEquals(1, count(new IndexScan(tid, bf.getId(), "t", p)));
+        }
+        double indexPoint = (System.nanoTime() - start) / 1e6 / points.length;
+        start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, count(new BatchFilter(new SeqScan(tid, hf.getId(), "t"), points[i])));
+        }
+        double seqPoint = (System.nanoTime() - start) / 1e6 / 3;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(RANGE, count(new IndexScan(tid, bf.getId(), "t", range)));
+        }
+        double indexRange = (System.nanoTime() - start) / 1e6 / 20;
+        start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(RANGE, count(new BatchFilter(new SeqScan(tid, hf.getId(), "t"), range)));
+        }
+        double seqRange = (System.nanoTime() - start) / 1e6 / 3;
+
+        System.out.printf("point query: IndexScan %9.3fms, SeqScan+filter %9.1fms\n", indexPoint, seqPoint);
+        System.out.printf("range query: IndexScan %9.3fms, SeqScan+filter %9.1fms (%,d rows)\n",
+                indexRange, seqRange, RANGE);
+
+        // the queries return the right keys, in key order
+        for (int i = 0; i < 10; i++) {
+            int key = ((IntField) points[i].getOperand()).getValue();
+            checkKeys(new IndexScan(tid, bf.getId(), "t", points[i]), key, key);
+        }
+        checkKeys(new IndexScan(tid, bf.getId(), "t", range), ROWS - RANGE, ROWS - 1);
+        Predicate below = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(RANGE));
+        checkKeys(new IndexScan(tid, bf.getId(), "t", below), 0, RANGE - 1);
+        assertEquals(0, count(new IndexScan(tid, bf.getId(), "t",
+            new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS)))));
+        hf.close();
+        bf.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexScanBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Measures how long a checkpoint takes when truncation drops most of a
+ * large log of UPDATE records, and how long it stalls a thread that keeps
+ * committing meanwhile, against a plain copy of the log, which a rewrite
+ * of the log would take at the least.
+ */
+public class LogTruncateBenchmarkTest extends SimpleDbTestBase {
+    private static final int UPDATES = 4000;
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    /** @return MB/s of copying f to a new file and forcing it. */
+    private double copy(File f) throws IOException {
+        File to = File.createTempFile("logcopy", ".log");
+        to.deleteOnExit();
+        long start = System.nanoTime();
+        InputStream in = new FileInputStream(f);
+        FileOutputStream out = new FileOutputStream(to);
+        byte[] buf = new byte[1 << 20];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        out.getChannel().force(true);
+        out.close();
+        in.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        to.delete();
+        return f.length() / secs / (1 << 20);
+    }
+
+    @Test public void truncate() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, null, new ArrayList<ArrayList<Integer>>());
+        Page page = table.readPage(new HeapPageId(table.getId(), 0));
+        byte[] changed = page.getPageData().clone();
+        changed[changed.length - 1]++;
+        Page after = new HeapPage((HeapPageId) page.getId(), changed);
+
+        for (int round = 0; round < 3; round++) {
+            File f = File.createTempFile("logtruncate", ".log");
+            f.deleteOnExit();
+            final LogFile log = new LogFile(f);
+            log.setDeltaUpdates(false);
+            log.setSegmentSize(SEGMENT_SIZE);
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int i = 0; i < UPDATES; i++) {
+                log.logWrite(tid, page, after);
+            }
+            log.logCommit(tid);
+            // the page is on disk, so recovery needs none of the records
+            log.pageFlushed(page.getId());
+            long length = log.getLogSize();
+            double copyRate = copy(log.segmentFile(0));
+
+            // commit from another thread meanwhile, and record the longest commit
+            final long[] longest = new long[1];
+            final boolean[] stop = new boolean[1];
+            final IOException[] error = new IOException[1];
+            Thread committer = new Thread() {
+                public void run() {
+                    try {
+                        while (true) {
+                            synchronized (stop) {
+                                if (stop[0]) {
+                                    return;
+                                }
+                            }
+                            long start = System.nanoTime();
+                            TransactionId t = new TransactionId();
+                            log.logXactionBegin(t);
+                            log.logCommit(t);
+                            long took = System.nanoTime() - start;
+                            synchronized (stop) {
+                                longest[0] = Math.max(longest[0], took);
+                            }
+                        }
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            committer.start();
+            Thread.sleep(20);
+            long start = System.nanoTime();
+            log.logCheckpoint();
+            double secs = (System.nanoTime() - start) / 1e9;
+            synchronized (stop) {
+                stop[0] = true;
+            }
+            committer.join();
+            assertNull(error[0]);
+
+            // only the segment of the checkpoint is left
+            assertTrue(log.getLogSize() <= SEGMENT_SIZE);
+            assertFalse(log.segmentFile(0).exists());
+
+            System.out.printf("log of %,d bytes in %d segments: checkpoint %6.2fms, longest commit %6.2fms,"
+                    + " copying the log %,6.0fms\n", length, length / SEGMENT_SIZE + 1, secs * 1000,
+                    longest[0] / 1e6, length / copyRate / (1 << 20) * 1000);
+            SystemTestUtil.deleteLog(f);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogTruncateBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Inserts tuples one at a time and logs every page change, once with both
+ * page images per update and once with DELTA records, and compares the
+ * volume of log written.
+ */
+public class LogVolumeBenchmarkTest extends SimpleDbTestBase {
+    private static final int TRANSACTIONS = 500;
+    private static final int INSERTS_PER_TRANSACTION = 10;
+
+    /** @return the bytes of log written for the inserts. */
+    private long insert(HeapFile table, int columns, boolean deltas) throws Exception {
+        File f = File.createTempFile("logvolume", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        log.setDeltaUpdates(deltas);
+
+        int pgNo = 0;
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), pgNo), HeapPage.createEmptyPageData());
+        page.setBeforeImage();
+        long start = System.nanoTime();
+        for (int t = 0; t < TRANSACTIONS; t++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int i = 0; i < INSERTS_PER_TRANSACTION; i++) {
+                if (page.getNumEmptySlots() == 0) {
+                    page = new HeapPage(new HeapPageId(table.getId(), ++pgNo), HeapPage.createEmptyPageData());
+                    page.setBeforeImage();
+                }
+                page.insertTuple(Utility.getHeapTuple(t * INSERTS_PER_TRANSACTION + i, columns));
+                log.logWrite(tid, page.getBeforeImage(), page);
+                page.setBeforeImage();
+            }
+            log.logCommit(tid);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        int inserts = TRANSACTIONS * INSERTS_PER_TRANSACTION;
+        long length = log.getLogSize();
+        System.out.printf("%d columns, %-11s %,12d bytes of log, %,6d bytes/insert, %,8.0f inserts/s\n",
+                columns, deltas ? "deltas:" : "full pages:", length, length / inserts,
+                inserts / secs);
+        SystemTestUtil.deleteLog(f);
+        return length;
+    }
+
+    @Test public void insertVolume() throws Exception {
+        for (int columns : new int[]{2, 10}) {
+            HeapFile table = SystemTestUtil.createRandomHeapFile(columns, 0, null,
+                    new ArrayList<ArrayList<Integer>>());
+            long full = insert(table, columns, false);
+            long delta = insert(table, columns, true);
+            System.out.printf("%d columns: DELTA records are %.1fx smaller\n", columns, (double) full / delta);
+            assertTrue(delta * 10 < full);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogVolumeBenchmarkTest.class);
+    }
+}
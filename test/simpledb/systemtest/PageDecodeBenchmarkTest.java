@@ -0,0 +1,75 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Times decoding HeapPages: building a page from its bytes and reading
+ * every tuple, as a scan does for each page it gets from disk. Also times
+ * the TupleDesc lookups done per field.
+ */
+public class PageDecodeBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROUNDS = 5;
+
+    @Test public void decode() throws Exception {
+        for (int columns : new int[]{2, 10, 40}) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(columns, 20000, 1000, null, tuples);
+            int pages = f.numPages();
+            byte[][] data = new byte[pages][];
+            for (int i = 0; i < pages; i++) {
+                data[i] = f.readPage(new HeapPageId(f.getId(), i)).getPageData().clone();
+            }
+
+            long best = Long.MAX_VALUE;
+            int count = 0;
+            for (int round = 0; round < ROUNDS + 2; round++) {
+                long start = System.nanoTime();
+                count = 0;
+                long sum = 0;
+                for (int i = 0; i < pages; i++) {
+                    HeapPage page = new HeapPage(new HeapPageId(f.getId(), i), data[i]);
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        sum += ((IntField) t.getField(columns - 1)).getValue();
+                        count++;
+                    }
+                }
+                assertTrue(sum >= 0);
+                // the first rounds warm up the JIT
+                if (round >= 2) {
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+            }
+            assertEquals(tuples.size(), count);
+
+            TupleDesc td = f.getTupleDesc();
+            long lookups = 0;
+            long start = System.nanoTime();
+            for (int round = 0; round < 1000; round++) {
+                for (int i = 0; i < columns; i++) {
+                    lookups += td.getFieldType(i).getLen() + td.getSize();
+                }
+            }
+            double lookupNs = (System.nanoTime() - start) / (1000.0 * columns);
+            assertTrue(lookups > 0);
+
+            System.out.printf("%2d columns: decode %,10.0f pages/s %,12.0f tuples/s; "
+                    + "getFieldType+getSize %.1f ns\n",
+                    columns, pages / (best / 1e9), count / (best / 1e9), lookupNs);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageDecodeBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Compares the page access modes of HeapFile: positional FileChannel reads,
+ * mapped segments and RandomAccessFile seek+read, for sequential and random
+ * page access. The file is small enough to stay in the OS cache, so this
+ * measures the cost of the access path, not of the disk.
+ */
+public class PageIOBenchmarkTest extends SimpleDbTestBase {
+    private static final int PAGES = 2048;
+    private static final int ROUNDS = 5;
+
+    /** @return pages read per second. */
+    private double readAll(PageIO io, int[] order) throws Exception {
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int pgNo : order) {
+                ByteBuffer page = io.readPage(pgNo);
+                // touch both ends of the page, so a mapping is really read.
+                assertEquals((byte) pgNo, page.get(page.position()));
+                assertEquals(0, page.get(page.limit() - 1));
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        return ROUNDS * order.length / secs;
+    }
+
+    @Test public void compareModes() throws Exception {
+        File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        PageIO writer = PageIO.open(f, PageIO.Mode.POSITIONAL);
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        for (int i = 0; i < PAGES; i++) {
+            data[0] = (byte) i;
+            writer.writePage(i, data);
+        }
+        writer.close();
+
+        int[] sequential = new int[PAGES];
+        int[] random = new int[PAGES];
+        Random r = new Random(0);
+        for (int i = 0; i < PAGES; i++) {
+            sequential[i] = i;
+            random[i] = r.nextInt(PAGES);
+        }
+
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            PageIO io = PageIO.open(f, mode);
+            // warm up the OS cache and the JIT
+            readAll(io, sequential);
+            double seq = readAll(io, sequential);
+            double rnd = readAll(io, random);
+            System.out.printf("%-10s sequential %,10.0f pages/s, random %,10.0f pages/s\n",
+                    mode, seq, rnd);
+            io.close();
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageIOBenchmarkTest.class);
+    }
+}
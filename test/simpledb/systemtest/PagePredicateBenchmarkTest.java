@@ -0,0 +1,84 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Times a selective filter over HeapPages two ways: making every tuple of
+ * a page and testing it with Predicate.filter, and evaluating the
+ * predicate on the slot bytes with HeapPage.iterator(CompiledPredicate),
+ * which makes only the tuples that pass. Also reports the bytes allocated
+ * per page by each.
+ */
+public class PagePredicateBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROUNDS = 5;
+
+    /** @return the bytes allocated by this thread so far. */
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test public void filter() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 50000, 10000, null, tuples);
+        int pages = f.numPages();
+        HeapPage[] data = new HeapPage[pages];
+        for (int i = 0; i < pages; i++) {
+            data[i] = (HeapPage) f.readPage(new HeapPageId(f.getId(), i));
+        }
+        // about 1% of the tuples
+        Predicate pred = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(100));
+        CompiledPredicate compiled = PredicateCompiler.compile(pred, f.getTupleDesc());
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            expected += t.get(2) < 100 ? 1 : 0;
+        }
+
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+        long[] bytes = new long[2];
+        for (int round = 0; round < ROUNDS + 2; round++) {
+            for (int way = 0; way < 2; way++) {
+                long before = allocated();
+                long start = System.nanoTime();
+                int count = 0;
+                for (HeapPage page : data) {
+                    Iterator<Tuple> it = way == 0 ? page.iterator() : page.iterator(compiled);
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        if (way == 1 || pred.filter(t)) {
+                            count++;
+                        }
+                    }
+                }
+                long time = System.nanoTime() - start;
+                bytes[way] = allocated() - before;
+                assertEquals(expected, count);
+                // the first rounds warm up the JIT
+                if (round >= 2) {
+                    best[way] = Math.min(best[way], time);
+                }
+            }
+        }
+
+        System.out.printf("%,d of %,d tuples: Predicate.filter %,12.0f tuples/s %,8d bytes/page; "
+                + "on slot bytes %,12.0f tuples/s %,8d bytes/page\n",
+                expected, tuples.size(),
+                tuples.size() / (best[0] / 1e9), bytes[0] / pages,
+                tuples.size() / (best[1] / 1e9), bytes[1] / pages);
+        assertTrue(bytes[1] * 5 < bytes[0]);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PagePredicateBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans tables with ParallelSeqScan, like ScanTest does with SeqScan, and
+ * measures the speedup over thread counts.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    /** Run as many workers as asked for, whatever the number of cores. */
+    @Before public void allowWorkers() {
+        ParallelSeqScan.setMaxWorkers(8);
+    }
+
+    @After public void resetWorkers() {
+        ParallelSeqScan.setMaxWorkers(ParallelSeqScan.DEFAULT_MAX_WORKERS);
+    }
+
+    /** Tests the parallel scan for tables with the specified dimensions. */
+    private void validateScan(int[] columnSizes, int[] rowSizes, int threads, boolean ordered)
+            throws IOException, DbException, TransactionAbortedException {
+        for (int columns : columnSizes) {
+            for (int rows : rowSizes) {
+                ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+                HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, null, tuples);
+                TransactionId tid = new TransactionId();
+                ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "", threads, ordered);
+                if (ordered) {
+                    scan.open();
+                    for (ArrayList<Integer> t : tuples) {
+                        assertTrue(scan.hasNext());
+                        assertEquals(t, SystemTestUtil.tupleToList(scan.next()));
+                    }
+                    assertFalse(scan.hasNext());
+                    scan.close();
+                } else {
+                    SystemTestUtil.matchTuples(scan, tuples);
+                }
+                Database.getBufferPool().transactionComplete(tid);
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            }
+        }
+    }
+
+    /** Scan 1-3 columns in order, with tables from empty to several morsels. */
+    @Test public void testOrdered() throws IOException, DbException, TransactionAbortedException {
+        int[] columnSizes = new int[]{1, 2, 3};
+        int[] rowSizes = new int[]{0, 1, 1023, 1025, 20000};
+        validateScan(columnSizes, rowSizes, 4, true);
+    }
+
+    /** Scan without keeping the order, with one and several threads. */
+    @Test public void testUnordered() throws IOException, DbException, TransactionAbortedException {
+        int[] columnSizes = new int[]{1, 2};
+        int[] rowSizes = new int[]{0, 513, 20000};
+        validateScan(columnSizes, rowSizes, 1, false);
+        validateScan(columnSizes, rowSizes, 3, false);
+    }
+
+    /** Rewind and close in the middle of a scan. */
+    @Test public void testRewind() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50000, null, tuples);
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "table", 4);
+        scan.open();
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(scan.hasNext());
+            assertEquals(tuples.get(i), SystemTestUtil.tupleToList(scan.next()));
+        }
+        scan.rewind();
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(scan.hasNext());
+            assertEquals(tuples.get(i), SystemTestUtil.tupleToList(scan.next()));
+        }
+        scan.close();
+        try {
+            scan.hasNext();
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Times a full scan of a cached table over thread counts. The speedup
+     * depends on the cores of the machine, so it is only reported.
+     */
+    @Test public void testSpeedup() throws IOException, DbException, TransactionAbortedException {
+        int rows = 300000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, tuples);
+        Database.resetBufferPool(f.numPages() + 10);
+        TransactionId tid = new TransactionId();
+
+        // warm up the JIT before timing.
+        for (int round = 0; round < 3; round++) {
+            ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "", 1, round % 2 == 0);
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            scan.close();
+        }
+        // more workers than cores only take turns; time with the default cap.
+        ParallelSeqScan.setMaxWorkers(ParallelSeqScan.DEFAULT_MAX_WORKERS);
+        double base = 0;
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            for (boolean ordered : new boolean[]{true, false}) {
+                ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "", threads, ordered);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    scan.open();
+                    int count = 0;
+                    while (scan.hasNext()) {
+                        scan.next();
+                        count++;
+                    }
+                    scan.close();
+                    assertEquals(rows, count);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                double rate = rows / (best / 1e9);
+                if (base == 0) {
+                    base = rate;
+                }
+                System.out.printf("parallel scan %d threads (%d workers) %-9s %,12.0f tuples/s (x%.2f)\n",
+                        threads, Math.min(threads, ParallelSeqScan.getMaxWorkers()),
+                        ordered ? "ordered" : "unordered", rate, rate / base);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
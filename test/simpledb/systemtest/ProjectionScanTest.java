@@ -0,0 +1,164 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that a SeqScan given a subset of the columns returns just those
+ * fields of the right tuples, and reports the page decoding throughput
+ * of a wide table with string fields when all columns and when one int
+ * column are read.
+ */
+public class ProjectionScanTest extends SimpleDbTestBase {
+    private static final int ROUNDS = 5;
+    private static final Type[] WIDE = {
+        Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.INT_TYPE,
+        Type.STRING_TYPE, Type.STRING_TYPE };
+
+    /** @return a table of the WIDE schema, row i being (i, "s<i>", ..., i % 10, ...). */
+    private static HeapFile wideTable(int rows) throws IOException {
+        File text = File.createTempFile("wide", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < rows; i++) {
+            out.println(i + ",a" + i + ",b" + i + "," + (i % 10) + ",c" + i + ",d" + i);
+        }
+        out.close();
+        File f = File.createTempFile("wide", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.PAGE_SIZE, WIDE.length, WIDE);
+        String[] names = {"id", "a", "b", "mod", "c", "d"};
+        HeapFile hf = new HeapFile(f, new TupleDesc(WIDE, names));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    @Test public void projectedTuples() throws Exception {
+        int rows = 3000;
+        HeapFile hf = wideTable(rows);
+        TransactionId tid = new TransactionId();
+        Predicate mod = new Predicate(3, Predicate.Op.EQUALS, new IntField(7));
+        SeqScan scan = new SeqScan(tid, hf.getId(), "w", new int[]{4, 0}, mod);
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("w.c", td.getFieldName(0));
+        assertEquals(Type.INT_TYPE, td.getFieldType(1));
+
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int i = 10 * count + 7;
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals("c" + i, ((StringField) t.getField(0)).getValue());
+            assertEquals(i, ((IntField) t.getField(1)).getValue());
+            count++;
+        }
+        assertEquals(rows / 10, count);
+
+        // the same through batches
+        scan.rewind();
+        count = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            int[] sel = batch.getSelection();
+            for (int k = 0; k < batch.numSelected(); k++) {
+                int i = 10 * count + 7;
+                assertEquals(i, batch.getInt(1, sel[k]));
+                assertEquals(new StringField("c" + i, Type.STRING_LEN), batch.getField(0, sel[k]));
+                count++;
+            }
+        }
+        scan.close();
+        assertEquals(rows / 10, count);
+    }
+
+    /** Files other than HeapFiles are projected by the scan. */
+    @Test public void projectedHashFile() throws Exception {
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        HashFile hash = new HashFile(f, 0, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(hash, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            hash.insertTuple(tid, Utility.getHeapTuple(new int[]{i, -i, 2 * i}));
+        }
+        SeqScan scan = new SeqScan(tid, hash.getId(), "h", new int[]{2},
+                                   new Predicate(1, Predicate.Op.LESS_THAN, new IntField(-89)));
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            values.add(((IntField) t.getField(0)).getValue());
+        }
+        scan.close();
+        java.util.Collections.sort(values);
+        assertEquals(10, values.size());
+        for (int k = 0; k < 10; k++) {
+            assertEquals(2 * (90 + k), (int) values.get(k));
+        }
+    }
+
+    /**
+     * @return the sum of int column col of the tuples of some pages,
+     *         decoded into batches with the given columns.
+     */
+    private static long sum(HeapPage[] pages, TupleBatch batch, int[] columns, int col) {
+        long sum = 0;
+        for (HeapPage page : pages) {
+            int slot = 0;
+            do {
+                batch.clear();
+                slot = page.fillBatch(slot, batch, null, columns);
+                int[] values = batch.getIntColumn(col);
+                for (int row = 0; row < batch.numRows(); row++) {
+                    sum += values[row];
+                }
+            } while (batch.isFull());
+        }
+        return sum;
+    }
+
+    @Test public void wideDecode() throws Exception {
+        int rows = 100000;
+        HeapFile hf = wideTable(rows);
+        HeapPage[] pages = new HeapPage[hf.numPages()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+        }
+        int[] one = {0};
+        TupleBatch allBatch = new TupleBatch(hf.getTupleDesc());
+        TupleBatch oneBatch = new TupleBatch(hf.getTupleDesc().project(one));
+        long expected = (long) rows * (rows - 1) / 2;
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round < ROUNDS + 2; round++) {
+            long start = System.nanoTime();
+            assertEquals(expected, sum(pages, allBatch, null, 0));
+            long mid = System.nanoTime();
+            assertEquals(expected, sum(pages, oneBatch, one, 0));
+            // the first rounds warm up the JIT
+            if (round >= 2) {
+                best[0] = Math.min(best[0], mid - start);
+                best[1] = Math.min(best[1], System.nanoTime() - mid);
+            }
+        }
+
+        // timings vary with the machine; they are reported, not checked.
+        System.out.printf("%d columns, %d bytes/tuple: decode all columns %,.0f rows/s, "
+                + "one int column %,.0f rows/s (x%.1f)\n",
+                WIDE.length, hf.getTupleDesc().getSize(), rows / (best[0] / 1e9), rows / (best[1] / 1e9),
+                (double) best[0] / best[1]);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ProjectionScanTest.class);
+    }
+}
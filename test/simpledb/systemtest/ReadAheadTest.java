@@ -0,0 +1,123 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans a cold table whose page reads are made slow, with and without
+ * read-ahead, and reports the time and the prefetch counters.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 200;
+    /** Milliseconds each page read takes. */
+    private static final int READ_DELAY = 2;
+
+    /** A HeapFile that takes READ_DELAY ms to read a page. */
+    @SuppressWarnings("serial")
+    static class SlowHeapFile extends HeapFile {
+        public SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                Thread.sleep(READ_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /** Scan the table through its DbFileIterator and check its contents. */
+    private long scan(HeapFile table, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(tuples.get(count), SystemTestUtil.tupleToList(it.next()));
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private HeapFile createTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        HeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    @Test public void coldScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(tuples);
+
+        Database.resetBufferPool(2 * PAGES);
+        BufferPool pool = Database.getBufferPool();
+        pool.setReadAheadEnabled(false);
+        long off = scan(table, tuples);
+        assertEquals(PAGES, pool.getMissCount());
+        assertEquals(0, pool.getPrefetchCount());
+
+        Database.resetBufferPool(2 * PAGES);
+        pool = Database.getBufferPool();
+        pool.setReadAheadEnabled(true);
+        long on = scan(table, tuples);
+        assertTrue(pool.getPrefetchCount() > 0);
+        assertEquals(PAGES, pool.getMissCount() + pool.getPrefetchCount());
+        // every page read ahead is asked for by the scan.
+        assertEquals(pool.getPrefetchCount(), pool.getPrefetchHitCount());
+
+        System.out.printf("cold scan of %d pages: %d ms without read-ahead, %d ms with; "
+                + "%d pages prefetched, prefetch hit rate %.2f\n",
+                PAGES, off, on, pool.getPrefetchCount(), pool.getPrefetchHitRatio());
+    }
+
+    /** In a pool much smaller than the table, read-ahead stays within its budget. */
+    @Test public void smallPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool pool = Database.getBufferPool();
+        pool.setReadAheadEnabled(true);
+        scan(table, tuples);
+        assertTrue(pool.getPrefetchBudget() >= 0);
+        assertEquals(PAGES, pool.getMissCount() + pool.getPrefetchCount());
+        System.out.printf("scan of %d pages in a pool of %d: %d pages prefetched, "
+                + "prefetch hit rate %.2f\n",
+                PAGES, pool.getCapacity(), pool.getPrefetchCount(), pool.getPrefetchHitRatio());
+    }
+
+    /** Read-ahead is off in a new pool, and resetting the pool stops it in the old one. */
+    @Test public void resetStopsReadAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(tuples);
+
+        BufferPool old = Database.resetBufferPool(2 * PAGES);
+        assertFalse(old.isReadAheadEnabled());
+        old.setReadAheadEnabled(true);
+        BufferPool pool = Database.resetBufferPool(2 * PAGES);
+        assertFalse(old.isReadAheadEnabled());
+        assertFalse(old.prefetchPage(new TransactionId(), new HeapPageId(table.getId(), 0)));
+        scan(table, tuples);
+        assertEquals(0, pool.getPrefetchCount());
+        assertEquals(0, old.getPrefetchCount());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,363 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Crashes the database in the middle of transactions and checks that
+ * recover() keeps the changes of exactly the committed ones, and measures
+ * how restart time on a large log changes with the number of redo threads.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+    private static final int PAGES = 8;
+    private static final int TUPLES_PER_PAGE = 20;
+
+    private File file;
+    private HeapFile table;
+    /** The tuples the table must hold after recovery. */
+    private ArrayList<ArrayList<Integer>> expected;
+    private int nextValue = 1000000;
+
+    /** Create a table of PAGES pages with room left on every page. */
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("recovery", ".dat");
+        file.deleteOnExit();
+        table = Utility.openHeapFile(2, file);
+        expected = new ArrayList<ArrayList<Integer>>();
+        for (int pgNo = 0; pgNo < PAGES; pgNo++) {
+            HeapPage p = new HeapPage(new HeapPageId(table.getId(), pgNo), HeapPage.createEmptyPageData());
+            for (int i = 0; i < TUPLES_PER_PAGE; i++) {
+                Tuple t = Utility.getHeapTuple(new int[]{pgNo, i});
+                p.insertTuple(t);
+                expected.add(SystemTestUtil.tupleToList(t));
+            }
+            table.writePage(p);
+        }
+    }
+
+    /** Lose the buffer pool and restart from the files on disk. */
+    private void crash() throws IOException {
+        Database.reset();
+        table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+    }
+
+    private TransactionId begin() throws IOException {
+        TransactionId tid = new TransactionId();
+        Database.getLogFile().logXactionBegin(tid);
+        return tid;
+    }
+
+    private HeapPage page(TransactionId tid, int pgNo) throws Exception {
+        return (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(table.getId(), pgNo), Permissions.READ_WRITE);
+    }
+
+    /** Mark a changed page dirty and log the change, as operators do. */
+    private void logged(TransactionId tid, HeapPage p) throws IOException {
+        p.markDirty(true, tid);
+        Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
+        p.setBeforeImage();
+    }
+
+    /** @return the tuple inserted into page pgNo. */
+    private ArrayList<Integer> insert(TransactionId tid, int pgNo) throws Exception {
+        HeapPage p = page(tid, pgNo);
+        Tuple t = Utility.getHeapTuple(new int[]{pgNo, nextValue++});
+        p.insertTuple(t);
+        logged(tid, p);
+        return SystemTestUtil.tupleToList(t);
+    }
+
+    /** @return the first tuple on a page, or null if it is empty. */
+    private static Tuple firstTuple(HeapPage p) {
+        Iterator<Tuple> it = p.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /** @return the tuple deleted from page pgNo. */
+    private ArrayList<Integer> delete(TransactionId tid, int pgNo) throws Exception {
+        HeapPage p = page(tid, pgNo);
+        Tuple t = firstTuple(p);
+        ArrayList<Integer> deleted = SystemTestUtil.tupleToList(t);
+        p.deleteTuple(t);
+        logged(tid, p);
+        return deleted;
+    }
+
+    @Test public void crashRestart() throws Exception {
+        LogFile log = Database.getLogFile();
+        // small segments, so that checkpoints delete some and recovery
+        // reads across them
+        log.setSegmentSize(512);
+
+        // committed, with a page on disk before the commit
+        TransactionId t1 = begin();
+        ArrayList<Integer> t1Insert = insert(t1, 0);
+        ArrayList<Integer> t1Delete = delete(t1, 1);
+        Database.getBufferPool().flushPages(t1);
+        ArrayList<Integer> t1Insert2 = insert(t1, 0);
+        log.logCommit(t1);
+        expected.add(t1Insert);
+        expected.remove(t1Delete);
+        expected.add(t1Insert2);
+
+        // aborted while running, with its pages on disk
+        TransactionId t2 = begin();
+        insert(t2, 2);
+        delete(t2, 3);
+        Database.getBufferPool().flushPages(t2);
+        log.logAbort(t2);
+
+        log.logCheckpoint();
+
+        // running at the crash, with some pages on disk
+        TransactionId t3 = begin();
+        insert(t3, 1);
+        delete(t3, 4);
+        Database.getBufferPool().flushPages(t3);
+        insert(t3, 5);
+
+        // running at the crash, nothing on disk
+        TransactionId t4 = begin();
+        insert(t4, 2);
+        delete(t4, 2);
+
+        // committed, nothing on disk
+        TransactionId t5 = begin();
+        expected.add(insert(t5, 3));
+        expected.add(insert(t5, 6));
+        expected.remove(delete(t5, 6));
+        log.logCommit(t5);
+
+        // crashed while aborting: all changes undone, but no ABORT record
+        TransactionId t6 = begin();
+        insert(t6, 7);
+        delete(t6, 7);
+        log.rollback(t6);
+
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+
+        // a crash right after recovery changes nothing
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+
+        // and the log keeps working
+        TransactionId t7 = begin();
+        expected.add(insert(t7, 0));
+        Database.getLogFile().logCommit(t7);
+        TransactionId t8 = begin();
+        insert(t8, 0);
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /**
+     * Aborts a transaction after one of its pages was flushed in the middle
+     * of it and then changed again: the abort undoes the flushed change on
+     * disk as well, and a crash afterwards keeps the table as it was.
+     */
+    @Test public void abortAfterFlush() throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        byte[] original = table.readPage(pid).getPageData();
+        TransactionId tid = begin();
+        // not logged yet: the flush logs it
+        HeapPage p = page(tid, 0);
+        p.insertTuple(Utility.getHeapTuple(new int[]{0, nextValue++}));
+        p.markDirty(true, tid);
+        delete(tid, 1);
+        Database.getBufferPool().flushPages(tid);
+        assertFalse(Arrays.equals(original, table.readPage(pid).getPageData()));
+
+        insert(tid, 0);
+        delete(tid, 0);
+        Database.getLogFile().logAbort(tid);
+        assertTrue(Arrays.equals(original, table.readPage(pid).getPageData()));
+        SystemTestUtil.matchTuples(table, expected);
+
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /**
+     * Commits a transaction that, after a flush in the middle of it, undid
+     * the change the flush wrote: redo of the later change onto the
+     * flushed page must undo it again, so that change has to be logged
+     * against the flushed page.
+     */
+    @Test public void commitAfterFlush() throws Exception {
+        TransactionId tid = begin();
+        HeapPage p = page(tid, 0);
+        Tuple t = Utility.getHeapTuple(new int[]{0, nextValue++});
+        p.insertTuple(t);
+        p.markDirty(true, tid);
+        Database.getBufferPool().flushPages(tid);
+        p.deleteTuple(t);
+        logged(tid, p);
+        Database.getLogFile().logCommit(tid);
+
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /**
+     * A checkpoint lists a page as dirty, and the page reaches disk with
+     * later changes before the crash: redo replays the changes from the
+     * checkpoint's LSN onto the newer page and ends with the same page.
+     */
+    @Test public void redoOntoNewerPage() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = begin();
+        expected.remove(delete(tid, 0));
+        log.logCheckpoint();
+        // fill the freed slot, empty it and fill it again
+        insert(tid, 0);
+        delete(tid, 0);
+        expected.add(insert(tid, 0));
+        log.logCommit(tid);
+        Database.getBufferPool().flushPages(tid);
+
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+        crash();
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /** Rolling back a transaction that is not running fails. */
+    @Test public void rollbackFinished() throws Exception {
+        TransactionId tid = begin();
+        insert(tid, 0);
+        Database.getLogFile().logCommit(tid);
+        try {
+            Database.getLogFile().rollback(tid);
+            fail("expected exception");
+        } catch (java.util.NoSuchElementException e) {
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        byte[] buf = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        out.close();
+        in.close();
+    }
+
+    /** Copy a log file and its segments to a log file named to. */
+    private static void copyLog(File from, File to) throws IOException {
+        copy(from, to);
+        String prefix = from.getName() + ".";
+        for (File f : from.getAbsoluteFile().getParentFile().listFiles()) {
+            if (f.getName().startsWith(prefix)) {
+                copy(f, new File(to.getAbsoluteFile().getParentFile(),
+                                 to.getName() + "." + f.getName().substring(prefix.length())));
+            }
+        }
+    }
+
+    /**
+     * Builds a large log of committed inserts and deletes that are not on
+     * disk, and restarts from it with 1, 2 and 4 redo threads.
+     */
+    @Test public void restartScaling() throws Exception {
+        final int pages = 256;
+        final int transactions = 400;
+        final int changesPerTransaction = 250;
+        Random r = new Random(0);
+
+        File pristine = File.createTempFile("recovery", ".dat");
+        pristine.deleteOnExit();
+        HeapPage[] data = new HeapPage[pages];
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            data[pgNo] = new HeapPage(new HeapPageId(table.getId(), pgNo), HeapPage.createEmptyPageData());
+            if (pgNo >= PAGES) {
+                table.writePage(data[pgNo]);
+            }
+        }
+        copy(file, pristine);
+        for (int pgNo = 0; pgNo < PAGES; pgNo++) {
+            data[pgNo] = (HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo));
+        }
+
+        File logFile = File.createTempFile("recovery", ".log");
+        logFile.deleteOnExit();
+        LogFile log = new LogFile(logFile);
+        for (int x = 0; x < transactions; x++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int i = 0; i < changesPerTransaction; i++) {
+                HeapPage p = data[r.nextInt(pages)];
+                if (p.getNumEmptySlots() == 0 || (r.nextInt(3) == 0 && firstTuple(p) != null)) {
+                    p.deleteTuple(firstTuple(p));
+                } else {
+                    p.insertTuple(Utility.getHeapTuple(new int[]{x, i}));
+                }
+                log.logWrite(tid, p.getBeforeImage(), p);
+                p.setBeforeImage();
+            }
+            log.logCommit(tid);
+        }
+        byte[][] committed = new byte[pages][];
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            committed[pgNo] = data[pgNo].getPageData().clone();
+        }
+        // and one that is running at the crash
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        for (int pgNo = 0; pgNo < pages; pgNo += 7) {
+            HeapPage p = data[pgNo];
+            p.insertTuple(Utility.getHeapTuple(new int[]{-1, pgNo}));
+            log.logWrite(loser, p.getBeforeImage(), p);
+        }
+        log.force();
+        long records = log.getTotalRecords();
+        long size = log.getLogSize();
+
+        System.out.println("threads  restart  records/s       MB/s");
+        for (int threads : new int[]{1, 2, 4, 1, 2, 4}) {
+            copy(pristine, file);
+            File restartLog = File.createTempFile("recovery", ".log");
+            restartLog.deleteOnExit();
+            copyLog(logFile, restartLog);
+            Database.reset();
+            table = new HeapFile(file, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+            LogFile restart = new LogFile(restartLog);
+            restart.setRecoveryThreads(threads);
+            long start = System.nanoTime();
+            restart.recover();
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%7d %6.0fms %,10.0f %,10.1f\n", threads, secs * 1000,
+                    records / secs, size / secs / (1 << 20));
+
+            for (int pgNo = 0; pgNo < pages; pgNo++) {
+                Page p = table.readPage(new HeapPageId(table.getId(), pgNo));
+                assertTrue("page " + pgNo, Arrays.equals(committed[pgNo], p.getPageData()));
+            }
+            SystemTestUtil.deleteLog(restartLog);
+        }
+        SystemTestUtil.deleteLog(logFile);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Loads the same text table of short strings into a HeapFile, whose
+ * strings take Type.STRING_LEN + 4 bytes each, and into a SlottedFile of
+ * VARCHAR fields, and compares the rows per page and the time of a full
+ * SeqScan of each from disk.
+ */
+public class SlottedScanBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 100000;
+    private static final int ROUNDS = 3;
+
+    /** @return the number of tuples of a full scan, with a cold buffer pool. */
+    private static long scan(DbFile f) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        long n = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            n += t.getField(1).hashCode() == 0 ? 0 : 1;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    @Test public void shortStrings() throws Exception {
+        File text = File.createTempFile("names", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < ROWS; i++) {
+            out.println(i + ",user" + (i % 1000) + ",city" + (i % 37));
+        }
+        out.close();
+        String[] names = {"id", "name", "city"};
+
+        Type[] fixed = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+        File heapData = File.createTempFile("names", ".dat");
+        heapData.deleteOnExit();
+        HeapFileEncoder.convert(text, heapData, BufferPool.PAGE_SIZE, fixed.length, fixed);
+        HeapFile heap = new HeapFile(heapData, new TupleDesc(fixed, names));
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+
+        Type[] varying = {Type.INT_TYPE, Type.VARCHAR_TYPE, Type.VARCHAR_TYPE};
+        File slottedData = File.createTempFile("names", ".dat");
+        slottedData.deleteOnExit();
+        int pages = HeapFileEncoder.convertSlotted(text, slottedData, varying, ',');
+        SlottedFile slotted = new SlottedFile(slottedData, new TupleDesc(varying, names));
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+        assertEquals(pages, slotted.numPages());
+
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round < ROUNDS + 1; round++) {
+            long start = System.nanoTime();
+            assertEquals(ROWS, scan(heap));
+            long mid = System.nanoTime();
+            assertEquals(ROWS, scan(slotted));
+            // the first round warms up the JIT
+            if (round >= 1) {
+                best[0] = Math.min(best[0], mid - start);
+                best[1] = Math.min(best[1], System.nanoTime() - mid);
+            }
+        }
+
+        System.out.printf("%,d rows: heap pages %,d (%d rows/page) scan %,.0f rows/s; "
+                + "slotted pages %,d (%d rows/page) scan %,.0f rows/s\n",
+                ROWS, heap.numPages(), ROWS / heap.numPages(), ROWS / (best[0] / 1e9),
+                slotted.numPages(), ROWS / slotted.numPages(), ROWS / (best[1] / 1e9));
+        assertTrue(slotted.numPages() * 5 < heap.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SlottedScanBenchmarkTest.class);
+    }
+}
@@ -166,6 +166,22 @@ public class SystemTestUtil {
         return memAfter;
     }
 	
+	/**
+	 * Deletes a log file and its segment files.
+	 * @param log the file a LogFile was created with
+	 */
+	public static void deleteLog(File log) {
+		File[] files = log.getAbsoluteFile().getParentFile().listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().startsWith(log.getName() + ".")) {
+					f.delete();
+				}
+			}
+		}
+		log.delete();
+	}
+
 	/**
 	 * Generates a unique string each time it is called.
 	 * @return a new unique UUID as a string, using java.util.UUID
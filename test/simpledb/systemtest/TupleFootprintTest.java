@@ -0,0 +1,102 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Measures the heap taken by tuples read from a table, against tuples laid
+ * out as a Field[] of boxed fields plus a RecordId, as Tuple used to be.
+ */
+public class TupleFootprintTest extends SimpleDbTestBase {
+    private static final int ROWS = 200000;
+
+    /** The old layout of a tuple. */
+    @SuppressWarnings("unused")
+    private static class BoxedTuple {
+        final TupleDesc td;
+        final Field[] fields;
+        final RecordId rid;
+
+        BoxedTuple(Tuple t) {
+            td = t.getTupleDesc();
+            fields = new Field[td.numFields()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = t.getField(i);
+            }
+            rid = t.getRecordId();
+        }
+    }
+
+    /** @return the bytes freed when the list is cleared. */
+    private static long retained(ArrayList<?> list) {
+        long with = SystemTestUtil.getMemoryFootprint();
+        list.clear();
+        list.trimToSize();
+        return with - SystemTestUtil.getMemoryFootprint();
+    }
+
+    private ArrayList<Tuple> scan(HeapFile f) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(ROWS);
+        DbFileIterator it = f.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        // pages must not be counted
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(ROWS, tuples.size());
+        return tuples;
+    }
+
+    private void measure(HeapFile f, String label) throws Exception {
+        long compact = retained(scan(f));
+
+        ArrayList<Tuple> tuples = scan(f);
+        ArrayList<BoxedTuple> boxed = new ArrayList<BoxedTuple>(ROWS);
+        for (Tuple t : tuples) {
+            boxed.add(new BoxedTuple(t));
+        }
+        tuples = null;
+        long boxedBytes = retained(boxed);
+
+        System.out.printf("%s: %d bytes/tuple compact, %d bytes/tuple boxed, on disk %d\n",
+                label, compact / ROWS, boxedBytes / ROWS, f.getTupleDesc().getSize());
+        assertTrue(compact < boxedBytes);
+    }
+
+    @Test public void intTuples() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        measure(f, "2 ints");
+        HeapFile f5 = SystemTestUtil.createRandomHeapFile(5, ROWS, null, null);
+        measure(f5, "5 ints");
+    }
+
+    @Test public void getInt() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 2000, null, expected);
+        DbFileIterator it = f.iterator(new TransactionId());
+        it.open();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int i = 0; i < 3; i++) {
+                assertEquals(expected.get(row).get(i).intValue(), t.getInt(i));
+                assertEquals(new IntField(t.getInt(i)), t.getField(i));
+            }
+            row++;
+        }
+        it.close();
+        assertEquals(expected.size(), row);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TupleFootprintTest.class);
+    }
+}